@@ -26,6 +26,7 @@ import java.io.BufferedOutputStream
 import java.io.File
 import java.io.FileOutputStream
 import java.io.IOException
+import java.io.InputStream
 import java.util.concurrent.atomic.AtomicBoolean
 
 import retrofit2.Call
@@ -37,6 +38,8 @@ import xyz.klinker.messenger.api.implementation.firebase.FirebaseUploadCallback
 import xyz.klinker.messenger.api.implementation.retrofit.AddConversationRetryableCallback
 import xyz.klinker.messenger.api.implementation.retrofit.AddMessageRetryableCallback
 import xyz.klinker.messenger.api.implementation.retrofit.LoggingRetryableCallback
+import xyz.klinker.messenger.encryption.ChunkedDecryptionInputStream
+import xyz.klinker.messenger.encryption.ChunkedEncryptionInputStream
 import xyz.klinker.messenger.encryption.EncryptionUtils
 
 /**
@@ -46,7 +49,6 @@ object ApiUtils {
     const val RETRY_COUNT = 4
 
     private const val TAG = "ApiUtils"
-    private const val MAX_SIZE = (1024 * 1024 * 5).toLong()
     private const val FIREBASE_STORAGE_URL = "gs://messenger-42616.appspot.com"
 
     fun isCallSuccessful(response: Response<*>): Boolean {
@@ -61,6 +63,13 @@ object ApiUtils {
     val api: Api by lazy { ApiAccessor.create(environment) }
     private var folderRef: StorageReference? = null
 
+    /**
+     * Whether media gets uploaded in the chunked format. Web, desktop and older Android clients can
+     * only decrypt the legacy whole file format, so this stays off until all of them can read the
+     * chunked one. Downloads handle both formats either way.
+     */
+    var uploadChunkedMedia = false
+
     /**
      * Logs into the server.
      */
@@ -489,8 +498,7 @@ object ApiUtils {
             }
         } else {
             saveFirebaseFolderRef(accountId)
-            val bytes = BinaryUtils.getMediaBytes(context, data, mimeType, true)
-            uploadBytesToFirebase(accountId, bytes, deviceId, encryptionUtils, FirebaseUploadCallback {
+            uploadMediaToFirebase(context, accountId, data, mimeType, deviceId, encryptionUtils, FirebaseUploadCallback {
                 val body = MessageBody(deviceId, deviceConversationId,
                         messageType, encryptionUtils.encrypt("firebase -1"),
                         timestamp, encryptionUtils.encrypt(mimeType), read, seen,
@@ -850,7 +858,69 @@ object ApiUtils {
     }
 
     /**
-     * Uploads a byte array of encrypted data to firebase.
+     * Uploads a piece of media to firebase. With chunked uploads, the media is streamed from its
+     * uri and encrypted as it is read, see ChunkedEncryptionInputStream, instead of being read in to
+     * memory first. Otherwise, it is uploaded in the legacy format with uploadBytesToFirebase.
+     *
+     * @param uri the uri of the media to upload.
+     * @param mimeType the mime type of the media. Images are scaled down before they are uploaded.
+     * @param messageId the message id that the data belongs to.
+     * @param encryptionUtils the utils to encrypt the media with.
+     */
+    fun uploadMediaToFirebase(context: Context, accountId: String?, uri: String?, mimeType: String?, messageId: Long,
+                              encryptionUtils: EncryptionUtils?, callback: FirebaseUploadCallback, retryCount: Int) {
+        if (!uploadChunkedMedia) {
+            val bytes = BinaryUtils.getMediaBytes(context, uri, mimeType, true)
+            uploadBytesToFirebase(accountId, bytes, messageId, encryptionUtils, callback, retryCount)
+            return
+        }
+
+        if (encryptionUtils == null || retryCount > RETRY_COUNT) {
+            callback.onUploadFinished()
+            return
+        }
+
+        if (folderRef == null) {
+            saveFirebaseFolderRef(accountId)
+            if (folderRef == null) {
+                callback.onUploadFinished()
+                return
+            }
+        }
+
+        try {
+            val media = BinaryUtils.openMediaStream(context, uri, mimeType, true)
+            if (media == null) {
+                callback.onUploadFinished()
+                return
+            }
+
+            Log.v(TAG, "starting chunked upload for $messageId")
+            folderRef!!.child(messageId.toString() + "").putStream(ChunkedEncryptionInputStream(media, encryptionUtils))
+                    .addOnSuccessListener {
+                        Log.v(TAG, "finished uploading and exiting for $messageId")
+                        media.closeSilent()
+                        callback.onUploadFinished()
+                    }
+                    .addOnFailureListener { e ->
+                        Log.e(TAG, "failed to upload file", e)
+                        media.closeSilent()
+                        uploadMediaToFirebase(context, accountId, uri, mimeType, messageId, encryptionUtils, callback, retryCount + 1)
+                    }
+        } catch (e: Throwable) {
+            e.printStackTrace()
+            callback.onUploadFinished()
+        }
+    }
+
+    private fun InputStream.closeSilent() = try {
+        close()
+    } catch (e: IOException) {
+    }
+
+    /**
+     * Uploads a byte array of encrypted data to firebase, in the legacy format that every client
+     * can read.
      *
      * @param bytes the byte array to upload.
      * @param messageId the message id that the data belongs to.
@@ -899,7 +969,8 @@ object ApiUtils {
     }
 
     /**
-     * Downloads and decrypts a file from firebase, using a callback for when the response is done
+     * Downloads and decrypts a file from firebase, using a callback for when the response is done.
+     * The file is decrypted as it streams in, and files in the older, whole file format still work.
      *
      * @param file the location on your device to save to.
      * @param messageId the id of the message to grab so we can create a firebase storage ref.
@@ -925,19 +996,18 @@ object ApiUtils {
         try {
             val fileRef = folderRef!!.child(messageId.toString() + "")
             Log.v(TAG, "starting download for $messageId")
-            fileRef.getBytes(MAX_SIZE)
-                    .addOnSuccessListener { bytes ->
-                        val bytes = encryptionUtils.decryptData(String(bytes))
-
-                        try {
-                            val bos = BufferedOutputStream(FileOutputStream(file))
-                            bos.write(bytes)
-                            bos.flush()
-                            bos.close()
-                        } catch (e: Exception) {
-                            e.printStackTrace()
-                        }
+            val download = fileRef.getStream { _, stream ->
+                try {
+                    ChunkedDecryptionInputStream(stream, encryptionUtils).use { decrypted ->
+                        BufferedOutputStream(FileOutputStream(file)).use { decrypted.copyTo(it) }
+                    }
+                } catch (e: IOException) {
+                    file.delete()
+                    throw e
+                }
+            }
 
+            download.addOnSuccessListener {
                         Log.v(TAG, "finished downloading $messageId")
                         callback.onDownloadComplete()
                     }
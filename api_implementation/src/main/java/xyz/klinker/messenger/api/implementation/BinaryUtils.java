@@ -22,6 +22,7 @@ import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.provider.MediaStore;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -63,6 +64,25 @@ public class BinaryUtils {
         return bytes;
     }
 
+    /**
+     * Opens the media for reading, without loading it in to memory. Images still get scaled and
+     * compressed first, so those are read from the (much smaller) compressed bytes.
+     *
+     * @return the stream, or null if the media could not be opened.
+     */
+    public static InputStream openMediaStream(Context context, String uri, String mimeType, boolean scale) {
+        if (mimeType.startsWith("image/") && !mimeType.equals("image/gif")) {
+            return new ByteArrayInputStream(getMediaBytes(context, uri, mimeType, scale));
+        }
+
+        try {
+            return context.getContentResolver().openInputStream(Uri.parse(uri));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     private static byte[] readBytes(InputStream inputStream) throws IOException {
         ByteArrayOutputStream byteBuffer = new ByteArrayOutputStream();
 
@@ -27,7 +27,7 @@ import xyz.klinker.messenger.api.implementation.retrofit.ApiErrorPersister
 import xyz.klinker.messenger.shared.data.DataSource
 import xyz.klinker.messenger.shared.data.Settings
 import xyz.klinker.messenger.shared.data.model.RetryableRequest
-import xyz.klinker.messenger.shared.service.FirebaseHandlerService
+import xyz.klinker.messenger.shared.service.FirebaseEventQueue
 import xyz.klinker.messenger.shared.service.FirebaseResetService
 import xyz.klinker.messenger.shared.service.QuickComposeNotificationService
 import xyz.klinker.messenger.shared.util.*
@@ -78,7 +78,7 @@ class MessengerApplication : FirebaseApplication(), ApiErrorPersister, AccountIn
     override fun getFirebaseMessageHandler(): FirebaseMessageHandler {
         return object : FirebaseMessageHandler {
             override fun handleMessage(application: Application, operation: String, data: String) {
-                Thread { FirebaseHandlerService.process(application, operation, data) }.start()
+                FirebaseEventQueue.enqueue(application, operation, data)
             }
 
             override fun handleDelete(application: Application) {
@@ -98,7 +98,7 @@ class MessengerApplication : FirebaseApplication(), ApiErrorPersister, AccountIn
         }
 
         Thread {
-            DataSource.insertRetryableRequest(this,
+            DataSource.replaceRetryableRequest(this,
                     RetryableRequest(RetryableRequest.TYPE_ADD_CONVERSATION, conversationId, TimeUtils.now))
         }.start()
     }
@@ -109,7 +109,7 @@ class MessengerApplication : FirebaseApplication(), ApiErrorPersister, AccountIn
         }
 
         Thread {
-            DataSource.insertRetryableRequest(this,
+            DataSource.replaceRetryableRequest(this,
                     RetryableRequest(RetryableRequest.TYPE_ADD_MESSAGE, messageId, TimeUtils.now))
         }.start()
     }
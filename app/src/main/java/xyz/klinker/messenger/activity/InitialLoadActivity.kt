@@ -187,7 +187,10 @@ open class InitialLoadActivity : AppCompatActivity(), ProgressUpdateListener {
                         }
                     }
 
-                    registerReceiver(downloadReceiver, IntentFilter(ApiDownloadService.ACTION_DOWNLOAD_FINISHED))
+                    // if the download didn't finish, it will resume in the background
+                    val filter = IntentFilter(ApiDownloadService.ACTION_DOWNLOAD_FINISHED)
+                    filter.addAction(ApiDownloadService.ACTION_DOWNLOAD_INCOMPLETE)
+                    registerReceiver(downloadReceiver, filter)
                 }
                 ActivateActivity.RESULT_FAILED -> finish()
             }
@@ -216,6 +219,7 @@ open class InitialLoadActivity : AppCompatActivity(), ProgressUpdateListener {
         Thread {
             val context = applicationContext
             val startTime = TimeUtils.now
+            ContactLookupCache.resetStats()
 
             val myName = name
             val myPhoneNumber = PhoneNumberUtils.format(phoneNumber)
@@ -230,20 +234,23 @@ open class InitialLoadActivity : AppCompatActivity(), ProgressUpdateListener {
             try {
                 source.insertConversations(conversations, context, this@InitialLoadActivity)
             } catch (e: Exception) {
+                // the conversations that were already committed are skipped on the second try
                 source.ensureActionable(this)
                 source.insertConversations(conversations, context, this@InitialLoadActivity)
             }
 
             handler!!.post { progress.isIndeterminate = true }
 
-            val contacts = ContactUtils.queryContacts(context, source).toMutableList()
-            contacts.addAll(ContactUtils.queryContactGroups(this).map { it.toContact() })
-
-            source.insertContacts(this, contacts, null)
+            // write the contacts as they are read, instead of loading the whole address book first
+            source.insertContacts(this) { insert ->
+                ContactUtils.queryContacts(context, source, insert)
+                ContactUtils.queryContactGroups(this).forEach { insert(it.toContact()) }
+            }
 
             val importTime = TimeUtils.now - startTime
             AnalyticsHelper.importFinished(this, importTime)
             Log.v("initial_load", "load took $importTime ms")
+            ContactLookupCache.logStats("initial_load")
 
             try {
                 DualSimUtils.init(context)
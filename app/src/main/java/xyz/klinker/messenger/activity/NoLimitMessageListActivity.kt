@@ -1,7 +1,5 @@
 package xyz.klinker.messenger.activity
 
-import android.content.Context
-import android.content.Intent
 import android.os.Bundle
 import androidx.appcompat.app.AppCompatActivity
 import xyz.klinker.messenger.R
@@ -45,12 +43,5 @@ open class NoLimitMessageListActivity : AppCompatActivity() {
 
     companion object {
         private val EXTRA_CONVERSATION_ID = "conversation_id"
-
-        fun start(context: Context?, conversationId: Long) {
-            val intent = Intent(context, NoLimitMessageListActivity::class.java)
-            intent.putExtra(EXTRA_CONVERSATION_ID, conversationId)
-
-            context?.startActivity(intent)
-        }
     }
 }
@@ -107,9 +107,12 @@ class MainAccountController(private val activity: MessengerActivity) {
                 }
             }
 
-            activity.registerReceiver(downloadReceiver,
-                    IntentFilter(ApiDownloadService.ACTION_DOWNLOAD_FINISHED))
+            val filter = IntentFilter(ApiDownloadService.ACTION_DOWNLOAD_FINISHED)
+            filter.addAction(ApiDownloadService.ACTION_DOWNLOAD_INCOMPLETE)
+            activity.registerReceiver(downloadReceiver, filter)
 
+            // a resync downloads everything again, rather than resuming an older download
+            ApiDownloadService.clearCheckpoint(activity)
             ApiDownloadService.start(activity)
 
             try {
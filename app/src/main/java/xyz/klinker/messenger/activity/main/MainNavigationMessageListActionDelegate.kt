@@ -9,18 +9,15 @@ import android.widget.Toast
 import xyz.klinker.messenger.activity.ContactSettingsActivity
 import xyz.klinker.messenger.activity.MediaGridActivity
 import xyz.klinker.messenger.activity.MessengerActivity
-import xyz.klinker.messenger.activity.NoLimitMessageListActivity
 import xyz.klinker.messenger.activity.compose.ComposeActivity
 import xyz.klinker.messenger.activity.compose.ComposeConstants
 import xyz.klinker.messenger.adapter.ContactAdapter
 import xyz.klinker.messenger.fragment.BlacklistFragment
 import xyz.klinker.messenger.fragment.ScheduledMessagesFragment
 import xyz.klinker.messenger.fragment.conversation.ConversationListFragment
-import xyz.klinker.messenger.fragment.message.load.MessageListLoader
 import xyz.klinker.messenger.shared.data.DataSource
 import xyz.klinker.messenger.shared.data.model.Conversation
 import xyz.klinker.messenger.shared.util.ContactUtils
-import xyz.klinker.messenger.shared.util.CursorUtil
 import xyz.klinker.messenger.shared.util.ImageUtils
 import xyz.klinker.messenger.shared.util.listener.ContactClickedListener
 import java.util.ArrayList
@@ -310,15 +307,6 @@ class MainNavigationMessageListActionDelegate(private val activity: MessengerAct
                         clipboard!!.setPrimaryClip(clip)
                     }
 
-            val messages = source.getMessages(activity, conversation.id)
-
-            if (messages.count > MessageListLoader.MESSAGE_LIMIT) {
-                builder.setNegativeButton(R.string.menu_view_full_conversation) { _, _ ->
-                    NoLimitMessageListActivity.start(activity, conversation.id) }
-            }
-
-            CursorUtil.closeSilent(messages)
-
             builder.show()
             return true
         } else {
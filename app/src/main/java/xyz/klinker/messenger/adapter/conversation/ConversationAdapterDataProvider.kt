@@ -53,6 +53,29 @@ class ConversationAdapterDataProvider(private val adapter: ConversationListAdapt
         sectionCounts.add(SectionType(currentSection, currentCount))
     }
 
+    /**
+     * Lays out the headers and conversations in the same order that the sectioned adapter displays
+     * them, so that two layouts can be compared with the ConversationListDiffCallback.
+     */
+    fun getRows(showHeadersForEmptySections: Boolean): List<Any> {
+        val rows = ArrayList<Any>(conversations.size + sectionCounts.size)
+        var conversationIndex = 0
+
+        for ((section, sectionType) in sectionCounts.withIndex()) {
+            if (sectionType.count > 0 || showHeadersForEmptySections) {
+                rows.add(ConversationListDiffCallback.Header(sectionType.type, sectionType.count, section))
+            }
+
+            for (i in 0 until sectionType.count) {
+                if (conversationIndex < conversations.size) {
+                    rows.add(conversations[conversationIndex++])
+                }
+            }
+        }
+
+        return rows
+    }
+
     fun removeItem(position: Int, reorderType: ReorderType): Boolean {
         var position = position
         if (position == -1) {
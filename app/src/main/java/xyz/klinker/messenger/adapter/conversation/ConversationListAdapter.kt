@@ -20,6 +20,7 @@ import android.os.Build
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
+import androidx.recyclerview.widget.DiffUtil
 import com.afollestad.sectionedrecyclerview.SectionedRecyclerViewAdapter
 import com.bumptech.glide.Glide
 import xyz.klinker.messenger.R
@@ -59,11 +60,26 @@ class ConversationListAdapter(context: MessengerActivity, initialConversations:
     override val sectionCounts: MutableList<SectionType>
         get() = dataProvider.sectionCounts
 
+    private val showHeadersForEmptySections: Boolean
+
     init {
         this.conversations = initialConversations.toMutableList()
         if (this.multiSelector != null) this.multiSelector.setAdapter(this)
 
-        shouldShowHeadersForEmptySections(showHeaderAboutTextingOnline())
+        showHeadersForEmptySections = showHeaderAboutTextingOnline()
+        shouldShowHeadersForEmptySections(showHeadersForEmptySections)
+    }
+
+    /**
+     * Swaps in a new list of conversations, only notifying the rows that changed, instead of
+     * rebinding the whole list.
+     */
+    fun updateConversations(newConversations: List<Conversation>) {
+        val oldRows = dataProvider.getRows(showHeadersForEmptySections)
+        this.conversations = newConversations.toMutableList()
+        val newRows = dataProvider.getRows(showHeadersForEmptySections)
+
+        DiffUtil.calculateDiff(ConversationListDiffCallback(oldRows, newRows)).dispatchUpdatesTo(this)
     }
 
     override fun getSectionCount() = sectionCounts.size
@@ -0,0 +1,52 @@
+package xyz.klinker.messenger.adapter.conversation
+
+import androidx.recyclerview.widget.DiffUtil
+import xyz.klinker.messenger.shared.data.model.Conversation
+
+/**
+ * Compares two snapshots of the rows in the conversation list, so that a refresh only has to
+ * notify the adapter about the headers and conversations that actually changed.
+ *
+ * Each row is either a Conversation or a Header, in the same order that the sectioned adapter
+ * lays them out.
+ */
+class ConversationListDiffCallback(private val oldRows: List<Any>, private val newRows: List<Any>)
+    : DiffUtil.Callback() {
+
+    override fun getOldListSize() = oldRows.size
+    override fun getNewListSize() = newRows.size
+
+    override fun areItemsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean {
+        val oldRow = oldRows[oldItemPosition]
+        val newRow = newRows[newItemPosition]
+
+        return when {
+            oldRow is Conversation && newRow is Conversation -> oldRow.id == newRow.id
+            oldRow is Header && newRow is Header -> oldRow.type == newRow.type
+            else -> false
+        }
+    }
+
+    override fun areContentsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean {
+        val oldRow = oldRows[oldItemPosition]
+        val newRow = newRows[newItemPosition]
+
+        return when {
+            oldRow is Conversation && newRow is Conversation -> displaysTheSame(oldRow, newRow)
+            oldRow is Header && newRow is Header -> oldRow == newRow
+            else -> false
+        }
+    }
+
+    private fun displaysTheSame(old: Conversation, new: Conversation) = old.title == new.title &&
+            old.snippet == new.snippet && old.timestamp == new.timestamp && old.read == new.read &&
+            old.pinned == new.pinned && old.mute == new.mute && old.private == new.private &&
+            old.imageUri == new.imageUri && old.phoneNumbers == new.phoneNumbers &&
+            old.colors.color == new.colors.color
+
+    /**
+     * A section header. The header binds its section index in to its click listeners, so a header
+     * that has moved to a different section index needs to be bound again.
+     */
+    data class Header(val type: Int, val count: Int, val section: Int)
+}
@@ -3,7 +3,6 @@ package xyz.klinker.messenger.adapter.message
 import android.content.ActivityNotFoundException
 import android.content.Intent
 import android.net.Uri
-import android.util.Patterns
 import androidx.fragment.app.FragmentActivity
 import com.klinker.android.link_builder.Link
 import com.klinker.android.link_builder.TouchableMovementMethod
@@ -16,7 +15,6 @@ import xyz.klinker.messenger.fragment.bottom_sheet.LinkLongClickFragment
 import xyz.klinker.messenger.shared.data.Settings
 import xyz.klinker.messenger.shared.data.model.Message
 import xyz.klinker.messenger.shared.util.PhoneNumberUtils
-import xyz.klinker.messenger.shared.util.Regex
 import xyz.klinker.messenger.shared.util.media.parsers.ArticleParser
 
 @Suppress("DEPRECATION")
@@ -34,15 +32,34 @@ class MessageLinkApplier(private val fragment: MessageListFragment, private val
         }
 
         holder.message?.movementMethod = TouchableMovementMethod()
-        holder.message?.applyLinks(
-                buildEmailsLink(holder, linkColor),
-                buildWebUrlsLink(holder, linkColor),
-                buildPhoneNumbersLink(holder, linkColor)
-        )
+
+        // the ranges were usually found when the conversation was loaded, so there is no pattern
+        // matching to do here. Each link is applied by its text, rather than its pattern.
+        val ranges = MessageLinkCache.getLinks(message.id, message.data)
+        if (ranges.isEmpty()) {
+            return
+        }
+
+        val links = mutableListOf<Link>()
+        val applied = HashSet<String>()
+        for (i in ranges.indices step 3) {
+            val text = message.data!!.substring(ranges[i], ranges[i + 1])
+            if (!applied.add(ranges[i + 2].toString() + text)) {
+                continue
+            }
+
+            links.add(when (ranges[i + 2]) {
+                MessageLinkCache.TYPE_EMAIL -> buildEmailsLink(holder, linkColor, text)
+                MessageLinkCache.TYPE_WEB_URL -> buildWebUrlsLink(holder, linkColor, text)
+                else -> buildPhoneNumbersLink(holder, linkColor, text)
+            })
+        }
+
+        holder.message?.applyLinks(*links.toTypedArray())
     }
 
-    private fun buildEmailsLink(holder: MessageViewHolder, linkColor: Int): Link {
-        val emails = Link(Patterns.EMAIL_ADDRESS)
+    private fun buildEmailsLink(holder: MessageViewHolder, linkColor: Int, text: String): Link {
+        val emails = Link(text)
         emails.textColor = linkColor
         emails.highlightAlpha = .4f
         emails.setOnClickListener { clickedText ->
@@ -60,8 +77,8 @@ class MessageLinkApplier(private val fragment: MessageListFragment, private val
         return emails
     }
 
-    private fun buildWebUrlsLink(holder: MessageViewHolder, linkColor: Int): Link {
-        val urls = Link(Regex.WEB_URL)
+    private fun buildWebUrlsLink(holder: MessageViewHolder, linkColor: Int, text: String): Link {
+        val urls = Link(text)
         urls.textColor = linkColor
         urls.highlightAlpha = .4f
 
@@ -109,8 +126,8 @@ class MessageLinkApplier(private val fragment: MessageListFragment, private val
         return urls
     }
 
-    private fun buildPhoneNumbersLink(holder: MessageViewHolder, linkColor: Int): Link {
-        return Link(Regex.PHONE)
+    private fun buildPhoneNumbersLink(holder: MessageViewHolder, linkColor: Int, text: String): Link {
+        return Link(text)
                 .setTextColor(linkColor)
                 .setHighlightAlpha(.4f)
                 .setOnClickListener {
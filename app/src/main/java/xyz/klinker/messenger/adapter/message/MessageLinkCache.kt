@@ -0,0 +1,102 @@
+package xyz.klinker.messenger.adapter.message
+
+import android.util.LruCache
+import android.util.Patterns
+import xyz.klinker.messenger.shared.data.MimeType
+import xyz.klinker.messenger.shared.util.Regex
+import java.util.regex.Pattern
+
+/**
+ * Remembers where the email addresses, web links, and phone numbers are in each text message.
+ *
+ * Matching the link patterns is slow, the web url one especially, so the loader finds the links
+ * for a conversation on its background thread, and binding a message bubble just looks up the
+ * ranges here. A message that isn't cached yet gets matched when it is bound, the same as before.
+ */
+object MessageLinkCache {
+
+    const val TYPE_EMAIL = 0
+    const val TYPE_WEB_URL = 1
+    const val TYPE_PHONE = 2
+
+    private const val MAX_SIZE = 1000
+    private val EMPTY = IntArray(0)
+
+    private val patterns: Array<Pattern> by lazy { arrayOf(Patterns.EMAIL_ADDRESS, Regex.WEB_URL, Regex.PHONE) }
+    private val cache = LruCache<Long, Links>(MAX_SIZE)
+
+    /**
+     * The number of times that a message's links were looked up and found in the cache, since
+     * the process started.
+     */
+    val hitCount: Int
+        get() = cache.hitCount()
+
+    /**
+     * The number of times that a message's links weren't cached, since the process started.
+     */
+    val missCount: Int
+        get() = cache.missCount()
+
+    /**
+     * Finds the links in the text messages between start and end that aren't cached yet, newest
+     * first. This should be done off of the UI thread.
+     */
+    fun prefetch(messages: MessageListSnapshot, start: Int = 0, end: Int = messages.count) {
+        var prefetched = 0
+        var i = end - 1
+        while (i >= start && prefetched < MAX_SIZE) {
+            if (messages.getMimeType(i) == MimeType.TEXT_PLAIN) {
+                getLinks(messages.getId(i), messages.getData(i))
+                prefetched++
+            }
+
+            i--
+        }
+    }
+
+    /**
+     * Gets the links in the given message.
+     *
+     * @return the start, end, and TYPE_ of each link, one after the other.
+     */
+    fun getLinks(messageId: Long, text: String?): IntArray {
+        if (text == null || text.isEmpty()) {
+            return EMPTY
+        }
+
+        val cached = cache.get(messageId)
+        if (cached != null && cached.text == text) {
+            return cached.ranges
+        }
+
+        val ranges = findLinks(text)
+        cache.put(messageId, Links(text, ranges))
+        return ranges
+    }
+
+    fun clear() {
+        cache.evictAll()
+    }
+
+    internal fun findLinks(text: String): IntArray {
+        var ranges: MutableList<Int>? = null
+
+        for (type in patterns.indices) {
+            val matcher = patterns[type].matcher(text)
+            while (matcher.find()) {
+                if (ranges == null) {
+                    ranges = mutableListOf()
+                }
+
+                ranges.add(matcher.start())
+                ranges.add(matcher.end())
+                ranges.add(type)
+            }
+        }
+
+        return ranges?.toIntArray() ?: EMPTY
+    }
+
+    private class Links(val text: String, val ranges: IntArray)
+}
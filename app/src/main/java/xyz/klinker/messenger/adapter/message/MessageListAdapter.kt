@@ -18,8 +18,6 @@ package xyz.klinker.messenger.adapter.message
 
 import android.annotation.SuppressLint
 import android.content.Context
-import android.database.Cursor
-import android.os.Build
 import android.util.Log
 import android.view.LayoutInflater
 import android.view.ViewGroup
@@ -29,9 +27,7 @@ import com.google.android.material.snackbar.Snackbar
 import com.l4digital.fastscroll.FastScroller
 import xyz.klinker.messenger.R
 import xyz.klinker.messenger.adapter.view_holder.MessageViewHolder
-import xyz.klinker.messenger.api.implementation.Account
 import xyz.klinker.messenger.fragment.message.MessageListFragment
-import xyz.klinker.messenger.shared.data.FeatureFlags
 import xyz.klinker.messenger.shared.data.MimeType
 import xyz.klinker.messenger.shared.data.Settings
 import xyz.klinker.messenger.shared.data.model.Contact
@@ -47,13 +43,12 @@ import java.util.*
 /**
  * Adapter for displaying messages in a conversation.
  */
-class MessageListAdapter(messages: Cursor, private val receivedColor: Int, private val accentColor: Int, private val isGroup: Boolean,
+class MessageListAdapter(messages: MessageListSnapshot, private val receivedColor: Int, private val accentColor: Int, private val isGroup: Boolean,
                          private val fragment: MessageListFragment)
     : RecyclerView.Adapter<MessageViewHolder>(), MessageDeletedListener, FastScroller.SectionIndexer {
 
     private val activity: FragmentActivity? by lazy { fragment.activity }
 
-    private var ignoreSendingStatus: Boolean = false
     private var timestampHeight = DensityUtil.spToPx(activity, Settings.mediumFont + 2)
 
     private val dataProvider: MessageListDataProvider = MessageListDataProvider(this, fragment, messages)
@@ -68,15 +63,10 @@ class MessageListAdapter(messages: Cursor, private val receivedColor: Int, priva
 
     var snackbar: Snackbar? = null
 
-    val messages: Cursor
+    val messages: MessageListSnapshot
         get() = dataProvider.messages
 
     init {
-        ignoreSendingStatus = Account.exists() && !Account.primary
-        if (Build.FINGERPRINT == "robolectric" || FeatureFlags.REENABLE_SENDING_STATUS_ON_NON_PRIMARY) {
-            ignoreSendingStatus = false
-        }
-
         fragment.multiSelect.setAdapter(this)
     }
 
@@ -139,15 +129,7 @@ class MessageListAdapter(messages: Cursor, private val receivedColor: Int, priva
 
     @SuppressLint("SetTextI18n")
     override fun onBindViewHolder(holder: MessageViewHolder, position: Int) {
-        try {
-            dataProvider.messages.moveToPosition(position)
-        } catch (e: IllegalStateException) {
-            fragment.onBackPressed()
-            return
-        }
-
-        val message = Message()
-        message.fillFromCursor(dataProvider.messages)
+        val message = dataProvider.messages.getMessage(position)
 
         holder.messageId = message.id
         holder.mimeType = message.mimeType
@@ -196,7 +178,7 @@ class MessageListAdapter(messages: Cursor, private val receivedColor: Int, priva
                     holder.messageTime)
         }
 
-        stylingHelper.calculateAdjacentItems(dataProvider.messages, position)
+        stylingHelper.applyStyle(dataProvider.messages.getStyle(position), message.type)
                 .setMargins(holder.itemView)
                 .setBackground(holder.messageHolder, message.mimeType!!)
                 .applyTimestampHeight(holder.timestamp, timestampHeight)
@@ -220,64 +202,37 @@ class MessageListAdapter(messages: Cursor, private val receivedColor: Int, priva
         }
     }
 
-    override fun getItemCount() = try { dataProvider.messages.count } catch (e: Exception) { 0 }
-
-    override fun getItemViewType(position: Int): Int {
-        try {
-            dataProvider.messages.moveToPosition(position)
-            var type = dataProvider.messages.getInt(dataProvider.messages.getColumnIndex(Message.COLUMN_TYPE))
-            val mimeType = dataProvider.messages.getString(dataProvider.messages.getColumnIndex(Message.COLUMN_MIME_TYPE))
-            val time = dataProvider.messages.getLong(dataProvider.messages.getColumnIndex(Message.COLUMN_TIMESTAMP))
-
-            if (ignoreSendingStatus && type == Message.TYPE_SENDING) {
-                type = if (mimeType != null && (mimeType.contains("image") || mimeType.contains("video") || mimeType == MimeType.MEDIA_MAP))
-                    Message.TYPE_IMAGE_SENT else Message.TYPE_SENT
-            } else if (mimeType != null && (mimeType.contains("image") || mimeType.contains("video") || mimeType == MimeType.MEDIA_MAP)) {
-                type = when (type) {
-                    Message.TYPE_RECEIVED -> Message.TYPE_IMAGE_RECEIVED
-                    Message.TYPE_SENDING -> Message.TYPE_IMAGE_SENDING
-                    else -> Message.TYPE_IMAGE_SENT
-                }
-            } else if (Account.exists() && !Account.primary && type == Message.TYPE_SENDING && time < TimeUtils.now - TimeUtils.MINUTE) {
-                type = if (mimeType != null && (mimeType.contains("image") || mimeType.contains("video") || mimeType == MimeType.MEDIA_MAP))
-                    Message.TYPE_IMAGE_SENT else Message.TYPE_SENT
-            }
+    override fun getItemCount() = dataProvider.messages.count
 
-            return type
-        } catch (e: Exception) {
-            return -1
+    override fun getItemViewType(position: Int) = try {
+            dataProvider.messages.getViewType(position)
+        } catch (e: IndexOutOfBoundsException) {
+            -1
         }
 
-    }
-
     override fun getSectionText(position: Int): String {
-        if (position < 0) {
+        if (position < 0 || position >= dataProvider.messages.count) {
             return ""
         }
 
-        return try {
-            dataProvider.messages.moveToPosition(position)
-            val millis = dataProvider.messages.getLong(dataProvider.messages.getColumnIndex(Message.COLUMN_TIMESTAMP))
-            val date = Date(millis)
-
-            SimpleDateFormat("MMM d, yyyy", Locale.getDefault()).format(date)
-        } catch (e: Exception) {
-            fragment.onBackPressed()
-            ""
-        }
+        val date = Date(dataProvider.messages.getTimestamp(position))
+        return SimpleDateFormat("MMM d, yyyy", Locale.getDefault()).format(date)
     }
 
     override fun getItemId(position: Int) = try {
-            dataProvider.messages.moveToPosition(position)
-            dataProvider.messages.getLong(dataProvider.messages.getColumnIndex(Message.COLUMN_ID))
-        } catch (e: Exception) {
+            dataProvider.messages.getId(position)
+        } catch (e: IndexOutOfBoundsException) {
             -1L
         }
 
-    fun addMessage(recycler: RecyclerView, newMessages: Cursor) {
+    fun addMessage(recycler: RecyclerView, newMessages: MessageListSnapshot) {
         dataProvider.addMessage(recycler, newMessages)
     }
 
+    fun addOlderMessages(newMessages: MessageListSnapshot, addedCount: Int) {
+        dataProvider.addOlderMessages(newMessages, addedCount)
+    }
+
     override fun onMessageDeleted(context: Context, conversationId: Long, position: Int) {
         dataProvider.onMessageDeleted(context, conversationId, position)
     }
@@ -1,7 +1,6 @@
 package xyz.klinker.messenger.adapter.message
 
 import android.content.Context
-import android.database.Cursor
 import androidx.coordinatorlayout.widget.CoordinatorLayout
 import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
@@ -12,21 +11,18 @@ import xyz.klinker.messenger.fragment.message.MessageListFragment
 import xyz.klinker.messenger.fragment.message.load.MessageListLoader
 import xyz.klinker.messenger.shared.data.DataSource
 import xyz.klinker.messenger.shared.data.model.Message
-import xyz.klinker.messenger.shared.util.CursorUtil
 import xyz.klinker.messenger.shared.util.DensityUtil
 import xyz.klinker.messenger.shared.util.SnackbarAnimationFix
 
 class MessageListDataProvider(private val adapter: MessageListAdapter, private val fragment: MessageListFragment,
-                              initialCursor: Cursor) {
+                              initialMessages: MessageListSnapshot) {
 
     private val activity: MessengerActivity? by lazy { fragment.activity as MessengerActivity }
 
-    var messages = initialCursor
+    var messages = initialMessages
 
-    fun addMessage(recycler: RecyclerView, newMessages: Cursor) {
+    fun addMessage(recycler: RecyclerView, newMessages: MessageListSnapshot) {
         val initialCount = adapter.itemCount
-
-        CursorUtil.closeSilent(messages)
         messages = newMessages
 
         val finalCount = adapter.itemCount
@@ -48,10 +44,8 @@ class MessageListDataProvider(private val adapter: MessageListAdapter, private v
             if (Math.abs((recycler.layoutManager as LinearLayoutManager).findLastVisibleItemPosition() - initialCount) < 4) {
                 // near the bottom, scroll to the new item
                 recycler.layoutManager?.scrollToPosition(finalCount - 1)
-            } else if (messages.moveToLast()) {
-                val message = Message()
-                message.fillFromCursor(messages)
-                if (message.type == Message.TYPE_RECEIVED) {
+            } else if (messages.count > 0) {
+                if (messages.getType(messages.count - 1) == Message.TYPE_RECEIVED) {
                     val text = recycler.context.getString(R.string.new_message)
                     adapter.snackbar = Snackbar
                             .make(recycler, text, Snackbar.LENGTH_INDEFINITE)
@@ -71,6 +65,12 @@ class MessageListDataProvider(private val adapter: MessageListAdapter, private v
         }
     }
 
+    fun addOlderMessages(newMessages: MessageListSnapshot, addedCount: Int) {
+        messages = newMessages
+
+        adapter.notifyItemRangeInserted(0, addedCount)
+    }
+
     fun onMessageDeleted(context: Context, conversationId: Long, position: Int) {
         val source = DataSource
 
@@ -0,0 +1,141 @@
+package xyz.klinker.messenger.adapter.message
+
+import android.database.Cursor
+import android.os.Build
+import xyz.klinker.messenger.api.implementation.Account
+import xyz.klinker.messenger.shared.data.FeatureFlags
+import xyz.klinker.messenger.shared.data.MimeType
+import xyz.klinker.messenger.shared.data.model.Message
+import xyz.klinker.messenger.shared.util.MessageListStylingHelper
+import xyz.klinker.messenger.shared.util.TimeUtils
+
+/**
+ * An immutable copy of the messages that the message list is displaying.
+ *
+ * It is read out of the cursor on the loader's background thread, with the view type and the
+ * bubble styling for every message worked out up front, so that binding a view only has to look
+ * things up in these arrays. The mime types, senders, and SIM numbers repeat a lot through a
+ * conversation, so each distinct one is only stored once, in the string table.
+ */
+class MessageListSnapshot private constructor(val count: Int) {
+
+    private val ids = LongArray(count)
+    private val timestamps = LongArray(count)
+    private val types = IntArray(count)
+    private val viewTypes = IntArray(count)
+    private val styles = IntArray(count)
+    private val mimeTypes = IntArray(count)
+    private val senders = IntArray(count)
+    private val simNumbers = IntArray(count)
+    private val data = arrayOfNulls<String>(count)
+    private var strings: Array<String?> = emptyArray()
+
+    fun getId(position: Int) = ids[position]
+    fun getTimestamp(position: Int) = timestamps[position]
+    fun getType(position: Int) = types[position]
+    fun getViewType(position: Int) = viewTypes[position]
+    fun getStyle(position: Int) = styles[position]
+    fun getMimeType(position: Int) = string(mimeTypes[position])
+    fun getData(position: Int) = data[position]
+
+    fun indexOf(messageId: Long) = ids.indexOf(messageId)
+
+    /**
+     * Builds the Message that is displayed at the given position.
+     */
+    fun getMessage(position: Int): Message {
+        val message = Message()
+        message.id = ids[position]
+        message.type = types[position]
+        message.data = data[position]
+        message.timestamp = timestamps[position]
+        message.mimeType = string(mimeTypes[position])
+        message.from = string(senders[position])
+        message.simPhoneNumber = string(simNumbers[position])
+        return message
+    }
+
+    private fun string(index: Int) = if (index == -1) null else strings[index]
+
+    companion object {
+
+        /**
+         * Reads all of the messages out of the cursor. This should be done off of the UI thread.
+         */
+        fun from(cursor: Cursor, ignoreSendingStatus: Boolean = ignoreSendingStatus()) =
+                from(listOf(cursor), ignoreSendingStatus)
+
+        /**
+         * Reads all of the messages out of each of the cursors, one after the other.
+         */
+        fun from(cursors: List<Cursor>, ignoreSendingStatus: Boolean = ignoreSendingStatus()): MessageListSnapshot {
+            val snapshot = MessageListSnapshot(cursors.sumBy { if (it.columnCount == 0) 0 else it.count })
+            val stringTable = HashMap<String, Int>()
+            val strings = mutableListOf<String?>()
+
+            fun intern(value: String?) = if (value == null) -1 else stringTable.getOrPut(value) {
+                strings.add(value)
+                strings.size - 1
+            }
+
+            var row = 0
+            for (cursor in cursors) {
+                if (cursor.columnCount == 0 || !cursor.moveToFirst()) {
+                    continue
+                }
+
+                val columnId = cursor.getColumnIndex(Message.COLUMN_ID)
+                val columnType = cursor.getColumnIndex(Message.COLUMN_TYPE)
+                val columnData = cursor.getColumnIndex(Message.COLUMN_DATA)
+                val columnTimestamp = cursor.getColumnIndex(Message.COLUMN_TIMESTAMP)
+                val columnMimeType = cursor.getColumnIndex(Message.COLUMN_MIME_TYPE)
+                val columnFrom = cursor.getColumnIndex(Message.COLUMN_FROM)
+                val columnSimNumber = cursor.getColumnIndex(Message.COLUMN_SIM_NUMBER)
+
+                do {
+                    snapshot.ids[row] = if (columnId == -1) -1 else cursor.getLong(columnId)
+                    snapshot.types[row] = if (columnType == -1) 0 else cursor.getInt(columnType)
+                    snapshot.data[row] = if (columnData == -1) null else cursor.getString(columnData)
+                    snapshot.timestamps[row] = if (columnTimestamp == -1) 0 else cursor.getLong(columnTimestamp)
+                    snapshot.mimeTypes[row] = intern(if (columnMimeType == -1) null else cursor.getString(columnMimeType))
+                    snapshot.senders[row] = intern(if (columnFrom == -1) null else cursor.getString(columnFrom))
+                    snapshot.simNumbers[row] = intern(if (columnSimNumber == -1) null else cursor.getString(columnSimNumber))
+                    row++
+                } while (cursor.moveToNext() && row < snapshot.count)
+            }
+
+            snapshot.strings = strings.toTypedArray()
+
+            val now = TimeUtils.now
+            for (i in 0 until snapshot.count) {
+                snapshot.viewTypes[i] = viewType(snapshot.types[i], snapshot.getMimeType(i),
+                        snapshot.timestamps[i], ignoreSendingStatus, now)
+                snapshot.styles[i] = MessageListStylingHelper.calculateStyle(snapshot.types,
+                        snapshot.timestamps, snapshot.senders, snapshot.count, i, now)
+            }
+
+            return snapshot
+        }
+
+        private fun ignoreSendingStatus() = Account.exists() && !Account.primary &&
+                Build.FINGERPRINT != "robolectric" && !FeatureFlags.REENABLE_SENDING_STATUS_ON_NON_PRIMARY
+
+        private fun viewType(type: Int, mimeType: String?, time: Long, ignoreSendingStatus: Boolean, now: Long): Int {
+            val media = mimeType != null && (mimeType.contains("image") || mimeType.contains("video") || mimeType == MimeType.MEDIA_MAP)
+
+            return if (ignoreSendingStatus && type == Message.TYPE_SENDING) {
+                if (media) Message.TYPE_IMAGE_SENT else Message.TYPE_SENT
+            } else if (media) {
+                when (type) {
+                    Message.TYPE_RECEIVED -> Message.TYPE_IMAGE_RECEIVED
+                    Message.TYPE_SENDING -> Message.TYPE_IMAGE_SENDING
+                    else -> Message.TYPE_IMAGE_SENT
+                }
+            } else if (Account.exists() && !Account.primary && type == Message.TYPE_SENDING && time < now - TimeUtils.MINUTE) {
+                Message.TYPE_SENT
+            } else {
+                type
+            }
+        }
+    }
+}
@@ -87,10 +87,9 @@ class ConversationViewHolder(itemView: View, private val expandedListener: Conve
                 }
 
                 if (header == null) {
-                    try {
-                        adapter!!.conversations[absolutePosition].read = true
-                    } catch (e: Exception) {
-                    }
+                    // the holder isn't always rebound when the list only moves it, so the
+                    // absolute position could be out of date. The conversation never is.
+                    conversation?.read = true
 
                     setTypeface(false, isItalic)
                 }
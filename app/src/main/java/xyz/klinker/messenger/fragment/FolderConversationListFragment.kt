@@ -18,7 +18,8 @@ class FolderConversationListFragment : ConversationListFragment() {
 
     private val navView: NavigationView? by lazy { activity?.findViewById<NavigationView>(R.id.navigation_view) }
 
-    private var folderId: Long = 0L
+    var folderId: Long = 0L
+        private set
 
     override fun noConversationsText() = getString(R.string.no_folder_messages_description)
 
@@ -13,6 +13,8 @@ import xyz.klinker.messenger.fragment.ArchivedConversationListFragment
 import xyz.klinker.messenger.fragment.FolderConversationListFragment
 import xyz.klinker.messenger.fragment.PrivateConversationListFragment
 import xyz.klinker.messenger.fragment.UnreadConversationListFragment
+import xyz.klinker.messenger.shared.data.ConversationListCache
+import xyz.klinker.messenger.shared.data.ConversationListCache.Filter
 import xyz.klinker.messenger.shared.data.DataSource
 import xyz.klinker.messenger.shared.data.Settings
 import xyz.klinker.messenger.shared.data.model.Conversation
@@ -74,13 +76,26 @@ class ConversationRecyclerViewManager(private val fragment: ConversationListFrag
     fun scrollToPosition(position: Int) { layoutManager.scrollToPosition(position) }
     fun getViewAtPosition(position: Int): View = recyclerView.findViewHolderForAdapterPosition(position)!!.itemView
 
-    private fun getCursorSafely() = when {
-        fragment is ArchivedConversationListFragment && activity != null -> DataSource.getArchivedConversationsAsList(activity!!)
-        fragment is PrivateConversationListFragment && activity != null -> DataSource.getPrivateConversationsAsList(activity!!)
-        fragment is UnreadConversationListFragment && activity != null -> DataSource.getUnreadNonPrivateConversationsAsList(activity!!)
-        fragment is FolderConversationListFragment && activity != null -> fragment.queryConversations(activity!!)
-        activity != null -> DataSource.getUnarchivedConversationsAsList(activity!!)
-        else -> emptyList()
+    private fun getCursorSafely(): List<Conversation> {
+        val activity = activity ?: return emptyList()
+
+        return when (fragment) {
+            is ArchivedConversationListFragment -> ConversationListCache.getConversations(Filter(Filter.ARCHIVED)) {
+                DataSource.getArchivedConversationsAsList(activity)
+            }
+            is PrivateConversationListFragment -> ConversationListCache.getConversations(Filter(Filter.PRIVATE)) {
+                DataSource.getPrivateConversationsAsList(activity)
+            }
+            is UnreadConversationListFragment -> ConversationListCache.getConversations(Filter(Filter.UNREAD)) {
+                DataSource.getUnreadNonPrivateConversationsAsList(activity)
+            }
+            is FolderConversationListFragment -> ConversationListCache.getConversations(Filter(Filter.FOLDER, fragment.folderId)) {
+                fragment.queryConversations(activity)
+            }
+            else -> ConversationListCache.getConversations(Filter(Filter.UNARCHIVED)) {
+                DataSource.getUnarchivedConversationsAsList(activity)
+            }
+        }
     }
 
     private fun setConversations(conversations: MutableList<Conversation>) {
@@ -89,8 +104,7 @@ class ConversationRecyclerViewManager(private val fragment: ConversationListFrag
         }
 
         if (adapter != null) {
-            adapter!!.conversations = conversations
-            adapter!!.notifyDataSetChanged()
+            adapter!!.updateConversations(conversations)
         } else {
             adapter = ConversationListAdapter(activity as MessengerActivity,
                     conversations, fragment.multiSelector, fragment, fragment)
@@ -7,6 +7,7 @@ import xyz.klinker.messenger.shared.data.MimeType
 import xyz.klinker.messenger.shared.data.Settings
 import xyz.klinker.messenger.shared.data.model.Message
 import xyz.klinker.messenger.shared.data.pojo.ConversationUpdateInfo
+import xyz.klinker.messenger.shared.receiver.ChangeFeed
 import xyz.klinker.messenger.shared.receiver.ConversationListUpdatedReceiver
 import java.lang.IllegalStateException
 
@@ -52,8 +53,8 @@ class ConversationUpdateHelper(private val fragment: ConversationListFragment) {
         }
     }
 
-    fun createReceiver() { activity?.registerReceiver(updatedReceiver, ConversationListUpdatedReceiver.intentFilter) }
-    fun destroyReceiver() { activity?.unregisterReceiver(updatedReceiver) }
+    fun createReceiver() { ChangeFeed.register(updatedReceiver) }
+    fun destroyReceiver() { ChangeFeed.unregister(updatedReceiver) }
 
     fun broadcastUpdateInfo() {
         if (updateInfo != null) {
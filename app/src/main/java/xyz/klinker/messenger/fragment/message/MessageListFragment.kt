@@ -42,11 +42,11 @@ import xyz.klinker.messenger.fragment.message.send.SendMessageManager
 import xyz.klinker.messenger.fragment.message.load.ViewInitializerDeferred
 import xyz.klinker.messenger.fragment.message.load.ViewInitializerNonDeferred
 import xyz.klinker.messenger.shared.data.DataSource
+import xyz.klinker.messenger.shared.receiver.ChangeFeed
 import xyz.klinker.messenger.shared.receiver.MessageListUpdatedReceiver
 import xyz.klinker.messenger.shared.service.notification.NotificationConstants
 import xyz.klinker.messenger.shared.shared_interfaces.IMessageListFragment
 import xyz.klinker.messenger.shared.util.AnimationUtils
-import xyz.klinker.messenger.shared.util.CursorUtil
 import xyz.klinker.messenger.utils.multi_select.MessageMultiSelectDelegate
 
 /**
@@ -121,8 +121,7 @@ class MessageListFragment : Fragment(), ContentFragment, IMessageListFragment {
     override fun onViewCreated(view: View, savedInstanceState: Bundle?) {
         super.onViewCreated(view, savedInstanceState)
         updatedReceiver = MessageListUpdatedReceiver(this)
-        fragmentActivity?.registerReceiver(updatedReceiver,
-                MessageListUpdatedReceiver.intentFilter)
+        ChangeFeed.register(updatedReceiver!!)
 
         if (extraMarginLeft != 0 || extraMarginTop != 0) {
             val params = view.layoutParams as ViewGroup.MarginLayoutParams
@@ -169,7 +168,7 @@ class MessageListFragment : Fragment(), ContentFragment, IMessageListFragment {
         super.onDestroyView()
 
         if (updatedReceiver != null) {
-            fragmentActivity?.unregisterReceiver(updatedReceiver)
+            ChangeFeed.unregister(updatedReceiver!!)
             updatedReceiver = null
         }
 
@@ -179,7 +178,7 @@ class MessageListFragment : Fragment(), ContentFragment, IMessageListFragment {
 
     override fun onDetach() {
         super.onDetach()
-        CursorUtil.closeSilent(messageLoader.adapter?.messages)
+        messageLoader.close()
     }
 
     override fun onRequestPermissionsResult(requestCode: Int, permissions: Array<String>, grantResults: IntArray) {
@@ -224,7 +223,7 @@ class MessageListFragment : Fragment(), ContentFragment, IMessageListFragment {
 
         sendManager.sendDelayedMessage()
         if (updatedReceiver != null) {
-            fragmentActivity?.unregisterReceiver(updatedReceiver)
+            ChangeFeed.unregister(updatedReceiver!!)
             updatedReceiver = null
         }
 
@@ -1,6 +1,5 @@
 package xyz.klinker.messenger.fragment.message.load
 
-import android.database.Cursor
 import android.os.Handler
 import android.view.LayoutInflater
 import android.view.View
@@ -15,7 +14,9 @@ import com.google.firebase.ml.naturallanguage.smartreply.FirebaseTextMessage
 import com.google.firebase.ml.naturallanguage.smartreply.SmartReplySuggestion
 import com.l4digital.fastscroll.FastScrollRecyclerView
 import xyz.klinker.messenger.R
+import xyz.klinker.messenger.adapter.message.MessageLinkCache
 import xyz.klinker.messenger.adapter.message.MessageListAdapter
+import xyz.klinker.messenger.adapter.message.MessageListSnapshot
 import xyz.klinker.messenger.fragment.message.MessageListFragment
 import xyz.klinker.messenger.fragment.message.ConversationInformationUpdater
 import xyz.klinker.messenger.shared.data.DataSource
@@ -26,6 +27,9 @@ import xyz.klinker.messenger.shared.data.model.Message
 import xyz.klinker.messenger.shared.service.notification.NotificationConstants
 import xyz.klinker.messenger.shared.util.*
 import java.util.*
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
 
 class MessageListLoader(private val fragment: MessageListFragment) {
     
@@ -48,8 +52,13 @@ class MessageListLoader(private val fragment: MessageListFragment) {
     private var contactByNameMap: Map<String, Contact>? = null
     
     private val listRefreshMonitor = MessageListRefreshMonitor()
-    private var limitMessagesBasedOnPreviousSize = true
-    var messageLoadedCount = -1
+    private val window: MessageListWindow by lazy { MessageListWindow(argManager.conversationId) }
+
+    // the window is read and snapshotted on a single thread, so that the snapshots get posted to the
+    // adapter in the same order that they were taken, and an older one can't replace a newer one.
+    private val windowExecutor = ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS, LinkedBlockingQueue<Runnable>())
+            .apply { allowCoreThreadTimeOut(true) }
+    private var loadingOlderMessages = false
     
     fun initRecycler() {
         ColorUtils.changeRecyclerOverscrollColors(messageList, argManager.color)
@@ -71,50 +80,45 @@ class MessageListLoader(private val fragment: MessageListFragment) {
                 if (pastVisibleItems + visibleItemCount >= totalItemCount) {
                     adapter?.snackbar?.dismiss()
                 }
+
+                if (dy < 0 && pastVisibleItems < MessageListWindow.PAGE_SIZE / 4) {
+                    loadOlderMessages()
+                }
             }
         })
     }
 
     fun loadMessages(addedNewMessage: Boolean = false) {
         val handler = Handler()
-        Thread {
+        windowExecutor.execute {
             PerformanceProfiler.logEvent("loading messages")
 
             if (activity == null) {
-                return@Thread
+                return@execute
             }
 
             try {
                 listRefreshMonitor.incrementRefreshThreadsCount()
                 draftManager.loadDrafts()
 
-                val cursor: Cursor
-                if (argManager.limitMessages && argManager.messageToOpen == -1L && limitMessagesBasedOnPreviousSize) {
-                    // weird logic with the counts for this. If we just load the MESSAGE_LIMIT each time,
-                    // then the adapter gets screwed up and can display the wrong messages, since recycler views
-                    // are meant to be "smart" about managing state.
-                    // So, if we send a message, or a message is received, we should increment the number of messages
-                    // that we are reading from the database, to account for this.
-
-                    cursor = DataSource.getMessageCursorWithLimit(activity!!, argManager.conversationId,
-                            when {
-                                messageLoadedCount == -1 -> MESSAGE_LIMIT
-                                addedNewMessage -> messageLoadedCount + 1
-                                else -> messageLoadedCount
-                            }
-                    )
-
-                    if (cursor.count < MESSAGE_LIMIT) {
-                        // When the conversations are small enough, then we shouldn't need to do this
-                        // this is just a slight cleanup to remove the extra size check that happens in the
-                        // above data load. If it isn't necessary, then we shouldn't do it
-                        limitMessagesBasedOnPreviousSize = false
+                val messages: MessageListSnapshot
+                if (argManager.limitMessages && argManager.messageToOpen == -1L) {
+                    // start with the newest page of messages. After that, new messages are added to the
+                    // end of the window, while status changes and deletes read the loaded window again.
+                    if (!window.isLoaded) {
+                        window.loadNewest(activity!!)
+                    } else if (!addedNewMessage || !window.loadNewer(activity!!)) {
+                        window.reload(activity!!)
                     }
+
+                    messages = window.snapshot()
                 } else {
-                    cursor = DataSource.getMessages(activity!!, argManager.conversationId)
+                    val cursor = DataSource.getMessages(activity!!, argManager.conversationId)
+                    messages = MessageListSnapshot.from(cursor)
+                    cursor.closeSilent()
                 }
 
-                messageLoadedCount = cursor.count
+                MessageLinkCache.prefetch(messages)
 
                 val numbers = argManager.phoneNumbers
                 val title = argManager.title
@@ -126,7 +130,7 @@ class MessageListLoader(private val fragment: MessageListFragment) {
                     contactByNameMap = fillMapByName(title, contactsByName)
                 }
 
-                val position = findMessagePositionFromId(cursor)
+                val position = if (argManager.messageToOpen != -1L) messages.indexOf(argManager.messageToOpen) else -1
 
                 PerformanceProfiler.logEvent("finished loading messages")
 
@@ -135,10 +139,10 @@ class MessageListLoader(private val fragment: MessageListFragment) {
                 if (Settings.smartReplies && !justUpdatingSendingStatus) {
                     try {
                         val list = mutableListOf<FirebaseTextMessage>()
-                        if (cursor.moveToLast()) {
+                        var i = messages.count - 1
+                        if (i >= 0) {
                             do {
-                                val message = Message()
-                                message.fillFromCursor(cursor)
+                                val message = messages.getMessage(i)
 
                                 if (MimeType.TEXT_PLAIN == message.mimeType) {
                                     if (message.type == Message.TYPE_RECEIVED) {
@@ -153,7 +157,7 @@ class MessageListLoader(private val fragment: MessageListFragment) {
                                         list.add(FirebaseTextMessage.createForLocalUser(message.data!!, message.timestamp))
                                     }
                                 }
-                            } while (cursor.moveToPrevious() && list.size < 10)
+                            } while (--i >= 0 && list.size < 10)
                         }
 
                         val smartReply = FirebaseNaturalLanguage.getInstance().smartReply
@@ -169,7 +173,7 @@ class MessageListLoader(private val fragment: MessageListFragment) {
                 PerformanceProfiler.logEvent("finished prepping smart replies")
 
                 handler.post {
-                    setMessages(cursor, contactMap!!, contactByNameMap!!)
+                    setMessages(messages, contactMap!!, contactByNameMap!!)
                     draftManager.applyDrafts()
 
                     if (position != -1) {
@@ -180,18 +184,61 @@ class MessageListLoader(private val fragment: MessageListFragment) {
                 informationUpdater.update()
 
                 if (NotificationConstants.CONVERSATION_ID_OPEN == argManager.conversationId) {
-                    Thread.sleep(1000)
-
-                    // this could happen in the background, we don't want to dismiss that then!
-                    fragment.notificationManager.dismissNotification()
-                    fragment.notificationManager.dismissOnStartup = false
+                    dismissNotification()
                 }
             } catch (e: Exception) {
                 e.printStackTrace()
             }
+        }
+    }
+
+    private fun dismissNotification() {
+        Thread {
+            try {
+                Thread.sleep(1000)
+            } catch (e: InterruptedException) {
+            }
+
+            // this could happen in the background, we don't want to dismiss that then!
+            fragment.notificationManager.dismissNotification()
+            fragment.notificationManager.dismissOnStartup = false
         }.start()
     }
 
+    private fun loadOlderMessages() {
+        if (loadingOlderMessages || !window.hasOlderMessages || adapter == null) {
+            return
+        }
+
+        loadingOlderMessages = true
+
+        val handler = Handler()
+        windowExecutor.execute {
+            try {
+                val added = if (activity != null) window.loadOlder(activity!!) else 0
+                val messages = if (added > 0) window.snapshot() else null
+                if (messages != null) {
+                    MessageLinkCache.prefetch(messages, 0, added)
+                }
+
+                handler.post {
+                    if (messages != null) {
+                        adapter?.addOlderMessages(messages, added)
+                    }
+
+                    loadingOlderMessages = false
+                }
+            } catch (e: Exception) {
+                e.printStackTrace()
+                handler.post { loadingOlderMessages = false }
+            }
+        }
+    }
+
+    fun close() {
+        windowExecutor.execute { window.close() }
+    }
+
     private fun fillMapByName(title: String?, contacts: List<Contact>) = try {
             if (title != null && title.contains(", "))
                 ContactUtils.getMessageFromMappingByTitle(title, contacts)
@@ -206,21 +253,7 @@ class MessageListLoader(private val fragment: MessageListFragment) {
         HashMap<String, Contact>()
     }
 
-    private fun findMessagePositionFromId(cursor: Cursor?): Int {
-        if (argManager.messageToOpen != -1L && cursor != null && cursor.moveToFirst()) {
-            val id = argManager.messageToOpen
-
-            do {
-                if (cursor.getLong(0) == id) {
-                    return cursor.position
-                }
-            } while (cursor.moveToNext())
-        }
-
-        return -1
-    }
-
-    private fun setMessages(messages: Cursor, contactMap: Map<String, Contact>, contactMapByName: Map<String, Contact>) {
+    private fun setMessages(messages: MessageListSnapshot, contactMap: Map<String, Contact>, contactMapByName: Map<String, Contact>) {
         if (adapter != null) {
             adapter?.addMessage(messageList, messages)
         } else {
@@ -234,8 +267,4 @@ class MessageListLoader(private val fragment: MessageListFragment) {
                     .alpha(1f).setDuration(100).setStartDelay(0).setListener(null)
         }
     }
-    
-    companion object {
-        const val MESSAGE_LIMIT = 8000
-    }
 }
\ No newline at end of file
@@ -0,0 +1,169 @@
+package xyz.klinker.messenger.fragment.message.load
+
+import android.content.Context
+import android.database.Cursor
+import xyz.klinker.messenger.adapter.message.MessageListSnapshot
+import xyz.klinker.messenger.shared.data.DataSource
+import xyz.klinker.messenger.shared.data.model.Message
+
+/**
+ * The part of a conversation that the message list has loaded so far.
+ *
+ * The newest page is loaded first, and older pages are added to the front as the user scrolls up.
+ * New messages are added to the end by reading only what comes after the newest message in the
+ * window. Anything else that changes the conversation reads everything from the oldest loaded
+ * message onwards again. Every query seeks on a (timestamp, id) in the window, so none of them
+ * need to count or skip over the rest of the conversation.
+ */
+class MessageListWindow(private val conversationId: Long) {
+
+    private val pages = mutableListOf<Cursor>()
+
+    private var oldestTimestamp = Long.MAX_VALUE
+    private var oldestId = Long.MAX_VALUE
+    private var newestTimestamp = Long.MIN_VALUE
+    private var newestId = Long.MIN_VALUE
+
+    var hasOlderMessages = true
+        private set
+
+    val isLoaded: Boolean
+        @Synchronized get() = pages.isNotEmpty()
+
+    /**
+     * Reads all of the loaded pages in to a snapshot for the adapter, oldest message first.
+     */
+    @Synchronized
+    fun snapshot() = MessageListSnapshot.from(pages)
+
+    /**
+     * Loads the newest page of the conversation.
+     */
+    @Synchronized
+    fun loadNewest(context: Context) {
+        close()
+
+        val page = DataSource.getMessagesBefore(context, conversationId, Long.MAX_VALUE, Long.MAX_VALUE, PAGE_SIZE)
+        hasOlderMessages = page.count >= PAGE_SIZE
+        pages.add(page)
+
+        updateOldest(page)
+        updateNewest(page)
+    }
+
+    /**
+     * Loads the page of messages that comes before the oldest one in the window.
+     *
+     * @return the number of messages that were added to the front of the window.
+     */
+    @Synchronized
+    fun loadOlder(context: Context): Int {
+        if (!hasOlderMessages || !isLoaded) {
+            return 0
+        }
+
+        val page = DataSource.getMessagesBefore(context, conversationId, oldestTimestamp, oldestId, PAGE_SIZE)
+        hasOlderMessages = page.count >= PAGE_SIZE
+
+        if (page.count == 0) {
+            page.close()
+            return 0
+        }
+
+        pages.add(0, page)
+        updateOldest(page)
+
+        return page.count
+    }
+
+    /**
+     * Adds the messages that come after the newest one in the window to the end of it.
+     *
+     * Messages synced from another device, delayed SMS and downloaded MMS often have an earlier
+     * timestamp than the newest message that is already showing, so they wouldn't be part of
+     * that read. If the number of messages in the window's range doesn't add up afterwards,
+     * something landed in the middle of it (or was deleted), and nothing is added.
+     *
+     * @return false if the window needs to be reloaded instead.
+     */
+    @Synchronized
+    fun loadNewer(context: Context): Boolean {
+        if (!isLoaded || oldestTimestamp == Long.MAX_VALUE) {
+            return false
+        }
+
+        val page = DataSource.getMessagesAfter(context, conversationId, newestTimestamp, newestId, false)
+        val expected = pages.sumBy { it.count } + page.count
+        if (DataSource.getMessageCountAfter(context, conversationId, oldestTimestamp, oldestId, true) != expected) {
+            page.close()
+            return false
+        }
+
+        if (page.count == 0) {
+            page.close()
+        } else {
+            pages.add(page)
+            updateNewest(page)
+        }
+
+        return true
+    }
+
+    /**
+     * Reads every message from the oldest one in the window onwards again. This picks up changes
+     * to the existing messages (a message was sent, delivered, or deleted), along with new messages
+     * wherever they fall in the window.
+     */
+    @Synchronized
+    fun reload(context: Context) {
+        if (!isLoaded) {
+            loadNewest(context)
+            return
+        }
+
+        if (oldestTimestamp == Long.MAX_VALUE) {
+            // the conversation was empty, so there is nothing to read from yet
+            loadNewest(context)
+            return
+        }
+
+        val page = DataSource.getMessagesAfter(context, conversationId, oldestTimestamp, oldestId, true)
+
+        pages.forEach { it.close() }
+        pages.clear()
+        pages.add(page)
+
+        updateNewest(page)
+    }
+
+    @Synchronized
+    fun close() {
+        pages.forEach { it.close() }
+        pages.clear()
+
+        oldestTimestamp = Long.MAX_VALUE
+        oldestId = Long.MAX_VALUE
+        newestTimestamp = Long.MIN_VALUE
+        newestId = Long.MIN_VALUE
+        hasOlderMessages = true
+    }
+
+    private fun updateOldest(page: Cursor) {
+        if (page.moveToFirst()) {
+            oldestTimestamp = page.getLong(page.getColumnIndex(Message.COLUMN_TIMESTAMP))
+            oldestId = page.getLong(page.getColumnIndex(Message.COLUMN_ID))
+        }
+    }
+
+    private fun updateNewest(page: Cursor) {
+        if (page.moveToLast()) {
+            newestTimestamp = page.getLong(page.getColumnIndex(Message.COLUMN_TIMESTAMP))
+            newestId = page.getLong(page.getColumnIndex(Message.COLUMN_ID))
+        }
+    }
+
+
+    companion object {
+        const val PAGE_SIZE = 100
+    }
+}
@@ -188,7 +188,6 @@ class SendMessageManager(private val fragment: MessageListFragment) {
 
         DataSource.deleteMessage(activity!!, originalMessageId)
 
-        fragment.messageLoader.messageLoadedCount--
         fragment.messageLoader.loadMessages(false)
 
         Handler().postDelayed({
@@ -45,6 +45,7 @@ import xyz.klinker.messenger.api.implementation.LoginActivity
 import xyz.klinker.messenger.api.implementation.RecreateAccountActivity
 import xyz.klinker.messenger.shared.data.DataSource
 import xyz.klinker.messenger.shared.data.Settings
+import xyz.klinker.messenger.shared.service.ApiDownloadService
 import xyz.klinker.messenger.shared.service.ApiUploadService
 import xyz.klinker.messenger.shared.service.SimpleLifetimeSubscriptionCheckService
 import xyz.klinker.messenger.shared.service.SimpleSubscriptionCheckService
@@ -392,6 +393,7 @@ class MyAccountFragment : MaterialPreferenceFragmentCompat() {
 
         Thread {
             DataSource.clearTables(fragmentActivity!!)
+            ApiDownloadService.clearCheckpoint(fragmentActivity!!)
 
             fragmentActivity?.runOnUiThread {
                 try {
@@ -422,6 +424,7 @@ class MyAccountFragment : MaterialPreferenceFragmentCompat() {
 
         Thread {
             DataSource.clearTables(fragmentActivity!!)
+            ApiDownloadService.clearCheckpoint(fragmentActivity!!)
             ApiUtils.cleanAccount(account.accountId)
 
             fragmentActivity?.runOnUiThread {
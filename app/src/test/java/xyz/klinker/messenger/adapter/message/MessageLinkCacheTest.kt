@@ -0,0 +1,91 @@
+package xyz.klinker.messenger.adapter.message
+
+import android.database.MatrixCursor
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Before
+import org.junit.Test
+import xyz.klinker.messenger.MessengerRobolectricSuite
+import xyz.klinker.messenger.shared.data.MimeType
+import xyz.klinker.messenger.shared.data.model.Message
+
+class MessageLinkCacheTest : MessengerRobolectricSuite() {
+
+    @Before
+    fun setUp() {
+        MessageLinkCache.clear()
+    }
+
+    @After
+    fun tearDown() {
+        MessageLinkCache.clear()
+    }
+
+    @Test
+    fun findsEachTypeOfLink() {
+        val text = "mail luke@klinkerapps.com or see https://www.google.com"
+        val ranges = MessageLinkCache.findLinks(text)
+
+        val links = (ranges.indices step 3).map { ranges[it + 2] to text.substring(ranges[it], ranges[it + 1]) }
+        assertEquals(MessageLinkCache.TYPE_EMAIL to "luke@klinkerapps.com", links.first())
+        assertEquals(MessageLinkCache.TYPE_WEB_URL to "https://www.google.com", links.last())
+    }
+
+    @Test
+    fun noLinks() {
+        assertEquals(0, MessageLinkCache.getLinks(1, "just some text").size)
+        assertEquals(0, MessageLinkCache.getLinks(2, null).size)
+    }
+
+    @Test
+    fun cachesByMessage() {
+        val first = MessageLinkCache.getLinks(1, "see https://www.google.com")
+
+        assertSame(first, MessageLinkCache.getLinks(1, "see https://www.google.com"))
+        assertNotSame(first, MessageLinkCache.getLinks(1, "see https://www.youtube.com"))
+    }
+
+    @Test
+    fun prefetchesTextMessages() {
+        val snapshot = MessageListSnapshot.from(linkHeavyConversation(10), false)
+        MessageLinkCache.prefetch(snapshot)
+
+        val ranges = MessageLinkCache.findLinks(snapshot.getData(5)!!)
+        val cached = MessageLinkCache.getLinks(snapshot.getId(5), snapshot.getData(5))
+        assertEquals(ranges.toList(), cached.toList())
+    }
+
+    @Test
+    fun bindsLinkHeavyConversationFromCache() {
+        val snapshot = MessageListSnapshot.from(linkHeavyConversation(1000), false)
+
+        MessageLinkCache.prefetch(snapshot)
+        val hits = MessageLinkCache.hitCount
+        val misses = MessageLinkCache.missCount
+
+        // binding the list twice, say after scrolling back down, never matches the patterns again
+        for (bind in 0 until 2) {
+            for (i in 0 until snapshot.count) {
+                MessageLinkCache.getLinks(snapshot.getId(i), snapshot.getData(i))
+            }
+        }
+
+        assertEquals(hits + 2 * snapshot.count, MessageLinkCache.hitCount)
+        assertEquals(misses, MessageLinkCache.missCount)
+    }
+
+    private fun linkHeavyConversation(size: Int): MatrixCursor {
+        val cursor = MatrixCursor(arrayOf(Message.COLUMN_ID, Message.COLUMN_TYPE, Message.COLUMN_DATA,
+                Message.COLUMN_TIMESTAMP, Message.COLUMN_MIME_TYPE))
+
+        for (i in 0 until size) {
+            cursor.addRow(arrayOf(i.toLong(), Message.TYPE_RECEIVED,
+                    "message $i: https://example.com/$i, call (515) 555-01${i % 100} or email person$i@example.com",
+                    i.toLong(), MimeType.TEXT_PLAIN))
+        }
+
+        return cursor
+    }
+}
@@ -83,7 +83,7 @@ public class MessageListAdapterTest extends MessengerRobolectricSuite {
         when(recycler.getLayoutManager()).thenReturn(layoutManager);
         when(fragment.getMultiSelect()).thenReturn(multiSelect);
 
-        adapter = new MessageListAdapter(getFakeMessages(), Color.BLUE, Color.RED, false, fragment);
+        adapter = new MessageListAdapter(MessageListSnapshot.Companion.from(getFakeMessages(), false), Color.BLUE, Color.RED, false, fragment);
     }
 
     @Test
@@ -93,7 +93,7 @@ public class MessageListAdapterTest extends MessengerRobolectricSuite {
 
     @Test
     public void getItemCountZeroCursor() {
-        adapter.addMessage(recycler, new MatrixCursor(new String[]{}));
+        adapter.addMessage(recycler, MessageListSnapshot.Companion.from(new MatrixCursor(new String[]{}), false));
         assertEquals(0, adapter.getItemCount());
     }
 
@@ -113,7 +113,7 @@ public class MessageListAdapterTest extends MessengerRobolectricSuite {
         when(cursor.moveToFirst()).thenReturn(true);
         when(manager.findLastVisibleItemPosition()).thenReturn(15);
         adapter = spy(adapter);
-        adapter.addMessage(recycler, cursor);
+        adapter.addMessage(recycler, MessageListSnapshot.Companion.from(cursor, false));
         //verify(adapter).notifyItemInserted(19);
         //verify(manager).scrollToPosition(19);
     }
@@ -123,7 +123,7 @@ public class MessageListAdapterTest extends MessengerRobolectricSuite {
         when(cursor.getCount()).thenReturn(12);
         when(cursor.moveToFirst()).thenReturn(true);
         adapter = spy(adapter);
-        adapter.addMessage(recycler, cursor);
+        adapter.addMessage(recycler, MessageListSnapshot.Companion.from(cursor, false));
         //verify(adapter).notifyItemChanged(11);
     }
 
@@ -132,7 +132,7 @@ public class MessageListAdapterTest extends MessengerRobolectricSuite {
         when(cursor.getCount()).thenReturn(11);
         when(cursor.moveToFirst()).thenReturn(true);
         adapter = spy(adapter);
-        adapter.addMessage(recycler, cursor);
+        adapter.addMessage(recycler, MessageListSnapshot.Companion.from(cursor, false));
         //verify(adapter).notifyDataSetChanged();
     }
 
@@ -0,0 +1,126 @@
+package xyz.klinker.messenger.adapter.message
+
+import android.database.MatrixCursor
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Test
+import xyz.klinker.messenger.MessengerRobolectricSuite
+import xyz.klinker.messenger.shared.data.MimeType
+import xyz.klinker.messenger.shared.data.model.Message
+import xyz.klinker.messenger.shared.util.MessageListStylingHelper.Companion.STYLE_BOTTOM_MARGIN
+import xyz.klinker.messenger.shared.util.MessageListStylingHelper.Companion.STYLE_GROUP_BOTH
+import xyz.klinker.messenger.shared.util.MessageListStylingHelper.Companion.STYLE_GROUP_BOTTOM
+import xyz.klinker.messenger.shared.util.MessageListStylingHelper.Companion.STYLE_GROUP_TOP
+import xyz.klinker.messenger.shared.util.MessageListStylingHelper.Companion.STYLE_SHOW_TIMESTAMP
+import xyz.klinker.messenger.shared.util.MessageListStylingHelper.Companion.STYLE_TOP_MARGIN
+import xyz.klinker.messenger.shared.util.TimeUtils
+
+class MessageListSnapshotTest : MessengerRobolectricSuite() {
+
+    private val start = TimeUtils.now - TimeUtils.DAY
+
+    @Test
+    fun readsMessages() {
+        val cursor = cursor()
+        cursor.addRow(row(1, Message.TYPE_RECEIVED, "hey", start, from = "Luke"))
+        cursor.addRow(row(2, Message.TYPE_SENT, "hello", start + TimeUtils.MINUTE, sim = "5159911493"))
+
+        val snapshot = MessageListSnapshot.from(cursor, false)
+
+        assertEquals(2, snapshot.count)
+        assertEquals(2L, snapshot.getId(1))
+        assertEquals(1, snapshot.indexOf(2))
+
+        val message = snapshot.getMessage(1)
+        assertEquals("hello", message.data)
+        assertEquals(Message.TYPE_SENT, message.type)
+        assertEquals(MimeType.TEXT_PLAIN, message.mimeType)
+        assertEquals("5159911493", message.simPhoneNumber)
+        assertEquals(null, message.from)
+    }
+
+    @Test
+    fun storesRepeatedStringsOnce() {
+        val cursor = cursor()
+        cursor.addRow(row(1, Message.TYPE_RECEIVED, "one", start, from = String(charArrayOf('L', 'u', 'k', 'e'))))
+        cursor.addRow(row(2, Message.TYPE_RECEIVED, "two", start, from = String(charArrayOf('L', 'u', 'k', 'e'))))
+
+        val snapshot = MessageListSnapshot.from(cursor, false)
+
+        assertSame(snapshot.getMessage(0).from, snapshot.getMessage(1).from)
+        assertSame(snapshot.getMimeType(0), snapshot.getMimeType(1))
+    }
+
+    @Test
+    fun calculatesViewTypes() {
+        val cursor = cursor()
+        cursor.addRow(row(1, Message.TYPE_RECEIVED, "text", start))
+        cursor.addRow(row(2, Message.TYPE_RECEIVED, "content://image", start, mimeType = MimeType.IMAGE_JPG))
+        cursor.addRow(row(3, Message.TYPE_SENDING, "content://image", start, mimeType = MimeType.IMAGE_JPG))
+        cursor.addRow(row(4, Message.TYPE_SENDING, "text", start))
+
+        assertEquals(listOf(Message.TYPE_RECEIVED, Message.TYPE_IMAGE_RECEIVED, Message.TYPE_IMAGE_SENDING, Message.TYPE_SENDING),
+                viewTypes(MessageListSnapshot.from(cursor, false)))
+        assertEquals(listOf(Message.TYPE_RECEIVED, Message.TYPE_IMAGE_RECEIVED, Message.TYPE_IMAGE_SENT, Message.TYPE_SENT),
+                viewTypes(MessageListSnapshot.from(cursor, true)))
+    }
+
+    @Test
+    fun groupsMessagesFromTheSameSender() {
+        val cursor = cursor()
+        cursor.addRow(row(1, Message.TYPE_RECEIVED, "one", start))
+        cursor.addRow(row(2, Message.TYPE_RECEIVED, "two", start + TimeUtils.MINUTE))
+        cursor.addRow(row(3, Message.TYPE_RECEIVED, "three", start + 2 * TimeUtils.MINUTE))
+        cursor.addRow(row(4, Message.TYPE_SENT, "four", start + 3 * TimeUtils.MINUTE))
+
+        val snapshot = MessageListSnapshot.from(cursor, false)
+
+        assertEquals(STYLE_TOP_MARGIN or STYLE_GROUP_BOTTOM, snapshot.getStyle(0))
+        assertEquals(STYLE_GROUP_BOTH, snapshot.getStyle(1))
+        assertEquals(STYLE_BOTTOM_MARGIN or STYLE_GROUP_TOP, snapshot.getStyle(2))
+        assertEquals(STYLE_TOP_MARGIN or STYLE_BOTTOM_MARGIN or STYLE_SHOW_TIMESTAMP, snapshot.getStyle(3))
+    }
+
+    @Test
+    fun joinsPages() {
+        val older = cursor()
+        older.addRow(row(1, Message.TYPE_RECEIVED, "one", start))
+        val newer = cursor()
+        newer.addRow(row(2, Message.TYPE_RECEIVED, "two", start + TimeUtils.MINUTE))
+        newer.addRow(row(3, Message.TYPE_RECEIVED, "three", start + 2 * TimeUtils.MINUTE))
+
+        val snapshot = MessageListSnapshot.from(listOf(older, cursor(), newer), false)
+
+        assertEquals(3, snapshot.count)
+        assertEquals(listOf(1L, 2L, 3L), (0 until snapshot.count).map { snapshot.getId(it) })
+        assertEquals(STYLE_GROUP_BOTH, snapshot.getStyle(1))
+    }
+
+    @Test
+    fun readsLongConversation() {
+        val cursor = cursor()
+        for (i in 0 until 5000) {
+            cursor.addRow(row(i.toLong(), if (i % 3 == 0) Message.TYPE_SENT else Message.TYPE_RECEIVED,
+                    "message $i", start + i * TimeUtils.MINUTE, from = "Sender ${i % 4}"))
+        }
+
+        val snapshot = MessageListSnapshot.from(cursor, false)
+        assertEquals(5000, snapshot.count)
+
+        // the same lookups that binding every row in the list would do
+        for (i in 0 until snapshot.count) {
+            val message = snapshot.getMessage(i)
+            assertEquals("message $i", message.data)
+            assertEquals(start + i * TimeUtils.MINUTE, message.timestamp)
+            assertEquals(if (i % 3 == 0) Message.TYPE_SENT else Message.TYPE_RECEIVED, snapshot.getViewType(i))
+        }
+    }
+
+    private fun viewTypes(snapshot: MessageListSnapshot) = (0 until snapshot.count).map { snapshot.getViewType(it) }
+
+    private fun cursor() = MatrixCursor(arrayOf(Message.COLUMN_ID, Message.COLUMN_TYPE, Message.COLUMN_DATA,
+            Message.COLUMN_TIMESTAMP, Message.COLUMN_MIME_TYPE, Message.COLUMN_FROM, Message.COLUMN_SIM_NUMBER))
+
+    private fun row(id: Long, type: Int, data: String, timestamp: Long, mimeType: String = MimeType.TEXT_PLAIN,
+                    from: String? = null, sim: String? = null) = arrayOf(id, type, data, timestamp, mimeType, from, sim)
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.encryption;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import xyz.klinker.messenger.MessengerSuite;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class Base64Test extends MessengerSuite {
+
+    private static final int[] FLAGS = new int[] {
+            Base64.DEFAULT, Base64.NO_WRAP, Base64.CRLF, Base64.NO_PADDING, Base64.URL_SAFE | Base64.NO_WRAP
+    };
+
+    @Test
+    public void encodedLengthIsExact() {
+        for (int len = 0; len < 500; len++) {
+            for (int flags : FLAGS) {
+                assertEquals(Base64.encode(new byte[len], flags).length, Base64.encodedLength(len, flags));
+            }
+        }
+    }
+
+    @Test
+    public void encodeAndDecodeIntoBuffers() {
+        byte[] input = randomBytes(1000);
+
+        for (int flags : FLAGS) {
+            byte[] expected = Base64.encode(input, flags);
+            byte[] encoded = new byte[expected.length + 4];
+
+            assertEquals(expected.length, Base64.encode(input, 0, input.length, encoded, 4, flags));
+            assertArrayEquals(expected, Arrays.copyOfRange(encoded, 4, encoded.length));
+
+            byte[] decoded = new byte[Base64.maxDecodedLength(expected.length) + 2];
+            int decodedLength = Base64.decode(encoded, 4, expected.length, decoded, 2, flags);
+            assertArrayEquals(input, Arrays.copyOfRange(decoded, 2, 2 + decodedLength));
+        }
+    }
+
+    @Test
+    public void encodeDirectByteBuffers() {
+        byte[] input = randomBytes(20000);
+
+        for (int flags : FLAGS) {
+            byte[] expected = Base64.encode(input, flags);
+
+            ByteBuffer in = ByteBuffer.allocateDirect(input.length);
+            in.put(input).flip();
+            ByteBuffer out = ByteBuffer.allocateDirect(Base64.encodedLength(input.length, flags));
+
+            assertEquals(expected.length, Base64.encode(in, out, flags));
+
+            byte[] encoded = new byte[expected.length];
+            out.flip();
+            out.get(encoded);
+            assertArrayEquals(expected, encoded);
+        }
+    }
+
+    @Test
+    public void streamingEncoderMatchesSinglePass() throws IOException {
+        byte[] input = randomBytes(10001);
+
+        for (int flags : FLAGS) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            Base64OutputStream stream = new Base64OutputStream(bytes, flags);
+
+            stream.write(input[0]);
+            stream.write(input, 1, 4999);
+            stream.write(input, 5000, input.length - 5000);
+            stream.close();
+
+            assertArrayEquals(Base64.encode(input, flags), bytes.toByteArray());
+        }
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
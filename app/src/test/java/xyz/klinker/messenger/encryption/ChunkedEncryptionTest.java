@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.encryption;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import xyz.klinker.messenger.MessengerSuite;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class ChunkedEncryptionTest extends MessengerSuite {
+
+    private static final int[] SIZES = new int[] { 0, 1, 16, ChunkedEncryption.CHUNK_SIZE,
+            ChunkedEncryption.CHUNK_SIZE + 1, 3 * ChunkedEncryption.CHUNK_SIZE + 7 };
+
+    private EncryptionUtils utils;
+
+    @Before
+    public void setUp() {
+        utils = new EncryptionUtils(new SecretKeySpec(new byte[16], "AES"));
+    }
+
+    @Test
+    public void outputStreamRoundTrip() throws IOException {
+        for (int size : SIZES) {
+            byte[] plaintext = randomBytes(size);
+
+            ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+            OutputStream stream = new ChunkedEncryptionOutputStream(encrypted, utils);
+            stream.write(plaintext);
+            stream.close();
+
+            assertArrayEquals(plaintext, decrypt(encrypted.toByteArray()));
+        }
+    }
+
+    @Test
+    public void inputStreamRoundTrip() throws IOException {
+        for (int size : SIZES) {
+            byte[] plaintext = randomBytes(size);
+            byte[] encrypted = readAll(new ChunkedEncryptionInputStream(new ByteArrayInputStream(plaintext), utils));
+
+            assertArrayEquals(plaintext, decrypt(encrypted));
+        }
+    }
+
+    @Test
+    public void readsLegacyFormat() throws IOException {
+        byte[] plaintext = randomBytes(100000);
+        byte[] legacy = utils.encrypt(plaintext).getBytes(StandardCharsets.US_ASCII);
+
+        assertArrayEquals(plaintext, decrypt(legacy));
+    }
+
+    @Test(expected = IOException.class)
+    public void detectsTruncatedMedia() throws IOException {
+        byte[] encrypted = readAll(new ChunkedEncryptionInputStream(
+                new ByteArrayInputStream(randomBytes(100000)), utils));
+
+        decrypt(Arrays.copyOf(encrypted, encrypted.length - 4));
+    }
+
+    private byte[] decrypt(byte[] encrypted) throws IOException {
+        return readAll(new ChunkedDecryptionInputStream(new ByteArrayInputStream(encrypted), utils));
+    }
+
+    private static byte[] readAll(InputStream stream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        int read;
+        while ((read = stream.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+
+        stream.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
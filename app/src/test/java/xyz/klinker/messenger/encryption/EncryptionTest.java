@@ -21,10 +21,12 @@ import org.junit.Ignore;
 import org.junit.Test;
 
 import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
 
 import xyz.klinker.messenger.MessengerRobolectricSuite;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 
 public class EncryptionTest extends MessengerRobolectricSuite {
 
@@ -53,4 +55,25 @@ public class EncryptionTest extends MessengerRobolectricSuite {
         assertEquals(text, decrypted);
     }
 
+    @Test
+    public void encryptAndDecryptFieldsWithOneInstance() {
+        EncryptionUtils utils = new EncryptionUtils(new SecretKeySpec(new byte[16], "AES"));
+        String[] fields = new String[] { "text/plain", null, "hey, what's up?", "" };
+
+        for (String field : fields) {
+            String encrypted = utils.encrypt(field);
+            if (field != null) {
+                assertNotEquals(field, encrypted);
+            }
+
+            assertEquals(field, utils.decrypt(encrypted));
+        }
+    }
+
+    @Test
+    public void decryptDataWithBadBase64() {
+        EncryptionUtils utils = new EncryptionUtils(new SecretKeySpec(new byte[16], "AES"));
+        assertEquals(0, utils.decryptData("not base 64-:-at all").length);
+    }
+
 }
@@ -0,0 +1,83 @@
+package xyz.klinker.messenger.fragment.message.load
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import xyz.klinker.messenger.MessengerRealDataSuite
+import xyz.klinker.messenger.shared.data.MimeType
+import xyz.klinker.messenger.shared.data.model.Message
+
+class MessageListWindowTest : MessengerRealDataSuite() {
+
+    private val window = MessageListWindow(1L)
+
+    @Test
+    fun picksUpNewMessagesWithEarlierTimestamps() {
+        window.loadNewest(context)
+        val loaded = window.snapshot()
+        assertTrue(loaded.count > 1)
+
+        // a message that was synced from another device, after newer ones were already showing
+        val timestamp = loaded.getMessage(loaded.count - 1).timestamp - 1
+        val id = insertMessage(timestamp)
+
+        assertFalse(window.loadNewer(context))
+        window.reload(context)
+        val reloaded = window.snapshot()
+
+        assertEquals(loaded.count + 1, reloaded.count)
+        assertNotEquals(-1, reloaded.indexOf(id))
+        assertEquals(loaded.getId(loaded.count - 1), reloaded.getId(reloaded.count - 1))
+        window.close()
+    }
+
+    @Test
+    fun addsNewMessagesToTheEnd() {
+        window.loadNewest(context)
+        val loaded = window.snapshot()
+
+        val id = insertMessage(loaded.getMessage(loaded.count - 1).timestamp + 1)
+
+        assertTrue(window.loadNewer(context))
+        val updated = window.snapshot()
+
+        assertEquals(loaded.count + 1, updated.count)
+        assertEquals(id, updated.getId(updated.count - 1))
+        assertEquals(loaded.getId(0), updated.getId(0))
+        window.close()
+    }
+
+    @Test
+    fun loadsMessagesForEmptyConversation() {
+        val empty = MessageListWindow(CONVERSATION_ID)
+        empty.loadNewest(context)
+        assertEquals(0, empty.snapshot().count)
+
+        insertMessage(1000L, CONVERSATION_ID)
+        empty.reload(context)
+        assertEquals(1, empty.snapshot().count)
+
+        // the oldest message is known now, so there is nothing older to load twice
+        assertEquals(0, empty.loadOlder(context))
+        assertEquals(1, empty.snapshot().count)
+        empty.close()
+    }
+
+    private fun insertMessage(timestamp: Long, conversationId: Long = 1L): Long {
+        val message = Message()
+        message.conversationId = conversationId
+        message.type = Message.TYPE_RECEIVED
+        message.data = "delayed message"
+        message.timestamp = timestamp
+        message.mimeType = MimeType.TEXT_PLAIN
+
+        source.insertMessage(context, message, conversationId, false, false)
+        return message.id
+    }
+
+    companion object {
+        private const val CONVERSATION_ID = 5000L
+    }
+}
@@ -0,0 +1,117 @@
+package xyz.klinker.messenger.shared.data
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import xyz.klinker.messenger.MessengerSuite
+import xyz.klinker.messenger.shared.data.ConversationListCache.Filter
+import xyz.klinker.messenger.shared.data.model.Conversation
+
+class ConversationListCacheTest : MessengerSuite() {
+
+    private val unarchived = Filter(Filter.UNARCHIVED)
+    private val archived = Filter(Filter.ARCHIVED)
+
+    @Before
+    fun setUp() {
+        ConversationListCache.invalidate()
+    }
+
+    @After
+    fun tearDown() {
+        ConversationListCache.invalidate()
+    }
+
+    @Test
+    fun onlyLoadsOnce() {
+        var loads = 0
+        val load = { loads++; listOf(conversation(1, 300), conversation(2, 200)) }
+
+        ConversationListCache.getConversations(unarchived, load)
+        val conversations = ConversationListCache.getConversations(unarchived, load)
+
+        assertEquals(1, loads)
+        assertEquals(listOf(1L, 2L), conversations.map { it.id })
+    }
+
+    @Test
+    fun handsOutCopies() {
+        ConversationListCache.getConversations(unarchived) { listOf(conversation(1, 300)) }
+
+        val first = ConversationListCache.getConversations(unarchived) { emptyList() }
+        first[0].read = true
+        first[0].colors.color = 1
+
+        val second = ConversationListCache.getConversations(unarchived) { emptyList() }
+        assertEquals(false, second[0].read)
+        assertEquals(0, second[0].colors.color)
+    }
+
+    @Test
+    fun movesUpdatedConversationToTop() {
+        ConversationListCache.getConversations(unarchived) {
+            listOf(conversation(1, 300), conversation(2, 200), conversation(3, 100))
+        }
+
+        ConversationListCache.put(3, conversation(3, 400))
+
+        assertEquals(listOf(3L, 1L, 2L), ids(unarchived))
+    }
+
+    @Test
+    fun keepsPinnedConversationsFirst() {
+        ConversationListCache.getConversations(unarchived) {
+            listOf(conversation(1, 100, pinned = true), conversation(2, 300), conversation(3, 200))
+        }
+
+        ConversationListCache.put(4, conversation(4, 250))
+        ConversationListCache.put(5, conversation(5, 50, pinned = true))
+
+        assertEquals(listOf(1L, 5L, 2L, 4L, 3L), ids(unarchived))
+    }
+
+    @Test
+    fun movesArchivedConversationBetweenLists() {
+        ConversationListCache.getConversations(unarchived) { listOf(conversation(1, 300), conversation(2, 200)) }
+        ConversationListCache.getConversations(archived) { listOf(conversation(3, 100, archive = true)) }
+
+        ConversationListCache.put(2, conversation(2, 200, archive = true))
+
+        assertEquals(listOf(1L), ids(unarchived))
+        assertEquals(listOf(2L, 3L), ids(archived))
+    }
+
+    @Test
+    fun removesDeletedConversation() {
+        ConversationListCache.getConversations(unarchived) { listOf(conversation(1, 300), conversation(2, 200)) }
+
+        ConversationListCache.remove(1)
+
+        assertEquals(listOf(2L), ids(unarchived))
+    }
+
+    @Test
+    fun folderOnlyHoldsItsConversations() {
+        val folder = Filter(Filter.FOLDER, 10)
+        ConversationListCache.getConversations(folder) { emptyList() }
+
+        ConversationListCache.put(1, conversation(1, 100, folderId = 10))
+        ConversationListCache.put(2, conversation(2, 200, folderId = 11))
+
+        assertEquals(listOf(1L), ids(folder))
+    }
+
+    private fun ids(filter: Filter) = ConversationListCache.getConversations(filter) { emptyList() }.map { it.id }
+
+    private fun conversation(id: Long, timestamp: Long, pinned: Boolean = false, archive: Boolean = false,
+                             folderId: Long = -1): Conversation {
+        val conversation = Conversation()
+        conversation.id = id
+        conversation.timestamp = timestamp
+        conversation.pinned = pinned
+        conversation.archive = archive
+        conversation.folderId = folderId
+        return conversation
+    }
+}
@@ -0,0 +1,130 @@
+package xyz.klinker.messenger.shared.data
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Test
+import org.robolectric.RuntimeEnvironment
+import xyz.klinker.messenger.MessengerRobolectricSuite
+import xyz.klinker.messenger.shared.data.model.Message
+import xyz.klinker.messenger.shared.util.FixtureLoader
+import xyz.klinker.messenger.shared.util.TimeUtils
+import java.util.Collections
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Checks that reading from the database isn't held up by writes to it. The conversation list is
+ * loaded over and over on a few threads while another thread streams new messages in to the
+ * database, and a read has to finish while another thread holds a write transaction open.
+ *
+ * This runs against the real, file backed database (rather than the in memory one used by the
+ * MessengerRealDataSuite), since write-ahead logging is not available for in memory databases.
+ */
+class DataSourceContentionTest : MessengerRobolectricSuite() {
+
+    private val source = DataSource
+    private val context = RuntimeEnvironment.application
+
+    @Before
+    fun setUp() {
+        source.close(context)
+        context.deleteDatabase(DATABASE_NAME)
+
+        source.getConversationCount(context) // opens the database
+        FixtureLoader().loadFixturesToDatabase(source._database)
+    }
+
+    @After
+    fun tearDown() {
+        source.close(context)
+        context.deleteDatabase(DATABASE_NAME)
+    }
+
+    @Test
+    fun readConversationsWhileInsertingMessages() {
+        val initialMessages = source.getMessageCount(context)
+        val writing = AtomicBoolean(true)
+        val reads = AtomicInteger()
+        val errors = Collections.synchronizedList(mutableListOf<Throwable>())
+
+        val readers = Executors.newFixedThreadPool(READERS)
+        for (i in 0 until READERS) {
+            readers.execute {
+                while (writing.get()) {
+                    try {
+                        source.getUnarchivedConversationsAsList(context)
+                    } catch (e: Throwable) {
+                        errors.add(e)
+                    }
+
+                    reads.incrementAndGet()
+                }
+            }
+        }
+
+        try {
+            for (i in 0 until WRITES) {
+                source.insertMessage(context, message(i), 1L, false, false)
+            }
+        } finally {
+            writing.set(false)
+            readers.shutdown()
+            readers.awaitTermination(30, TimeUnit.SECONDS)
+        }
+
+        assertTrue(errors.toString(), errors.isEmpty())
+        assertTrue(reads.get() > 0)
+        assertEquals(initialMessages + WRITES, source.getMessageCount(context))
+    }
+
+    @Test
+    fun readWhileAnotherThreadHoldsTheWriteTransaction() {
+        val initialMessages = source.getMessageCount(context)
+        val reader = Executors.newSingleThreadExecutor()
+        val database = source._database!!
+
+        database.beginTransactionNonExclusive()
+        try {
+            source.insertMessage(context, message(0), 1L, false, false)
+
+            // with write-ahead logging, the read gets its own connection and sees the last commit,
+            // without one, it would wait on the writer's connection until the transaction ends
+            val read = reader.submit<Int> { source.getMessageCount(context) }
+            try {
+                assertEquals(initialMessages, read.get(10, TimeUnit.SECONDS))
+            } catch (e: TimeoutException) {
+                fail("the read was blocked by the open write transaction")
+            }
+        } finally {
+            database.endTransaction()
+            reader.shutdown()
+            reader.awaitTermination(30, TimeUnit.SECONDS)
+        }
+
+        // the transaction was never marked successful, so the insert was rolled back
+        assertEquals(initialMessages, source.getMessageCount(context))
+    }
+
+    private fun message(index: Int): Message {
+        val message = Message()
+        message.type = Message.TYPE_RECEIVED
+        message.data = "contention test message $index"
+        message.timestamp = TimeUtils.now
+        message.mimeType = MimeType.TEXT_PLAIN
+        message.read = false
+        message.seen = false
+        return message
+    }
+
+    companion object {
+        private const val DATABASE_NAME = "messenger.db"
+        private const val READERS = 3
+        private const val WRITES = 200
+    }
+}
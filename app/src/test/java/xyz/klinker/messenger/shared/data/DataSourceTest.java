@@ -21,6 +21,7 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.graphics.Color;
 
 import org.junit.After;
@@ -31,6 +32,7 @@ import org.mockito.Mock;
 import org.robolectric.RuntimeEnvironment;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import xyz.klinker.messenger.MessengerRobolectricSuite;
@@ -51,6 +53,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -139,9 +143,13 @@ public class DataSourceTest extends MessengerRobolectricSuite {
 
     @Test
     public void insertContacts() {
+        SQLiteStatement statement = mock(SQLiteStatement.class);
+        when(database.compileStatement(startsWith("insert into contact"))).thenReturn(statement);
+
         source.insertContacts(context, getFakeContacts(context.getResources()), null, false);
-        verify(database, times(7)).insert(eq("contact"), eq((String) null),
-                any(ContentValues.class));
+        verify(statement, times(7)).executeInsert();
+        verify(database).setTransactionSuccessful();
+        verify(statement).close();
     }
 
     @Test
@@ -176,6 +184,18 @@ public class DataSourceTest extends MessengerRobolectricSuite {
                 any(ContentValues.class));
     }
 
+    @Test
+    public void insertConversations_skipsStoredConversations() {
+        when(database.query("conversation", new String[]{"id_matcher"}, null, null, null, null, null))
+                .thenReturn(cursor);
+        when(cursor.moveToFirst()).thenReturn(true);
+        when(cursor.getString(0)).thenReturn("11493");
+
+        source.insertConversations(getFakeConversations(context.getResources()), context, null);
+        verify(database, times(6)).insert(eq("conversation"), eq((String) null),
+                any(ContentValues.class));
+    }
+
     @Test
     public void insertConversation() {
         source.insertConversation(context, new Conversation(), false);
@@ -209,8 +229,8 @@ public class DataSourceTest extends MessengerRobolectricSuite {
 
     @Test
     public void findConversationByNumbers() {
-        when(database.query("conversation", new String[]{"_id", "id_matcher"},
-                "id_matcher=? OR id_matcher=? OR id_matcher=? OR id_matcher=? OR id_matcher=? OR id_matcher=?", new String[]{"515", "515", "515", "515", "515", "515"}, null, null, null))
+        when(database.query("conversation", new String[]{"_id"},
+                "id_matcher IN (?)", new String[]{"515"}, null, null, null, "1"))
                 .thenReturn(cursor);
         when(cursor.moveToFirst()).thenReturn(true);
         when(cursor.getLong(0)).thenReturn(1001L);
@@ -745,6 +765,22 @@ public class DataSourceTest extends MessengerRobolectricSuite {
         verify(database).delete("retryable_request", "_id=?", new String[]{"1"});
     }
 
+    @Test
+    public void replaceRetryableRequest() {
+        source.replaceRetryableRequest(context, new RetryableRequest(RetryableRequest.TYPE_READ_CONVERSATION, 3, 1));
+        verify(database).delete("retryable_request", "type=? AND data_id=?", new String[]{"4", "3"});
+        verify(database).insert(eq("retryable_request"), eq((String) null),
+                any(ContentValues.class));
+        verify(database).setTransactionSuccessful();
+        verify(database).endTransaction();
+    }
+
+    @Test
+    public void deleteRetryableRequests() {
+        source.deleteRetryableRequests(context, Arrays.asList(1L, 2L));
+        verify(database).delete("retryable_request", "_id=1 OR _id=2", null);
+    }
+
     public static List<Conversation> getFakeConversations(Resources resources) {
         List<Conversation> conversations = new ArrayList<>();
 
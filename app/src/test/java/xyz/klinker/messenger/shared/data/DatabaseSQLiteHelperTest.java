@@ -62,6 +62,26 @@ public class DatabaseSQLiteHelperTest extends MessengerRobolectricSuite {
         verify2Upgrade();
     }
 
+    @Test
+    public void onUpgrade_19to20() {
+        helper.onUpgrade(database, 19, 20);
+
+        for (String index : new Message().getIndexStatements()) {
+            verify(database).execSQL(index);
+        }
+
+        verify(database).execSQL("drop index if exists conversation_id_message_index");
+        verifySearchIndexUpgrade();
+        verifyNoMoreInteractions(database);
+    }
+
+    @Test
+    public void onUpgrade_20to21() {
+        helper.onUpgrade(database, 20, 21);
+        verifySearchIndexUpgrade();
+        verifyNoMoreInteractions(database);
+    }
+
     @Test
     public void onDrop() {
         helper.onDrop(database);
@@ -79,12 +99,30 @@ public class DatabaseSQLiteHelperTest extends MessengerRobolectricSuite {
         verify(database).execSQL(new Folder().getCreateStatement());
         verify(database).execSQL(new AutoReply().getCreateStatement());
         verify(database).execSQL(new RetryableRequest().getCreateStatement());
-        verify(database).execSQL(new Message().getIndexStatements()[0]);
+        for (String index : new Message().getIndexStatements()) {
+            verify(database).execSQL(index);
+        }
+
         verify(database).execSQL(new Conversation().getIndexStatements()[0]);
         verify(database).execSQL(new Draft().getIndexStatements()[0]);
+
+        for (String statement : MessageSearchIndex.INSTANCE.getCreateStatements()) {
+            verify(database).execSQL(statement);
+        }
+
+        verify(database).execSQL(MessageSearchIndex.INSTANCE.readyStatement(true));
         verifyNoMoreInteractions(database);
     }
 
+    private void verifySearchIndexUpgrade() {
+        verify(database).execSQL("drop table if exists " + MessageSearchIndex.TABLE);
+        for (String statement : MessageSearchIndex.INSTANCE.getCreateStatements()) {
+            verify(database).execSQL(statement);
+        }
+
+        verify(database).execSQL(MessageSearchIndex.INSTANCE.readyStatement(false));
+    }
+
     private void verify2Upgrade() {
         // do nothing for now, should be filled when database needs updated.
     }
@@ -100,6 +138,8 @@ public class DatabaseSQLiteHelperTest extends MessengerRobolectricSuite {
         verify(database).execSQL("drop table if exists " + Folder.TABLE);
         verify(database).execSQL("drop table if exists " + AutoReply.TABLE);
         verify(database).execSQL("drop table if exists " + RetryableRequest.TABLE);
+        verify(database).execSQL("drop table if exists " + MessageSearchIndex.TABLE);
+        verify(database).execSQL("drop table if exists " + MessageSearchIndex.STATE_TABLE);
         verifyNoMoreInteractions(database);
     }
 
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import xyz.klinker.messenger.MessengerRealDataSuite;
+import xyz.klinker.messenger.shared.data.model.Message;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the message table queries that DataSource uses on the hot paths through EXPLAIN QUERY PLAN,
+ * and fails if any of them has fallen back to scanning the whole table or sorting the results in
+ * a temporary b-tree, instead of reading them in order from one of the message indexes.
+ *
+ * The statements are captured from the DataSource calls themselves, and built the same way that
+ * SQLiteDatabase builds them, so the test can't drift away from the queries that the app runs.
+ */
+public class MessageQueryPlanTest extends MessengerRealDataSuite {
+
+    private SQLiteDatabase database;
+    private final List<Statement> statements = new ArrayList<>();
+
+    @Before
+    public void captureStatements() {
+        database = source.get_database();
+        SQLiteDatabase recorder = mock(SQLiteDatabase.class);
+
+        when(recorder.query(anyString(), any(), any(), any(), any(), any(), any())).thenAnswer(new Answer<Cursor>() {
+            @Override
+            public Cursor answer(InvocationOnMock invocation) {
+                Object[] args = invocation.getArguments();
+                return recordQuery(args, null);
+            }
+        });
+
+        when(recorder.query(anyString(), any(), any(), any(), any(), any(), any(), any())).thenAnswer(new Answer<Cursor>() {
+            @Override
+            public Cursor answer(InvocationOnMock invocation) {
+                Object[] args = invocation.getArguments();
+                return recordQuery(args, (String) args[7]);
+            }
+        });
+
+        when(recorder.rawQuery(anyString(), any())).thenAnswer(new Answer<Cursor>() {
+            @Override
+            public Cursor answer(InvocationOnMock invocation) {
+                statements.add(new Statement((String) invocation.getArguments()[0], (String[]) invocation.getArguments()[1]));
+                return new MatrixCursor(new String[] { Message.COLUMN_ID });
+            }
+        });
+
+        when(recorder.delete(anyString(), any(), any())).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) {
+                Object[] args = invocation.getArguments();
+                if (Message.TABLE.equals(args[0])) {
+                    statements.add(new Statement("DELETE FROM " + args[0] + " WHERE " + args[1], (String[]) args[2]));
+                }
+
+                return 0;
+            }
+        });
+
+        when(recorder.update(anyString(), any(), any(), any())).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) {
+                Object[] args = invocation.getArguments();
+                if (Message.TABLE.equals(args[0])) {
+                    recordUpdate((String) args[0], (ContentValues) args[1], (String) args[2], (String[]) args[3]);
+                }
+
+                return 0;
+            }
+        });
+
+        source.set_database(recorder);
+    }
+
+    @Test
+    public void getMessages() {
+        source.getMessages(context, 1L);
+        assertUsesIndex();
+    }
+
+    @Test
+    public void getMessagesBefore() {
+        source.getMessagesBefore(context, 1L, 1000L, 10L, 100);
+        assertUsesIndex();
+    }
+
+    @Test
+    public void getMessagesAfter() {
+        source.getMessagesAfter(context, 1L, 1000L, 10L, false);
+        assertUsesIndex();
+    }
+
+    @Test
+    public void getMessageCountAfter() {
+        source.getMessageCountAfter(context, 1L, 1000L, 10L, true);
+        assertUsesIndex();
+    }
+
+    @Test
+    public void getLatestMessageInConversation() {
+        source.getLatestMessage(context, 1L);
+        assertUsesIndex();
+    }
+
+    @Test
+    public void getLatestMessage() {
+        source.getLatestMessage(context);
+        assertUsesIndex();
+    }
+
+    @Test
+    public void getUnreadMessages() {
+        source.getUnreadMessages(context);
+        assertUsesIndex();
+    }
+
+    @Test
+    public void getUnseenMessages() {
+        source.getUnseenMessages(context);
+        assertUsesIndex();
+    }
+
+    @Test
+    public void getNewerMessages() {
+        source.getNewerMessages(context, 1000L);
+        assertUsesIndex();
+    }
+
+    @Test
+    public void cleanupOldMessages() {
+        source.cleanupOldMessages(context, 1000L, false);
+        assertUsesIndex();
+    }
+
+    @Test
+    public void cleanupOldMessagesInConversation() {
+        source.cleanupOldMessagesInConversation(context, 1L, 1000L, false);
+        assertUsesIndex();
+    }
+
+    @Test
+    public void readConversation() {
+        source.readConversation(context, 1L, false);
+        assertUsesIndex();
+    }
+
+    @Test
+    public void seenConversation() {
+        source.seenConversation(context, 1L, false);
+        assertUsesIndex();
+    }
+
+    private Cursor recordQuery(Object[] args, String limit) {
+        if (Message.TABLE.equals(args[0])) {
+            String sql = SQLiteQueryBuilder.buildQueryString(false, (String) args[0], (String[]) args[1],
+                    (String) args[2], (String) args[4], (String) args[5], (String) args[6], limit);
+            statements.add(new Statement(sql, (String[]) args[3]));
+        }
+
+        return new MatrixCursor(new String[] { Message.COLUMN_ID });
+    }
+
+    private void recordUpdate(String table, ContentValues values, String where, String[] whereArgs) {
+        StringBuilder sql = new StringBuilder("UPDATE " + table + " SET ");
+        List<String> args = new ArrayList<>();
+
+        for (Map.Entry<String, Object> value : values.valueSet()) {
+            sql.append(args.isEmpty() ? "" : ",").append(value.getKey()).append("=?");
+            args.add(String.valueOf(value.getValue()));
+        }
+
+        sql.append(" WHERE ").append(where);
+        if (whereArgs != null) {
+            for (String arg : whereArgs) {
+                args.add(arg);
+            }
+        }
+
+        statements.add(new Statement(sql.toString(), args.toArray(new String[0])));
+    }
+
+    private void assertUsesIndex() {
+        assertFalse("no statements were run on the message table", statements.isEmpty());
+
+        for (Statement statement : statements) {
+            List<String> plan = explain(statement);
+            assertFalse(plan.isEmpty());
+
+            // a page that was already limited in a subquery can be put back in order on its own,
+            // that sorts at most one page instead of the whole conversation
+            boolean sortsPage = false;
+            for (String detail : plan) {
+                sortsPage |= detail.toUpperCase().contains("SUBQUERY");
+            }
+
+            for (String detail : plan) {
+                boolean fullScan = detail.matches("SCAN (TABLE )?message\\b.*") && !detail.contains("USING");
+                assertFalse(statement.sql + " scans the message table: " + plan, fullScan);
+                assertFalse(statement.sql + " sorts in a temporary b-tree: " + plan,
+                        detail.contains("TEMP B-TREE") && !sortsPage);
+            }
+        }
+    }
+
+    private List<String> explain(Statement statement) {
+        List<String> plan = new ArrayList<>();
+        Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN " + statement.sql, statement.args);
+
+        assertTrue(cursor != null && cursor.moveToFirst());
+        do {
+            plan.add(cursor.getString(cursor.getColumnIndex("detail")));
+        } while (cursor.moveToNext());
+
+        cursor.close();
+        return plan;
+    }
+
+    private static class Statement {
+        private final String sql;
+        private final String[] args;
+
+        private Statement(String sql, String[] args) {
+            this.sql = sql;
+            this.args = args;
+        }
+    }
+}
@@ -24,7 +24,10 @@ import org.junit.Ignore;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 import xyz.klinker.messenger.MessengerRealDataSuite;
 import xyz.klinker.messenger.shared.data.model.AutoReply;
@@ -363,6 +366,42 @@ public class SQLiteQueryTest extends MessengerRealDataSuite {
         assertNull(conversation);
     }
 
+    @Test
+    public void getConversationsByIds() {
+        Map<Long, Conversation> conversations = source.getConversations(context, Arrays.asList(1L, 2L, 10L, 1L));
+
+        assertEquals(2, conversations.size());
+        assertEquals("Luke Klinker", conversations.get(1L).getTitle());
+        assertEquals(source.getConversation(context, 2L).getTitle(), conversations.get(2L).getTitle());
+        assertNull(conversations.get(10L));
+    }
+
+    @Test
+    public void getLatestMessages() {
+        List<Long> ids = new ArrayList<>();
+        for (Conversation conversation : source.getAllConversationsAsList(context)) {
+            ids.add(conversation.getId());
+        }
+
+        Map<Long, List<Message>> latest = source.getLatestMessages(context, ids, 2);
+
+        for (long id : ids) {
+            List<Long> expected = new ArrayList<>();
+            for (Message message : source.getMessages(context, id, 2)) {
+                expected.add(message.getId());
+            }
+
+            List<Long> actual = new ArrayList<>();
+            if (latest.containsKey(id)) {
+                for (Message message : latest.get(id)) {
+                    actual.add(message.getId());
+                }
+            }
+
+            assertEquals(expected, actual);
+        }
+    }
+
     @Test
     public void deleteConversation() {
         assertNotSame(0, source.getMessages(context, 1L).getCount());
@@ -437,6 +476,88 @@ public class SQLiteQueryTest extends MessengerRealDataSuite {
         assertNotSame(0, source.getMessages(context, 3L).getCount());
     }
 
+    @Test
+    public void getMessagesBefore_pagesThroughConversation() {
+        Cursor all = source.getMessages(context, 1L);
+        int total = all.getCount();
+        all.close();
+
+        List<Long> ids = new ArrayList<>();
+        long timestamp = Long.MAX_VALUE;
+        long id = Long.MAX_VALUE;
+
+        Cursor page = source.getMessagesBefore(context, 1L, timestamp, id, 2);
+        while (page.moveToFirst()) {
+            assertTrue(page.getCount() <= 2);
+
+            List<Long> pageIds = new ArrayList<>();
+            do {
+                pageIds.add(page.getLong(page.getColumnIndex(Message.COLUMN_ID)));
+            } while (page.moveToNext());
+
+            page.moveToFirst();
+            timestamp = page.getLong(page.getColumnIndex(Message.COLUMN_TIMESTAMP));
+            id = page.getLong(page.getColumnIndex(Message.COLUMN_ID));
+            page.close();
+
+            ids.addAll(0, pageIds);
+            page = source.getMessagesBefore(context, 1L, timestamp, id, 2);
+        }
+
+        page.close();
+        assertEquals(total, ids.size());
+        assertEquals(total, new HashSet<>(ids).size());
+    }
+
+    @Test
+    public void getMessagesToUpload_resumesAfterEachMessage() {
+        Cursor all = source.getMessagesToUpload(context, Long.MIN_VALUE, Long.MIN_VALUE);
+        int total = all.getCount();
+
+        List<Long> ids = new ArrayList<>();
+        while (all.moveToNext()) {
+            long timestamp = all.getLong(all.getColumnIndex(Message.COLUMN_TIMESTAMP));
+            long id = all.getLong(all.getColumnIndex(Message.COLUMN_ID));
+            ids.add(id);
+
+            Cursor remaining = source.getMessagesToUpload(context, timestamp, id);
+            assertEquals(total - ids.size(), remaining.getCount());
+            remaining.close();
+        }
+
+        all.close();
+        assertEquals(total, new HashSet<>(ids).size());
+    }
+
+    @Test
+    public void getMessagesAfter() {
+        Cursor newest = source.getMessageCursorWithLimit(context, 1L, 1);
+        assertTrue(newest.moveToFirst());
+        long timestamp = newest.getLong(newest.getColumnIndex(Message.COLUMN_TIMESTAMP));
+        long id = newest.getLong(newest.getColumnIndex(Message.COLUMN_ID));
+        newest.close();
+
+        Cursor after = source.getMessagesAfter(context, 1L, timestamp, id, false);
+        assertEquals(0, after.getCount());
+        after.close();
+
+        Cursor inclusive = source.getMessagesAfter(context, 1L, timestamp, id, true);
+        assertEquals(1, inclusive.getCount());
+        inclusive.close();
+
+        Message message = new Message();
+        message.setConversationId(1L);
+        message.setType(Message.TYPE_RECEIVED);
+        message.setData("newer message");
+        message.setTimestamp(timestamp + 1);
+        message.setMimeType(MimeType.INSTANCE.getTEXT_PLAIN());
+        source.insertMessage(context, message, 1L, false, false);
+
+        after = source.getMessagesAfter(context, 1L, timestamp, id, false);
+        assertEquals(1, after.getCount());
+        after.close();
+    }
+
     @Test
     public void getMessage() {
         assertNotNull(source.getMessage(context, 1L));
@@ -480,6 +601,46 @@ public class SQLiteQueryTest extends MessengerRealDataSuite {
         assertEquals(0, messages.getCount());
     }
 
+    @Test
+    public void searchMessagesByWordPrefix() {
+        Cursor messages = source.searchMessages(context, "gri");
+        assertEquals(1, messages.getCount());
+    }
+
+    @Test
+    public void searchMessagesOnlyMatchesStartOfWords() {
+        // the index finds words by their start, so "rill" doesn't match "grill"
+        Cursor messages = source.searchMessages(context, "rill");
+        assertEquals(0, messages.getCount());
+    }
+
+    @Test
+    public void searchMessagesInsideWordsBeforeIndexIsReady() {
+        source.get_database().execSQL(MessageSearchIndex.INSTANCE.readyStatement(false));
+
+        Cursor messages = source.searchMessages(context, "rill");
+        assertEquals(1, messages.getCount());
+    }
+
+    @Test
+    public void searchIndexIsReadyForNewDatabase() {
+        assertTrue(source.isMessageSearchIndexReady(context));
+    }
+
+    @Test
+    public void searchMessagesAfterDelete() {
+        source.deleteMessage(context, 6, false);
+        Cursor messages = source.searchMessages(context, "grill");
+        assertEquals(0, messages.getCount());
+    }
+
+    @Test
+    public void searchMessagesAfterDataUpdate() {
+        source.updateMessageData(context, 6, "Can you help with my smoker?");
+        assertEquals(0, source.searchMessages(context, "grill").getCount());
+        assertEquals(1, source.searchMessages(context, "smoker").getCount());
+    }
+
     @Test
     public void searchMessagesTimestamp() {
         Cursor messages = source.searchMessages(context, 1000);
@@ -0,0 +1,110 @@
+package xyz.klinker.messenger.shared.receiver
+
+import android.content.Context
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import xyz.klinker.messenger.MessengerRealDataSuite
+import xyz.klinker.messenger.shared.data.model.Conversation
+import xyz.klinker.messenger.shared.data.model.Message
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+class ChangeFeedTest : MessengerRealDataSuite() {
+
+    private val delivered = LinkedBlockingQueue<ChangeFeed.ChangeSet>()
+    private val listener = object : ChangeFeed.Listener {
+        override fun onChanges(context: Context, changes: ChangeFeed.ChangeSet) {
+            delivered.add(changes)
+        }
+    }
+
+    private lateinit var conversations: List<Conversation>
+
+    @Before
+    fun register() {
+        conversations = source.getAllConversationsAsList(context)
+        ChangeFeed.register(listener)
+    }
+
+    @After
+    fun unregister() {
+        ChangeFeed.unregister(listener)
+    }
+
+    @Test
+    fun coalescesConversationChanges() {
+        val conversation = conversations[0]
+        ChangeFeed.conversationChanged(context, conversation.id, "first", false)
+        ChangeFeed.conversationChanged(context, conversation.id, "second", true)
+        ChangeFeed.conversationTitleChanged(context, conversation.id, "title")
+
+        val changes = nextChanges().conversations
+        assertEquals(1, changes.size)
+        assertEquals("second", changes[0].snippet)
+        assertEquals("title", changes[0].title)
+        assertEquals(true, changes[0].read)
+        assertEquals(conversation.id, changes[0].conversation!!.id)
+    }
+
+    @Test
+    fun loadsMissingSnippets() {
+        ChangeFeed.conversationChanged(context, conversations[0].id, null, true)
+        ChangeFeed.conversationChanged(context, -5, null, true)
+
+        val changes = nextChanges().conversations
+        assertEquals(conversations[0].snippet, changes[0].snippet)
+        assertNull(changes[1].conversation)
+        assertNull(changes[1].snippet)
+    }
+
+    @Test
+    fun keepsReceivedMessages() {
+        ChangeFeed.messageChanged(context, 1, "received", Message.TYPE_RECEIVED)
+        ChangeFeed.messageChanged(context, 1, null, Message.TYPE_DELIVERED)
+        ChangeFeed.messageChanged(context, 2, "sent", Message.TYPE_SENDING)
+        ChangeFeed.messageChanged(context, 2, null, Message.TYPE_SENT)
+
+        val changes = nextChanges().messages
+        assertEquals(2, changes.size)
+        assertEquals(Message.TYPE_RECEIVED, changes[0].messageType)
+        assertEquals("received", changes[0].newMessageText)
+        assertEquals(Message.TYPE_SENT, changes[1].messageType)
+        assertEquals("sent", changes[1].newMessageText)
+    }
+
+    @Test
+    fun ignoresChangesWithoutListeners() {
+        ChangeFeed.unregister(listener)
+        ChangeFeed.messageChanged(context, 1, "received", Message.TYPE_RECEIVED)
+        ChangeFeed.register(listener)
+
+        assertNull(delivered.poll(100, TimeUnit.MILLISECONDS))
+    }
+
+    @Test
+    fun coalescesBurstOfChanges() {
+        for (i in 0 until 1000) {
+            val id = conversations[i % conversations.size].id
+            ChangeFeed.messageChanged(context, id, "message $i", Message.TYPE_RECEIVED)
+            ChangeFeed.conversationChanged(context, id, "message $i", false)
+        }
+
+        // the burst could straddle a frame, but it should never come close to one per change
+        val sets = ArrayList<ChangeFeed.ChangeSet>()
+        sets.add(nextChanges())
+        while (true) {
+            sets.add(delivered.poll(100, TimeUnit.MILLISECONDS) ?: break)
+        }
+
+        assertTrue(sets.size <= 3)
+        assertEquals(conversations.size, sets.flatMap { it.conversations }.map { it.conversationId }.distinct().size)
+        sets.flatMap { it.conversations }.forEach { assertNotNull(it.conversation) }
+    }
+
+    private fun nextChanges() = delivered.poll(5, TimeUnit.SECONDS)!!
+}
@@ -17,7 +17,6 @@
 package xyz.klinker.messenger.shared.receiver;
 
 import android.content.Context;
-import android.content.Intent;
 
 import org.hamcrest.Matchers;
 import org.junit.Before;
@@ -25,6 +24,7 @@ import org.junit.Test;
 import org.mockito.Mock;
 import org.robolectric.RuntimeEnvironment;
 
+import java.util.Collections;
 import java.util.List;
 
 import xyz.klinker.messenger.MessengerRobolectricSuite;
@@ -49,14 +49,13 @@ public class ConversationListUpdatedReceiverTest extends MessengerRobolectricSui
     private ConversationListUpdatedReceiver receiver;
     private Context context;
     private SectionType today;
+    private ChangeFeed.ConversationChange change;
 
     @Mock
     private ConversationListFragment fragment;
     @Mock
     private ConversationListAdapter adapter;
     @Mock
-    private Intent intent;
-    @Mock
     private List<Conversation> conversations;
     @Mock
     private List<SectionType> sectionTypes;
@@ -70,9 +69,9 @@ public class ConversationListUpdatedReceiverTest extends MessengerRobolectricSui
         when(fragment.isFragmentAdded()).thenReturn(true);
         when(fragment.getExpandedId()).thenReturn(0L);
         when(fragment.getAdapter()).thenReturn(adapter);
-        when(intent.getLongExtra("conversation_id", -1)).thenReturn(1L);
-        when(intent.getStringExtra("snippet")).thenReturn("hey");
-        when(intent.getBooleanExtra("read", false)).thenReturn(false);
+        change = new ChangeFeed.ConversationChange(1L);
+        change.setSnippet("hey");
+        change.setRead(false);
         when(adapter.getConversations()).thenReturn(conversations);
         when(adapter.getSectionCounts()).thenReturn(sectionTypes);
 
@@ -82,21 +81,21 @@ public class ConversationListUpdatedReceiverTest extends MessengerRobolectricSui
     @Test
     public void fragmentNotAdded() {
         when(fragment.isFragmentAdded()).thenReturn(false);
-        receiver.onReceive(context, intent);
+        receiver.onChanges(context, changes());
         verifyNoMoreInteractions(adapter);
     }
 
     @Test
     public void noConversationId() {
-        when(intent.getLongExtra("conversation_id", -1)).thenReturn(-1L);
-        receiver.onReceive(context, intent);
+        change = new ChangeFeed.ConversationChange(-1L);
+        receiver.onChanges(context, changes());
         verifyNoMoreInteractions(adapter);
     }
 
     @Test
     public void conversationAlreadyExpanded() {
         when(fragment.getExpandedId()).thenReturn(1L);
-        receiver.onReceive(context, intent);
+        receiver.onChanges(context, changes());
         verifyNoMoreInteractions(adapter);
     }
 
@@ -106,7 +105,7 @@ public class ConversationListUpdatedReceiverTest extends MessengerRobolectricSui
         when(adapter.getCountForSection(SectionType.TODAY)).thenReturn(0);
         when(adapter.getCountForSection(SectionType.PINNED)).thenReturn(0);
 
-        receiver.onReceive(context, intent);
+        receiver.onChanges(context, changes());
 
         verify(conversations).add(0, null);
         verify(sectionTypes).add(0, new SectionType(SectionType.TODAY, 1));
@@ -119,7 +118,7 @@ public class ConversationListUpdatedReceiverTest extends MessengerRobolectricSui
         when(adapter.getCountForSection(SectionType.TODAY)).thenReturn(0);
         when(adapter.getCountForSection(SectionType.PINNED)).thenReturn(2);
 
-        receiver.onReceive(context, intent);
+        receiver.onChanges(context, changes());
 
         verify(conversations).add(2, null);
         verify(sectionTypes).add(1, new SectionType(SectionType.TODAY, 1));
@@ -133,7 +132,7 @@ public class ConversationListUpdatedReceiverTest extends MessengerRobolectricSui
         when(adapter.getCountForSection(SectionType.Companion.getTODAY())).thenReturn(1);
         when(adapter.getCountForSection(SectionType.Companion.getPINNED())).thenReturn(0);
 
-        receiver.onReceive(context, intent);
+        receiver.onChanges(context, changes());
 
         verify(conversations).add(0, null);
         assertEquals(2, today.getCount());
@@ -147,7 +146,7 @@ public class ConversationListUpdatedReceiverTest extends MessengerRobolectricSui
         when(adapter.getCountForSection(SectionType.Companion.getTODAY())).thenReturn(1);
         when(adapter.getCountForSection(SectionType.Companion.getPINNED())).thenReturn(2);
 
-        receiver.onReceive(context, intent);
+        receiver.onChanges(context, changes());
 
         verify(conversations).add(2, null);
         assertEquals(2, today.getCount());
@@ -161,7 +160,7 @@ public class ConversationListUpdatedReceiverTest extends MessengerRobolectricSui
         when(adapter.getCountForSection(SectionType.Companion.getTODAY())).thenReturn(0);
         when(adapter.getCountForSection(SectionType.Companion.getPINNED())).thenReturn(0);
 
-        receiver.onReceive(context, intent);
+        receiver.onChanges(context, changes());
 
         verify(adapter).removeItem(3, ReorderType.NEITHER);
         verify(conversations).add(eq(0), any(Conversation.class));
@@ -176,7 +175,7 @@ public class ConversationListUpdatedReceiverTest extends MessengerRobolectricSui
         when(adapter.getCountForSection(SectionType.Companion.getTODAY())).thenReturn(0);
         when(adapter.getCountForSection(SectionType.Companion.getPINNED())).thenReturn(1);
 
-        receiver.onReceive(context, intent);
+        receiver.onChanges(context, changes());
 
         verify(adapter).removeItem(5, ReorderType.NEITHER);
         verify(conversations).add(eq(1), any(Conversation.class));
@@ -192,7 +191,7 @@ public class ConversationListUpdatedReceiverTest extends MessengerRobolectricSui
         when(adapter.getCountForSection(SectionType.Companion.getTODAY())).thenReturn(1);
         when(adapter.getCountForSection(SectionType.Companion.getPINNED())).thenReturn(0);
 
-        receiver.onReceive(context, intent);
+        receiver.onChanges(context, changes());
 
         verify(adapter).removeItem(4, ReorderType.NEITHER);
         verify(conversations).add(eq(0), any(Conversation.class));
@@ -208,7 +207,7 @@ public class ConversationListUpdatedReceiverTest extends MessengerRobolectricSui
         when(adapter.getCountForSection(SectionType.Companion.getTODAY())).thenReturn(1);
         when(adapter.getCountForSection(SectionType.Companion.getPINNED())).thenReturn(1);
 
-        receiver.onReceive(context, intent);
+        receiver.onChanges(context, changes());
 
         verify(adapter).removeItem(6, ReorderType.NEITHER);
         verify(conversations).add(eq(1), any(Conversation.class));
@@ -224,7 +223,7 @@ public class ConversationListUpdatedReceiverTest extends MessengerRobolectricSui
         when(adapter.getCountForSection(SectionType.Companion.getTODAY())).thenReturn(1);
         when(adapter.getCountForSection(SectionType.Companion.getPINNED())).thenReturn(2);
 
-        receiver.onReceive(context, intent);
+        receiver.onChanges(context, changes());
 
         verify(adapter).notifyItemChanged(4);
     }
@@ -237,7 +236,7 @@ public class ConversationListUpdatedReceiverTest extends MessengerRobolectricSui
         when(adapter.getCountForSection(SectionType.Companion.getTODAY())).thenReturn(1);
         when(adapter.getCountForSection(SectionType.Companion.getPINNED())).thenReturn(2);
 
-        receiver.onReceive(context, intent);
+        receiver.onChanges(context, changes());
 
         verify(adapter).notifyItemChanged(2);
     }
@@ -250,7 +249,7 @@ public class ConversationListUpdatedReceiverTest extends MessengerRobolectricSui
         when(adapter.getCountForSection(SectionType.Companion.getTODAY())).thenReturn(1);
         when(adapter.getCountForSection(SectionType.Companion.getPINNED())).thenReturn(0);
 
-        receiver.onReceive(context, intent);
+        receiver.onChanges(context, changes());
 
         verify(adapter).notifyItemChanged(1);
     }
@@ -261,6 +260,11 @@ public class ConversationListUpdatedReceiverTest extends MessengerRobolectricSui
         assertThat(receiver.shouldIgnoreSnippet("{ json }"), Matchers.is(true));
     }
 
+    private ChangeFeed.ChangeSet changes() {
+        return new ChangeFeed.ChangeSet(Collections.singletonList(change),
+                Collections.<ChangeFeed.MessageChange>emptyList());
+    }
+
     private void setFakeConversations() {
         when(conversations.size()).thenReturn(3);
 
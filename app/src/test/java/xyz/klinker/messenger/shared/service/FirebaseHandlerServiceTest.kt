@@ -0,0 +1,163 @@
+package xyz.klinker.messenger.shared.service
+
+import android.content.ContentValues
+import android.graphics.Color
+import org.json.JSONObject
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Before
+import org.junit.Test
+import xyz.klinker.messenger.MessengerRealDataSuite
+import xyz.klinker.messenger.api.implementation.Account
+import xyz.klinker.messenger.shared.data.MimeType
+import xyz.klinker.messenger.shared.data.model.Conversation
+import xyz.klinker.messenger.shared.data.model.Message
+
+class FirebaseHandlerServiceTest : MessengerRealDataSuite() {
+
+    private var key: String? = null
+    private var accountId: String? = null
+
+    @Before
+    fun setUpAccount() {
+        // none of the replayed events need to be decrypted, we just need to look signed in
+        key = Account.key
+        accountId = Account.accountId
+        Account.key = "key"
+        Account.accountId = "account"
+    }
+
+    @After
+    fun resetAccount() {
+        Account.key = key
+        Account.accountId = accountId
+    }
+
+    @Test
+    fun batchedEventsEndInTheSameState() {
+        val events = recordEvents(conversations = 20, messagesEach = 10)
+
+        insertConversations(conversations = 20, messagesEach = 10)
+        events.forEach { FirebaseHandlerService.process(context, it.first, it.second) }
+        val expected = snapshot()
+
+        setUp()
+        insertConversations(conversations = 20, messagesEach = 10)
+        events.chunked(100).forEach { FirebaseHandlerService.process(context, it) }
+
+        assertEquals(expected, snapshot())
+    }
+
+    @Test
+    fun skipsEventsThatCannotBeApplied() {
+        insertConversations(conversations = 1, messagesEach = 2)
+
+        FirebaseHandlerService.process(context, listOf(
+                "update_message_type" to "not json",
+                "update_message_type" to JSONObject().put("id", message(0, 1).toString()).put("message_type", Message.TYPE_SENT).toString()))
+
+        assertEquals(Message.TYPE_SENT, source.getMessage(context, message(0, 1))!!.type)
+    }
+
+    @Test
+    fun cleansAccountOutsideOfTheBatch() {
+        insertConversations(conversations = 1, messagesEach = 2)
+
+        FirebaseHandlerService.process(context, listOf(
+                "update_message_type" to JSONObject().put("id", message(0, 0).toString()).put("message_type", Message.TYPE_SENT).toString(),
+                "cleaned_account" to JSONObject().put("id", "account").toString(),
+                "update_message_type" to JSONObject().put("id", message(0, 1).toString()).put("message_type", Message.TYPE_SENT).toString()))
+
+        assertFalse(source._database!!.inTransaction())
+        assertEquals(listOf<String>(), snapshot())
+    }
+
+    /**
+     * What a phone sees while another device works through its conversations: messages getting
+     * delivered, some of them deleted, then each conversation being seen and read.
+     */
+    private fun recordEvents(conversations: Int, messagesEach: Int): List<Pair<String, String>> {
+        val events = ArrayList<Pair<String, String>>()
+
+        for (c in 0 until conversations) {
+            for (m in 0 until messagesEach) {
+                val id = message(c, m).toString()
+                events.add("update_message_type" to JSONObject().put("id", id).put("message_type", Message.TYPE_SENT).toString())
+                events.add("update_message_type" to JSONObject().put("id", id).put("message_type", Message.TYPE_DELIVERED).toString())
+
+                if (m % 4 == 0) {
+                    events.add("removed_message" to JSONObject().put("id", id).toString())
+                }
+            }
+
+            val id = (CONVERSATION_ID + c).toString()
+            events.add("seen_conversation" to JSONObject().put("id", id).toString())
+            if (c % 2 == 0) {
+                events.add("read_conversation" to JSONObject().put("id", id).put("android_device", "other device").toString())
+            }
+        }
+
+        return events
+    }
+
+    private fun snapshot(): List<String> {
+        val state = ArrayList<String>()
+
+        source._database!!.rawQuery("SELECT " + Message.COLUMN_ID + ", " + Message.COLUMN_TYPE + ", " + Message.COLUMN_READ + ", " +
+                Message.COLUMN_SEEN + " FROM " + Message.TABLE + " ORDER BY " + Message.COLUMN_ID, null).use {
+            while (it.moveToNext()) {
+                state.add("message ${it.getLong(0)}: ${it.getInt(1)} ${it.getInt(2)} ${it.getInt(3)}")
+            }
+        }
+
+        source._database!!.rawQuery("SELECT " + Conversation.COLUMN_ID + ", " + Conversation.COLUMN_READ + ", " +
+                Conversation.COLUMN_SNIPPET + " FROM " + Conversation.TABLE + " ORDER BY " + Conversation.COLUMN_ID, null).use {
+            while (it.moveToNext()) {
+                state.add("conversation ${it.getLong(0)}: ${it.getInt(1)} ${it.getString(2)}")
+            }
+        }
+
+        return state
+    }
+
+    private fun insertConversations(conversations: Int, messagesEach: Int) {
+        val database = source._database!!
+
+        for (c in 0 until conversations) {
+            val conversation = ContentValues()
+            conversation.put(Conversation.COLUMN_ID, CONVERSATION_ID + c)
+            conversation.put(Conversation.COLUMN_COLOR, Color.BLUE)
+            conversation.put(Conversation.COLUMN_COLOR_DARK, Color.BLUE)
+            conversation.put(Conversation.COLUMN_COLOR_LIGHT, Color.BLUE)
+            conversation.put(Conversation.COLUMN_COLOR_ACCENT, Color.RED)
+            conversation.put(Conversation.COLUMN_PINNED, 0)
+            conversation.put(Conversation.COLUMN_READ, 0)
+            conversation.put(Conversation.COLUMN_TIMESTAMP, 1000L * c)
+            conversation.put(Conversation.COLUMN_TITLE, "Conversation $c")
+            conversation.put(Conversation.COLUMN_PHONE_NUMBERS, "555${1000000 + c}")
+            conversation.put(Conversation.COLUMN_ID_MATCHER, "id matcher $c")
+            conversation.put(Conversation.COLUMN_MUTE, 0)
+            database.insert(Conversation.TABLE, null, conversation)
+
+            for (m in 0 until messagesEach) {
+                val message = ContentValues()
+                message.put(Message.COLUMN_ID, message(c, m))
+                message.put(Message.COLUMN_CONVERSATION_ID, CONVERSATION_ID + c)
+                message.put(Message.COLUMN_TYPE, Message.TYPE_SENDING)
+                message.put(Message.COLUMN_DATA, "message $c-$m")
+                message.put(Message.COLUMN_TIMESTAMP, 1000L * c + m)
+                message.put(Message.COLUMN_MIME_TYPE, MimeType.TEXT_PLAIN)
+                message.put(Message.COLUMN_READ, 0)
+                message.put(Message.COLUMN_SEEN, 0)
+                database.insert(Message.TABLE, null, message)
+            }
+        }
+    }
+
+    private fun message(conversation: Int, message: Int) = (CONVERSATION_ID + conversation) * 100 + message
+
+    companion object {
+        private const val CONVERSATION_ID = 100000L
+    }
+}
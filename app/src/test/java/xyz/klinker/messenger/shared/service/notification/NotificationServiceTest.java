@@ -28,7 +28,10 @@ import org.robolectric.Robolectric;
 import org.robolectric.RuntimeEnvironment;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import xyz.klinker.messenger.MessengerRobolectricSuite;
 import xyz.klinker.messenger.shared.data.model.Conversation;
@@ -44,7 +47,6 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
-import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.spy;
 
@@ -81,23 +83,25 @@ public class NotificationServiceTest extends MessengerRobolectricSuite {
     public void getUnseenConversations() {
         service = spy(service);
         doReturn(getUnseenCursor()).when(source).getUnseenMessages(any(Context.class));
-        doReturn(getConversation1()).when(source).getConversation(any(Context.class), eq(1L));
-        doReturn(getConversation2()).when(source).getConversation(any(Context.class), eq(2L));
-        doReturn(getConversation3()).when(source).getConversation(any(Context.class), eq(3L));
-
-        List<NotificationConversation> conversations = new NotificationUnreadConversationQuery(service).getUnseenConversations(source);
-
-        assertEquals(3, conversations.size());
-        assertEquals("Luke Klinker", conversations.get(2).getTitle());
-        assertEquals(3, conversations.get(2).getMessages().size());
-        assertEquals("Hey what's up?", conversations.get(2).getMessages().get(0).getData());
-        assertEquals("Yo, you around?", conversations.get(2).getMessages().get(1).getData());
-        assertEquals("Hello?", conversations.get(2).getMessages().get(2).getData());
-        assertEquals("Aaron Klinker", conversations.get(1).getTitle());
-        assertEquals(1, conversations.get(1).getMessages().size());
-        assertEquals("Can we hang out tonight?", conversations.get(1).getMessages().get(0).getData());
-        assertEquals(1, conversations.get(0).getMessages().size());
-        assertEquals("image/jpg", conversations.get(0).getMessages().get(0).getMimeType());
+        Map<Long, Conversation> conversations = new HashMap<>();
+        conversations.put(1L, getConversation1());
+        conversations.put(2L, getConversation2());
+        conversations.put(3L, getConversation3());
+        doReturn(conversations).when(source).getConversations(any(Context.class), any(Collection.class));
+
+        List<NotificationConversation> unseen = new NotificationUnreadConversationQuery(service).getUnseenConversations(source);
+
+        assertEquals(3, unseen.size());
+        assertEquals("Luke Klinker", unseen.get(2).getTitle());
+        assertEquals(3, unseen.get(2).getMessages().size());
+        assertEquals("Hey what's up?", unseen.get(2).getMessages().get(0).getData());
+        assertEquals("Yo, you around?", unseen.get(2).getMessages().get(1).getData());
+        assertEquals("Hello?", unseen.get(2).getMessages().get(2).getData());
+        assertEquals("Aaron Klinker", unseen.get(1).getTitle());
+        assertEquals(1, unseen.get(1).getMessages().size());
+        assertEquals("Can we hang out tonight?", unseen.get(1).getMessages().get(0).getData());
+        assertEquals(1, unseen.get(0).getMessages().size());
+        assertEquals("image/jpg", unseen.get(0).getMessages().get(0).getMimeType());
     }
 
     @Test
@@ -0,0 +1,94 @@
+package xyz.klinker.messenger.shared.service.notification
+
+import android.content.ContentValues
+import android.graphics.Color
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import xyz.klinker.messenger.MessengerRealDataSuite
+import xyz.klinker.messenger.shared.data.MimeType
+import xyz.klinker.messenger.shared.data.model.Conversation
+import xyz.klinker.messenger.shared.data.model.Message
+import xyz.klinker.messenger.shared.util.MockableDataSourceWrapper
+
+class NotificationUnreadConversationQueryTest : MessengerRealDataSuite() {
+
+    @Test
+    fun groupsUnseenMessagesByConversation() {
+        markEverythingSeen()
+        insertUnreadConversations(3, messagesEach = 2)
+
+        val conversations = NotificationUnreadConversationQuery(context).getUnseenConversations(MockableDataSourceWrapper(source))
+
+        assertEquals(3, conversations.size)
+        assertEquals(listOf(CONVERSATION_ID + 2, CONVERSATION_ID + 1, CONVERSATION_ID), conversations.map { it.id })
+
+        val newest = conversations[0]
+        assertEquals("Conversation 2", newest.title)
+        assertEquals(listOf("message 2-0", "message 2-1"), newest.messages.map { it.data })
+        assertEquals(newest.messages[0].id, newest.unseenMessageId)
+        assertEquals(listOf("message 2-1", "message 2-0"), newest.realMessages.map { it.data })
+    }
+
+    @Test
+    fun rebuildsNotificationsForManyUnreadThreads() {
+        val query = NotificationUnreadConversationQuery(context)
+        val wrapper = MockableDataSourceWrapper(source)
+        markEverythingSeen()
+
+        var inserted = 0
+        for (threads in listOf(10, 50, 200)) {
+            insertUnreadConversations(threads - inserted, messagesEach = 3, offset = inserted)
+            inserted = threads
+
+            val conversations = query.getUnseenConversations(wrapper)
+
+            assertEquals(threads, conversations.size)
+            conversations.forEach { assertEquals(3, it.messages.size) }
+        }
+    }
+
+    private fun markEverythingSeen() {
+        source._database!!.execSQL("UPDATE " + Message.TABLE + " SET " + Message.COLUMN_SEEN + "=1")
+    }
+
+    private fun insertUnreadConversations(count: Int, messagesEach: Int, offset: Int = 0) {
+        val database = source._database!!
+
+        for (i in offset until offset + count) {
+            val conversationId = CONVERSATION_ID + i
+            val timestamp = 1000L * i
+
+            val conversation = ContentValues()
+            conversation.put(Conversation.COLUMN_ID, conversationId)
+            conversation.put(Conversation.COLUMN_COLOR, Color.BLUE)
+            conversation.put(Conversation.COLUMN_COLOR_DARK, Color.BLUE)
+            conversation.put(Conversation.COLUMN_COLOR_LIGHT, Color.BLUE)
+            conversation.put(Conversation.COLUMN_COLOR_ACCENT, Color.RED)
+            conversation.put(Conversation.COLUMN_PINNED, 0)
+            conversation.put(Conversation.COLUMN_READ, 0)
+            conversation.put(Conversation.COLUMN_TIMESTAMP, timestamp + messagesEach)
+            conversation.put(Conversation.COLUMN_TITLE, "Conversation $i")
+            conversation.put(Conversation.COLUMN_PHONE_NUMBERS, "555${1000000 + i}")
+            conversation.put(Conversation.COLUMN_ID_MATCHER, "id matcher $i")
+            conversation.put(Conversation.COLUMN_MUTE, 0)
+            database.insert(Conversation.TABLE, null, conversation)
+
+            for (m in 0 until messagesEach) {
+                val message = ContentValues()
+                message.put(Message.COLUMN_ID, conversationId * 10 + m)
+                message.put(Message.COLUMN_CONVERSATION_ID, conversationId)
+                message.put(Message.COLUMN_TYPE, Message.TYPE_RECEIVED)
+                message.put(Message.COLUMN_DATA, "message $i-$m")
+                message.put(Message.COLUMN_TIMESTAMP, timestamp + m)
+                message.put(Message.COLUMN_MIME_TYPE, MimeType.TEXT_PLAIN)
+                message.put(Message.COLUMN_READ, 0)
+                message.put(Message.COLUMN_SEEN, 0)
+                database.insert(Message.TABLE, null, message)
+            }
+        }
+    }
+
+    companion object {
+        private const val CONVERSATION_ID = 100000L
+    }
+}
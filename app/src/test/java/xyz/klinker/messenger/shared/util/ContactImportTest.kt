@@ -0,0 +1,103 @@
+package xyz.klinker.messenger.shared.util
+
+import android.content.ContentResolver
+import android.content.ContentValues
+import android.database.MatrixCursor
+import android.graphics.Color
+import android.net.Uri
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.mockito.ArgumentMatchers.any
+import org.mockito.Mockito.doReturn
+import org.mockito.Mockito.mock
+import xyz.klinker.messenger.MessengerRealDataSuite
+import xyz.klinker.messenger.shared.data.model.Contact
+import xyz.klinker.messenger.shared.data.model.Conversation
+
+class ContactImportTest : MessengerRealDataSuite() {
+
+    private val resolver = mock(ContentResolver::class.java)
+
+    @Before
+    fun setUpResolver() {
+        doReturn(resolver).`when`(context).contentResolver
+    }
+
+    @Test
+    fun importsAddressBook() {
+        insertConversations(2000)
+        addressBook(3000)
+
+        val initial = source.getContactsCount(context)
+        source.insertContacts(context) { insert -> ContactUtils.queryContacts(context, source, insert) }
+
+        assertEquals(3000, source.getContactsCount(context) - initial)
+    }
+
+    @Test
+    fun usesColorsFromConversations() {
+        insertConversations(10)
+        addressBook(20)
+
+        val contacts = ContactUtils.queryContacts(context, source)
+
+        assertEquals(20, contacts.size)
+        assertEquals(colorFor(3), contacts[3].colors.color)
+        assertEquals(colorFor(9), contacts[9].colors.color)
+        assertEquals(SmsMmsUtils.createIdMatcher(number(3)).default, contacts[3].idMatcher)
+    }
+
+    @Test
+    fun skipsRowsWithoutNumbers() {
+        val cursor = MatrixCursor(arrayOf("display_name", "data1", "photo_thumb_uri", "data2"))
+        cursor.addRow(arrayOf<Any?>("No Number", null, null, 2))
+        cursor.addRow(arrayOf<Any?>("Has Number", number(1), null, 2))
+        doReturn(cursor).`when`(resolver).query(any(Uri::class.java), any(), any(), any(), any())
+
+        val contacts = ArrayList<Contact>()
+        assertEquals(1, ContactUtils.queryContacts(context, source) { contacts.add(it) })
+        assertEquals("Has Number", contacts[0].name)
+    }
+
+    private fun addressBook(size: Int) {
+        val cursor = MatrixCursor(arrayOf("display_name", "data1", "photo_thumb_uri", "data2"))
+        for (i in 0 until size) {
+            cursor.addRow(arrayOf<Any?>("Contact $i", number(i), null, 2))
+        }
+
+        doReturn(cursor).`when`(resolver).query(any(Uri::class.java), any(), any(), any(), any())
+    }
+
+    private fun insertConversations(count: Int) {
+        val database = source._database!!
+        database.beginTransaction()
+
+        for (i in 0 until count) {
+            val conversation = ContentValues()
+            conversation.put(Conversation.COLUMN_ID, CONVERSATION_ID + i)
+            conversation.put(Conversation.COLUMN_COLOR, colorFor(i))
+            conversation.put(Conversation.COLUMN_COLOR_DARK, Color.BLUE)
+            conversation.put(Conversation.COLUMN_COLOR_LIGHT, Color.BLUE)
+            conversation.put(Conversation.COLUMN_COLOR_ACCENT, Color.RED)
+            conversation.put(Conversation.COLUMN_PINNED, 0)
+            conversation.put(Conversation.COLUMN_READ, 1)
+            conversation.put(Conversation.COLUMN_TIMESTAMP, 1000L * i)
+            conversation.put(Conversation.COLUMN_TITLE, "Conversation $i")
+            conversation.put(Conversation.COLUMN_PHONE_NUMBERS, number(i))
+            conversation.put(Conversation.COLUMN_ID_MATCHER, SmsMmsUtils.createIdMatcher(number(i)).default)
+            conversation.put(Conversation.COLUMN_MUTE, 0)
+            database.insert(Conversation.TABLE, null, conversation)
+        }
+
+        database.setTransactionSuccessful()
+        database.endTransaction()
+    }
+
+    private fun number(i: Int) = "515${9000000 + i}"
+    private fun colorFor(i: Int) = 0xFF000000.toInt() + i
+
+    companion object {
+        private const val CONVERSATION_ID = 100000L
+    }
+}
@@ -0,0 +1,118 @@
+package xyz.klinker.messenger.shared.util
+
+import android.content.ContentResolver
+import android.content.Context
+import android.database.MatrixCursor
+import android.net.Uri
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.mockito.ArgumentMatchers.any
+import org.mockito.Mockito.doAnswer
+import org.mockito.Mockito.doReturn
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.spy
+import org.robolectric.RuntimeEnvironment
+import xyz.klinker.messenger.MessengerRobolectricSuite
+
+class ContactLookupCacheTest : MessengerRobolectricSuite() {
+
+    private val resolver = mock(ContentResolver::class.java)
+    private lateinit var context: Context
+
+    private val contacts = HashMap<String, String>()
+    private var queries = 0
+
+    @Before
+    fun setUp() {
+        context = spy(RuntimeEnvironment.application)
+        doReturn(resolver).`when`(context).contentResolver
+
+        doAnswer {
+            queries++
+
+            val cursor = MatrixCursor(arrayOf("display_name"))
+            val name = contacts[(it.arguments[0] as Uri).lastPathSegment]
+            if (name != null) {
+                cursor.addRow(arrayOf<Any?>(name))
+            }
+
+            cursor
+        }.`when`(resolver).query(any(Uri::class.java), any(), any(), any(), any())
+
+        ContactLookupCache.invalidate()
+        ContactLookupCache.resetStats()
+    }
+
+    @Test
+    fun cachesContactNames() {
+        contacts["5159911493"] = "Luke Klinker"
+
+        assertEquals("Luke Klinker", ContactUtils.findContactNames("5159911493", context))
+        assertEquals("Luke Klinker", ContactUtils.findContactNames("5159911493", context))
+        assertEquals("Luke Klinker", ContactUtils.findContactNames("(515) 991-1493", context))
+
+        assertEquals(1, queries)
+        assertEquals(2, ContactLookupCache.hitCount)
+        assertEquals(1, ContactLookupCache.missCount)
+    }
+
+    @Test
+    fun cachesNumbersWithoutContacts() {
+        val first = ContactUtils.findContactNames("5159911493", context)
+        val queriesForFirstLookup = queries
+
+        assertEquals(first, ContactUtils.findContactNames("5159911493", context))
+        assertEquals(queriesForFirstLookup, queries)
+    }
+
+    @Test
+    fun cachesEachLookupSeparately() {
+        contacts["5159911493"] = "Luke Klinker"
+
+        ContactUtils.findContactNames("5159911493", context)
+        ContactUtils.findImageUri("5159911493", context)
+        ContactUtils.findImageUri("5159911493", context)
+
+        assertEquals(2, queries)
+    }
+
+    @Test
+    fun invalidatesWhenContactsChange() {
+        assertNotEquals("Luke Klinker", ContactUtils.findContactNames("5159911493", context))
+
+        contacts["5159911493"] = "Luke Klinker"
+        ContactLookupCache.observer.onChange(false)
+
+        assertEquals("Luke Klinker", ContactUtils.findContactNames("5159911493", context))
+    }
+
+    @Test
+    fun reportsHitRate() {
+        contacts["5159911493"] = "Luke Klinker"
+
+        for (i in 0 until 4) {
+            ContactUtils.findContactNames("5159911493", context)
+        }
+
+        assertEquals(0.75, ContactLookupCache.hitRate, 0.001)
+    }
+
+    @Test
+    fun resolvesRepeatedNumbers() {
+        for (i in 0 until 100) {
+            contacts[number(i)] = "Contact $i"
+        }
+
+        for (i in 0 until 10000) {
+            assertEquals("Contact ${i % 100}", ContactUtils.findContactNames(number(i % 100), context))
+        }
+
+        assertEquals(100, queries)
+        assertTrue(ContactLookupCache.hitRate > 0.98)
+    }
+
+    private fun number(i: Int) = "515${9000000 + i}"
+}
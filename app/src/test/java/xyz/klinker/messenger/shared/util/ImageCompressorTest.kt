@@ -0,0 +1,134 @@
+package xyz.klinker.messenger.shared.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import xyz.klinker.messenger.MessengerSuite
+import kotlin.math.pow
+import kotlin.math.roundToInt
+
+class ImageCompressorTest : MessengerSuite() {
+
+    @Test
+    fun searchesForHighestQualityThatFits() {
+        val encoded = ArrayList<Int>()
+        val quality = ImageCompressor.searchQuality(620) { encoded.add(it); it * 10L }
+
+        assertEquals(60, quality)
+        assertEquals(60, encoded.last())
+        assertTrue(encoded.size <= 5)
+    }
+
+    @Test
+    fun usesMaxQualityWhenItFits() {
+        val encoded = ArrayList<Int>()
+
+        assertEquals(90, ImageCompressor.searchQuality(1000) { encoded.add(it); it * 10L })
+        assertEquals(listOf(90), encoded)
+    }
+
+    @Test
+    fun endsOnLowestQualityWhenNothingFits() {
+        val encoded = ArrayList<Int>()
+
+        assertNull(ImageCompressor.searchQuality(100) { encoded.add(it); it * 10L })
+        assertEquals(40, encoded.last())
+    }
+
+    @Test
+    fun samplesWithoutGoingBelowTarget() {
+        assertEquals(1, ImageCompressor.sampleSize(1.0))
+        assertEquals(1, ImageCompressor.sampleSize(0.6))
+        assertEquals(2, ImageCompressor.sampleSize(0.5))
+        assertEquals(2, ImageCompressor.sampleSize(0.3))
+        assertEquals(4, ImageCompressor.sampleSize(0.2))
+        assertEquals(16, ImageCompressor.sampleSize(0.0))
+    }
+
+    @Test
+    fun doesNotUpscale() {
+        assertEquals(1.0, ImageCompressor.targetScale(640, 480, 10000 * 1024, true), 0.0)
+    }
+
+    @Test
+    fun shrinksWhenEstimateIsTooHigh() {
+        val scales = ArrayList<Double>()
+
+        // a photo with far more detail than we estimate for
+        ImageCompressor.fit(4000, 3000, 300 * 1024, true) { scale, quality ->
+            scales.add(scale)
+            jpegSize(4000, 3000, scale, quality, detail = 6.0)
+        }
+
+        assertTrue(scales.last() < scales.first())
+        assertTrue(jpegSize(4000, 3000, scales.last(), 40, detail = 6.0) <= 300 * 1024)
+    }
+
+    @Test
+    fun shrinksPngFarBelowFirstEstimate() {
+        val scales = ArrayList<Double>()
+        var size = 0L
+
+        // a busy screenshot, that comes out to far more than the estimate for png
+        ImageCompressor.fit(4000, 3000, 300 * 1024, false) { scale, _ ->
+            scales.add(scale)
+            size = pngSize(4000, 3000, scale, detail = 8.0)
+            size
+        }
+
+        assertTrue(size <= 300 * 1024)
+        assertTrue(scales.last() < scales.first() * 0.42)
+    }
+
+    @Test
+    fun compressesPhotoCorpus() {
+        val photos = listOf(4000 to 3000, 5656 to 4242, 8000 to 6000)
+        val details = listOf(0.6, 1.0, 1.6)
+        val limits = listOf(300L * 1024, 500L * 1024, 900L * 1024, 2000L * 1024)
+
+        for (jpeg in listOf(true, false)) {
+            for ((width, height) in photos) {
+                for (limit in limits) {
+                    for (detail in details) {
+                        var size = 0L
+                        var finalScale = 0.0
+                        ImageCompressor.fit(width, height, limit, jpeg) { scale, quality ->
+                            finalScale = scale
+                            size = if (jpeg) jpegSize(width, height, scale, quality, detail) else pngSize(width, height, scale, detail)
+                            size
+                        }
+
+                        assertTrue(size <= limit)
+
+                        // decoding is the expensive part, and we only do it once, no more than twice
+                        // the size that we need on each side. The quality search soaks up most of
+                        // the estimate's error for jpeg, png has to shrink past it instead.
+                        if (jpeg) {
+                            val sampleSize = ImageCompressor.sampleSize(ImageCompressor.targetScale(width, height, limit, jpeg))
+                            assertTrue(1.0 / sampleSize < finalScale * 2 || sampleSize == 1)
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Roughly how JPEG sizes grow with quality for phone photos: about 1 bit per pixel at a
+     * quality of 40, and 3 bits per pixel at 90. Detail accounts for busier or flatter scenes.
+     */
+    private fun jpegSize(width: Int, height: Int, scale: Double, quality: Int, detail: Double): Long {
+        val pixels = (width * scale).roundToInt().toLong() * (height * scale).roundToInt()
+        val bitsPerPixel = 0.4 * 2.0.pow(quality / 30.0) * detail
+        return (pixels * bitsPerPixel / 8).toLong()
+    }
+
+    /**
+     * PNG ignores the quality. Photos come out to about 2 bytes per pixel.
+     */
+    private fun pngSize(width: Int, height: Int, scale: Double, detail: Double): Long {
+        val pixels = (width * scale).roundToInt().toLong() * (height * scale).roundToInt()
+        return (pixels * 2.0 * detail).toLong()
+    }
+}
@@ -0,0 +1,121 @@
+package xyz.klinker.messenger.shared.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import xyz.klinker.messenger.MessengerSuite
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+class PagedDownloaderTest : MessengerSuite() {
+
+    @Test
+    fun insertsPagesInOrder() {
+        val inserted = Collections.synchronizedList(mutableListOf<Int>())
+        val checkpoints = mutableListOf<Int>()
+
+        val downloader = PagedDownloader(PAGE_SIZE, 3, 0,
+                { offset -> page(offset, 95) },
+                { page -> inserted.addAll(page) },
+                { offset -> checkpoints.add(offset) })
+
+        val result = downloader.download(0)
+        assertEquals(95, result.offset)
+        assertTrue(result.complete)
+        assertEquals((0 until 95).toList(), inserted)
+        assertEquals(10, checkpoints.size)
+        assertEquals(10, checkpoints.first())
+        assertEquals(95, checkpoints.last())
+    }
+
+    @Test
+    fun resumesFromOffset() {
+        val inserted = mutableListOf<Int>()
+
+        val downloader = PagedDownloader(PAGE_SIZE, 2, 0,
+                { offset -> page(offset, 40) },
+                { page -> inserted.addAll(page) },
+                { })
+
+        assertEquals(40, downloader.download(20).offset)
+        assertEquals((20 until 40).toList(), inserted)
+    }
+
+    @Test
+    fun stopsOnEmptyPage() {
+        val requests = AtomicInteger()
+
+        val downloader = PagedDownloader(PAGE_SIZE, 1, 0,
+                { offset -> requests.incrementAndGet(); page(offset, 30) },
+                { },
+                { })
+
+        val result = downloader.download(0)
+        assertEquals(30, result.offset)
+        assertTrue(result.complete)
+        assertEquals(4, requests.get())
+    }
+
+    @Test
+    fun retriesFailedPage() {
+        val failures = AtomicInteger(2)
+        val inserted = mutableListOf<Int>()
+
+        val downloader = PagedDownloader(PAGE_SIZE, 2, 0,
+                { offset ->
+                    if (offset == 10 && failures.getAndDecrement() > 0) {
+                        throw RuntimeException("network failure")
+                    }
+
+                    page(offset, 25)
+                },
+                { page -> inserted.addAll(page) },
+                { })
+
+        assertEquals(25, downloader.download(0).offset)
+        assertEquals((0 until 25).toList(), inserted)
+    }
+
+    @Test
+    fun retriesEachPageSeparately() {
+        val failures = ConcurrentHashMap<Int, AtomicInteger>()
+        val inserted = mutableListOf<Int>()
+
+        // every page fails a few times, more than the limit in total, but never the limit for one page
+        val downloader = PagedDownloader(PAGE_SIZE, 1, 0,
+                { offset ->
+                    if (failures.getOrPut(offset) { AtomicInteger() }.getAndIncrement() < PagedDownloader.MAX_FAILED_ATTEMPTS - 1) {
+                        throw RuntimeException("network failure")
+                    }
+
+                    page(offset, 45)
+                },
+                { page -> inserted.addAll(page) },
+                { })
+
+        val result = downloader.download(0)
+        assertEquals(45, result.offset)
+        assertTrue(result.complete)
+        assertEquals((0 until 45).toList(), inserted)
+    }
+
+    @Test
+    fun givesUpAfterRepeatedFailures() {
+        val downloader = PagedDownloader(PAGE_SIZE, 2, 0,
+                { offset -> if (offset >= 10) null else page(offset, 100) },
+                { },
+                { })
+
+        val result = downloader.download(0)
+        assertEquals(10, result.offset)
+        assertFalse(result.complete)
+    }
+
+    private fun page(offset: Int, total: Int) = (offset until Math.min(offset + PAGE_SIZE, total)).toList()
+
+    companion object {
+        private const val PAGE_SIZE = 10
+    }
+}
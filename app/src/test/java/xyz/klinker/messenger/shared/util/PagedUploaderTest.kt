@@ -0,0 +1,120 @@
+package xyz.klinker.messenger.shared.util
+
+import org.junit.Assert.*
+import org.junit.Test
+import xyz.klinker.messenger.MessengerSuite
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class PagedUploaderTest : MessengerSuite() {
+
+    @Test
+    fun uploadsEveryItem() {
+        val uploaded = Collections.synchronizedList(mutableListOf<Int>())
+        val checkpoints = Collections.synchronizedList(mutableListOf<Int>())
+
+        val uploader = PagedUploader(PAGE_SIZE, 3, 1, 0,
+                { page -> uploaded.addAll(page); true },
+                { lastUploaded -> checkpoints.add(lastUploaded) })
+
+        assertTrue(uploader.upload((0 until 95).iterator()))
+        assertEquals((0 until 95).toList(), uploaded.sorted())
+        assertEquals(94, checkpoints.max())
+    }
+
+    @Test
+    fun limitsPagesInFlight() {
+        val inFlight = AtomicInteger()
+        val maxInFlight = AtomicInteger()
+        val read = AtomicInteger()
+
+        val items = generateSequence(0) { it + 1 }.take(200).onEach { read.incrementAndGet() }.iterator()
+        val uploader = PagedUploader<Int>(PAGE_SIZE, 2, 1, 0,
+                {
+                    val current = inFlight.incrementAndGet()
+                    maxInFlight.accumulateAndGet(current) { a, b -> Math.max(a, b) }
+                    Thread.sleep(5)
+                    inFlight.decrementAndGet()
+                    true
+                },
+                { })
+
+        assertTrue(uploader.upload(items))
+        assertEquals(200, read.get())
+        assertTrue(maxInFlight.get() <= 2)
+    }
+
+    @Test
+    fun retriesFailedPage() {
+        val failures = AtomicInteger(2)
+        val uploaded = Collections.synchronizedList(mutableListOf<Int>())
+
+        val uploader = PagedUploader(PAGE_SIZE, 2, 3, 0,
+                { page ->
+                    if (page.first() == 10 && failures.getAndDecrement() > 0) {
+                        throw RuntimeException("network failure")
+                    }
+
+                    uploaded.addAll(page)
+                    true
+                },
+                { })
+
+        assertTrue(uploader.upload((0 until 30).iterator()))
+        assertEquals((0 until 30).toList(), uploaded.sorted())
+    }
+
+    @Test
+    fun checkpointStopsAtFailedPage() {
+        val checkpoints = Collections.synchronizedList(mutableListOf<Int>())
+
+        val uploader = PagedUploader(PAGE_SIZE, 1, 2, 0,
+                { page -> page.first() != 20 },
+                { lastUploaded -> checkpoints.add(lastUploaded) })
+
+        assertFalse(uploader.upload((0 until 50).iterator()))
+        assertEquals(19, checkpoints.max())
+    }
+
+    @Test
+    fun checkpointsInOrder() {
+        val checkpoints = Collections.synchronizedList(mutableListOf<Int>())
+        val laterPages = CountDownLatch(2)
+
+        val uploader = PagedUploader(PAGE_SIZE, 3, 1, 0,
+                { page ->
+                    // the first page finishes last
+                    if (page.first() == 0) {
+                        laterPages.await()
+                    } else {
+                        laterPages.countDown()
+                    }
+
+                    true
+                },
+                { lastUploaded -> checkpoints.add(lastUploaded) })
+
+        assertTrue(uploader.upload((0 until 30).iterator()))
+        assertEquals(listOf(29), checkpoints)
+    }
+
+    @Test
+    fun waitsBetweenRetries() {
+        val attempts = Collections.synchronizedList(mutableListOf<Long>())
+
+        val uploader = PagedUploader(PAGE_SIZE, 1, 3, 10,
+                { attempts.add(System.nanoTime()); false },
+                { })
+
+        assertFalse(uploader.upload((0 until 10).iterator()))
+        assertEquals(3, attempts.size)
+        assertTrue(attempts[1] - attempts[0] >= TimeUnit.MILLISECONDS.toNanos(10))
+        assertTrue(attempts[2] - attempts[1] >= TimeUnit.MILLISECONDS.toNanos(20))
+    }
+
+    companion object {
+        private const val PAGE_SIZE = 10
+    }
+}
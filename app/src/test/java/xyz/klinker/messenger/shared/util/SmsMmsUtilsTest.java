@@ -19,6 +19,7 @@ package xyz.klinker.messenger.shared.util;
 import org.junit.Test;
 
 import xyz.klinker.messenger.MessengerRobolectricSuite;
+import xyz.klinker.messenger.shared.data.IdMatcher;
 
 import static org.junit.Assert.assertEquals;
 
@@ -46,6 +47,16 @@ public class SmsMmsUtilsTest extends MessengerRobolectricSuite {
                 SmsMmsUtils.INSTANCE.createIdMatcher("jklinker1@gmail.com").getSevenLetter());
     }
 
+    @Test
+    public void createIdMatcherQueriesDistinctMatchers() {
+        IdMatcher matcher = SmsMmsUtils.INSTANCE.createIdMatcher("jklinker1@gmail.com");
+        assertEquals(1, matcher.getWhereArgs().length);
+        assertEquals("id_matcher IN (?)", matcher.getWhereClause());
+
+        matcher = SmsMmsUtils.INSTANCE.createIdMatcher("+15159911493");
+        assertEquals(4, matcher.getWhereArgs().length);
+    }
+
     @Test
     public void createIdMatcherForSpacedWeirdNumbers() {
         assertEquals(SmsMmsUtils.INSTANCE.createIdMatcher("987 654 3210").getSevenLetter(),
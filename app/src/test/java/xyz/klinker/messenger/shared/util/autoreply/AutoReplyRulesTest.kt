@@ -0,0 +1,121 @@
+package xyz.klinker.messenger.shared.util.autoreply
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import xyz.klinker.messenger.MessengerRobolectricSuite
+import xyz.klinker.messenger.shared.data.MimeType
+import xyz.klinker.messenger.shared.data.Settings
+import xyz.klinker.messenger.shared.data.model.AutoReply
+import xyz.klinker.messenger.shared.data.model.Conversation
+import xyz.klinker.messenger.shared.data.model.Message
+import xyz.klinker.messenger.shared.util.autoreply.parsers.ContactReplyParser
+import xyz.klinker.messenger.shared.util.autoreply.parsers.KeywordReplyParser
+
+class AutoReplyRulesTest : MessengerRobolectricSuite() {
+
+    @After
+    fun tearDown() {
+        Settings.drivingMode = false
+        Settings.vacationMode = false
+    }
+
+    @Test
+    fun matchesKeywordsIgnoringCase() {
+        val rules = AutoReplyRules(listOf(
+                reply(1, AutoReply.TYPE_KEYWORD, "Lunch"),
+                reply(2, AutoReply.TYPE_KEYWORD, "dinner"),
+                reply(3, AutoReply.TYPE_KEYWORD, "inner")))
+
+        assertEquals(listOf(1L), ids(rules.find(conversation("5159911493"), message("want to get LUNCH?"))))
+        assertEquals(listOf(2L, 3L), ids(rules.find(conversation("5159911493"), message("dinner tonight?"))))
+        assertEquals(emptyList<Long>(), ids(rules.find(conversation("5159911493"), message("breakfast?"))))
+        assertEquals(emptyList<Long>(), ids(rules.find(conversation("5159911493"), message("lunch", MimeType.IMAGE_JPG))))
+    }
+
+    @Test
+    fun matchesContacts() {
+        val rules = AutoReplyRules(listOf(
+                reply(1, AutoReply.TYPE_CONTACT, "+1 (515) 991-1493"),
+                reply(2, AutoReply.TYPE_CONTACT, "5154224558"),
+                reply(3, AutoReply.TYPE_KEYWORD, "hey")))
+
+        assertEquals(listOf(1L, 3L), ids(rules.find(conversation("+15159911493"), message("hey"))))
+        assertEquals(listOf(2L), ids(rules.find(conversation("5154224558"), message("hello"))))
+        assertEquals(emptyList<Long>(), ids(rules.find(conversation("5155555555"), message("hello"))))
+    }
+
+    @Test
+    fun modesReplaceEverythingElse() {
+        val rules = AutoReplyRules(listOf(
+                reply(1, AutoReply.TYPE_DRIVING, null),
+                reply(2, AutoReply.TYPE_VACATION, null),
+                reply(3, AutoReply.TYPE_KEYWORD, "hey")))
+
+        assertEquals(listOf(3L), ids(rules.find(conversation("5159911493"), message("hey"))))
+
+        Settings.vacationMode = true
+        assertEquals(listOf(2L), ids(rules.find(conversation("5159911493"), message("hey"))))
+
+        Settings.drivingMode = true
+        assertEquals(listOf(1L), ids(rules.find(conversation("5159911493"), message("hey"))))
+    }
+
+    @Test
+    fun skipsRepliesWithoutResponse() {
+        val empty = reply(1, AutoReply.TYPE_KEYWORD, "hey")
+        empty.response = " "
+
+        val rules = AutoReplyRules(listOf(empty, reply(2, AutoReply.TYPE_KEYWORD, "hey")))
+        assertEquals(listOf(2L), ids(rules.find(conversation("5159911493"), message("hey"))))
+    }
+
+    @Test
+    fun matchesTheSameAsTheParsers() {
+        val replies = (0 until 300).map {
+            if (it % 3 == 0) reply(it.toLong(), AutoReply.TYPE_CONTACT, "515555${1000 + it}")
+            else reply(it.toLong(), AutoReply.TYPE_KEYWORD, "keyword $it")
+        }
+
+        val messages = (0 until 300 step 7).map { message("hey, keyword $it, or was it keyword ${it / 2}?") }
+        val conversations = (0 until 300 step 11).map { conversation("+1 515-555-${1000 + it}") }
+
+        val rules = AutoReplyRules(replies)
+        val parsers = replies.map {
+            if (it.type == AutoReply.TYPE_CONTACT) ContactReplyParser(null, it) else KeywordReplyParser(null, it)
+        }
+
+        val fromRules = conversations.flatMap { conversation -> messages.map { ids(rules.find(conversation, it)) } }
+        val fromParsers = conversations.flatMap { conversation ->
+            messages.map { message -> replies.filterIndexed { i, _ -> parsers[i].canParse(conversation, message) }.map { it.id } }
+        }
+
+        assertEquals(fromParsers, fromRules)
+        assertTrue(fromRules.any { it.isNotEmpty() })
+    }
+
+    private fun ids(replies: List<AutoReply>) = replies.map { it.id }
+
+    private fun reply(id: Long, type: String, pattern: String?): AutoReply {
+        val reply = AutoReply()
+        reply.id = id
+        reply.type = type
+        reply.pattern = pattern
+        reply.response = id.toString()
+        return reply
+    }
+
+    private fun conversation(phoneNumbers: String): Conversation {
+        val conversation = Conversation()
+        conversation.phoneNumbers = phoneNumbers
+        return conversation
+    }
+
+    private fun message(data: String, mimeType: String = MimeType.TEXT_PLAIN): Message {
+        val message = Message()
+        message.data = data
+        message.mimeType = mimeType
+        return message
+    }
+}
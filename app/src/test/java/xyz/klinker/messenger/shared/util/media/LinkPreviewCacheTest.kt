@@ -0,0 +1,114 @@
+package xyz.klinker.messenger.shared.util.media
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import xyz.klinker.messenger.MessengerSuite
+
+class LinkPreviewCacheTest : MessengerSuite() {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    @Test
+    fun storesPreviews() {
+        val cache = LinkPreviewCache(folder.root)
+        cache.put("one", "{\"title\":\"one\"}", NOW)
+        cache.put("none", null, NOW)
+
+        assertEquals("{\"title\":\"one\"}", cache.get("one", NOW)!!.body)
+        assertNotNull(cache.get("none", NOW))
+        assertNull(cache.get("none", NOW)!!.body)
+        assertNull(cache.get("missing", NOW))
+    }
+
+    @Test
+    fun readsPreviewsBackFromDisk() {
+        LinkPreviewCache(folder.root).put("one", "first line\nsecond line", NOW)
+
+        assertEquals("first line\nsecond line", LinkPreviewCache(folder.root).get("one", NOW)!!.body)
+    }
+
+    @Test
+    fun expiresPreviews() {
+        val cache = LinkPreviewCache(folder.root)
+        cache.put("one", "preview", NOW)
+        cache.put("none", null, NOW)
+
+        assertNotNull(cache.get("one", NOW + DAY))
+        assertNull(cache.get("none", NOW + DAY))
+        assertNull(cache.get("one", NOW + 8 * DAY))
+        assertEquals(0, folder.root.listFiles()!!.size)
+    }
+
+    @Test
+    fun evictsLeastRecentlyUsed() {
+        val cache = LinkPreviewCache(folder.root, maxEntries = 3)
+        cache.put("one", "1", NOW)
+        cache.put("two", "2", NOW + 1)
+        cache.put("three", "3", NOW + 2)
+
+        cache.get("one", NOW + 3)
+        cache.put("four", "4", NOW + 4)
+
+        assertNotNull(cache.get("one", NOW + 5))
+        assertNull(cache.get("two", NOW + 5))
+        assertNotNull(cache.get("three", NOW + 5))
+        assertNotNull(cache.get("four", NOW + 5))
+        assertEquals(3, folder.root.listFiles()!!.size)
+    }
+
+    @Test
+    fun evictsBySize() {
+        val cache = LinkPreviewCache(folder.root, maxBytes = 250)
+        for (i in 0 until 10) {
+            cache.put("key $i", "x".repeat(50), NOW + i)
+        }
+
+        assertNull(cache.get("key 0", NOW + 10))
+        assertNotNull(cache.get("key 9", NOW + 10))
+        assertTrue(folder.root.listFiles()!!.map { it.length() }.sum() <= 250L)
+    }
+
+    @Test
+    fun keepsSizeRightWhenFilesAreDeleted() {
+        val cache = LinkPreviewCache(folder.root, maxBytes = 250)
+        for (i in 0 until 3) {
+            cache.put("old $i", "x".repeat(50), NOW + i)
+        }
+
+        // the system clears out the cache directory when it is low on space
+        folder.root.listFiles()!!.forEach { it.delete() }
+        for (i in 0 until 3) {
+            assertNull(cache.get("old $i", NOW + 3))
+        }
+
+        for (i in 0 until 3) {
+            cache.put("new $i", "x".repeat(50), NOW + 4 + i)
+        }
+
+        for (i in 0 until 3) {
+            assertNotNull(cache.get("new $i", NOW + 7))
+        }
+    }
+
+    @Test
+    fun normalizesUrls() {
+        val expected = "example.com/article"
+        assertEquals(expected, LinkPreviewCache.normalizeUrl("example.com/article"))
+        assertEquals(expected, LinkPreviewCache.normalizeUrl("https://www.Example.com/article/"))
+        assertEquals(expected, LinkPreviewCache.normalizeUrl("http://example.com/article#comments"))
+        assertEquals(expected, LinkPreviewCache.normalizeUrl("example.com/article?utm_source=twitter&utm_medium=social"))
+        assertEquals("example.com/article?id=2", LinkPreviewCache.normalizeUrl("example.com/article?utm_source=a&id=2"))
+        assertEquals("youtube.com/watch?v=abc", LinkPreviewCache.normalizeUrl("youtube.com/watch?v=abc"))
+    }
+
+    companion object {
+        private const val NOW = 1_000_000_000_000L
+        private const val DAY = 24 * 60 * 60 * 1000L
+    }
+}
@@ -0,0 +1,127 @@
+package xyz.klinker.messenger.shared.util.media
+
+import com.sun.net.httpserver.HttpServer
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import xyz.klinker.messenger.MessengerRobolectricSuite
+import xyz.klinker.messenger.shared.util.UrlConnectionReader
+import java.net.InetSocketAddress
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class LinkPreviewLoaderTest : MessengerRobolectricSuite() {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    // a local stand in for the preview apis, that counts how many times it gets hit
+    private lateinit var server: HttpServer
+    private val requests = AtomicInteger()
+
+    @Before
+    fun startServer() {
+        server = HttpServer.create(InetSocketAddress("127.0.0.1", 0), 0)
+        server.createContext("/preview") { exchange ->
+            requests.incrementAndGet()
+            Thread.sleep(200)
+
+            val response = "{\"title\":\"${exchange.requestURI.query}\"}".toByteArray()
+            exchange.sendResponseHeaders(200, response.size.toLong())
+            exchange.responseBody.use { it.write(response) }
+        }
+        server.createContext("/missing") { exchange ->
+            requests.incrementAndGet()
+            exchange.sendResponseHeaders(404, -1)
+            exchange.close()
+        }
+        server.createContext("/error") { exchange ->
+            requests.incrementAndGet()
+            exchange.sendResponseHeaders(503, -1)
+            exchange.close()
+        }
+        server.start()
+    }
+
+    @After
+    fun stopServer() {
+        server.stop(0)
+    }
+
+    @Test
+    fun fetchesTheSameLinkOnce() {
+        val loader = LinkPreviewLoader(LinkPreviewCache(folder.root))
+        val links = listOf("https://www.example.com/article/", "example.com/article", "http://example.com/article#comments",
+                "example.com/article?utm_source=twitter", "https://example.com/article")
+
+        // the same link, shared in a few group chats at once
+        val executor = Executors.newFixedThreadPool(links.size)
+        val start = CountDownLatch(1)
+        val results = links.map { link ->
+            executor.submit<String?> {
+                start.await()
+                loader.load(link, TYPE) { fetch("preview?article") }
+            }
+        }
+
+        start.countDown()
+        results.forEach { assertEquals("{\"title\":\"article\"}", it.get(5, TimeUnit.SECONDS)) }
+        executor.shutdown()
+
+        assertEquals(1, requests.get())
+
+        assertEquals("{\"title\":\"article\"}", loader.load("example.com/article", TYPE) { fetch("preview?article") })
+        assertEquals(1, requests.get())
+
+        assertEquals("{\"title\":\"other\"}", loader.load("example.com/other", TYPE) { fetch("preview?other") })
+        assertEquals(2, requests.get())
+    }
+
+    @Test
+    fun remembersLinksWithoutPreviews() {
+        val loader = LinkPreviewLoader(LinkPreviewCache(folder.root))
+
+        assertNull(loader.load("example.com/nothing", TYPE) { fetch("missing") })
+        assertNull(loader.load("example.com/nothing", TYPE) { fetch("missing") })
+        assertEquals(1, requests.get())
+    }
+
+    @Test
+    fun keepsPreviewsAcrossRestarts() {
+        LinkPreviewLoader(LinkPreviewCache(folder.root)).load("example.com/article", TYPE) { fetch("preview?article") }
+        val restarted = LinkPreviewLoader(LinkPreviewCache(folder.root))
+
+        assertEquals("{\"title\":\"article\"}", restarted.load("example.com/article", TYPE) { fetch("preview?article") })
+        assertEquals(1, requests.get())
+    }
+
+    @Test
+    fun doesNotCacheFailures() {
+        val loader = LinkPreviewLoader(LinkPreviewCache(folder.root))
+
+        assertNull(loader.load("example.com/article", TYPE) { throw IllegalStateException("no network") })
+        assertEquals("{\"title\":\"article\"}", loader.load("example.com/article", TYPE) { fetch("preview?article") })
+    }
+
+    @Test
+    fun doesNotCacheServerErrors() {
+        val loader = LinkPreviewLoader(LinkPreviewCache(folder.root))
+
+        assertNull(loader.load("example.com/article", TYPE) { fetch("error") })
+        assertEquals("{\"title\":\"article\"}", loader.load("example.com/article", TYPE) { fetch("preview?article") })
+        assertEquals(2, requests.get())
+    }
+
+    private fun fetch(path: String) =
+            UrlConnectionReader("http://127.0.0.1:${server.address.port}/$path").fetch()?.toString()
+
+    companion object {
+        private const val TYPE = "media/web"
+    }
+}
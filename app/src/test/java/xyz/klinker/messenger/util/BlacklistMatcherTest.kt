@@ -0,0 +1,77 @@
+package xyz.klinker.messenger.util
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertTrue
+import org.junit.Test
+import xyz.klinker.messenger.MessengerRobolectricSuite
+import xyz.klinker.messenger.shared.util.BlacklistMatcher
+import xyz.klinker.messenger.shared.util.BlacklistUtils
+
+class BlacklistMatcherTest : MessengerRobolectricSuite() {
+
+    @Test
+    fun numbersMatchTheSameAsNumbersMatch() {
+        val numbers = listOf("5159911493", "+15159911493", "515 991 1493", "+1 (515) 991-1493", "515-991-1493",
+                "515991-1493", "991-1493", "55544", "655544", "5154224558", "(515) 9911493", "24558",
+                "ABCDEF", "ABCD-EF", "15159911493", "91-1493", "1234")
+
+        for (blacklisted in numbers) {
+            val matcher = BlacklistMatcher(listOf(blacklisted), emptyList())
+            for (incoming in numbers) {
+                assertEquals("$incoming against $blacklisted", BlacklistUtils.numbersMatch(incoming, blacklisted),
+                        matcher.matchesNumber(incoming))
+            }
+        }
+    }
+
+    @Test
+    fun matchesAnyOfTheNumbers() {
+        val matcher = BlacklistMatcher(listOf("5154224558", "991-1493", "55544", ""), emptyList())
+
+        assertTrue(matcher.matchesNumber("+15159911493"))
+        assertTrue(matcher.matchesNumber("515-422-4558"))
+        assertTrue(matcher.matchesNumber("55544"))
+        assertFalse(matcher.matchesNumber("5155555555"))
+        assertFalse(matcher.matchesNumber("655544"))
+    }
+
+    @Test
+    fun matchesPhrases() {
+        val matcher = BlacklistMatcher(emptyList(), listOf("Free Gift", "hers", "she", " "))
+
+        assertTrue(matcher.matchesPhrase("Claim your FREE GIFT now"))
+        assertTrue(matcher.matchesPhrase("ushers"))
+        assertTrue(matcher.matchesPhrase("is that hers?"))
+        assertFalse(matcher.matchesPhrase("free gif"))
+        assertFalse(matcher.matchesPhrase("he is here"))
+        assertFalse(matcher.matchesPhrase(null))
+    }
+
+    @Test
+    fun noRules() {
+        val matcher = BlacklistMatcher(emptyList(), emptyList())
+
+        assertFalse(matcher.matchesNumber("5159911493"))
+        assertFalse(matcher.matchesPhrase("anything at all"))
+    }
+
+    @Test
+    fun checksAgainstManyRules() {
+        val numbers = (0 until 5000).map { "515${1000000 + it * 7}" }
+        val phrases = (0 until 5000).map { "blocked phrase number $it" }
+
+        val matcher = BlacklistMatcher(numbers, phrases)
+
+        val text = "hey, are you still coming over tonight? let me know when you are on your way. " +
+                "this is not a blocked phrase number, just a normal message"
+
+        for (i in 0 until 1000) {
+            assertFalse(matcher.matchesNumber("+1 (319) 555-${1000 + i}"))
+            assertFalse(matcher.matchesPhrase(text))
+        }
+
+        assertTrue(matcher.matchesNumber(numbers[4999]))
+        assertTrue(matcher.matchesPhrase("this is BLOCKED PHRASE NUMBER 4999!"))
+    }
+}
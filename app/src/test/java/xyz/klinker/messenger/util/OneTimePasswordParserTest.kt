@@ -4,6 +4,7 @@ import org.junit.Test
 import xyz.klinker.messenger.MessengerRobolectricSuite
 import junit.framework.Assert.*
 import xyz.klinker.messenger.shared.util.OneTimePasswordParser
+import xyz.klinker.messenger.shared.util.OtpRule
 
 class OneTimePasswordParserTest : MessengerRobolectricSuite() {
 
@@ -263,6 +264,19 @@ class OneTimePasswordParserTest : MessengerRobolectricSuite() {
             OtpValidator("123456", null)
     )
 
+    private val conversation = listOf(
+            "hey, are you still coming over tonight?",
+            "I'll be there around 7, traffic is bad on 235",
+            "can you send me the code for the wifi again?",
+            "lol yes",
+            "my new number is (515) 991-1493, save it!",
+            "the password is on the fridge",
+            "Your order #123456 has shipped and will arrive Tuesday.",
+            "Reply STOP to unsubscribe from these alerts",
+            "did you see the game last night? 24-17, unreal",
+            "ok sounds good \uD83D\uDC4D"
+    )
+
     @Test
     fun matchOtp() {
         tests.forEach {
@@ -277,4 +291,29 @@ class OneTimePasswordParserTest : MessengerRobolectricSuite() {
         }
     }
 
+    @Test
+    fun doesNotMatchConversation() {
+        conversation.forEach {
+            assertNull(it, OneTimePasswordParser.getOtp(it))
+        }
+    }
+
+    @Test
+    fun usesCustomRules() {
+        val rules = listOf(OtpRule("(?i)pin\\s+([0-9]{4})", 1, keywords = listOf("pin")))
+
+        assertEquals("1234", OneTimePasswordParser.getOtp("your PIN 1234", rules))
+        assertNull(OneTimePasswordParser.getOtp("your verification code is 123456", rules))
+    }
+
+    @Test
+    fun parsesManyMessages() {
+        val messages = tests.map { it.phrase } + invalidTests.map { it.phrase } + conversation
+        val expectations = messages.map { OneTimePasswordParser.getOtp(it) }
+
+        // parsing again gives the same answers, once the patterns have been compiled and cached
+        messages.forEachIndexed { index, message ->
+            assertEquals(message, expectations[index], OneTimePasswordParser.getOtp(message))
+        }
+    }
 }
\ No newline at end of file
@@ -33,6 +33,8 @@
 package xyz.klinker.messenger.encryption;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 
 /**
  * Utilities for encoding and decoding the Base64 representation of
@@ -80,19 +82,29 @@ public class Base64 {
      */
     public static final int NO_CLOSE = 16;
 
+    /**
+     * The size of the chunks that direct buffers are copied through. A
+     * multiple of both 3 and the line length, so that the line breaks
+     * land in the same places as a single pass would put them.
+     */
+    private static final int BUFFER_CHUNK = 3 * 19 * 64;
+
     //  --------------------------------------------------------
     //  shared code
     //  --------------------------------------------------------
 
     /* package */ static abstract class Coder {
         public byte[] output;
+        public int outputOffset;
         public int op;
 
         /**
          * Encode/decode another block of input data.  this.output is
          * provided by the caller, and must be big enough to hold all
-         * the coded data.  On exit, this.opwill be set to the length
-         * of the coded data.
+         * the coded data, starting at this.outputOffset.  On exit,
+         * this.op will be set to the position just after the last byte
+         * of coded data (so the length of the coded data, when
+         * outputOffset is 0).
          *
          * @param finish true if this is the final call to process for
          *        this object.  Will finalize the coder state and
@@ -189,6 +201,46 @@ public class Base64 {
         return temp;
     }
 
+    /**
+     * Decode the Base64-encoded data in input into a buffer supplied by
+     * the caller, without allocating anything.
+     *
+     * @param input        the data to decode
+     * @param offset       the position within the input array at which to start
+     * @param len          the number of bytes of input to decode
+     * @param output       the array to write the decoded bytes to. It needs
+     *                     at least {@link #maxDecodedLength(int)} bytes of
+     *                     room after outputOffset.
+     * @param outputOffset the position within the output array at which to
+     *                     start writing
+     * @param flags        controls certain features of the decoded output.
+     *                     Pass {@code DEFAULT} to decode standard Base64.
+     * @return the number of bytes that were written to output
+     *
+     * @throws IllegalArgumentException if the input contains
+     * incorrect padding
+     */
+    public static int decode(byte[] input, int offset, int len,
+                             byte[] output, int outputOffset, int flags) {
+        Decoder decoder = new Decoder(flags, output);
+        decoder.outputOffset = outputOffset;
+
+        if (!decoder.process(input, offset, len, true)) {
+            throw new IllegalArgumentException("bad base-64");
+        }
+
+        return decoder.op - outputOffset;
+    }
+
+    /**
+     * @return the most bytes that {@code len} bytes of Base64 could
+     * decode to. The actual output will be shorter if the input
+     * contains padding or line terminators.
+     */
+    public static int maxDecodedLength(int len) {
+        return len * 3 / 4;
+    }
+
     /* package */ static class Decoder extends Coder {
         /**
          * Lookup table for turning bytes into their position in the
@@ -289,7 +341,7 @@ public class Base64 {
             // the member variable is final.)
             int state = this.state;
             int value = this.value;
-            int op = 0;
+            int op = outputOffset;
             final byte[] output = this.output;
             final int[] alphabet = this.alphabet;
 
@@ -523,13 +575,94 @@ public class Base64 {
      *               adheres to RFC 2045.
      */
     public static byte[] encode(byte[] input, int offset, int len, int flags) {
+        byte[] output = new byte[encodedLength(len, flags)];
+        encode(input, offset, len, output, 0, flags);
+        return output;
+    }
+
+    /**
+     * Base64-encode the given data into a buffer supplied by the caller,
+     * without allocating anything.
+     *
+     * @param input        the data to encode
+     * @param offset       the position within the input array at which to
+     *                     start
+     * @param len          the number of bytes of input to encode
+     * @param output       the array to write the encoded bytes to. It needs
+     *                     {@link #encodedLength(int, int)} bytes of room
+     *                     after outputOffset.
+     * @param outputOffset the position within the output array at which to
+     *                     start writing
+     * @param flags        controls certain features of the encoded output.
+     *                     Passing {@code DEFAULT} results in output that
+     *                     adheres to RFC 2045.
+     * @return the number of bytes that were written to output
+     */
+    public static int encode(byte[] input, int offset, int len,
+                             byte[] output, int outputOffset, int flags) {
+        Encoder encoder = new Encoder(flags, output);
+        encoder.outputOffset = outputOffset;
+        encoder.process(input, offset, len, true);
+
+        assert encoder.op - outputOffset == encodedLength(len, flags);
+
+        return encoder.op - outputOffset;
+    }
+
+    /**
+     * Base64-encode the remaining bytes of the input buffer into the output
+     * buffer. Both buffers may be direct. On return, the input has been
+     * fully consumed and the output position has moved past the encoded
+     * bytes.
+     *
+     * @param input  the data to encode
+     * @param output the buffer to write to. It needs
+     *               {@link #encodedLength(int, int)} bytes remaining.
+     * @param flags  controls certain features of the encoded output.
+     * @return the number of bytes that were written to output
+     */
+    public static int encode(ByteBuffer input, ByteBuffer output, int flags) {
+        int len = input.remaining();
+        int outputLen = encodedLength(len, flags);
+        if (output.remaining() < outputLen) {
+            throw new BufferOverflowException();
+        }
+
+        if (input.hasArray() && output.hasArray()) {
+            encode(input.array(), input.arrayOffset() + input.position(), len,
+                    output.array(), output.arrayOffset() + output.position(), flags);
+            input.position(input.limit());
+            output.position(output.position() + outputLen);
+            return outputLen;
+        }
+
+        // at least one side is direct, so go through the stream encoder a chunk at a time
         Encoder encoder = new Encoder(flags, null);
+        encoder.output = new byte[encoder.maxOutputSize(BUFFER_CHUNK)];
+        byte[] chunk = new byte[BUFFER_CHUNK];
+        while (input.hasRemaining()) {
+            int chunkLen = Math.min(chunk.length, input.remaining());
+            input.get(chunk, 0, chunkLen);
+            encoder.process(chunk, 0, chunkLen, !input.hasRemaining());
+            output.put(encoder.output, 0, encoder.op);
+        }
+
+        return outputLen;
+    }
+
+    /**
+     * Computes the exact number of bytes that {@code len} bytes of input
+     * will encode to with the given flags.
+     */
+    public static int encodedLength(int len, int flags) {
+        boolean doPadding = (flags & NO_PADDING) == 0;
+        boolean doNewline = (flags & NO_WRAP) == 0;
+        boolean doCr = (flags & CRLF) != 0;
 
-        // Compute the exact length of the array we will produce.
         int output_len = len / 3 * 4;
 
         // Account for the tail of the data and the padding bytes, if any.
-        if (encoder.do_padding) {
+        if (doPadding) {
             if (len % 3 > 0) {
                 output_len += 4;
             }
@@ -542,17 +675,12 @@ public class Base64 {
         }
 
         // Account for the newlines, if any.
-        if (encoder.do_newline && len > 0) {
+        if (doNewline && len > 0) {
             output_len += (((len-1) / (3 * Encoder.LINE_GROUPS)) + 1) *
-                    (encoder.do_cr ? 2 : 1);
+                    (doCr ? 2 : 1);
         }
 
-        encoder.output = new byte[output_len];
-        encoder.process(input, offset, len, true);
-
-        assert encoder.op == output_len;
-
-        return encoder.output;
+        return output_len;
     }
 
     /* package */ static class Encoder extends Coder {
@@ -620,7 +748,7 @@ public class Base64 {
             // Using local variables makes the encoder about 9% faster.
             final byte[] alphabet = this.alphabet;
             final byte[] output = this.output;
-            int op = 0;
+            int op = outputOffset;
             int count = this.count;
 
             int p = offset;
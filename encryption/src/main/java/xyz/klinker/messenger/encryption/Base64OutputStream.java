@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.encryption;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An OutputStream that Base64-encodes the data written to it, and writes
+ * the encoded bytes to another OutputStream. Only a small, fixed size
+ * buffer is held in memory, no matter how much data passes through it.
+ */
+public class Base64OutputStream extends FilterOutputStream {
+
+    private static final int BUFFER_SIZE = 3 * 1024;
+
+    private final Base64.Encoder encoder;
+    private final int flags;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int bpos = 0;
+    private boolean closed = false;
+
+    /**
+     * Performs Base64 encoding on the data written to the stream,
+     * writing the encoded data to another OutputStream.
+     *
+     * @param out   the OutputStream to write the encoded data to
+     * @param flags bit flags for controlling the encoder; see the
+     *              constants in {@link Base64}
+     */
+    public Base64OutputStream(OutputStream out, int flags) {
+        super(out);
+        this.flags = flags;
+        this.encoder = new Base64.Encoder(flags, null);
+        this.encoder.output = new byte[encoder.maxOutputSize(BUFFER_SIZE)];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (bpos == buffer.length) {
+            flushBuffer();
+        }
+
+        buffer[bpos++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (bpos == buffer.length) {
+                flushBuffer();
+            }
+
+            int count = Math.min(len, buffer.length - bpos);
+            System.arraycopy(b, off, buffer, bpos, count);
+            bpos += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Encodes and writes out everything that has been buffered so far. The
+     * encoder keeps any leftover bytes that don't make up a full group of
+     * three, so this doesn't affect the output.
+     */
+    private void flushBuffer() throws IOException {
+        if (bpos > 0) {
+            encoder.process(buffer, 0, bpos, false);
+            out.write(encoder.output, 0, encoder.op);
+            bpos = 0;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * Finishes the encoding, writing out any padding, and closes the
+     * wrapped stream, unless {@link Base64#NO_CLOSE} was set.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        encoder.process(buffer, 0, bpos, true);
+        out.write(encoder.output, 0, encoder.op);
+        bpos = 0;
+
+        if ((flags & Base64.NO_CLOSE) == 0) {
+            out.close();
+        } else {
+            out.flush();
+        }
+    }
+}
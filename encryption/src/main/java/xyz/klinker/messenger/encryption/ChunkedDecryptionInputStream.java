@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package xyz.klinker.messenger.encryption;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+
+/**
+ * Decrypts media that was encrypted with {@link ChunkedEncryptionOutputStream} or
+ * {@link ChunkedEncryptionInputStream}, a chunk at a time.
+ *
+ * Media that was uploaded before the chunked format existed is a single Base64 string, which can
+ * only be decrypted as a whole. That gets detected from the first few bytes, and in that case the
+ * stream falls back to reading everything and decrypting it with {@link EncryptionUtils#decryptData(String)}.
+ */
+public class ChunkedDecryptionInputStream extends InputStream {
+
+    private final DataInputStream in;
+    private final EncryptionUtils utils;
+    private final Cipher cipher = EncryptionUtils.createCipher();
+
+    private byte[] current = new byte[0];
+    private int currentPosition = 0;
+    private boolean finished = false;
+
+    public ChunkedDecryptionInputStream(InputStream source, EncryptionUtils utils) throws IOException {
+        this.utils = utils;
+
+        BufferedInputStream buffered = new BufferedInputStream(source);
+        buffered.mark(ChunkedEncryption.MAGIC.length);
+
+        byte[] magic = new byte[ChunkedEncryption.MAGIC.length];
+        int read = 0;
+        while (read < magic.length) {
+            int count = buffered.read(magic, read, magic.length - read);
+            if (count == -1) {
+                break;
+            }
+
+            read += count;
+        }
+
+        if (read == magic.length && Arrays.equals(magic, ChunkedEncryption.MAGIC)) {
+            this.in = new DataInputStream(buffered);
+        } else {
+            buffered.reset();
+            this.current = decryptLegacy(buffered);
+            this.finished = true;
+            this.in = new DataInputStream(buffered);
+        }
+    }
+
+    private byte[] decryptLegacy(InputStream legacy) throws IOException {
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8 * 1024];
+        int read;
+        while ((read = legacy.read(buffer)) != -1) {
+            encrypted.write(buffer, 0, read);
+        }
+
+        if (encrypted.size() == 0) {
+            return new byte[0];
+        }
+
+        try {
+            return utils.decryptData(new String(encrypted.toByteArray(), StandardCharsets.US_ASCII));
+        } catch (IllegalArgumentException e) {
+            return new byte[0];
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+
+        return current[currentPosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        } else if (!fill()) {
+            return -1;
+        }
+
+        int count = Math.min(len, current.length - currentPosition);
+        System.arraycopy(current, currentPosition, b, off, count);
+        currentPosition += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return current.length - currentPosition;
+    }
+
+    private boolean fill() throws IOException {
+        while (currentPosition == current.length) {
+            if (finished) {
+                return false;
+            }
+
+            byte[] next = ChunkedEncryption.decryptFrame(cipher, utils.getSecretKey(), in);
+            if (next == null) {
+                finished = true;
+            } else {
+                current = next;
+                currentPosition = 0;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package xyz.klinker.messenger.encryption;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * The framed format that media is encrypted with, so that it can be encrypted and decrypted as a
+ * stream instead of holding the whole file (and its Base64 form) in memory.
+ *
+ * The stream starts with {@link #MAGIC}, which can never be the start of the legacy format (a
+ * Base64 string), followed by any number of frames:
+ *
+ *     [4 byte ciphertext length][16 byte iv][ciphertext]
+ *
+ * Each frame holds at most {@link #CHUNK_SIZE} bytes of plaintext, encrypted with AES/CBC under
+ * its own random iv. A frame with a length of 0 marks the end of the stream, so that a truncated
+ * download gets detected instead of silently producing a partial file.
+ */
+final class ChunkedEncryption {
+
+    static final byte[] MAGIC = new byte[] { 0, 'P', 'M', 'E', 1 };
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final int IV_SIZE = 16;
+    private static final int MAX_CIPHERTEXT_SIZE = CHUNK_SIZE + IV_SIZE;
+
+    private ChunkedEncryption() { }
+
+    /**
+     * Encrypts a chunk of plaintext and returns the whole frame for it.
+     */
+    static byte[] encryptFrame(Cipher cipher, SecretKey key, byte[] plaintext, int length) throws IOException {
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, key);
+            byte[] iv = cipher.getIV();
+
+            ByteBuffer frame = ByteBuffer.allocate(4 + IV_SIZE + cipher.getOutputSize(length));
+            frame.position(4 + IV_SIZE);
+            int ciphertextLength = cipher.doFinal(ByteBuffer.wrap(plaintext, 0, length), frame);
+
+            frame.putInt(0, ciphertextLength);
+            System.arraycopy(iv, 0, frame.array(), 4, IV_SIZE);
+            return frame.position() == frame.capacity() ? frame.array() : Arrays.copyOf(frame.array(), frame.position());
+        } catch (GeneralSecurityException e) {
+            throw new IOException("could not encrypt media chunk", e);
+        }
+    }
+
+    /**
+     * The frame that marks the end of the stream.
+     */
+    static byte[] endFrame() {
+        return new byte[4];
+    }
+
+    /**
+     * Reads and decrypts the next frame.
+     *
+     * @return the plaintext, or null once the end of the stream has been reached.
+     */
+    static byte[] decryptFrame(Cipher cipher, SecretKey key, DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            throw new IOException("encrypted media was truncated", e);
+        }
+
+        if (length == 0) {
+            return null;
+        } else if (length < 0 || length > MAX_CIPHERTEXT_SIZE) {
+            throw new IOException("encrypted media is corrupt, bad frame length: " + length);
+        }
+
+        byte[] iv = new byte[IV_SIZE];
+        byte[] ciphertext = new byte[length];
+        in.readFully(iv);
+        in.readFully(ciphertext);
+
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+            return cipher.doFinal(ciphertext);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("could not decrypt media chunk", e);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package xyz.klinker.messenger.encryption;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.crypto.Cipher;
+
+/**
+ * Reads plaintext from another stream and produces it encrypted in the {@link ChunkedEncryption}
+ * format. This is the pull based counterpart of {@link ChunkedEncryptionOutputStream}, for
+ * handing to APIs that upload from an InputStream.
+ */
+public class ChunkedEncryptionInputStream extends InputStream {
+
+    private final InputStream in;
+    private final EncryptionUtils utils;
+    private final Cipher cipher = EncryptionUtils.createCipher();
+    private final byte[] chunk = new byte[ChunkedEncryption.CHUNK_SIZE];
+
+    private byte[] pending = ChunkedEncryption.MAGIC;
+    private int pendingPosition = 0;
+    private boolean finished = false;
+
+    public ChunkedEncryptionInputStream(InputStream in, EncryptionUtils utils) {
+        this.in = in;
+        this.utils = utils;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+
+        return pending[pendingPosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        } else if (!fill()) {
+            return -1;
+        }
+
+        int count = Math.min(len, pending.length - pendingPosition);
+        System.arraycopy(pending, pendingPosition, b, off, count);
+        pendingPosition += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return pending.length - pendingPosition;
+    }
+
+    /**
+     * Makes sure there are bytes left to hand out, encrypting the next chunk if needed.
+     *
+     * @return false once the whole stream, including the end marker, has been read.
+     */
+    private boolean fill() throws IOException {
+        if (pendingPosition < pending.length) {
+            return true;
+        } else if (finished) {
+            return false;
+        }
+
+        int length = 0;
+        while (length < chunk.length) {
+            int read = in.read(chunk, length, chunk.length - length);
+            if (read == -1) {
+                break;
+            }
+
+            length += read;
+        }
+
+        if (length > 0) {
+            pending = ChunkedEncryption.encryptFrame(cipher, utils.getSecretKey(), chunk, length);
+        } else {
+            pending = ChunkedEncryption.endFrame();
+            finished = true;
+        }
+
+        pendingPosition = 0;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package xyz.klinker.messenger.encryption;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.crypto.Cipher;
+
+/**
+ * Encrypts everything written to it in the {@link ChunkedEncryption} format, and writes the
+ * encrypted frames to another stream. Only a single chunk is buffered at a time.
+ */
+public class ChunkedEncryptionOutputStream extends FilterOutputStream {
+
+    private final EncryptionUtils utils;
+    private final Cipher cipher = EncryptionUtils.createCipher();
+    private final byte[] buffer = new byte[ChunkedEncryption.CHUNK_SIZE];
+    private int bufferLength = 0;
+    private boolean closed = false;
+
+    public ChunkedEncryptionOutputStream(OutputStream out, EncryptionUtils utils) throws IOException {
+        super(out);
+        this.utils = utils;
+        out.write(ChunkedEncryption.MAGIC);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (bufferLength == buffer.length) {
+            writeFrame();
+        }
+
+        buffer[bufferLength++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (bufferLength == buffer.length) {
+                writeFrame();
+            }
+
+            int count = Math.min(len, buffer.length - bufferLength);
+            System.arraycopy(b, off, buffer, bufferLength, count);
+            bufferLength += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    private void writeFrame() throws IOException {
+        out.write(ChunkedEncryption.encryptFrame(cipher, utils.getSecretKey(), buffer, bufferLength));
+        bufferLength = 0;
+    }
+
+    /**
+     * Writes out the last partial chunk and the end of stream marker, then closes the wrapped stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        try {
+            if (bufferLength > 0) {
+                writeFrame();
+            }
+
+            out.write(ChunkedEncryption.endFrame());
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -16,13 +16,10 @@
 
 package xyz.klinker.messenger.encryption;
 
-import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
-import java.security.AlgorithmParameters;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.security.spec.InvalidParameterSpecException;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -33,14 +30,33 @@ import javax.crypto.spec.IvParameterSpec;
 
 /**
  * Utilities for encrypting and decrypting data given the data and a secret key.
+ *
+ * Each thread that uses an instance gets its own pair of ciphers, so we only pay for
+ * Cipher.getInstance once per thread, rather than once for every field we encrypt or decrypt.
  */
 public class EncryptionUtils {
 
     private static final String TAG = "EncryptionUtils";
     private static final String SEPARATOR = "-:-";
+    private static final byte[] SEPARATOR_BYTES = SEPARATOR.getBytes(StandardCharsets.US_ASCII);
+    private static final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
 
     private SecretKey secretKey;
 
+    private final ThreadLocal<Cipher> encryptCipher = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            return createCipher();
+        }
+    };
+
+    private final ThreadLocal<Cipher> decryptCipher = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            return createCipher();
+        }
+    };
+
     /**
      * Creates a utility that can be used to encrypt and decryptData data.
      *
@@ -55,6 +71,8 @@ public class EncryptionUtils {
      *
      * @param data the data to encrypt.
      * @return the base 64 formatted string.
+     * @throws RuntimeException if the data could not be encrypted. The plaintext is never
+     *                          returned in place of the encrypted data.
      */
     public String encrypt(String data) {
         if (data == null) {
@@ -63,7 +81,7 @@ public class EncryptionUtils {
             try {
                 return encrypt(data.getBytes(StandardCharsets.UTF_8));
             } catch (OutOfMemoryError e) {
-                return data;
+                throw new RuntimeException("not enough memory to encrypt data", e);
             }
         }
     }
@@ -76,18 +94,24 @@ public class EncryptionUtils {
      */
     public String encrypt(byte[] data) {
         try {
-            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            Cipher cipher = encryptCipher.get();
             cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-            AlgorithmParameters params = cipher.getParameters();
-            String iv = Base64.encodeToString(
-                    params.getParameterSpec(IvParameterSpec.class).getIV(),
-                    Base64.DEFAULT);
-            String ciphertext = Base64.encodeToString(cipher.doFinal(data), Base64.DEFAULT);
-
-            return iv + SEPARATOR + ciphertext;
-        } catch (InvalidKeyException | InvalidParameterSpecException |
-                IllegalBlockSizeException | BadPaddingException |
-                NoSuchAlgorithmException | NoSuchPaddingException e) {
+            byte[] iv = cipher.getIV();
+            byte[] ciphertext = cipher.doFinal(data);
+
+            // encode both halves straight into the final buffer, instead of building two strings
+            // and concatenating them.
+            int ivLength = Base64.encodedLength(iv.length, Base64.DEFAULT);
+            byte[] encoded = new byte[ivLength + SEPARATOR_BYTES.length +
+                    Base64.encodedLength(ciphertext.length, Base64.DEFAULT)];
+
+            Base64.encode(iv, 0, iv.length, encoded, 0, Base64.DEFAULT);
+            System.arraycopy(SEPARATOR_BYTES, 0, encoded, ivLength, SEPARATOR_BYTES.length);
+            Base64.encode(ciphertext, 0, ciphertext.length, encoded,
+                    ivLength + SEPARATOR_BYTES.length, Base64.DEFAULT);
+
+            return new String(encoded, StandardCharsets.US_ASCII);
+        } catch (InvalidKeyException | IllegalBlockSizeException | BadPaddingException e) {
             throw new RuntimeException("could not encrypt data. Key: " +
                     Base64.encodeToString(secretKey.getEncoded(), Base64.DEFAULT), e);
         }
@@ -115,31 +139,60 @@ public class EncryptionUtils {
      * @return the decrypted byte array.
      */
     public byte[] decryptData(String data) {
-        String dataOne = data.split(SEPARATOR)[0];
-        String dataTwo = data.split(SEPARATOR)[1];
+        int separator = data.indexOf(SEPARATOR);
+        if (separator < 0) {
+            throw new IllegalArgumentException("data is not in the iv" + SEPARATOR + "ciphertext format");
+        }
 
-        byte[] iv;
-        byte[] ciphertext;
+        int ciphertextStart = separator + SEPARATOR.length();
+        int ciphertextEnd = data.indexOf(SEPARATOR, ciphertextStart);
+        if (ciphertextEnd < 0) {
+            ciphertextEnd = data.length();
+        }
+
+        byte[] encoded = data.getBytes(StandardCharsets.US_ASCII);
+        if (encoded.length != data.length()) {
+            // not ascii, so it can't be base-64 either
+            return new byte[0];
+        }
+
+        // decode the iv and the ciphertext next to each other, into a single buffer
+        byte[] decoded = new byte[Base64.maxDecodedLength(separator) +
+                Base64.maxDecodedLength(ciphertextEnd - ciphertextStart)];
+        int ivLength;
+        int ciphertextLength;
 
         try {
-            iv = Base64.decode(dataOne, Base64.DEFAULT);
-            ciphertext = Base64.decode(dataTwo, Base64.DEFAULT);
+            ivLength = Base64.decode(encoded, 0, separator, decoded, 0, Base64.DEFAULT);
+            ciphertextLength = Base64.decode(encoded, ciphertextStart, ciphertextEnd - ciphertextStart,
+                    decoded, ivLength, Base64.DEFAULT);
         } catch (IllegalArgumentException e) {
             // bad base-64. Seems to come from an image
             return new byte[0];
         }
 
         try {
-            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-            cipher.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(iv));
-            return cipher.doFinal(ciphertext);
+            Cipher cipher = decryptCipher.get();
+            cipher.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(decoded, 0, ivLength));
+            return cipher.doFinal(decoded, ivLength, ciphertextLength);
         } catch (InvalidKeyException | InvalidAlgorithmParameterException |
-                IllegalBlockSizeException | BadPaddingException |
-                NoSuchAlgorithmException | NoSuchPaddingException e) {
+                IllegalBlockSizeException | BadPaddingException e) {
 //            throw new RuntimeException("could not decryptData data. Key: " +
 //                    Base64.encodeToString(secretKey.getEncoded(), Base64.DEFAULT), e);
             return new byte[0];
         }
     }
 
+    SecretKey getSecretKey() {
+        return secretKey;
+    }
+
+    static Cipher createCipher() {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new RuntimeException("could not create cipher", e);
+        }
+    }
+
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.data
+
+import android.content.Context
+import androidx.annotation.VisibleForTesting
+import xyz.klinker.messenger.shared.data.model.Conversation
+
+/**
+ * Keeps the lists that back the conversation list fragments in memory, so that refreshing the
+ * list after a new message doesn't need to read the whole conversation table again.
+ *
+ * Each list is loaded the first time that it is asked for. After that, DataSource tells the cache
+ * about every conversation that it changes, and the cache moves that one conversation in to, out
+ * of, or around each of the lists. Anything that rewrites the table in bulk just drops the lists,
+ * and they will be loaded again the next time they are needed.
+ */
+object ConversationListCache {
+
+    private val lists = HashMap<Filter, MutableList<Conversation>>()
+
+    // changes every time the lists do, so that an update can tell whether it raced with another
+    private var generation = 0L
+
+    /**
+     * Gets the conversations for the given list, loading them if they aren't cached yet.
+     *
+     * @param load queries the database for the list. It is only called on a cache miss.
+     * @return a copy of the list and of each conversation in it, so that the caller is free to
+     * change them without changing the cache.
+     */
+    @Synchronized
+    fun getConversations(filter: Filter, load: () -> List<Conversation>): List<Conversation> {
+        var conversations = lists[filter]
+        if (conversations == null) {
+            conversations = ArrayList(load())
+            lists[filter] = conversations
+        }
+
+        return conversations.map { it.copy() }
+    }
+
+    /**
+     * Reads the latest version of a conversation from the database and puts it in the right
+     * spot in each of the cached lists.
+     */
+    fun update(context: Context, conversationId: Long) {
+        if (isEmpty()) {
+            return
+        }
+
+        // read it outside of the lock, so that a list that is loading doesn't hold up the write.
+        val readAt = synchronized(this) { generation }
+        val conversation = DataSource.getConversation(context, conversationId)
+
+        synchronized(this) {
+            // the lists changed while we were reading, and that change could have come from a
+            // newer read of this conversation. Read it again, so we can't put an older one back.
+            if (readAt == generation) {
+                put(conversationId, conversation)
+            } else {
+                put(conversationId, DataSource.getConversation(context, conversationId))
+            }
+        }
+    }
+
+    /**
+     * Removes a conversation from each of the cached lists.
+     */
+    fun remove(conversationId: Long) {
+        put(conversationId, null)
+    }
+
+    /**
+     * Drops all of the cached lists. They will be read from the database again the next time
+     * they are requested.
+     */
+    @Synchronized
+    fun invalidate() {
+        lists.clear()
+        generation++
+    }
+
+    @VisibleForTesting
+    @Synchronized
+    fun put(conversationId: Long, conversation: Conversation?) {
+        generation++
+
+        for ((filter, conversations) in lists) {
+            val index = conversations.indexOfFirst { it.id == conversationId }
+            if (index != -1) {
+                conversations.removeAt(index)
+            }
+
+            if (conversation != null && filter.matches(conversation)) {
+                var insertAt = conversations.indexOfFirst { filter.compare(conversation, it) <= 0 }
+                if (insertAt == -1) {
+                    insertAt = conversations.size
+                }
+
+                conversations.add(insertAt, conversation)
+            }
+        }
+    }
+
+    @Synchronized
+    private fun isEmpty() = lists.isEmpty()
+
+    /**
+     * One of the lists of conversations that can be displayed. It knows which conversations belong
+     * in the list and how they are sorted, matching the queries that DataSource uses to load them.
+     */
+    data class Filter(val type: Int, val folderId: Long = -1) : Comparator<Conversation> {
+
+        fun matches(conversation: Conversation) = when (type) {
+            UNARCHIVED -> !conversation.archive && !conversation.private
+            ARCHIVED -> conversation.archive && !conversation.private
+            PRIVATE -> conversation.private
+            UNREAD -> !conversation.read && !conversation.private
+            FOLDER -> !conversation.private && conversation.folderId == folderId
+            else -> false
+        }
+
+        override fun compare(first: Conversation, second: Conversation): Int {
+            if (type == UNARCHIVED && first.pinned != second.pinned) {
+                return if (first.pinned) -1 else 1
+            }
+
+            return second.timestamp.compareTo(first.timestamp)
+        }
+
+        companion object {
+            const val UNARCHIVED = 0
+            const val ARCHIVED = 1
+            const val PRIVATE = 2
+            const val UNREAD = 3
+            const val FOLDER = 4
+        }
+    }
+}
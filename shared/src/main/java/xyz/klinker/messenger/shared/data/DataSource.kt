@@ -19,9 +19,9 @@ package xyz.klinker.messenger.shared.data
 import android.content.ContentValues
 import android.content.Context
 import android.database.Cursor
-import android.database.DatabaseUtils
 import android.database.sqlite.SQLiteConstraintException
 import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteStatement
 import android.graphics.Color
 import android.os.Build
 import android.text.Html
@@ -31,8 +31,14 @@ import android.util.Log
 import androidx.annotation.VisibleForTesting
 
 import java.text.SimpleDateFormat
+import java.util.ArrayDeque
 import java.util.ArrayList
 import java.util.Date
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
 
 import xyz.klinker.messenger.shared.R
 import xyz.klinker.messenger.api.implementation.Account
@@ -43,6 +49,7 @@ import xyz.klinker.messenger.shared.data.model.*
 import xyz.klinker.messenger.shared.receiver.ConversationListUpdatedReceiver
 import xyz.klinker.messenger.shared.service.NewMessagesCheckService
 import xyz.klinker.messenger.shared.util.*
+import xyz.klinker.messenger.shared.util.autoreply.AutoReplyParserFactory
 import xyz.klinker.messenger.shared.util.listener.ProgressUpdateListener
 
 /**
@@ -62,14 +69,44 @@ object DataSource {
      */
     private val MAX_ID = java.lang.Long.MAX_VALUE / 10000
 
-    var _database: SQLiteDatabase? = null
+    private const val IMPORT_READER_THREADS = 4
+    private const val IMPORT_CHUNK_SIZE = 2000
+
+    // stays under sqlite's limits of 999 arguments and 500 compound selects in one statement
+    private const val BATCH_QUERY_SIZE = 250
+    private const val IMPORT_MESSAGE_STATEMENT = "insert into " + Message.TABLE + " (" +
+            Message.COLUMN_ID + ", " + Message.COLUMN_CONVERSATION_ID + ", " + Message.COLUMN_TYPE + ", " +
+            Message.COLUMN_DATA + ", " + Message.COLUMN_TIMESTAMP + ", " + Message.COLUMN_MIME_TYPE + ", " +
+            Message.COLUMN_READ + ", " + Message.COLUMN_SEEN + ", " + Message.COLUMN_FROM + ") " +
+            "values (?, ?, ?, ?, ?, ?, ?, ?, ?)"
+
+    private const val CONTACT_CHUNK_SIZE = 500
+    private const val INSERT_CONTACT_STATEMENT = "insert into " + Contact.TABLE + " (" +
+            Contact.COLUMN_ID + ", " + Contact.COLUMN_PHONE_NUMBER + ", " + Contact.COLUMN_ID_MATCHER + ", " +
+            Contact.COLUMN_NAME + ", " + Contact.COLUMN_TYPE + ", " + Contact.COLUMN_COLOR + ", " +
+            Contact.COLUMN_COLOR_DARK + ", " + Contact.COLUMN_COLOR_LIGHT + ", " + Contact.COLUMN_COLOR_ACCENT + ") " +
+            "values (?, ?, ?, ?, ?, ?, ?, ?, ?)"
+
+    private const val SEARCH_TABLES = Message.TABLE + " m left outer join " + Conversation.TABLE + " c on m.conversation_id = c._id"
+    private val SEARCH_COLUMNS = arrayOf("m._id as _id", "c._id as conversation_id", "m.type as type", "m.data as data", "m.timestamp as timestamp", "m.mime_type as mime_type", "m.read as read", "m.message_from as message_from", "m.color as color", "c.title as convo_title", "c.private_notifications as private_notifications")
+
+    @Volatile var _database: SQLiteDatabase? = null
     var _dbHelper: DatabaseSQLiteHelper? = null
     var _encryptor: EncryptionUtils? = null
     var _accountId: String? = null
     var _androidDeviceId: String? = null
 
-    @Synchronized
+    /**
+     * Every query and write goes through here, so once the database is open, it is handed back
+     * without taking the lock. SQLiteDatabase is thread safe: with WAL enabled, it runs queries
+     * on its pool of read connections and serializes the writes itself.
+     */
     private fun database(context: Context): SQLiteDatabase {
+        return _database ?: openDatabase(context)
+    }
+
+    @Synchronized
+    private fun openDatabase(context: Context): SQLiteDatabase {
         PerformanceProfiler.logEvent("getting datasource")
 
         if (_database == null) {
@@ -107,18 +144,22 @@ object DataSource {
         return _androidDeviceId
     }
 
+    /**
+     * Called after a statement fails, before it is retried.
+     *
+     * The only failure that a new connection will fix is one where the database has been closed
+     * out from under us, so that is the only time that we drop it and open a new one. Anything
+     * else (a busy database, for example) is retried on the same connection right away. SQLite
+     * already waits on a busy database before it gives up, so sleeping here only adds to that.
+     */
     @Synchronized
     fun ensureActionable(context: Context) {
-        Log.v(TAG, "ensuring database actionable")
-
-        // ensure we are closing everything and getting a brand new database connection the
-        // next time we go to use it.
-
-        try {
-            _database?.close()
-        } catch (e: Exception) {
+        if (_database?.isOpen != false) {
+            return
         }
 
+        Log.v(TAG, "database was closed, reopening it")
+
         try {
             _dbHelper?.close()
         } catch (e: Exception) {
@@ -126,11 +167,6 @@ object DataSource {
 
         _dbHelper = null
         _database = null
-
-        try {
-            Thread.sleep(1000)
-        } catch (e: Exception) {
-        }
     }
 
     @Synchronized
@@ -172,24 +208,28 @@ object DataSource {
     /**
      * Deletes all data from the tables.
      */
-    fun clearTables(context: Context) =
-            try {
-                database(context).delete(Message.TABLE, null, null)
-                database(context).delete(Conversation.TABLE, null, null)
-                database(context).delete(Blacklist.TABLE, null, null)
-                database(context).delete(Draft.TABLE, null, null)
-                database(context).delete(ScheduledMessage.TABLE, null, null)
-                database(context).delete(Contact.TABLE, null, null)
-            } catch (e: Exception) {
-                ensureActionable(context)
+    fun clearTables(context: Context) {
+        try {
+            database(context).delete(Message.TABLE, null, null)
+            database(context).delete(Conversation.TABLE, null, null)
+            database(context).delete(Blacklist.TABLE, null, null)
+            database(context).delete(Draft.TABLE, null, null)
+            database(context).delete(ScheduledMessage.TABLE, null, null)
+            database(context).delete(Contact.TABLE, null, null)
+        } catch (e: Exception) {
+            ensureActionable(context)
 
-                database(context).delete(Message.TABLE, null, null)
-                database(context).delete(Conversation.TABLE, null, null)
-                database(context).delete(Blacklist.TABLE, null, null)
-                database(context).delete(Draft.TABLE, null, null)
-                database(context).delete(ScheduledMessage.TABLE, null, null)
-                database(context).delete(Contact.TABLE, null, null)
-            }
+            database(context).delete(Message.TABLE, null, null)
+            database(context).delete(Conversation.TABLE, null, null)
+            database(context).delete(Blacklist.TABLE, null, null)
+            database(context).delete(Draft.TABLE, null, null)
+            database(context).delete(ScheduledMessage.TABLE, null, null)
+            database(context).delete(Contact.TABLE, null, null)
+        }
+
+        ConversationListCache.invalidate()
+        BlacklistUtils.invalidate()
+    }
 
     /**
      * Begins a bulk transaction on the database.
@@ -202,13 +242,19 @@ object DataSource {
      *
      * @param sql the sql statement.
      */
-    fun execSql(context: Context, sql: String) =
-            try {
-                database(context).execSQL(sql)
-            } catch (e: Exception) {
-                ensureActionable(context)
-                database(context).execSQL(sql)
-            }
+    fun execSql(context: Context, sql: String) {
+        try {
+            database(context).execSQL(sql)
+        } catch (e: Exception) {
+            ensureActionable(context)
+            database(context).execSQL(sql)
+        }
+
+        // we don't know what the statement changed
+        ConversationListCache.invalidate()
+        BlacklistUtils.invalidate()
+        AutoReplyParserFactory.invalidate()
+    }
 
     /**
      * Execute a raw sql query on the database.
@@ -242,41 +288,69 @@ object DataSource {
      * @param listener callback for the progress of the insert
      */
     @JvmOverloads fun insertContacts(context: Context, contacts: List<Contact>, listener: ProgressUpdateListener?, useApi: Boolean = false) {
-        beginTransaction(context)
+        insertContacts(context) { insert ->
+            for (i in contacts.indices) {
+                insert(contacts[i])
+                listener?.onProgressUpdate(i + 1, contacts.size)
+            }
+        }
+    }
 
-        for (i in contacts.indices) {
-            val contact = contacts[i]
+    /**
+     * Bulk insert of contacts into the database, as they are handed over. This lets the contacts
+     * be written while they are still being read from the phone, rather than reading all of
+     * them first. They are written with one compiled statement, committing every
+     * CONTACT_CHUNK_SIZE contacts.
+     *
+     * @param write should pass each of the contacts to the insert function that it is given.
+     */
+    fun insertContacts(context: Context, write: (insert: (Contact) -> Unit) -> Unit) {
+        val statement = try {
+            database(context).compileStatement(INSERT_CONTACT_STATEMENT)
+        } catch (e: Exception) {
+            ensureActionable(context)
+            database(context).compileStatement(INSERT_CONTACT_STATEMENT)
+        }
 
-            if (contact.phoneNumber == null) {
-                continue
-            }
+        beginTransaction(context)
+        var uncommitted = 0
 
-            val values = ContentValues(9)
+        try {
+            write { contact ->
+                val phoneNumber = contact.phoneNumber ?: return@write
+
+                // here we are loading the id from the internal database into the conversation object
+                // but we don't want to use that so we'll just generate a new one.
+                statement.clearBindings()
+                statement.bindLong(1, contact.id)
+                statement.bindString(2, phoneNumber)
+                statement.bindString(3, SmsMmsUtils.createIdMatcher(PhoneNumberUtils.clearFormattingAndStripStandardReplacements(phoneNumber)).default)
+                if (contact.name != null) statement.bindString(4, contact.name)
+                if (contact.type != null) statement.bindLong(5, contact.type!!.toLong())
+                statement.bindLong(6, contact.colors.color.toLong())
+                statement.bindLong(7, contact.colors.colorDark.toLong())
+                statement.bindLong(8, contact.colors.colorLight.toLong())
+                statement.bindLong(9, contact.colors.colorAccent.toLong())
 
-            // here we are loading the id from the internal database into the conversation object
-            // but we don't want to use that so we'll just generate a new one.
-            values.put(Contact.COLUMN_ID, contact.id)
-            values.put(Contact.COLUMN_PHONE_NUMBER, contact.phoneNumber)
-            values.put(Contact.COLUMN_ID_MATCHER, SmsMmsUtils.createIdMatcher(PhoneNumberUtils.clearFormattingAndStripStandardReplacements(contact.phoneNumber!!)).default)
-            values.put(Contact.COLUMN_NAME, contact.name)
-            values.put(Contact.COLUMN_TYPE, contact.type)
-            values.put(Contact.COLUMN_COLOR, contact.colors.color)
-            values.put(Contact.COLUMN_COLOR_DARK, contact.colors.colorDark)
-            values.put(Contact.COLUMN_COLOR_LIGHT, contact.colors.colorLight)
-            values.put(Contact.COLUMN_COLOR_ACCENT, contact.colors.colorAccent)
+                try {
+                    statement.executeInsert()
+                } catch (e: SQLiteConstraintException) {
+                    // the same as a failed insert, skip the contact
+                }
 
-            try {
-                database(context).insert(Contact.TABLE, null, values)
-            } catch (e: Exception) {
-                ensureActionable(context)
-                database(context).insert(Contact.TABLE, null, values)
+                if (++uncommitted >= CONTACT_CHUNK_SIZE) {
+                    setTransactionSuccessful(context)
+                    endTransaction(context)
+                    beginTransaction(context)
+                    uncommitted = 0
+                }
             }
 
-            listener?.onProgressUpdate(i + 1, contacts.size)
+            setTransactionSuccessful(context)
+        } finally {
+            statement.close()
+            endTransaction(context)
         }
-
-        setTransactionSuccessful(context)
-        endTransaction(context)
     }
 
     /**
@@ -586,81 +660,194 @@ object DataSource {
     /**
      * Writes the initial list of conversations to the database. These are the conversations that
      * will come from your phones internal SMS database. It will then find all messages in each
-     * of these conversations and insert them as well, during the same transaction.
+     * of these conversations and insert them as well.
+     *
+     * Reading from the system provider is the slow part of the import, especially for MMS, which
+     * needs a few extra queries per message. A small pool of readers loads the conversations in
+     * parallel, while this thread stays the only writer and consumes them in their original order,
+     * committing every IMPORT_CHUNK_SIZE messages so the transaction doesn't grow unbounded. A
+     * conversation that a reader fails on is read again on this thread.
+     *
+     * Conversations that are already stored are skipped, so that an import that failed part way
+     * through can be run again and pick up after the last chunk that it committed.
      *
      * @param conversations the list of conversations. See SmsMmsUtils.queryConversations().
      * @param context       the application context.
      */
     fun insertConversations(conversations: List<Conversation>, context: Context,
                             listener: ProgressUpdateListener?) {
-        beginTransaction(context)
+        val readerCount = Math.max(1, Math.min(IMPORT_READER_THREADS, Runtime.getRuntime().availableProcessors()))
+        val readers = Executors.newFixedThreadPool(readerCount)
+        val contactNames = ConcurrentHashMap<String, String>()
 
-        for (i in conversations.indices) {
-            val conversation = conversations[i]
+        val stored = getConversationIdMatchers(context)
+        val remaining = conversations.filter { !stored.contains(it.idMatcher) }
+        val skipped = conversations.size - remaining.size
 
-            val values = ContentValues(16)
+        // only keep a couple of conversations per reader in memory, so that the readers can't
+        // get too far ahead of the writer on devices with huge threads.
+        val pending = ArrayDeque<Future<List<ContentValues>?>>()
+        var nextToRead = 0
+        fun fillPipeline() {
+            while (nextToRead < remaining.size && pending.size < readerCount * 2) {
+                val conversation = remaining[nextToRead++]
+                pending.add(readers.submit(Callable { readConversationMessages(conversation, context, contactNames) }))
+            }
+        }
 
-            // here we are loading the id from the internal database into the conversation object
-            // but we don't want to use that so we'll just generate a new one.
-            val conversationId = generateId()
-            values.put(Conversation.COLUMN_ID, conversationId)
-            values.put(Conversation.COLUMN_COLOR, conversation.colors.color)
-            values.put(Conversation.COLUMN_COLOR_DARK, conversation.colors.colorDark)
-            values.put(Conversation.COLUMN_COLOR_LIGHT, conversation.colors.colorLight)
-            values.put(Conversation.COLUMN_COLOR_ACCENT, conversation.colors.colorAccent)
-            values.put(Conversation.COLUMN_LED_COLOR, conversation.ledColor)
-            values.put(Conversation.COLUMN_PINNED, conversation.pinned)
-            values.put(Conversation.COLUMN_READ, conversation.read)
-            values.put(Conversation.COLUMN_TITLE, conversation.title)
-            values.put(Conversation.COLUMN_PHONE_NUMBERS, conversation.phoneNumbers)
-            values.put(Conversation.COLUMN_SNIPPET, conversation.snippet)
-            values.put(Conversation.COLUMN_RINGTONE, conversation.ringtoneUri)
-            values.put(Conversation.COLUMN_IMAGE_URI, conversation.imageUri)
-            values.put(Conversation.COLUMN_ID_MATCHER, conversation.idMatcher)
-            values.put(Conversation.COLUMN_MUTE, conversation.mute)
-            values.put(Conversation.COLUMN_ARCHIVED, conversation.archive)
-            values.put(Conversation.COLUMN_FOLDER_ID, conversation.folderId)
+        beginTransaction(context)
+        val insertMessage = database(context).compileStatement(IMPORT_MESSAGE_STATEMENT)
+        var uncommitted = 0
 
-            val messages = SmsMmsUtils.queryConversation(conversation.id, context) ?: continue
+        try {
+            fillPipeline()
+
+            for (i in remaining.indices) {
+                val conversation = remaining[i]
+                val messages = try {
+                    pending.removeFirst().get()
+                } catch (e: ExecutionException) {
+                    // read it again here, instead of dropping the conversation. If that fails
+                    // too, the import fails with it.
+                    Log.e(TAG, "failed to read conversation ${conversation.id}, retrying", e.cause)
+                    readConversationMessages(conversation, context, contactNames)
+                }
 
-            if (messages.count == 0) {
-                deleteConversation(context, conversationId, false)
-                messages.closeSilent()
-                continue
-            }
+                fillPipeline()
 
-            var latestTimestamp = 0L
-            var latestSnippet: String? = null;
-            if (messages.moveToFirst()) {
-                do {
-                    val valuesList = SmsMmsUtils.processMessage(messages, conversationId, context)
-                    for (value in valuesList) {
-                        database(context).insert(Message.TABLE, null, value)
+                if (messages != null && messages.isNotEmpty()) {
+                    // here we are loading the id from the internal database into the conversation object
+                    // but we don't want to use that so we'll just generate a new one.
+                    val conversationId = generateId()
 
+                    var latestTimestamp = 0L
+                    var latestSnippet: String? = null
+                    for (value in messages) {
                         if (value.getAsLong(Message.COLUMN_TIMESTAMP) > latestTimestamp) {
                             latestTimestamp = value.getAsLong(Message.COLUMN_TIMESTAMP)
                             latestSnippet = value.getAsString(Message.COLUMN_DATA)
                         }
                     }
-                } while (messages.moveToNext() && messages.position < SmsMmsUtils.INITIAL_MESSAGE_LIMIT)
-            }
 
-            values.put(Conversation.COLUMN_TIMESTAMP, if (latestTimestamp == 0L) conversation.timestamp else latestTimestamp)
-            values.put(Conversation.COLUMN_SNIPPET, latestSnippet ?: conversation.snippet)
+                    val values = ContentValues(16)
+                    values.put(Conversation.COLUMN_ID, conversationId)
+                    values.put(Conversation.COLUMN_COLOR, conversation.colors.color)
+                    values.put(Conversation.COLUMN_COLOR_DARK, conversation.colors.colorDark)
+                    values.put(Conversation.COLUMN_COLOR_LIGHT, conversation.colors.colorLight)
+                    values.put(Conversation.COLUMN_COLOR_ACCENT, conversation.colors.colorAccent)
+                    values.put(Conversation.COLUMN_LED_COLOR, conversation.ledColor)
+                    values.put(Conversation.COLUMN_PINNED, conversation.pinned)
+                    values.put(Conversation.COLUMN_READ, conversation.read)
+                    values.put(Conversation.COLUMN_TITLE, conversation.title)
+                    values.put(Conversation.COLUMN_PHONE_NUMBERS, conversation.phoneNumbers)
+                    values.put(Conversation.COLUMN_RINGTONE, conversation.ringtoneUri)
+                    values.put(Conversation.COLUMN_IMAGE_URI, conversation.imageUri)
+                    values.put(Conversation.COLUMN_ID_MATCHER, conversation.idMatcher)
+                    values.put(Conversation.COLUMN_MUTE, conversation.mute)
+                    values.put(Conversation.COLUMN_ARCHIVED, conversation.archive)
+                    values.put(Conversation.COLUMN_FOLDER_ID, conversation.folderId)
+                    values.put(Conversation.COLUMN_TIMESTAMP, if (latestTimestamp == 0L) conversation.timestamp else latestTimestamp)
+                    values.put(Conversation.COLUMN_SNIPPET, latestSnippet ?: conversation.snippet)
+
+                    // the conversation goes in first, so that its messages are never written
+                    // without it
+                    if (database(context).insert(Conversation.TABLE, null, values) != -1L) {
+                        for (value in messages) {
+                            value.put(Message.COLUMN_CONVERSATION_ID, conversationId)
+                            bindImportedMessage(insertMessage, value)
+                            insertMessage.executeInsert()
+                        }
 
-            try {
-                database(context).insert(Conversation.TABLE, null, values)
-            } catch (e: Exception) {
-                ensureActionable(context)
-                database(context).insert(Conversation.TABLE, null, values)
+                        uncommitted += messages.size
+                        if (uncommitted >= IMPORT_CHUNK_SIZE) {
+                            setTransactionSuccessful(context)
+                            endTransaction(context)
+                            beginTransaction(context)
+                            uncommitted = 0
+                        }
+                    }
+                }
+
+                listener?.onProgressUpdate(skipped + i + 1, conversations.size)
             }
 
+            setTransactionSuccessful(context)
+        } finally {
+            readers.shutdownNow()
+            insertMessage.close()
+            endTransaction(context)
+            ConversationListCache.invalidate()
+        }
+    }
+
+    /**
+     * The id matchers of every conversation that is already stored.
+     */
+    private fun getConversationIdMatchers(context: Context): Set<String> {
+        val cursor: Cursor? = try {
+            database(context).query(Conversation.TABLE, arrayOf(Conversation.COLUMN_ID_MATCHER),
+                    null, null, null, null, null)
+        } catch (e: Exception) {
+            ensureActionable(context)
+            database(context).query(Conversation.TABLE, arrayOf(Conversation.COLUMN_ID_MATCHER),
+                    null, null, null, null, null)
+        }
+
+        val idMatchers = HashSet<String>()
+        if (cursor != null && cursor.moveToFirst()) {
+            do {
+                cursor.getString(0)?.let { idMatchers.add(it) }
+            } while (cursor.moveToNext())
+        }
+
+        cursor.closeSilent()
+        return idMatchers
+    }
+
+    /**
+     * Runs on one of the import readers. Pulls the newest messages for the conversation out of the
+     * system provider, or returns null if the thread couldn't be queried. The conversation id is
+     * filled in later, by the writer.
+     */
+    private fun readConversationMessages(conversation: Conversation, context: Context,
+                                         contactNames: MutableMap<String, String>): List<ContentValues>? {
+        val messages = SmsMmsUtils.queryConversation(conversation.id, context) ?: return null
+        val values = ArrayList<ContentValues>()
+
+        try {
+            if (messages.moveToFirst()) {
+                do {
+                    values.addAll(SmsMmsUtils.processMessage(messages, -1L, context, contactNames))
+                } while (messages.moveToNext() && messages.position < SmsMmsUtils.INITIAL_MESSAGE_LIMIT
+                        && !Thread.currentThread().isInterrupted)
+            }
+        } finally {
             messages.closeSilent()
-            listener?.onProgressUpdate(i + 1, conversations.size)
         }
 
-        setTransactionSuccessful(context)
-        endTransaction(context)
+        return values
+    }
+
+    private fun bindImportedMessage(statement: SQLiteStatement, values: ContentValues) {
+        statement.clearBindings()
+
+        val id = values.getAsLong(Message.COLUMN_ID)
+        if (id != null) {
+            statement.bindLong(1, id)
+        }
+
+        statement.bindLong(2, values.getAsLong(Message.COLUMN_CONVERSATION_ID))
+        statement.bindLong(3, values.getAsLong(Message.COLUMN_TYPE))
+        statement.bindString(4, values.getAsString(Message.COLUMN_DATA))
+        statement.bindLong(5, values.getAsLong(Message.COLUMN_TIMESTAMP))
+        statement.bindString(6, values.getAsString(Message.COLUMN_MIME_TYPE))
+        statement.bindLong(7, values.getAsLong(Message.COLUMN_READ))
+        statement.bindLong(8, if (values.getAsBoolean(Message.COLUMN_SEEN) == true) 1 else 0)
+
+        val from = values.getAsString(Message.COLUMN_FROM)
+        if (from != null) {
+            statement.bindString(9, from)
+        }
     }
 
     /**
@@ -709,6 +896,7 @@ object DataSource {
 
         setTransactionSuccessful(context)
         endTransaction(context)
+        ConversationListCache.invalidate()
     }
 
     /**
@@ -755,7 +943,7 @@ object DataSource {
             writeUnreadCount(context)
         }
 
-        return try {
+        val id = try {
             database(context).insert(Conversation.TABLE, null, values)
         } catch (e: Exception) {
             ensureActionable(context)
@@ -765,6 +953,12 @@ object DataSource {
                 -1L
             }
         }
+
+        if (id != -1L) {
+            ConversationListCache.update(context, conversation.id)
+        }
+
+        return id
     }
 
     private fun convertConversationCursorToList(cursor: Cursor): List<Conversation> {
@@ -1085,6 +1279,41 @@ object DataSource {
         }
     }
 
+    /**
+     * Gets all of the conversations with the given ids, with one query for each batch of ids
+     * rather than one for each conversation.
+     *
+     * @param conversationIds the ids of the conversations to find.
+     * @return the conversations that exist, by their id.
+     */
+    fun getConversations(context: Context, conversationIds: Collection<Long>): Map<Long, Conversation> {
+        val conversations = HashMap<Long, Conversation>(conversationIds.size)
+
+        for (batch in conversationIds.distinct().chunked(BATCH_QUERY_SIZE)) {
+            val where = Conversation.COLUMN_ID + " IN (" + batch.joinToString(", ") { "?" } + ")"
+            val args = batch.map { it.toString() }.toTypedArray()
+
+            val cursor = try {
+                database(context).query(Conversation.TABLE, null, where, args, null, null, null)
+            } catch (e: Exception) {
+                ensureActionable(context)
+                database(context).query(Conversation.TABLE, null, where, args, null, null, null)
+            }
+
+            if (cursor.moveToFirst()) {
+                do {
+                    val conversation = Conversation()
+                    conversation.fillFromCursor(cursor)
+                    conversations[conversation.id] = conversation
+                } while (cursor.moveToNext())
+            }
+
+            cursor.closeSilent()
+        }
+
+        return conversations
+    }
+
     /**
      * Deletes a conversation from the database.
      *
@@ -1126,6 +1355,8 @@ object DataSource {
                     arrayOf(java.lang.Long.toString(conversationId)))
         }
 
+        ConversationListCache.remove(conversationId)
+
         if (conversation != null) {
             Thread { SmsMmsUtils.deleteConversation(context, conversation.phoneNumbers!!) }.start()
         }
@@ -1171,12 +1402,10 @@ object DataSource {
         }
 
         if (updated > 0) {
+            ConversationListCache.update(context, conversationId)
+
             if (useApi) {
-                if (archive) {
-                    ApiUtils.archiveConversation(accountId(context), conversationId)
-                } else {
-                    ApiUtils.unarchiveConversation(accountId(context), conversationId)
-                }
+                queueSyncRequest(context, RetryableRequest.TYPE_ARCHIVE_CONVERSATION, conversationId)
             }
 
             clearUnreadCount(context)
@@ -1204,6 +1433,10 @@ object DataSource {
                     arrayOf(java.lang.Long.toString(conversationId)))
         }
 
+        if (updated > 0) {
+            ConversationListCache.update(context, conversationId)
+        }
+
         if (updated > 0 && useApi) {
             if (folderId == -1L) {
                 ApiUtils.removeConversationFromFolder(accountId(context), conversationId)
@@ -1254,8 +1487,8 @@ object DataSource {
         }
 
         if (updated > 0) {
-            if (useApi) ApiUtils.updateConversationSnippet(accountId(context), conversationId,
-                    read, archive, timestamp, snippet, encryptor(context))
+            ConversationListCache.update(context, conversationId)
+            if (useApi) queueSyncRequest(context, RetryableRequest.TYPE_UPDATE_CONVERSATION_SNIPPET, conversationId)
 
             if (read) {
                 clearUnreadCount(context)
@@ -1291,13 +1524,11 @@ object DataSource {
         }
 
         if (updated > 0) {
+            ConversationListCache.update(context, conversationId)
             ConversationListUpdatedReceiver.sendBroadcast(context, conversationId, snippet, true)
 
             if (useApi) {
-                ApiUtils.updateConversation(accountId(context), conversationId, color = null,
-                        colorDark = null, colorLight = null, colorAccent = null, ledColor = null, pinned = null,
-                        read = false, timestamp = null, title = null, snippet = snippet, ringtone = null, mute = null,
-                        archive = null, privateNotifications = null, encryptionUtils = encryptor(context))
+                queueSyncRequest(context, RetryableRequest.TYPE_UPDATE_CONVERSATION_SNIPPET, conversationId)
             }
         }
     }
@@ -1333,6 +1564,8 @@ object DataSource {
                     arrayOf(java.lang.Long.toString(conversation.id)))
         }
 
+        ConversationListCache.update(context, conversation.id)
+
         if (useApi) {
             ApiUtils.updateConversation(accountId(context), conversation.id, conversation.colors.color,
                     conversation.colors.colorDark, conversation.colors.colorLight, conversation.colors.colorAccent,
@@ -1361,8 +1594,12 @@ object DataSource {
                     arrayOf(java.lang.Long.toString(conversationId), title))
         }
 
+        if (updated > 0) {
+            ConversationListCache.update(context, conversationId)
+        }
+
         if (updated > 0 && useApi) {
-            ApiUtils.updateConversationTitle(accountId(context), conversationId, title, encryptor(context))
+            queueSyncRequest(context, RetryableRequest.TYPE_UPDATE_CONVERSATION_TITLE, conversationId)
         }
     }
 
@@ -1382,6 +1619,10 @@ object DataSource {
                     arrayOf(java.lang.Long.toString(conversationId)))
         }
 
+        if (updated > 0) {
+            ConversationListCache.update(context, conversationId)
+        }
+
         // no need to update the API, since image uris are local
     }
 
@@ -1544,31 +1785,93 @@ object DataSource {
             }
 
     /**
-     * Gets a limited number of messages for a given conversation.
+     * Gets the newest messages for a given conversation, in timestamp order.
      *
      * @param conversationId the conversation id to find messages for.
-     * @return a cursor with all messages.
+     * @param limit the maximum number of messages to return.
+     * @return a cursor with the newest messages.
      */
-    fun getMessageCursorWithLimit(context: Context, conversationId: Long, limit: Int): Cursor {
-        val numberOfEntries = DatabaseUtils.queryNumEntries(database(context), Message.TABLE,
-                Message.COLUMN_CONVERSATION_ID + "=?", arrayOf(java.lang.Long.toString(conversationId)))
+    fun getMessageCursorWithLimit(context: Context, conversationId: Long, limit: Int): Cursor =
+            getMessagesBefore(context, conversationId, Long.MAX_VALUE, Long.MAX_VALUE, limit)
 
-        return if (numberOfEntries > limit) {
-            try {
-                database(context).query(Message.TABLE, null, Message.COLUMN_CONVERSATION_ID + "=?",
-                        arrayOf(java.lang.Long.toString(conversationId)), null, null,
-                        Message.COLUMN_TIMESTAMP + " asc", (numberOfEntries - limit).toString() + "," + limit)
-            } catch (e: Exception) {
-                ensureActionable(context)
-                database(context).query(Message.TABLE, null, Message.COLUMN_CONVERSATION_ID + "=?",
-                        arrayOf(java.lang.Long.toString(conversationId)), null, null,
-                        Message.COLUMN_TIMESTAMP + " asc", (numberOfEntries - limit).toString() + "," + limit)
-            }
-        } else {
-            getMessages(context, conversationId)
+    /**
+     * Gets the page of messages that comes right before the given message, in timestamp order.
+     *
+     * The page is found by seeking on the (timestamp, id) of the oldest message that is already
+     * loaded, rather than with an offset, so SQLite can jump straight to it on the
+     * conversation_id, timestamp index instead of stepping over every newer message first.
+     *
+     * @param conversationId the conversation id to find messages for.
+     * @param timestamp the timestamp of the oldest message that has been loaded.
+     * @param messageId the id of the oldest message that has been loaded. It breaks ties between
+     *                  messages that have the same timestamp.
+     * @param limit the maximum number of messages to return.
+     * @return a cursor with up to limit messages, oldest first.
+     */
+    fun getMessagesBefore(context: Context, conversationId: Long, timestamp: Long, messageId: Long, limit: Int): Cursor {
+        val sql = "SELECT * FROM (SELECT * FROM " + Message.TABLE + " WHERE " +
+                Message.COLUMN_CONVERSATION_ID + "=? AND " + Message.COLUMN_TIMESTAMP + "<=? AND (" +
+                Message.COLUMN_TIMESTAMP + "<? OR " + Message.COLUMN_ID + "<?) ORDER BY " +
+                Message.COLUMN_TIMESTAMP + " desc, " + Message.COLUMN_ID + " desc LIMIT " + limit +
+                ") ORDER BY " + Message.COLUMN_TIMESTAMP + " asc, " + Message.COLUMN_ID + " asc"
+        val args = arrayOf(conversationId.toString(), timestamp.toString(), timestamp.toString(), messageId.toString())
+
+        return try {
+            database(context).rawQuery(sql, args)
+        } catch (e: Exception) {
+            ensureActionable(context)
+            database(context).rawQuery(sql, args)
+        }
+    }
+
+    /**
+     * Gets all of the messages that come after the given message, in timestamp order.
+     *
+     * @param conversationId the conversation id to find messages for.
+     * @param timestamp the timestamp of the message to start after.
+     * @param messageId the id of the message to start after. It breaks ties between messages
+     *                  that have the same timestamp.
+     * @param inclusive whether the given message should be included in the results.
+     * @return a cursor with the messages, oldest first.
+     */
+    fun getMessagesAfter(context: Context, conversationId: Long, timestamp: Long, messageId: Long,
+                         inclusive: Boolean = false): Cursor {
+        val where = messagesAfterSelection(inclusive)
+        val args = arrayOf(conversationId.toString(), timestamp.toString(), timestamp.toString(), messageId.toString())
+        val order = Message.COLUMN_TIMESTAMP + " asc, " + Message.COLUMN_ID + " asc"
+
+        return try {
+            database(context).query(Message.TABLE, null, where, args, null, null, order)
+        } catch (e: Exception) {
+            ensureActionable(context)
+            database(context).query(Message.TABLE, null, where, args, null, null, order)
+        }
+    }
+
+    /**
+     * Counts the messages that getMessagesAfter would return, without reading them.
+     */
+    fun getMessageCountAfter(context: Context, conversationId: Long, timestamp: Long, messageId: Long,
+                             inclusive: Boolean = false): Int {
+        val sql = "SELECT count(*) FROM " + Message.TABLE + " WHERE " + messagesAfterSelection(inclusive)
+        val args = arrayOf(conversationId.toString(), timestamp.toString(), timestamp.toString(), messageId.toString())
+
+        val cursor = try {
+            database(context).rawQuery(sql, args)
+        } catch (e: Exception) {
+            ensureActionable(context)
+            database(context).rawQuery(sql, args)
         }
+
+        val count = if (cursor.moveToFirst()) cursor.getInt(0) else 0
+        cursor.closeSilent()
+        return count
     }
 
+    private fun messagesAfterSelection(inclusive: Boolean) =
+            Message.COLUMN_CONVERSATION_ID + "=? AND " + Message.COLUMN_TIMESTAMP + ">=? AND (" +
+                    Message.COLUMN_TIMESTAMP + ">? OR " + Message.COLUMN_ID + (if (inclusive) ">=?)" else ">?)")
+
     /**
      * Gets a single message from the database.
      */
@@ -1734,6 +2037,25 @@ object DataSource {
                         Message.COLUMN_TIMESTAMP + " asc")
             }
 
+    /**
+     * Gets all of the messages in the database that come after the given message, in the order
+     * that they are uploaded: oldest first, with the id breaking ties between messages that have
+     * the same timestamp.
+     */
+    fun getMessagesToUpload(context: Context, timestamp: Long, messageId: Long): Cursor {
+        val where = Message.COLUMN_TIMESTAMP + ">? OR (" + Message.COLUMN_TIMESTAMP + "=? AND " +
+                Message.COLUMN_ID + ">?)"
+        val args = arrayOf(timestamp.toString(), timestamp.toString(), messageId.toString())
+        val order = Message.COLUMN_TIMESTAMP + " asc, " + Message.COLUMN_ID + " asc"
+
+        return try {
+            database(context).query(Message.TABLE, null, where, args, null, null, order)
+        } catch (e: Exception) {
+            ensureActionable(context)
+            database(context).query(Message.TABLE, null, where, args, null, null, order)
+        }
+    }
+
     /**
      * Gets all messages in the database, newer than the given time
      */
@@ -1803,6 +2125,46 @@ object DataSource {
         return messages
     }
 
+    /**
+     * Gets the latest messages in each of the given conversations, the same as getMessages(context,
+     * conversationId, count) for each of them, but with one query for each batch of conversations.
+     * Each conversation's messages are read from the conversation_id, timestamp index on their own.
+     *
+     * @return the messages for each conversation that has any, newest first.
+     */
+    fun getLatestMessages(context: Context, conversationIds: Collection<Long>, count: Int): Map<Long, List<Message>> {
+        val messages = HashMap<Long, MutableList<Message>>(conversationIds.size)
+
+        for (batch in conversationIds.distinct().chunked(BATCH_QUERY_SIZE)) {
+            val sql = batch.joinToString(" UNION ALL ") {
+                "SELECT * FROM (SELECT * FROM " + Message.TABLE + " WHERE " + Message.COLUMN_CONVERSATION_ID +
+                        "=? ORDER BY " + Message.COLUMN_TIMESTAMP + " desc, " + Message.COLUMN_ID + " desc LIMIT " + count + ")"
+            }
+            val args = batch.map { it.toString() }.toTypedArray()
+
+            val cursor = try {
+                database(context).rawQuery(sql, args)
+            } catch (e: Exception) {
+                ensureActionable(context)
+                database(context).rawQuery(sql, args)
+            }
+
+            if (cursor.moveToFirst()) {
+                do {
+                    val message = Message()
+                    message.fillFromCursor(cursor)
+                    messages.getOrPut(message.conversationId) { ArrayList(count) }.add(message)
+                } while (cursor.moveToNext())
+            }
+
+            cursor.closeSilent()
+        }
+
+        // a compound select doesn't promise to keep each part's order
+        messages.values.forEach { list -> list.sortWith(compareByDescending<Message> { it.timestamp }.thenByDescending { it.id }) }
+        return messages
+    }
+
     /**
      * Get the specified number of messages.
      */
@@ -1823,7 +2185,8 @@ object DataSource {
     }
 
     /**
-     * Gets all messages that contain the query text.
+     * Gets all messages that contain the query text, matching each of its words against the start
+     * of the words in the message.
      *
      * @param query the text to look for.
      * @return a cursor with all messages matching that query.
@@ -1832,24 +2195,44 @@ object DataSource {
             if (query == null || query.isEmpty()) {
                 null
             } else {
-                try {
-                    database(context).query(Message.TABLE + " m left outer join " + Conversation.TABLE + " c on m.conversation_id = c._id",
-                            arrayOf("m._id as _id", "c._id as conversation_id", "m.type as type", "m.data as data", "m.timestamp as timestamp", "m.mime_type as mime_type", "m.read as read", "m.message_from as message_from", "m.color as color", "c.title as convo_title", "c.private_notifications as private_notifications"),
-                            Message.COLUMN_DATA + " LIKE '%" + query.replace("'", "''") + "%' AND " +
-                                    Message.COLUMN_MIME_TYPE + "='" + MimeType.TEXT_PLAIN + "' AND " + Conversation.COLUMN_PRIVATE + "=0", null, null, null, Message.COLUMN_TIMESTAMP + " desc")
-                } catch (e: Exception) {
-                    ensureActionable(context)
-                    try {
-                        database(context).query(Message.TABLE + " m left outer join " + Conversation.TABLE + " c on m.conversation_id = c._id",
-                                arrayOf("m._id as _id", "c._id as conversation_id", "m.type as type", "m.data as data", "m.timestamp as timestamp", "m.mime_type as mime_type", "m.read as read", "m.message_from as message_from", "m.color as color", "c.title as convo_title", "c.private_notifications as private_notifications"),
-                                Message.COLUMN_DATA + " LIKE '%" + query.replace("'", "''") + "%' AND " +
-                                        Message.COLUMN_MIME_TYPE + "='" + MimeType.TEXT_PLAIN + "' AND " + Conversation.COLUMN_PRIVATE + "=0", null, null, null, Message.COLUMN_TIMESTAMP + " desc")
-                    } catch (x: Exception) {
-                        null
-                    }
-                }
+                searchMessages(context, query, Conversation.COLUMN_PRIVATE + "=0", true)
             }
 
+    /**
+     * Once the full text index is built, the global search is a word prefix search: it finds the
+     * messages that contain a word starting with each word of the query, and the LIKE comparison
+     * only has to run against those candidates, instead of scanning the entire message table. Text
+     * in the middle of a word isn't found, so "ello" doesn't match "hello".
+     *
+     * Until the index is ready, or when the query has no words that can be indexed (emoji or
+     * punctuation only), this scans with LIKE, which also matches inside of words.
+     */
+    private fun searchMessages(context: Context, query: String, filter: String, useIndex: Boolean): Cursor? {
+        val like = Message.COLUMN_DATA + " LIKE '%" + query.replace("'", "''") + "%' AND " +
+                Message.COLUMN_MIME_TYPE + "='" + MimeType.TEXT_PLAIN + "' AND " + filter
+        val match = if (useIndex && isMessageSearchIndexReady(context)) MessageSearchIndex.buildMatchQuery(query) else null
+
+        return if (match != null) {
+            querySearch(context, MessageSearchIndex.matchSelection("m._id") + " AND " + like, arrayOf(match))
+        } else {
+            querySearch(context, like, null)
+        }
+    }
+
+    private fun querySearch(context: Context, selection: String, selectionArgs: Array<String>?): Cursor? {
+        return try {
+            database(context).query(SEARCH_TABLES, SEARCH_COLUMNS, selection, selectionArgs, null, null, Message.COLUMN_TIMESTAMP + " desc")
+        } catch (e: Exception) {
+            ensureActionable(context)
+            try {
+                database(context).query(SEARCH_TABLES, SEARCH_COLUMNS, selection, selectionArgs, null, null, Message.COLUMN_TIMESTAMP + " desc")
+            } catch (x: Exception) {
+                x.printStackTrace()
+                null
+            }
+        }
+    }
+
     fun searchMessagesAsList(context: Context, query: String?, amount: Int, receivedOnly: Boolean = false): List<Message> {
         val cursor = searchMessages(context, query)
         val messages = ArrayList<Message>()
@@ -1879,23 +2262,9 @@ object DataSource {
             if (query == null || query.isEmpty()) {
                 null
             } else {
-                try {
-                    database(context).query(Message.TABLE + " m left outer join " + Conversation.TABLE + " c on m.conversation_id = c._id",
-                            arrayOf("m._id as _id", "c._id as conversation_id", "m.type as type", "m.data as data", "m.timestamp as timestamp", "m.mime_type as mime_type", "m.read as read", "m.message_from as message_from", "m.color as color", "c.title as convo_title", "c.private_notifications as private_notifications"),
-                            Message.COLUMN_DATA + " LIKE '%" + query.replace("'", "''") + "%' AND " +
-                                    Message.COLUMN_MIME_TYPE + "='" + MimeType.TEXT_PLAIN + "' AND c._id=" + conversationId, null, null, null, Message.COLUMN_TIMESTAMP + " desc")
-                } catch (e: Exception) {
-                    ensureActionable(context)
-                    try {
-                        database(context).query(Message.TABLE + " m left outer join " + Conversation.TABLE + " c on m.conversation_id = c._id",
-                                arrayOf("m._id as _id", "c._id as conversation_id", "m.type as type", "m.data as data", "m.timestamp as timestamp", "m.mime_type as mime_type", "m.read as read", "m.message_from as message_from", "m.color as color", "c.title as convo_title", "c.private_notifications as private_notifications"),
-                                Message.COLUMN_DATA + " LIKE '%" + query.replace("'", "''") + "%' AND " +
-                                        Message.COLUMN_MIME_TYPE + "='" + MimeType.TEXT_PLAIN + "' AND c._id=" + conversationId, null, null, null, Message.COLUMN_TIMESTAMP + " desc")
-                    } catch (x: Exception) {
-                        x.printStackTrace()
-                        null
-                    }
-                }
+                // a single conversation is small enough to scan, so this always matches the middle
+                // of words too
+                searchMessages(context, query, "c._id=$conversationId", false)
             }
 
     fun searchConversationMessagesAsList(context: Context, query: String?, conversationId: Long, amount: Int): List<Message> {
@@ -1914,6 +2283,24 @@ object DataSource {
         return messages
     }
 
+    /**
+     * Indexes any messages that were in the database before the full text index existed. This
+     * is a no-op once the index has been populated.
+     */
+    fun rebuildMessageSearchIndex(context: Context) {
+        val database = database(context)
+        if (!MessageSearchIndex.isReady(database)) {
+            MessageSearchIndex.rebuild(database)
+        }
+    }
+
+    fun isMessageSearchIndexReady(context: Context) = try {
+        MessageSearchIndex.isReady(database(context))
+    } catch (e: Exception) {
+        ensureActionable(context)
+        false
+    }
+
     /**
      * Gets all messages that are within 5 seconds of the given timestamp.
      *
@@ -2055,16 +2442,20 @@ object DataSource {
             else -> phoneNumbers
         })
 
-        val matcher = SmsMmsUtils.createIdMatcher(phoneNumbers)
+        return findConversationId(context, SmsMmsUtils.createIdMatcher(phoneNumbers))
+    }
+
+    /**
+     * Looks up the conversation through the unique index on the id_matcher column.
+     */
+    private fun findConversationId(context: Context, matcher: IdMatcher): Long? {
         val cursor = try {
-            database(context).query(Conversation.TABLE,
-                    arrayOf(Conversation.COLUMN_ID, Conversation.COLUMN_ID_MATCHER),
-                    matcher.whereClause, matcher.allMatchers, null, null, null)
+            database(context).query(Conversation.TABLE, arrayOf(Conversation.COLUMN_ID),
+                    matcher.whereClause, matcher.whereArgs, null, null, null, "1")
         } catch (e: Exception) {
             ensureActionable(context)
-            database(context).query(Conversation.TABLE,
-                    arrayOf(Conversation.COLUMN_ID, Conversation.COLUMN_ID_MATCHER),
-                    matcher.whereClause, matcher.allMatchers, null, null, null)
+            database(context).query(Conversation.TABLE, arrayOf(Conversation.COLUMN_ID),
+                    matcher.whereClause, matcher.whereArgs, null, null, null, "1")
         }
 
         return if (cursor.moveToFirst()) {
@@ -2119,30 +2510,18 @@ object DataSource {
         })
 
         val matcher = SmsMmsUtils.createIdMatcher(phoneNumbers)
-        val cursor = try {
-            database(context).query(Conversation.TABLE,
-                    arrayOf(Conversation.COLUMN_ID, Conversation.COLUMN_ID_MATCHER),
-                    matcher.whereClause, matcher.allMatchers, null, null, null)
-        } catch (e: Exception) {
-            ensureActionable(context)
-            database(context).query(Conversation.TABLE,
-                    arrayOf(Conversation.COLUMN_ID, Conversation.COLUMN_ID_MATCHER),
-                    matcher.whereClause, matcher.allMatchers, null, null, null)
-        }
+        val existingConversationId = findConversationId(context, matcher)
 
         val conversationId: Long
         message.data = message.data?.replace("[Web발신]\n", "")
 
-        if (cursor.moveToFirst()) {
-            conversationId = cursor.getLong(0)
+        if (existingConversationId != null) {
+            conversationId = existingConversationId
             val snippet = if (message.type == Message.TYPE_SENT || message.type == Message.TYPE_SENDING)
                 context.getString(R.string.you) + ": " + message.data else message.data
 
             updateConversation(context, conversationId, message.read, message.timestamp, snippet, message.mimeType, false, useApi)
-            cursor.closeSilent()
         } else {
-            cursor.closeSilent()
-
             val conversation = Conversation()
             conversation.pinned = false
             conversation.read = message.read
@@ -2221,9 +2600,7 @@ object DataSource {
 
         if (id > 0) {
             if (useApi) {
-                ApiUtils.addMessage(context, accountId(context), message.id, conversationId, message.type, message.data,
-                        message.timestamp, message.mimeType, message.read, message.seen, message.from,
-                        message.color, message.sentDeviceId.toString(), message.simPhoneNumber, encryptor(context))
+                queueSyncRequest(context, RetryableRequest.TYPE_ADD_MESSAGE, message.id)
             }
 
             if (message.type != Message.TYPE_MEDIA) {
@@ -2332,6 +2709,7 @@ object DataSource {
 
         database(context).delete(Conversation.TABLE, Conversation.COLUMN_TIMESTAMP + "<?",
                 arrayOf(java.lang.Long.toString(timestamp)))
+        ConversationListCache.invalidate()
 
         if (deleted > 0 && useApi) {
             ApiUtils.cleanupMessages(accountId(context), timestamp)
@@ -2392,8 +2770,12 @@ object DataSource {
                     arrayOf(java.lang.Long.toString(conversationId)))
         }
 
+        if (updated > 0) {
+            ConversationListCache.update(context, conversationId)
+        }
+
         if (updated > 0 && useApi) {
-            ApiUtils.readConversation(accountId(context), androidDeviceId(context), conversationId)
+            queueSyncRequest(context, RetryableRequest.TYPE_READ_CONVERSATION, conversationId)
         }
 
         clearUnreadCount(context)
@@ -2424,11 +2806,12 @@ object DataSource {
                     arrayOf(java.lang.Long.toString(conversationId)))
         }
 
+        if (updated > 0) {
+            ConversationListCache.update(context, conversationId)
+        }
+
         if (updated > 0 && useApi) {
-            ApiUtils.updateConversation(accountId(context), conversationId, color = null,
-                    colorDark = null, colorLight = null, colorAccent = null, ledColor = null, pinned = null,
-                    read = false, timestamp = null, title = null, snippet = null, ringtone = null, mute = null,
-                    archive = null, privateNotifications = null, encryptionUtils = encryptor(context))
+            queueSyncRequest(context, RetryableRequest.TYPE_UPDATE_CONVERSATION_SNIPPET, conversationId)
         }
     }
 
@@ -2467,9 +2850,13 @@ object DataSource {
 
         Log.v("Data Source", "updated: " + updated)
         if (updated > 0) {
+            for (id in conversationIds) {
+                ConversationListCache.update(context, id)
+            }
+
             if (useApi) {
                 for (id in conversationIds) {
-                    ApiUtils.readConversation(accountId(context), androidDeviceId(context), id)
+                    queueSyncRequest(context, RetryableRequest.TYPE_READ_CONVERSATION, id)
                 }
             }
 
@@ -2767,6 +3154,8 @@ object DataSource {
             database(context).insert(Blacklist.TABLE, null, values)
         }
 
+        BlacklistUtils.invalidate()
+
         if (useApi) {
             ApiUtils.addBlacklist(accountId(context), blacklist.id, blacklist.phoneNumber, blacklist.phrase, encryptor(context))
         }
@@ -2785,6 +3174,8 @@ object DataSource {
                     arrayOf(java.lang.Long.toString(id)))
         }
 
+        BlacklistUtils.invalidate()
+
         if (useApi) {
             ApiUtils.deleteBlacklist(accountId(context), id)
         }
@@ -3057,12 +3448,15 @@ object DataSource {
                     autoReply.pattern!!, autoReply.response!!, encryptor(context))
         }
 
-        return try {
+        val id = try {
             database(context).insert(AutoReply.TABLE, null, values)
         } catch (e: Exception) {
             ensureActionable(context)
             database(context).insert(AutoReply.TABLE, null, values)
         }
+
+        AutoReplyParserFactory.invalidate()
+        return id
     }
 
     /**
@@ -3087,6 +3481,8 @@ object DataSource {
                     arrayOf(java.lang.Long.toString(autoReply.id)))
         }
 
+        AutoReplyParserFactory.invalidate()
+
         if (useApi) {
             ApiUtils.updateAutoReply(accountId(context), autoReply.id, autoReply.type!!,
                     autoReply.pattern!!, autoReply.response!!, encryptor(context))
@@ -3106,6 +3502,8 @@ object DataSource {
                     arrayOf(java.lang.Long.toString(id)))
         }
 
+        AutoReplyParserFactory.invalidate()
+
         if (useApi) {
             ApiUtils.deleteAutoReply(accountId(context), id)
         }
@@ -3236,6 +3634,8 @@ object DataSource {
                     arrayOf(java.lang.Long.toString(id)))
         }
 
+        ConversationListCache.invalidate()
+
         if (useApi) {
             ApiUtils.deleteFolder(accountId(context), id)
         }
@@ -3295,6 +3695,33 @@ object DataSource {
         }
     }
 
+    /**
+     * Inserts a request into the database, replacing any pending request of the same type for the
+     * same item. The request is built from the current row when it is sent, so the older one
+     * would only have sent the same data a second time.
+     */
+    fun replaceRetryableRequest(context: Context, request: RetryableRequest): Long {
+        val where = RetryableRequest.COLUMN_TYPE + "=? AND " + RetryableRequest.COLUMN_DATA_ID + "=?"
+        val args = arrayOf(Integer.toString(request.type), java.lang.Long.toString(request.dataId))
+
+        // a flush that runs between the two would otherwise see neither request
+        try {
+            beginTransaction(context)
+        } catch (e: Exception) {
+            ensureActionable(context)
+            beginTransaction(context)
+        }
+
+        try {
+            database(context).delete(RetryableRequest.TABLE, where, args)
+            val id = insertRetryableRequest(context, request)
+            setTransactionSuccessful(context)
+            return id
+        } finally {
+            endTransaction(context)
+        }
+    }
+
     /**
      * Deletes a request from the database.
      */
@@ -3309,6 +3736,24 @@ object DataSource {
         }
     }
 
+    /**
+     * Deletes a group of requests from the database.
+     */
+    fun deleteRetryableRequests(context: Context, ids: List<Long>) {
+        if (ids.isEmpty()) {
+            return
+        }
+
+        val where = StringUtils.buildSqlOrStatement(RetryableRequest.COLUMN_ID, ids)
+
+        try {
+            database(context).delete(RetryableRequest.TABLE, where, null)
+        } catch (e: Exception) {
+            ensureActionable(context)
+            database(context).delete(RetryableRequest.TABLE, where, null)
+        }
+    }
+
     /**
      * Deletes a folder from the database.
      */
@@ -3321,6 +3766,16 @@ object DataSource {
         }
     }
 
+    /**
+     * Queues a request in the sync outbox instead of calling the API right away, so that it can
+     * be collapsed with any other changes to the same item and sent along with its neighbours.
+     */
+    private fun queueSyncRequest(context: Context, type: Int, dataId: Long) {
+        if (accountId(context) != null) {
+            SyncOutbox.enqueue(context, type, dataId)
+        }
+    }
+
     /**
      * Available to close the database after tests have finished running. Don't call
      * in the production application outside of test code.
@@ -25,12 +25,21 @@ import xyz.klinker.messenger.shared.data.model.*
 
 /**
  * Handles creating and updating databases.
+ *
+ * The database is opened in write-ahead logging mode. With WAL, SQLiteDatabase keeps one primary
+ * connection that all of the writes (and transactions) are serialized through, along with a small,
+ * bounded pool of read-only connections that queries from other threads run on. Reads no longer
+ * have to wait behind a burst of writes, and each of them sees the last committed state.
  */
 class DatabaseSQLiteHelper(context: Context) : SQLiteOpenHelper(context, DATABASE_NAME, null, DATABASE_VERSION) {
 
     private val tables = arrayOf(Contact(), Conversation(), Message(), Draft(), ScheduledMessage(),
             Blacklist(), Template(), Folder(), AutoReply(), RetryableRequest())
 
+    init {
+        setWriteAheadLoggingEnabled(true)
+    }
+
     override fun onCreate(db: SQLiteDatabase) {
         for (table in tables) {
             db.execSQL(table.getCreateStatement())
@@ -39,6 +48,8 @@ class DatabaseSQLiteHelper(context: Context) : SQLiteOpenHelper(context, DATABAS
                 db.execSQL(index)
             }
         }
+
+        MessageSearchIndex.create(db, true)
     }
 
     override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
@@ -171,18 +182,42 @@ class DatabaseSQLiteHelper(context: Context) : SQLiteOpenHelper(context, DATABAS
                 e.printStackTrace()
             }
         }
+
+
+        if (oldVersion < 20) {
+            try {
+                for (index in Message().getIndexStatements()) {
+                    db.execSQL(index)
+                }
+
+                db.execSQL("drop index if exists conversation_id_message_index")
+            } catch (e: Exception) {
+                e.printStackTrace()
+            }
+        }
+
+        if (oldVersion < 21) {
+            // the existing messages get indexed by MessageSearchIndexWork, rather than blocking
+            // the database open on it. An index from version 19 is started over, since it didn't
+            // have the prefix indexes or keep track of whether it was ready.
+            db.execSQL("drop table if exists " + MessageSearchIndex.TABLE)
+            MessageSearchIndex.create(db, false)
+        }
     }
 
     fun onDrop(db: SQLiteDatabase) {
         for (table in tables) {
             db.execSQL("drop table if exists " + table.getTableName())
         }
+
+        db.execSQL("drop table if exists " + MessageSearchIndex.TABLE)
+        db.execSQL("drop table if exists " + MessageSearchIndex.STATE_TABLE)
     }
 
     companion object {
 
         private const val DATABASE_NAME = "messenger.db"
-        private const val DATABASE_VERSION = 18
+        private const val DATABASE_VERSION = 21
 
     }
 
@@ -4,6 +4,7 @@ import android.content.Context
 import android.content.SharedPreferences
 import android.preference.PreferenceManager
 import xyz.klinker.messenger.api.implementation.Account
+import xyz.klinker.messenger.api.implementation.ApiUtils
 
 import xyz.klinker.messenger.shared.R
 
@@ -88,6 +89,7 @@ object FeatureFlags {
     private val FLAG_SCHEDULED_MESSAGE_REVAMP = "flag_scheduled_message_revamp"
     private val FLAG_HEX_COLOR_ENTRY = "flag_hex_color_entry"
     private val FLAG_NOTIFICATION_CHANNEL_CHANGE = "flag_notification_channel_change_2"
+    private val FLAG_CHUNKED_MEDIA_UPLOADS = "flag_chunked_media_uploads"
 
     private val ALWAYS_ON_FLAGS = listOf(FLAG_REENABLE_SENDING_STATUS_ON_NON_PRIMARY)
 
@@ -106,6 +108,11 @@ object FeatureFlags {
 
     // disabled for future features
 
+    // web, desktop and older android clients can't read chunked media yet
+    var CHUNKED_MEDIA_UPLOADS: Boolean
+        get() = ApiUtils.uploadChunkedMedia
+        private set(value) { ApiUtils.uploadChunkedMedia = value }
+
     // in testing
     var QUERY_DAILY_CONTACT_CHANGES: Boolean = false
 
@@ -113,6 +120,7 @@ object FeatureFlags {
         val sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context)
 
         REENABLE_SENDING_STATUS_ON_NON_PRIMARY = getValue(context, sharedPrefs, FLAG_REENABLE_SENDING_STATUS_ON_NON_PRIMARY)
+        CHUNKED_MEDIA_UPLOADS = getValue(context, sharedPrefs, FLAG_CHUNKED_MEDIA_UPLOADS)
 
 //        QUERY_DAILY_CONTACT_CHANGES = getValue(context, sharedPrefs, FLAG_QUERY_DAILY_CONTACT_CHANGES)
     }
@@ -126,6 +134,7 @@ object FeatureFlags {
             FLAG_REENABLE_SENDING_STATUS_ON_NON_PRIMARY -> REENABLE_SENDING_STATUS_ON_NON_PRIMARY = flag
 
             FLAG_QUERY_DAILY_CONTACT_CHANGES -> QUERY_DAILY_CONTACT_CHANGES = flag
+            FLAG_CHUNKED_MEDIA_UPLOADS -> CHUNKED_MEDIA_UPLOADS = flag
         }
     }
 
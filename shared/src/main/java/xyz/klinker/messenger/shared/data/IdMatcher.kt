@@ -8,8 +8,12 @@ class IdMatcher(val fiveLetter: String, val sevenLetter: String, val sevenLetter
 
     val allMatchers = arrayOf(fiveLetter, sevenLetter, sevenLetterNoFormatting, eightLetter, default, tenLetter)
 
+    // Most numbers produce the same value for several of the matchers (short codes and emails produce
+    // it for all of them), so only look up each distinct value once.
+    val whereArgs: Array<String> by lazy { allMatchers.distinct().toTypedArray() }
+
     // Remember to update DataSourceTest#findConversationByNumbers
-    val whereClause = Conversation.COLUMN_ID_MATCHER + "=? OR " + Conversation.COLUMN_ID_MATCHER + "=? OR " +
-                Conversation.COLUMN_ID_MATCHER + "=? OR " + Conversation.COLUMN_ID_MATCHER + "=? OR " +
-                Conversation.COLUMN_ID_MATCHER + "=? OR " + Conversation.COLUMN_ID_MATCHER + "=?"
+    val whereClause: String by lazy {
+        Conversation.COLUMN_ID_MATCHER + " IN (" + whereArgs.joinToString(", ") { "?" } + ")"
+    }
 }
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.data
+
+import android.database.sqlite.SQLiteDatabase
+import android.util.Log
+import androidx.annotation.VisibleForTesting
+import java.util.Locale
+
+import xyz.klinker.messenger.shared.data.model.Message
+
+/**
+ * Full text index over the message table's data column. The index is an external content FTS4
+ * table, so it only stores the tokens and reads the actual text back out of the message table.
+ *
+ * Triggers on the message table keep it in sync with every insert, delete and data update, so
+ * none of the DataSource write paths need to know about it. Android's framework SQLite does not
+ * ship FTS5, so this sticks with FTS4, which is available on every API level we support.
+ *
+ * Whether the index covers every message is kept in the database next to it, so that it is
+ * dropped and rebuilt along with the index, rather than trusting a preference that can outlive it.
+ */
+object MessageSearchIndex {
+
+    private const val TAG = "MessageSearchIndex"
+
+    const val TABLE = "message_fts"
+    const val STATE_TABLE = "message_fts_state"
+
+    private val TOKEN_SPLITTER = Regex("[^\\p{L}\\p{N}]+")
+
+    val createStatements = arrayOf(
+            "create table if not exists $STATE_TABLE (_id integer primary key, ready integer not null);",
+            // the prefix indexes keep short prefix queries, like "he*", from expanding to every
+            // term in the index that starts with them
+            "create virtual table if not exists $TABLE using fts4(" +
+                    "content=\"${Message.TABLE}\", ${Message.COLUMN_DATA}, tokenize=unicode61, prefix=\"2,3\");",
+            "create trigger if not exists ${TABLE}_before_update before update of ${Message.COLUMN_DATA} on ${Message.TABLE} begin " +
+                    "delete from $TABLE where docid=old.rowid; end;",
+            "create trigger if not exists ${TABLE}_before_delete before delete on ${Message.TABLE} begin " +
+                    "delete from $TABLE where docid=old.rowid; end;",
+            "create trigger if not exists ${TABLE}_after_update after update of ${Message.COLUMN_DATA} on ${Message.TABLE} begin " +
+                    "insert into $TABLE(docid, ${Message.COLUMN_DATA}) values(new.rowid, new.${Message.COLUMN_DATA}); end;",
+            "create trigger if not exists ${TABLE}_after_insert after insert on ${Message.TABLE} begin " +
+                    "insert into $TABLE(docid, ${Message.COLUMN_DATA}) values(new.rowid, new.${Message.COLUMN_DATA}); end;"
+    )
+
+    /**
+     * Creates the index and the triggers that maintain it.
+     *
+     * @param populated true if the message table is empty (or the index already covers it), false
+     *                  if the index still needs to be backfilled by MessageSearchIndexWork.
+     */
+    fun create(db: SQLiteDatabase, populated: Boolean) {
+        try {
+            for (statement in createStatements) {
+                db.execSQL(statement)
+            }
+
+            db.execSQL(readyStatement(populated))
+        } catch (e: Exception) {
+            // the device's SQLite build doesn't support FTS4, searches will keep using LIKE
+            Log.e(TAG, "unable to create message search index", e)
+        }
+    }
+
+    /**
+     * Rebuilds the entire index from the message table. This is a single, potentially long
+     * running, statement, so it should only ever be called from a background job.
+     */
+    fun rebuild(db: SQLiteDatabase) {
+        for (statement in createStatements) {
+            db.execSQL(statement)
+        }
+
+        db.execSQL("insert into $TABLE($TABLE) values('rebuild');")
+        db.execSQL(readyStatement(true))
+    }
+
+    /**
+     * @return false if the index still needs to be built, or couldn't be created at all.
+     */
+    fun isReady(db: SQLiteDatabase) = try {
+        db.rawQuery("select ready from $STATE_TABLE where _id=1", null)?.use {
+            it.moveToFirst() && it.getInt(0) == 1
+        } ?: false
+    } catch (e: Exception) {
+        false
+    }
+
+    @VisibleForTesting
+    fun readyStatement(ready: Boolean) =
+            "insert or replace into $STATE_TABLE (_id, ready) values (1, ${if (ready) 1 else 0});"
+
+    /**
+     * Converts the user's query into an FTS match expression, where every word in the query has to
+     * appear as a prefix of a word in the message. Returns null if the query has no indexable words
+     * (emoji or punctuation only), in which case the caller should fall back to a LIKE search.
+     *
+     * This is narrower than LIKE: "ello" matches "hello" with LIKE, but not through the index, so
+     * searches that go through the index only find words by their start.
+     */
+    fun buildMatchQuery(query: String): String? {
+        val tokens = query.toLowerCase(Locale.US).split(TOKEN_SPLITTER).filter { it.isNotEmpty() }
+        return if (tokens.isEmpty()) null else tokens.joinToString(" ") { "$it*" }
+    }
+
+    /**
+     * Selection that limits a query on the message table to rows that the index matched. Bind the
+     * result of buildMatchQuery as its argument.
+     */
+    fun matchSelection(messageIdColumn: String) =
+            "$messageIdColumn IN (SELECT docid FROM $TABLE WHERE $TABLE MATCH ?)"
+
+}
@@ -151,6 +151,31 @@ class Conversation : DatabaseTable {
         this.id = DataSource.generateId()
     }
 
+    fun copy(): Conversation = Conversation().also {
+        it.id = id
+        it.colors = ColorSet().apply {
+            color = colors.color
+            colorDark = colors.colorDark
+            colorLight = colors.colorLight
+            colorAccent = colors.colorAccent
+        }
+        it.ledColor = ledColor
+        it.pinned = pinned
+        it.read = read
+        it.timestamp = timestamp
+        it.title = title
+        it.phoneNumbers = phoneNumbers
+        it.snippet = snippet
+        it.ringtoneUri = ringtoneUri
+        it.imageUri = imageUri
+        it.idMatcher = idMatcher
+        it.mute = mute
+        it.archive = archive
+        it.private = private
+        it.simSubscriptionId = simSubscriptionId
+        it.folderId = folderId
+    }
+
     companion object {
 
         const val TABLE = "conversation"
@@ -142,7 +142,14 @@ class Message : DatabaseTable {
                 COLUMN_SENT_DEVICE + " integer" +
                 ");"
 
-        private val INDEXES = arrayOf("create index if not exists conversation_id_message_index on $TABLE ($COLUMN_CONVERSATION_ID);")
+        // conversation_id_message_index (on just the conversation id) was replaced by the first of
+        // these with v20 of the database. The partial indexes only hold the handful of messages
+        // that are still unread or unseen, which are the only ones that the notifications look at.
+        private val INDEXES = arrayOf(
+                "create index if not exists conversation_id_timestamp_message_index on $TABLE ($COLUMN_CONVERSATION_ID, $COLUMN_TIMESTAMP);",
+                "create index if not exists timestamp_message_index on $TABLE ($COLUMN_TIMESTAMP);",
+                "create index if not exists unread_message_index on $TABLE ($COLUMN_TIMESTAMP) where $COLUMN_READ = 0;",
+                "create index if not exists unseen_message_index on $TABLE ($COLUMN_TIMESTAMP) where $COLUMN_SEEN = 0;")
 
         const val TYPE_RECEIVED = 0
         const val TYPE_SENT = 1
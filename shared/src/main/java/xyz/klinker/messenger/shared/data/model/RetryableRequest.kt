@@ -78,6 +78,13 @@ class RetryableRequest : DatabaseTable {
 
         const val TYPE_ADD_MESSAGE = 0
         const val TYPE_ADD_CONVERSATION = 1
+
+        // these are queued in the outbox rather than written after an error. Only the type and id
+        // are stored: the request is built from the current row when the outbox is flushed.
+        const val TYPE_UPDATE_CONVERSATION_SNIPPET = 2
+        const val TYPE_UPDATE_CONVERSATION_TITLE = 3
+        const val TYPE_READ_CONVERSATION = 4
+        const val TYPE_ARCHIVE_CONVERSATION = 5
     }
 
 }
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.receiver
+
+import android.content.Context
+import android.os.Handler
+import android.os.Looper
+import android.util.Log
+import xyz.klinker.messenger.shared.data.DataSource
+import xyz.klinker.messenger.shared.data.model.Conversation
+import xyz.klinker.messenger.shared.data.model.Message
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Lets the conversation and message lists know when something has changed, without going through
+ * a system broadcast for every message.
+ *
+ * Changes are collected by conversation id. About once a frame, everything that has changed is
+ * turned in to a single change set on a background thread. Any conversation that the lists might
+ * need to insert is loaded from the database there as well. The change set is then handed to the
+ * listeners on the main thread, since they update adapters.
+ */
+object ChangeFeed {
+
+    private const val TAG = "ChangeFeed"
+    private const val FRAME = 16L
+
+    private val executor = Executors.newSingleThreadScheduledExecutor()
+    private val handler by lazy { Handler(Looper.getMainLooper()) }
+    private val listeners = CopyOnWriteArrayList<Listener>()
+
+    private val conversations = LinkedHashMap<Long, ConversationChange>()
+    private val messages = LinkedHashMap<Long, MessageChange>()
+    private var flushScheduled = false
+
+    interface Listener {
+        fun onChanges(context: Context, changes: ChangeSet)
+    }
+
+    class ConversationChange(val conversationId: Long) {
+        var snippet: String? = null
+        var title: String? = null
+        var read: Boolean? = null
+
+        // the current row for the conversation, or null if it has been deleted
+        var conversation: Conversation? = null
+
+        internal var loadSnippet = false
+    }
+
+    class MessageChange(val conversationId: Long) {
+        var newMessageText: String? = null
+        var messageType = Message.TYPE_SENT
+    }
+
+    class ChangeSet(val conversations: List<ConversationChange>, val messages: List<MessageChange>)
+
+    fun register(listener: Listener) {
+        listeners.addIfAbsent(listener)
+    }
+
+    fun unregister(listener: Listener) {
+        listeners.remove(listener)
+    }
+
+    /**
+     * @param snippet the new snippet, or null to use the one that is in the database.
+     */
+    fun conversationChanged(context: Context, conversationId: Long, snippet: String?, read: Boolean) = publish(context) {
+        val change = conversations.getOrPut(conversationId) { ConversationChange(conversationId) }
+        change.snippet = snippet
+        change.loadSnippet = snippet == null
+        change.read = read
+    }
+
+    fun conversationTitleChanged(context: Context, conversationId: Long, title: String) = publish(context) {
+        conversations.getOrPut(conversationId) { ConversationChange(conversationId) }.title = title
+    }
+
+    fun messageChanged(context: Context, conversationId: Long, newMessageText: String?, messageType: Int) = publish(context) {
+        val change = messages[conversationId]
+        if (change == null) {
+            messages[conversationId] = MessageChange(conversationId).apply {
+                this.newMessageText = newMessageText
+                this.messageType = messageType
+            }
+        } else if (change.messageType != Message.TYPE_RECEIVED || messageType == Message.TYPE_RECEIVED) {
+            // a received message should still scroll the list and play its sound, even if
+            // something else happened in the conversation during the same frame.
+            change.messageType = messageType
+            if (newMessageText != null) {
+                change.newMessageText = newMessageText
+            }
+        }
+    }
+
+    private fun publish(context: Context, change: () -> Unit) {
+        // the lists load everything from the database when they are created, so when none are
+        // showing, there is nothing to keep up to date.
+        if (listeners.isEmpty()) {
+            return
+        }
+
+        synchronized(this) {
+            change()
+        }
+
+        scheduleFlush(context)
+    }
+
+    /**
+     * Takes everything that has changed since the last call, and loads the conversations that
+     * the change set needs.
+     */
+    private fun takeChanges(context: Context): ChangeSet {
+        val changes = synchronized(this) {
+            val changes = ChangeSet(ArrayList(conversations.values), ArrayList(messages.values))
+            conversations.clear()
+            messages.clear()
+            changes
+        }
+
+        if (changes.conversations.isNotEmpty()) {
+            val loaded = try {
+                DataSource.getConversations(context, changes.conversations.map { it.conversationId })
+            } catch (e: Exception) {
+                Log.e(TAG, "failed to load conversations", e)
+                emptyMap<Long, Conversation>()
+            }
+
+            for (change in changes.conversations) {
+                change.conversation = loaded[change.conversationId]
+                if (change.loadSnippet) {
+                    change.snippet = change.conversation?.snippet
+                }
+            }
+        }
+
+        return changes
+    }
+
+    private fun scheduleFlush(context: Context) {
+        synchronized(this) {
+            if (flushScheduled) {
+                return
+            }
+
+            flushScheduled = true
+        }
+
+        val appContext = context.applicationContext ?: context
+        executor.schedule({
+            synchronized(this) { flushScheduled = false }
+
+            try {
+                val changes = takeChanges(appContext)
+                handler.post { listeners.forEach { it.onChanges(appContext, changes) } }
+            } catch (e: Exception) {
+                Log.e(TAG, "failed to build change set", e)
+            }
+        }, FRAME, TimeUnit.MILLISECONDS)
+    }
+}
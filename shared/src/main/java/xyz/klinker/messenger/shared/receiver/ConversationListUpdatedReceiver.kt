@@ -16,14 +16,9 @@
 
 package xyz.klinker.messenger.shared.receiver
 
-import android.content.BroadcastReceiver
 import android.content.Context
-import android.content.Intent
-import android.content.IntentFilter
 import android.util.Log
 
-import xyz.klinker.messenger.shared.data.DataSource
-import xyz.klinker.messenger.shared.data.FeatureFlags
 import xyz.klinker.messenger.shared.data.SectionType
 import xyz.klinker.messenger.shared.data.Settings
 import xyz.klinker.messenger.shared.data.pojo.ConversationUpdateInfo
@@ -32,7 +27,7 @@ import xyz.klinker.messenger.shared.shared_interfaces.IConversationListFragment
 import xyz.klinker.messenger.shared.util.TimeUtils
 
 /**
- * Receiver that handles changing the conversation list when a new message is received. The logic
+ * Listener that handles changing the conversation list when a new message is received. The logic
  * here can be quite tricky because of the pinned section and the section headers in the adapter.
  *
  *
@@ -40,27 +35,28 @@ import xyz.klinker.messenger.shared.util.TimeUtils
  * we need to add an extra item to the today section and remove that item from below, depending
  * on whether we've received a new conversation or are just updating an old one.
  */
-class ConversationListUpdatedReceiver(private val fragment: IConversationListFragment) : BroadcastReceiver() {
+class ConversationListUpdatedReceiver(private val fragment: IConversationListFragment) : ChangeFeed.Listener {
 
-    override fun onReceive(context: Context, intent: Intent) {
-        try {
-            handleReceiver(context, intent)
-        } catch (e: Exception) {
-            e.printStackTrace()
+    override fun onChanges(context: Context, changes: ChangeFeed.ChangeSet) {
+        for (change in changes.conversations) {
+            try {
+                handleChange(change)
+            } catch (e: Exception) {
+                e.printStackTrace()
+            }
         }
-
     }
 
     @Throws(Exception::class)
-    private fun handleReceiver(context: Context, intent: Intent) {
+    private fun handleChange(change: ChangeFeed.ConversationChange) {
         if (!fragment.isFragmentAdded) {
             return
         }
 
-        val conversationId = intent.getLongExtra(EXTRA_CONVERSATION_ID, -1)
-        val snippet = intent.getStringExtra(EXTRA_SNIPPET)
-        val title = intent.getStringExtra(EXTRA_TITLE)
-        val read = intent.getBooleanExtra(EXTRA_READ, false)
+        val conversationId = change.conversationId
+        val snippet = change.snippet
+        val title = change.title
+        val read = change.read
 
         if (conversationId == -1L || fragment.expandedId == conversationId || shouldIgnoreSnippet(snippet)) {
             return
@@ -75,7 +71,7 @@ class ConversationListUpdatedReceiver(private val fragment: IConversationListFra
         val removeEmpty = adapter.conversations.isEmpty()
 
         if (adapterPosition == -1) {
-            val conversation = DataSource.getConversation(context, conversationId)
+            val conversation = change.conversation
 
             if (conversation?.private == true) {
                 return
@@ -104,7 +100,7 @@ class ConversationListUpdatedReceiver(private val fragment: IConversationListFra
                     }
                 }
 
-                if (intent.hasExtra(EXTRA_READ)) {
+                if (read != null) {
                     adapter.conversations[position].read = read
                 }
 
@@ -127,7 +123,7 @@ class ConversationListUpdatedReceiver(private val fragment: IConversationListFra
                     }
                 }
 
-                if (intent.hasExtra(EXTRA_READ)) {
+                if (read != null) {
                     conversation.read = read
                 }
 
@@ -173,63 +169,38 @@ class ConversationListUpdatedReceiver(private val fragment: IConversationListFra
 
     companion object {
 
-        private const val ACTION_UPDATED = "xyz.klinker.messenger.CONVERSATION_UPDATED"
-        private const val EXTRA_CONVERSATION_ID = "conversation_id"
-        private const val EXTRA_SNIPPET = "snippet"
-        private const val EXTRA_TITLE = "title"
-        private const val EXTRA_READ = "read"
-
         /**
-         * Sends a broadcast to anywhere that has registered this receiver to let it know to update.
+         * Lets anywhere that is listening to the ChangeFeed know to update.
+         *
+         * @param snippet the new snippet, or null to use the one that is in the database.
          */
         fun sendBroadcast(context: Context?, conversationId: Long, snippet: String?, read: Boolean) {
             if (context == null) {
                 return
             }
 
-            var snippet = snippet
-            try {
-                if (snippet == null) {
-                    val conversation = DataSource.getConversation(context, conversationId)
-                    if (conversation != null) {
-                        snippet = conversation.snippet
-                    }
-                }
-            } catch (e: Exception) {
-                e.printStackTrace()
-            }
-
-            val intent = Intent(ACTION_UPDATED)
-            intent.putExtra(EXTRA_CONVERSATION_ID, conversationId)
-            intent.putExtra(EXTRA_SNIPPET, snippet)
-            intent.putExtra(EXTRA_READ, read)
-            context.sendBroadcast(intent)
+            ChangeFeed.conversationChanged(context, conversationId, snippet, read)
             Log.v("conversation_broadcast", "broadcasting conversation changes")
         }
 
         /**
-         * Sends a broadcast to anywhere that has registered this receiver to let it know to update.
+         * Lets anywhere that is listening to the ChangeFeed know to update.
          */
         fun sendBroadcast(context: Context?, conversationId: Long, title: String) {
-            val intent = Intent(ACTION_UPDATED)
-            intent.putExtra(EXTRA_CONVERSATION_ID, conversationId)
-            intent.putExtra(EXTRA_TITLE, title)
-            context?.sendBroadcast(intent)
+            if (context == null) {
+                return
+            }
+
+            ChangeFeed.conversationTitleChanged(context, conversationId, title)
             Log.v("conversation_broadcast", "broadcasting new title: $title")
         }
 
         /**
-         * Sends a broadcast to anywhere that has registered this receiver to let it know to update.
+         * Lets anywhere that is listening to the ChangeFeed know to update.
          */
         fun sendBroadcast(context: Context?, updateInfo: ConversationUpdateInfo) {
             sendBroadcast(context, updateInfo.conversationId, updateInfo.snippet, updateInfo.read)
             Log.v("conversation_broadcast", "broadcasting new update info: " + updateInfo.snippet)
         }
-
-        /**
-         * Gets an intent filter that will pick up these broadcasts.
-         */
-        val intentFilter: IntentFilter
-            get() = IntentFilter(ACTION_UPDATED)
     }
 }
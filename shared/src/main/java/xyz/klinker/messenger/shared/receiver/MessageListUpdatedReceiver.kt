@@ -16,11 +16,7 @@
 
 package xyz.klinker.messenger.shared.receiver
 
-import android.content.BroadcastReceiver
 import android.content.Context
-import android.content.Intent
-import android.content.IntentFilter
-import android.os.Handler
 import xyz.klinker.messenger.api.implementation.Account
 import xyz.klinker.messenger.api.implementation.ApiUtils
 
@@ -34,24 +30,26 @@ import xyz.klinker.messenger.shared.shared_interfaces.IMessageListFragment
 import xyz.klinker.messenger.shared.util.AudioWrapper
 
 /**
- * Receiver that handles updating the message list when a new message is received for the
+ * Listener that handles updating the message list when a new message is received for the
  * conversation being displayed or the sent/delivered status is updated.
  */
-class MessageListUpdatedReceiver(private val fragment: IMessageListFragment) : BroadcastReceiver() {
-
-    override fun onReceive(context: Context, intent: Intent) {
-        try {
-            handleReceiver(context, intent)
-        } catch (e: Exception) {
-            e.printStackTrace()
+class MessageListUpdatedReceiver(private val fragment: IMessageListFragment) : ChangeFeed.Listener {
+
+    override fun onChanges(context: Context, changes: ChangeFeed.ChangeSet) {
+        for (change in changes.messages) {
+            try {
+                handleChange(context, change)
+            } catch (e: Exception) {
+                e.printStackTrace()
+            }
         }
     }
 
     @Throws(Exception::class)
-    private fun handleReceiver(context: Context, intent: Intent) {
-        val conversationId = intent.getLongExtra(ARG_CONVERSATION_ID, -1)
-        val newMessageText = intent.getStringExtra(ARG_NEW_MESSAGE_TEXT)
-        val messageType = intent.getIntExtra(ARG_MESSAGE_TYPE, -1)
+    private fun handleChange(context: Context, change: ChangeFeed.MessageChange) {
+        val conversationId = change.conversationId
+        val newMessageText = change.newMessageText
+        val messageType = change.messageType
 
         if (conversationId == -1L) {
             return
@@ -105,13 +103,8 @@ class MessageListUpdatedReceiver(private val fragment: IMessageListFragment) : B
 
     companion object {
 
-        private val ACTION_UPDATED = "xyz.klinker.messenger.MESSAGE_UPDATED"
-        private val ARG_CONVERSATION_ID = "conversation_id"
-        private val ARG_NEW_MESSAGE_TEXT = "new_message_text"
-        private val ARG_MESSAGE_TYPE = "message_type"
-
         /**
-         * Sends a broadcast to anywhere that has registered this receiver to let it know to update.
+         * Lets anywhere that is listening to the ChangeFeed know to update.
          */
         fun sendBroadcast(context: Context, message: Message) {
             if (message.mimeType == MimeType.TEXT_PLAIN) {
@@ -122,21 +115,11 @@ class MessageListUpdatedReceiver(private val fragment: IMessageListFragment) : B
         }
 
         /**
-         * Sends a broadcast to anywhere that has registered this receiver to let it know to update.
+         * Lets anywhere that is listening to the ChangeFeed know to update.
          */
         fun sendBroadcast(context: Context, conversationId: Long, newMessageText: String? = null, messageType: Int = Message.TYPE_SENT) {
-            val intent = Intent(ACTION_UPDATED)
-            intent.putExtra(ARG_CONVERSATION_ID, conversationId)
-            intent.putExtra(ARG_NEW_MESSAGE_TEXT, newMessageText)
-            intent.putExtra(ARG_MESSAGE_TYPE, messageType)
-            context.sendBroadcast(intent)
+            ChangeFeed.messageChanged(context, conversationId, newMessageText, messageType)
         }
-
-        /**
-         * Gets an intent filter that will pick up these broadcasts.
-         */
-        val intentFilter: IntentFilter
-            get() = IntentFilter(ACTION_UPDATED)
     }
 
 }
\ No newline at end of file
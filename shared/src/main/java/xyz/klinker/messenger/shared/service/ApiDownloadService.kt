@@ -39,8 +39,10 @@ import xyz.klinker.messenger.api.implementation.Account
 import xyz.klinker.messenger.shared.data.ColorSet
 import xyz.klinker.messenger.shared.data.DataSource
 import xyz.klinker.messenger.shared.data.MimeType
+import xyz.klinker.messenger.shared.data.Settings
 import xyz.klinker.messenger.encryption.EncryptionUtils
 import xyz.klinker.messenger.shared.data.model.*
+import xyz.klinker.messenger.shared.service.jobs.ApiDownloadResumeWork
 import xyz.klinker.messenger.shared.util.*
 
 class ApiDownloadService : Service() {
@@ -79,29 +81,39 @@ class ApiDownloadService : Service() {
             IS_RUNNING = true
 
             encryptionUtils = Account.encryptor
-            DataSource.beginTransaction(this)
 
             val startTime = TimeUtils.now
-            wipeDatabase()
-
-            downloadMessages()
-            downloadConversations()
-            downloadBlacklists()
-            downloadScheduledMessages()
-            downloadDrafts()
-            downloadContacts()
-            downloadTemplates()
-            downloadFolders()
-            downloadAutoReplies()
+            if (!hasCheckpoint(this)) {
+                wipeDatabase()
+                startCheckpoint()
+            } else {
+                Log.v(TAG, "resuming interrupted download")
+            }
 
-            ensureMessages()
+            var complete = downloadMessages()
+            complete = downloadConversations() && complete
+            complete = downloadOnce(CHECKPOINT_BLACKLISTS) { downloadBlacklists() } && complete
+            complete = downloadOnce(CHECKPOINT_SCHEDULED_MESSAGES) { downloadScheduledMessages() } && complete
+            complete = downloadOnce(CHECKPOINT_DRAFTS) { downloadDrafts() } && complete
+            complete = downloadContacts() && complete
+            complete = downloadOnce(CHECKPOINT_TEMPLATES) { downloadTemplates() } && complete
+            complete = downloadOnce(CHECKPOINT_FOLDERS) { downloadFolders() } && complete
+            complete = downloadOnce(CHECKPOINT_AUTO_REPLIES) { downloadAutoReplies() } && complete
 
             Log.v(TAG, "time to download: " + (TimeUtils.now - startTime) + " ms")
 
-            sendBroadcast(Intent(ACTION_DOWNLOAD_FINISHED))
+            if (complete) {
+                ensureMessages()
+                clearCheckpoint(this)
+                sendBroadcast(Intent(ACTION_DOWNLOAD_FINISHED))
+            } else {
+                // keep the checkpoint, so that the next run picks back up from the parts that failed
+                Log.v(TAG, "download did not finish, keeping the checkpoint")
+                ApiDownloadResumeWork.schedule(this)
+                sendBroadcast(Intent(ACTION_DOWNLOAD_INCOMPLETE))
+            }
+
             NotificationManagerCompat.from(applicationContext).cancel(MESSAGE_DOWNLOAD_ID)
-            DataSource.setTransactionSuccessful(this)
-            DataSource.endTransaction(this)
             downloadMedia()
 
             IS_RUNNING = false
@@ -112,121 +124,118 @@ class ApiDownloadService : Service() {
         DataSource.clearTables(this)
     }
 
-    private fun downloadMessages() {
+    /**
+     * @return false if the download stopped on a page that could not be downloaded.
+     */
+    private fun downloadMessages(): Boolean {
         val startTime = TimeUtils.now
-        val messageList = mutableListOf<Message>()
-
-        var pageNumber = 1
-        var downloaded = 0
-        var nullCount = 0
-
-        do {
-            val messages = try {
-                ApiUtils.api.message()
-                        .list(Account.accountId, null, MESSAGE_DOWNLOAD_PAGE_SIZE, downloaded)
-                        .execute().body()
-            } catch (e: IOException) {
-                emptyArray<MessageBody>()
-            }
-
-            if (messages != null && !messages.isEmpty()) {
-                for (body in messages) {
-                    val message = Message(body)
-
-                    try {
-                        message.decrypt(encryptionUtils!!)
-                    } catch (e: Exception) {
-                        e.printStackTrace()
-                    }
-
-                    messageList.add(message)
-                }
-
-                DataSource.insertMessages(this, messageList, false)
-                downloaded += messageList.size
-
-                messageList.clear()
-            } else {
-                nullCount++
+        val startOffset = getCheckpoint(CHECKPOINT_MESSAGES)
+        if (startOffset == CHECKPOINT_COMPLETE) {
+            return true
+        }
 
-                try {
-                    Thread.sleep(2000)
-                } catch (e: InterruptedException) {
-                }
-            }
+        val downloader = PagedDownloader(MESSAGE_DOWNLOAD_PAGE_SIZE, PAGES_IN_FLIGHT, RETRY_DELAY,
+                { offset ->
+                    ApiUtils.api.message()
+                            .list(Account.accountId, null, MESSAGE_DOWNLOAD_PAGE_SIZE, offset)
+                            .execute().body()
+                            ?.map { body ->
+                                val message = Message(body)
+
+                                try {
+                                    message.decrypt(encryptionUtils!!)
+                                } catch (e: Exception) {
+                                    e.printStackTrace()
+                                }
+
+                                message
+                            }
+                },
+                { page -> DataSource.insertMessages(this, page, false) },
+                { offset ->
+                    Log.v(TAG, "$offset messages downloaded.")
+                    setCheckpoint(CHECKPOINT_MESSAGES, offset)
+                })
+
+        val result = downloader.download(startOffset)
+        if (!result.complete) {
+            // keep the checkpoint where it is, so that the next run resumes from that page
+            Log.v(TAG, "${result.offset} messages downloaded before a page failed")
+            return false
+        }
 
-            Log.v(TAG, downloaded.toString() + " messages downloaded. " + pageNumber + " pages so far.")
-            pageNumber++
-        } while (downloaded % MESSAGE_DOWNLOAD_PAGE_SIZE == 0 && nullCount < 5)
+        setCheckpoint(CHECKPOINT_MESSAGES, CHECKPOINT_COMPLETE)
 
-        if (downloaded > 0) {
-            Log.v(TAG, downloaded.toString() + " messages inserted in " + (TimeUtils.now - startTime) + " ms with " + pageNumber + " pages")
+        if (result.offset > 0) {
+            Log.v(TAG, "${result.offset} messages inserted in " + (TimeUtils.now - startTime) + " ms")
         } else {
             Log.v(TAG, "messages failed to insert")
         }
+
+        return true
     }
 
-    private fun downloadConversations() {
+    /**
+     * @return false if the download stopped on a page that could not be downloaded.
+     */
+    private fun downloadConversations(): Boolean {
         val startTime = TimeUtils.now
-        val conversationList = mutableListOf<Conversation>()
-
-        var pageNumber = 1
-        var downloaded = 0
-        var nullCount = 0
-
-        do {
-            val conversations = try {
-                ApiUtils.api.conversation()
-                        .list(Account.accountId, CONVERSATION_DOWNLOAD_PAGE_SIZE, downloaded)
-                        .execute().body()
-            } catch (e: IOException) {
-                emptyArray<ConversationBody>()
-            }
-
-            if (conversations != null && !conversations.isEmpty()) {
-                for (body in conversations) {
-                    val conversation = Conversation(body)
-
-                    try {
-                        conversation.decrypt(encryptionUtils!!)
-                    } catch (e: Exception) {
-                        e.printStackTrace()
-                    }
-
-                    conversation.imageUri = ContactUtils.findImageUri(conversation.phoneNumbers, this)
-                    conversationList.add(conversation)
-                }
-
-                DataSource.insertRawConversations(conversationList, this)
-                downloaded += conversationList.size
-
-                conversationList.clear()
-            } else {
-                nullCount++
+        val startOffset = getCheckpoint(CHECKPOINT_CONVERSATIONS)
+        if (startOffset == CHECKPOINT_COMPLETE) {
+            return true
+        }
 
-                try {
-                    Thread.sleep(2000)
-                } catch (e: InterruptedException) {
-                }
-            }
+        val downloader = PagedDownloader(CONVERSATION_DOWNLOAD_PAGE_SIZE, PAGES_IN_FLIGHT, RETRY_DELAY,
+                { offset ->
+                    ApiUtils.api.conversation()
+                            .list(Account.accountId, CONVERSATION_DOWNLOAD_PAGE_SIZE, offset)
+                            .execute().body()
+                            ?.map { body ->
+                                val conversation = Conversation(body)
+
+                                try {
+                                    conversation.decrypt(encryptionUtils!!)
+                                } catch (e: Exception) {
+                                    e.printStackTrace()
+                                }
+
+                                conversation.imageUri = ContactUtils.findImageUri(conversation.phoneNumbers, this)
+                                conversation
+                            }
+                },
+                { page -> DataSource.insertRawConversations(page, this) },
+                { offset ->
+                    Log.v(TAG, "$offset conversations downloaded.")
+                    setCheckpoint(CHECKPOINT_CONVERSATIONS, offset)
+                })
+
+        val result = downloader.download(startOffset)
+        if (!result.complete) {
+            // keep the checkpoint where it is, so that the next run resumes from that page
+            Log.v(TAG, "${result.offset} conversations downloaded before a page failed")
+            return false
+        }
 
-            Log.v(TAG, downloaded.toString() + " conversations downloaded. " + pageNumber + " pages so far.")
-            pageNumber++
-        } while (downloaded % CONVERSATION_DOWNLOAD_PAGE_SIZE == 0 && nullCount < 5)
+        setCheckpoint(CHECKPOINT_CONVERSATIONS, CHECKPOINT_COMPLETE)
 
-        if (downloaded > 0) {
-            Log.v(TAG, downloaded.toString() + " conversations inserted in " + (TimeUtils.now - startTime) + " ms")
+        if (result.offset > 0) {
+            Log.v(TAG, "${result.offset} conversations inserted in " + (TimeUtils.now - startTime) + " ms")
         } else {
-            Log.v(TAG, "contacts failed to insert")
+            Log.v(TAG, "conversations failed to insert")
         }
+
+        return true
     }
 
-    private fun downloadBlacklists() {
+    /**
+     * @return false if the list could not be downloaded.
+     */
+    private fun downloadBlacklists(): Boolean {
         val startTime = TimeUtils.now
         val blacklists = try {
             ApiUtils.api.blacklist().list(Account.accountId).execute().body()
         } catch (e: Exception) {
-            emptyArray<BlacklistBody>()
+            null
         }
 
         if (blacklists != null) {
@@ -237,17 +246,22 @@ class ApiDownloadService : Service() {
             }
 
             Log.v(TAG, "blacklists inserted in " + (TimeUtils.now - startTime) + " ms")
+            return true
         } else {
             Log.v(TAG, "blacklists failed to insert")
+            return false
         }
     }
 
-    private fun downloadScheduledMessages() {
+    /**
+     * @return false if the list could not be downloaded.
+     */
+    private fun downloadScheduledMessages(): Boolean {
         val startTime = TimeUtils.now
         val messages = try {
             ApiUtils.api.scheduled().list(Account.accountId).execute().body()
         } catch (e: IOException) {
-            emptyArray<ScheduledMessageBody>()
+            null
         }
 
         if (messages != null) {
@@ -258,17 +272,22 @@ class ApiDownloadService : Service() {
             }
 
             Log.v(TAG, "scheduled messages inserted in " + (TimeUtils.now - startTime) + " ms")
+            return true
         } else {
             Log.v(TAG, "scheduled messages failed to insert")
+            return false
         }
     }
 
-    private fun downloadDrafts() {
+    /**
+     * @return false if the list could not be downloaded.
+     */
+    private fun downloadDrafts(): Boolean {
         val startTime = TimeUtils.now
         val drafts = try {
             ApiUtils.api.draft().list(Account.accountId).execute().body()
         } catch (e: IOException) {
-            emptyArray<DraftBody>()
+            null
         }
 
         if (drafts != null) {
@@ -279,71 +298,73 @@ class ApiDownloadService : Service() {
             }
 
             Log.v(TAG, "drafts inserted in " + (TimeUtils.now - startTime) + " ms")
+            return true
         } else {
             Log.v(TAG, "drafts failed to insert")
+            return false
         }
     }
 
-    private fun downloadContacts() {
+    /**
+     * @return false if the download stopped on a page that could not be downloaded.
+     */
+    private fun downloadContacts(): Boolean {
         val startTime = TimeUtils.now
-        val contactList = mutableListOf<Contact>()
-
-        var pageNumber = 1
-        var downloaded = 0
-        var nullCount = 0
-
-        do {
-            val contacts = try {
-                ApiUtils.api.contact()
-                        .list(Account.accountId, CONTACTS_DOWNLOAD_PAGE_SIZE, downloaded)
-                        .execute().body()
-            } catch (e: IOException) {
-                emptyArray<ContactBody>()
-            }
-
-            if (contacts != null && !contacts.isEmpty()) {
-                for (body in contacts) {
-                    val contact = Contact(body)
-
-                    try {
-                        contact.decrypt(encryptionUtils!!)
-                    } catch (e: Exception) {
-                        e.printStackTrace()
-                    }
-
-                    contactList.add(contact)
-                }
-
-                DataSource.insertContacts(this, contactList, null, false)
-                downloaded += contactList.size
-
-                contactList.clear()
-            } else {
-                nullCount++
+        val startOffset = getCheckpoint(CHECKPOINT_CONTACTS)
+        if (startOffset == CHECKPOINT_COMPLETE) {
+            return true
+        }
 
-                try {
-                    Thread.sleep(2000)
-                } catch (e: InterruptedException) {
-                }
-            }
+        val downloader = PagedDownloader(CONTACTS_DOWNLOAD_PAGE_SIZE, PAGES_IN_FLIGHT, RETRY_DELAY,
+                { offset ->
+                    ApiUtils.api.contact()
+                            .list(Account.accountId, CONTACTS_DOWNLOAD_PAGE_SIZE, offset)
+                            .execute().body()
+                            ?.map { body ->
+                                val contact = Contact(body)
+
+                                try {
+                                    contact.decrypt(encryptionUtils!!)
+                                } catch (e: Exception) {
+                                    e.printStackTrace()
+                                }
+
+                                contact
+                            }
+                },
+                { page -> DataSource.insertContacts(this, page, null, false) },
+                { offset ->
+                    Log.v(TAG, "$offset contacts downloaded.")
+                    setCheckpoint(CHECKPOINT_CONTACTS, offset)
+                })
+
+        val result = downloader.download(startOffset)
+        if (!result.complete) {
+            // keep the checkpoint where it is, so that the next run resumes from that page
+            Log.v(TAG, "${result.offset} contacts downloaded before a page failed")
+            return false
+        }
 
-            Log.v(TAG, downloaded.toString() + " contacts downloaded. " + pageNumber + " pages so far.")
-            pageNumber++
-        } while (downloaded % CONTACTS_DOWNLOAD_PAGE_SIZE == 0 && nullCount < 5)
+        setCheckpoint(CHECKPOINT_CONTACTS, CHECKPOINT_COMPLETE)
 
-        if (downloaded > 0) {
-            Log.v(TAG, downloaded.toString() + " contacts inserted in " + (TimeUtils.now - startTime) + " ms")
+        if (result.offset > 0) {
+            Log.v(TAG, "${result.offset} contacts inserted in " + (TimeUtils.now - startTime) + " ms")
         } else {
             Log.v(TAG, "contacts failed to insert")
         }
+
+        return true
     }
 
-    private fun downloadTemplates() {
+    /**
+     * @return false if the list could not be downloaded.
+     */
+    private fun downloadTemplates(): Boolean {
         val startTime = TimeUtils.now
         val templates = try {
             ApiUtils.api.template().list(Account.accountId).execute().body()
         } catch (e: IOException) {
-            emptyArray<TemplateBody>()
+            null
         }
 
         if (templates != null) {
@@ -354,17 +375,22 @@ class ApiDownloadService : Service() {
             }
 
             Log.v(TAG, "templates inserted in " + (TimeUtils.now - startTime) + " ms")
+            return true
         } else {
             Log.v(TAG, "templates failed to insert")
+            return false
         }
     }
 
-    private fun downloadFolders() {
+    /**
+     * @return false if the list could not be downloaded.
+     */
+    private fun downloadFolders(): Boolean {
         val startTime = TimeUtils.now
         val folders = try {
             ApiUtils.api.folder().list(Account.accountId).execute().body()
         } catch (e: IOException) {
-            emptyArray<FolderBody>()
+            null
         }
 
         if (folders != null) {
@@ -375,17 +401,22 @@ class ApiDownloadService : Service() {
             }
 
             Log.v(TAG, "folders inserted in " + (TimeUtils.now - startTime) + " ms")
+            return true
         } else {
             Log.v(TAG, "folders failed to insert")
+            return false
         }
     }
 
-    private fun downloadAutoReplies() {
+    /**
+     * @return false if the list could not be downloaded.
+     */
+    private fun downloadAutoReplies(): Boolean {
         val startTime = TimeUtils.now
         val replies = try {
             ApiUtils.api.autoReply().list(Account.accountId).execute().body()
         } catch (e: IOException) {
-            emptyArray<AutoReplyBody>()
+            null
         }
 
         if (replies != null) {
@@ -396,8 +427,10 @@ class ApiDownloadService : Service() {
             }
 
             Log.v(TAG, "auto replies inserted in " + (TimeUtils.now - startTime) + " ms")
+            return true
         } else {
             Log.v(TAG, "auto replies failed to insert")
+            return false
         }
     }
 
@@ -498,10 +531,40 @@ class ApiDownloadService : Service() {
         // some people say that after a download, they have their full conversation list, but all the conversations are empty.
         // so, if they have conversations in the database and no messages, we should re-download the messages.
         if (DataSource.getConversationCount(this) > 0 && DataSource.getMessageCount(this) == 0) {
+            setCheckpoint(CHECKPOINT_MESSAGES, 0)
             downloadMessages()
         }
     }
 
+    private fun startCheckpoint() {
+        clearCheckpoint(this)
+        Settings.setValue(this, CHECKPOINT_ACCOUNT, Account.accountId ?: "", false)
+    }
+
+    private fun getCheckpoint(key: String) = Settings.getSharedPrefs(this).getInt(key, 0)
+
+    private fun setCheckpoint(key: String, offset: Int) {
+        Settings.setValue(this, key, offset, false)
+    }
+
+    /**
+     * Runs a download that doesn't page, unless an earlier run already finished it.
+     *
+     * @return false if the download failed, in which case it will run again on the next start.
+     */
+    private fun downloadOnce(key: String, download: () -> Boolean): Boolean {
+        if (getCheckpoint(key) == CHECKPOINT_COMPLETE) {
+            return true
+        }
+
+        if (!download()) {
+            return false
+        }
+
+        setCheckpoint(key, CHECKPOINT_COMPLETE)
+        return true
+    }
+
     companion object {
         fun start(context: Context) {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
@@ -511,16 +574,56 @@ class ApiDownloadService : Service() {
             }
         }
 
+        /**
+         * The download checkpoint keeps track of how far along each part of the restore is, so that
+         * if the service gets killed part way through, the next start can resume from there instead
+         * of wiping the database and downloading everything again.
+         */
+        fun hasCheckpoint(context: Context) =
+                Settings.getSharedPrefs(context).getString(CHECKPOINT_ACCOUNT, null) == Account.accountId
+
+        /**
+         * Forgets how far an earlier download got. This needs to happen whenever the tables are
+         * cleared, or a full download is wanted, since a resumed download would skip the pages
+         * that it had already written.
+         */
+        fun clearCheckpoint(context: Context) {
+            val editor = Settings.getSharedPrefs(context).edit()
+            for (key in CHECKPOINTS) {
+                editor.remove(key)
+            }
+
+            editor.remove(CHECKPOINT_ACCOUNT).apply()
+        }
+
         private const val TAG = "ApiDownloadService"
         private const val MESSAGE_DOWNLOAD_ID = 7237
         const val ACTION_DOWNLOAD_FINISHED = "xyz.klinker.messenger.API_DOWNLOAD_FINISHED"
+        const val ACTION_DOWNLOAD_INCOMPLETE = "xyz.klinker.messenger.API_DOWNLOAD_INCOMPLETE"
 
         const val MESSAGE_DOWNLOAD_PAGE_SIZE = 1000
         const val CONVERSATION_DOWNLOAD_PAGE_SIZE = 500
         const val CONTACTS_DOWNLOAD_PAGE_SIZE = 1000
         const val MAX_MEDIA_DOWNLOADS = 400
+        private const val PAGES_IN_FLIGHT = 3
+        private const val RETRY_DELAY = 2000L
         const val ARG_SHOW_NOTIFICATION = "show_notification"
 
+        private const val CHECKPOINT_ACCOUNT = "api_download_checkpoint_account"
+        private const val CHECKPOINT_MESSAGES = "api_download_checkpoint_messages"
+        private const val CHECKPOINT_CONVERSATIONS = "api_download_checkpoint_conversations"
+        private const val CHECKPOINT_BLACKLISTS = "api_download_checkpoint_blacklists"
+        private const val CHECKPOINT_SCHEDULED_MESSAGES = "api_download_checkpoint_scheduled_messages"
+        private const val CHECKPOINT_DRAFTS = "api_download_checkpoint_drafts"
+        private const val CHECKPOINT_CONTACTS = "api_download_checkpoint_contacts"
+        private const val CHECKPOINT_TEMPLATES = "api_download_checkpoint_templates"
+        private const val CHECKPOINT_FOLDERS = "api_download_checkpoint_folders"
+        private const val CHECKPOINT_AUTO_REPLIES = "api_download_checkpoint_auto_replies"
+        private const val CHECKPOINT_COMPLETE = -1
+        private val CHECKPOINTS = arrayOf(CHECKPOINT_MESSAGES, CHECKPOINT_CONVERSATIONS, CHECKPOINT_BLACKLISTS,
+                CHECKPOINT_SCHEDULED_MESSAGES, CHECKPOINT_DRAFTS, CHECKPOINT_CONTACTS, CHECKPOINT_TEMPLATES,
+                CHECKPOINT_FOLDERS, CHECKPOINT_AUTO_REPLIES)
+
         var IS_RUNNING = false
     }
 
@@ -40,8 +40,8 @@ import xyz.klinker.messenger.api.implementation.Account
 import xyz.klinker.messenger.shared.data.ColorSet
 import xyz.klinker.messenger.shared.data.DataSource
 import xyz.klinker.messenger.shared.data.MimeType
+import xyz.klinker.messenger.shared.data.Settings
 import xyz.klinker.messenger.encryption.EncryptionUtils
-import xyz.klinker.messenger.api.implementation.BinaryUtils
 import xyz.klinker.messenger.shared.data.model.*
 import xyz.klinker.messenger.shared.util.*
 
@@ -101,60 +101,107 @@ open class ApiUploadService : Service() {
 
     private fun uploadMessages() {
         val startTime = TimeUtils.now
-        val cursor = DataSource.getMessages(this)
+        val checkpoint = getMessageCheckpoint()
+        val cursor = DataSource.getMessagesToUpload(this, checkpoint?.timestamp ?: Long.MIN_VALUE,
+                checkpoint?.id ?: Long.MIN_VALUE)
 
-        if (cursor.moveToFirst()) {
-            val messages = ArrayList<MessageBody>()
-            var firebaseNumber = 0
+        // instead of sending the URI, we'll upload these images to firebase and retrieve
+        // them on another device based on account id and message id. When resuming, the
+        // numbering picks up from where the uploaded messages left it.
+        var firebaseNumber = checkpoint?.firebaseNumber ?: 0
+        cursor.moveToFirst()
 
-            do {
+        val messages = object : Iterator<MessageUpload> {
+            override fun hasNext() = !cursor.isAfterLast
+
+            override fun next(): MessageUpload {
                 val m = Message()
                 m.fillFromCursor(cursor)
+                cursor.moveToNext()
 
-                // instead of sending the URI, we'll upload these images to firebase and retrieve
-                // them on another device based on account id and message id.
                 if (m.mimeType != MimeType.TEXT_PLAIN) {
                     m.data = "firebase " + firebaseNumber
                     firebaseNumber++
                 }
 
                 m.encrypt(encryptionUtils!!)
-                val message = MessageBody(m.id, m.conversationId, m.type, m.data,
+                val body = MessageBody(m.id, m.conversationId, m.type, m.data,
                         m.timestamp, m.mimeType, m.read, m.seen, m.from, m.color, "-1", m.simPhoneNumber)
-                messages.add(message)
-            } while (cursor.moveToNext())
+                return MessageUpload(body, MessageCheckpoint(m.timestamp, m.id, firebaseNumber))
+            }
+        }
 
-            var successPages = 0
-            var expectedPages = 0
-            val pages = PaginationUtils.getPages(messages, MESSAGE_UPLOAD_PAGE_SIZE)
+        val uploader = PagedUploader(MESSAGE_UPLOAD_PAGE_SIZE, PAGES_IN_FLIGHT, PAGE_UPLOAD_ATTEMPTS,
+                PAGE_RETRY_DELAY,
+                { page ->
+                    val request = AddMessagesRequest(Account.accountId, page.map { it.body }.toTypedArray())
+                    val successful = ApiUtils.isCallSuccessful(ApiUtils.api.message().add(request).execute())
 
-            for (page in pages) {
-                val request = AddMessagesRequest(Account.accountId, page.toTypedArray())
-                try {
-                    val response = ApiUtils.api.message().add(request).execute()
-                    expectedPages++
-                    if (ApiUtils.isCallSuccessful(response)) {
-                        successPages++
-                    }
-                } catch (e: IOException) {
-                    e.printStackTrace()
-                }
+                    Log.v(TAG, "uploaded " + page.size + " messages, successful: " + successful)
+                    successful
+                },
+                { lastUploaded -> setMessageCheckpoint(lastUploaded.checkpoint) })
 
-                Log.v(TAG, "uploaded " + page.size + " messages for page " + expectedPages)
-            }
+        val successful = try {
+            uploader.upload(messages)
+        } finally {
+            cursor.closeSilent()
+        }
 
-            if (successPages != expectedPages) {
-                Log.v(TAG, "failed to upload messages in " +
-                        (TimeUtils.now - startTime) + " ms")
-            } else {
-                Log.v(TAG, "messages upload successful in " +
-                        (TimeUtils.now - startTime) + " ms")
-            }
+        if (successful) {
+            clearMessageCheckpoint()
+            Log.v(TAG, "messages upload successful in " +
+                    (TimeUtils.now - startTime) + " ms")
+        } else {
+            Log.v(TAG, "failed to upload messages in " +
+                    (TimeUtils.now - startTime) + " ms")
         }
+    }
 
-        cursor.closeSilent()
+    /**
+     * The last message that a previous, interrupted, upload for this account got to, so that we
+     * can continue with the messages after it.
+     */
+    private fun getMessageCheckpoint(): MessageCheckpoint? {
+        val prefs = Settings.getSharedPrefs(this)
+        return if (prefs.getString(CHECKPOINT_ACCOUNT, null) == Account.accountId) {
+            MessageCheckpoint(prefs.getLong(CHECKPOINT_MESSAGE_TIMESTAMP, Long.MIN_VALUE),
+                    prefs.getLong(CHECKPOINT_MESSAGE_ID, Long.MIN_VALUE),
+                    prefs.getInt(CHECKPOINT_FIREBASE_NUMBER, 0))
+        } else {
+            null
+        }
     }
 
+    private fun setMessageCheckpoint(checkpoint: MessageCheckpoint) {
+        Settings.getSharedPrefs(this).edit()
+                .putString(CHECKPOINT_ACCOUNT, Account.accountId)
+                .putLong(CHECKPOINT_MESSAGE_TIMESTAMP, checkpoint.timestamp)
+                .putLong(CHECKPOINT_MESSAGE_ID, checkpoint.id)
+                .putInt(CHECKPOINT_FIREBASE_NUMBER, checkpoint.firebaseNumber)
+                .apply()
+    }
+
+    private fun clearMessageCheckpoint() {
+        Settings.getSharedPrefs(this).edit()
+                .remove(CHECKPOINT_ACCOUNT)
+                .remove(CHECKPOINT_MESSAGE_TIMESTAMP)
+                .remove(CHECKPOINT_MESSAGE_ID)
+                .remove(CHECKPOINT_FIREBASE_NUMBER)
+                .apply()
+    }
+
+    /**
+     * A message that is ready to be uploaded, along with where it sits in the upload order.
+     */
+    private class MessageUpload(val body: MessageBody, val checkpoint: MessageCheckpoint)
+
+    /**
+     * Where an upload got to: the timestamp and id of the last message, and the number to give
+     * the next media message after it.
+     */
+    private class MessageCheckpoint(val timestamp: Long, val id: Long, val firebaseNumber: Int)
+
     private fun uploadConversations() {
         val startTime = TimeUtils.now
         val cursor = DataSource.getAllConversations(this)
@@ -460,9 +507,7 @@ open class ApiUploadService : Service() {
 
                 Log.v(TAG, "started uploading " + message.id)
 
-                val bytes = BinaryUtils.getMediaBytes(this, message.data, message.mimeType, true)
-
-                ApiUtils.uploadBytesToFirebase(Account.accountId, bytes, message.id, encryptionUtils, FirebaseUploadCallback {
+                ApiUtils.uploadMediaToFirebase(this, Account.accountId, message.data, message.mimeType, message.id, encryptionUtils, FirebaseUploadCallback {
                     completedMediaUploads++
 
                     builder.setProgress(mediaCount, completedMediaUploads, false)
@@ -508,6 +553,14 @@ open class ApiUploadService : Service() {
         const val NUM_MEDIA_TO_UPLOAD = 20
 
         const val MESSAGE_UPLOAD_PAGE_SIZE = 300
+        private const val PAGES_IN_FLIGHT = 3
+        private const val PAGE_UPLOAD_ATTEMPTS = 3
+        private const val PAGE_RETRY_DELAY = 2000L
+
+        private const val CHECKPOINT_ACCOUNT = "api_upload_checkpoint_account"
+        private const val CHECKPOINT_MESSAGE_TIMESTAMP = "api_upload_checkpoint_message_timestamp"
+        private const val CHECKPOINT_MESSAGE_ID = "api_upload_checkpoint_message_id"
+        private const val CHECKPOINT_FIREBASE_NUMBER = "api_upload_checkpoint_firebase_number"
 
         public fun uploadContacts(context: Context, encryptionUtils: EncryptionUtils) {
             val cursor = DataSource.getContacts(context)
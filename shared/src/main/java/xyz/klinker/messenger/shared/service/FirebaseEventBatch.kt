@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.service
+
+import android.content.Context
+import android.util.Log
+import xyz.klinker.messenger.shared.service.notification.Notifier
+
+/**
+ * The things that applying firebase events does outside of the database: updating the UI,
+ * showing notifications, and sending messages. They are held here until all of the events in a
+ * batch have been written, then done once.
+ *
+ * Broadcasts are keyed, so that when several events update the same list, only the last update
+ * gets sent.
+ */
+class FirebaseEventBatch {
+
+    private val afterCommit = mutableListOf<() -> Unit>()
+    private val broadcasts = LinkedHashMap<Any, () -> Unit>()
+    private var notify = false
+
+    /**
+     * Runs the work once the batch has been written to the database, in the order it was added.
+     */
+    fun afterCommit(work: () -> Unit) {
+        afterCommit.add(work)
+    }
+
+    /**
+     * Sends the broadcast when the batch is finished, unless another one replaces it first.
+     */
+    fun broadcast(key: Any, send: () -> Unit) {
+        broadcasts.remove(key)
+        broadcasts[key] = send
+    }
+
+    /**
+     * Refreshes the notifications when the batch is finished.
+     */
+    fun notifyUser() {
+        notify = true
+    }
+
+    fun finish(context: Context) {
+        (afterCommit + broadcasts.values).forEach {
+            try {
+                it()
+            } catch (e: Exception) {
+                Log.e("FirebaseEventBatch", "failed to finish event", e)
+            }
+        }
+
+        afterCommit.clear()
+        broadcasts.clear()
+
+        if (notify) {
+            notify = false
+            Notifier(context).notify()
+        }
+    }
+}
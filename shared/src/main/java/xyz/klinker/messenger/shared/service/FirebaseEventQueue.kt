@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.service
+
+import android.content.Context
+import android.util.Log
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Firebase events are handed to a single background worker, rather than each starting its own
+ * thread. The worker waits a moment for more events to come in, then applies everything that is
+ * waiting in one database transaction, with one round of UI updates and notifications at the end.
+ *
+ * Since there is only one worker, events are always applied in the order they were received, so
+ * a message that is added and then updated can never be applied the other way around.
+ */
+object FirebaseEventQueue {
+
+    private const val TAG = "FirebaseEventQueue"
+    private const val BATCH_WINDOW = 250L
+    private const val MAX_BATCH = 100
+
+    private val executor = Executors.newSingleThreadScheduledExecutor()
+    private val pending = ArrayList<Pair<String, String>>()
+    private var pendingFlush: ScheduledFuture<*>? = null
+
+    /**
+     * Queues an event to be applied with the next batch.
+     *
+     * @param operation the type of event, from the firebase message.
+     * @param data      the json contents of the event.
+     */
+    @Synchronized
+    fun enqueue(context: Context, operation: String, data: String) {
+        pending.add(operation to data)
+
+        val appContext = context.applicationContext ?: context
+        if (pending.size >= MAX_BATCH) {
+            pendingFlush?.cancel(false)
+            pendingFlush = null
+            executor.execute { flush(appContext) }
+        } else if (pendingFlush == null) {
+            pendingFlush = executor.schedule({
+                synchronized(this) { pendingFlush = null }
+                flush(appContext)
+            }, BATCH_WINDOW, TimeUnit.MILLISECONDS)
+        }
+    }
+
+    /**
+     * Applies every event that is currently waiting. This should only be called from the worker.
+     */
+    private fun flush(context: Context) {
+        val events = synchronized(this) {
+            val events = ArrayList(pending)
+            pending.clear()
+            events
+        }
+
+        if (events.isEmpty()) {
+            return
+        }
+
+        try {
+            FirebaseHandlerService.process(context, events)
+            Log.v(TAG, "applied " + events.size + " events")
+        } catch (e: Exception) {
+            Log.e(TAG, "failed to apply events", e)
+        }
+    }
+}
@@ -30,7 +30,6 @@ import org.json.JSONException
 import org.json.JSONObject
 import xyz.klinker.messenger.api.implementation.Account
 import xyz.klinker.messenger.api.implementation.ApiUtils
-import xyz.klinker.messenger.api.implementation.BinaryUtils
 import xyz.klinker.messenger.api.implementation.LoginActivity
 import xyz.klinker.messenger.api.implementation.firebase.FirebaseDownloadCallback
 import xyz.klinker.messenger.api.implementation.firebase.FirebaseUploadCallback
@@ -70,23 +69,95 @@ class FirebaseHandlerService : IntentService("FirebaseHandlerService") {
         private const val TAG = "FirebaseHandlerService"
         private const val INFORMATION_NOTIFICATION_ID = 13
 
+        // these clear the database, so they run outside of the batch transaction
+        private val ACCOUNT_OPERATIONS = setOf("removed_account", "cleaned_account")
+
         fun process(context: Context, operation: String, data: String) {
+            process(context, listOf(operation to data))
+        }
+
+        /**
+         * Applies the events in the order that they were received, and writes them all to the
+         * database in one transaction. The broadcasts, notifications and sends that they cause
+         * happen once the transaction is finished.
+         *
+         * Events that clear the account can't be part of a transaction. The events before them are
+         * written and finished first, then they run on their own.
+         *
+         * @param events the operation and data of each event.
+         */
+        fun process(context: Context, events: List<Pair<String, String>>) {
+            val pending = mutableListOf<Pair<String, String>>()
+
+            for (event in events) {
+                if (event.first in ACCOUNT_OPERATIONS) {
+                    if (!applyBatch(context, pending) || !applyBatch(context, listOf(event), inTransaction = false)) {
+                        return
+                    }
+
+                    pending.clear()
+                } else {
+                    pending.add(event)
+                }
+            }
+
+            applyBatch(context, pending)
+        }
+
+        /**
+         * @return false if there is no account to apply the events to, so the rest of them should
+         * be dropped as well.
+         */
+        private fun applyBatch(context: Context, events: List<Pair<String, String>>, inTransaction: Boolean = true): Boolean {
             val account = Account
 
             // received a message without having initialized an account yet
             // could happen if their subscription ends
             if (account.key == null) {
-                return
+                return false
             }
 
             val encryptionUtils = account.encryptor
 
             if (encryptionUtils == null && account.exists()) {
                 context.startActivity(Intent(context, LoginActivity::class.java))
-                return
+                return false
             }
 
+            if (events.isEmpty()) {
+                return true
+            }
+
+            val batch = FirebaseEventBatch()
+
+            if (inTransaction) {
+                DataSource.beginTransaction(context)
+            }
+
+            try {
+                for ((operation, data) in events) {
+                    try {
+                        apply(context, operation, data, encryptionUtils, batch)
+                    } catch (e: Exception) {
+                        Log.e(TAG, "error applying $operation", e)
+                    }
+                }
+
+                if (inTransaction) {
+                    DataSource.setTransactionSuccessful(context)
+                }
+            } finally {
+                if (inTransaction) {
+                    DataSource.endTransaction(context)
+                }
+            }
 
+            batch.finish(context)
+            return true
+        }
+
+        private fun apply(context: Context, operation: String, data: String, encryptionUtils: EncryptionUtils?,
+                          batch: FirebaseEventBatch) {
             Log.v(TAG, "operation: $operation, contents: $data")
 
             try {
@@ -95,9 +166,9 @@ class FirebaseHandlerService : IntentService("FirebaseHandlerService") {
                     "removed_account" -> removeAccount(json, context)
                     "updated_account" -> updatedAccount(json, context)
                     "cleaned_account" -> cleanAccount(json, context)
-                    "added_message" -> addMessage(json, context, encryptionUtils)
-                    "update_message_type" -> updateMessageType(json, context)
-                    "updated_message" -> updateMessage(json, context)
+                    "added_message" -> addMessage(json, context, encryptionUtils, batch)
+                    "update_message_type" -> updateMessageType(json, context, batch)
+                    "updated_message" -> updateMessage(json, context, batch)
                     "removed_message" -> removeMessage(json, context)
                     "cleanup_messages" -> cleanupMessages(json, context)
                     "cleanup_conversation_messages" -> cleanupConversationMessages(json, context)
@@ -110,7 +181,7 @@ class FirebaseHandlerService : IntentService("FirebaseHandlerService") {
                     "update_conversation_title" -> updateConversationTitle(json, context, encryptionUtils)
                     "updated_conversation" -> updateConversation(json, context, encryptionUtils)
                     "removed_conversation" -> removeConversation(json, context)
-                    "read_conversation" -> readConversation(json, context)
+                    "read_conversation" -> readConversation(json, context, batch)
                     "seen_conversation" -> seenConversation(json, context)
                     "archive_conversation" -> archiveConversation(json, context)
                     "seen_conversations" -> seenConversations(context)
@@ -133,11 +204,11 @@ class FirebaseHandlerService : IntentService("FirebaseHandlerService") {
                     "updated_auto_reply" -> updateAutoReply(json, context, encryptionUtils)
                     "removed_auto_reply" -> removeAutoReply(json, context)
                     "update_setting" -> updateSetting(json, context)
-                    "dismissed_notification" -> dismissNotification(json, context)
+                    "dismissed_notification" -> dismissNotification(json, context, batch)
                     "update_subscription" -> updateSubscription(json, context)
                     "update_primary_device" -> updatePrimaryDevice(json, context)
                     "feature_flag" -> writeFeatureFlag(json, context)
-                    "forward_to_phone" -> forwardToPhone(json, context, encryptionUtils)
+                    "forward_to_phone" -> forwardToPhone(json, context, encryptionUtils, batch)
                     else -> Log.e(TAG, "unsupported operation: $operation")
                 }
             } catch (e: JSONException) {
@@ -153,6 +224,7 @@ class FirebaseHandlerService : IntentService("FirebaseHandlerService") {
             if (json.getString("id") == account.accountId) {
                 Log.v(TAG, "clearing account")
                 DataSource.clearTables(context)
+                ApiDownloadService.clearCheckpoint(context)
                 account.clearAccount(context)
             } else {
                 Log.v(TAG, "ids do not match, did not clear account")
@@ -181,13 +253,14 @@ class FirebaseHandlerService : IntentService("FirebaseHandlerService") {
             if (json.getString("id") == account.accountId) {
                 Log.v(TAG, "clearing account")
                 DataSource.clearTables(context)
+                ApiDownloadService.clearCheckpoint(context)
             } else {
                 Log.v(TAG, "ids do not match, did not clear account")
             }
         }
 
         @Throws(JSONException::class)
-        private fun addMessage(json: JSONObject, context: Context, encryptionUtils: EncryptionUtils?) {
+        private fun addMessage(json: JSONObject, context: Context, encryptionUtils: EncryptionUtils?, batch: FirebaseEventBatch) {
             val id = getLong(json, "id")
             if (DataSource.getMessage(context, id) == null) {
                 var conversation = DataSource.getConversation(context, getLong(json, "conversation_id"))
@@ -239,7 +312,7 @@ class FirebaseHandlerService : IntentService("FirebaseHandlerService") {
                 if (message.data == "firebase -1" && message.mimeType != MimeType.TEXT_PLAIN) {
                     Log.v(TAG, "downloading binary from firebase")
 
-                    addMessageAfterFirebaseDownload(context, encryptionUtils!!, message)
+                    addMessageAfterFirebaseDownload(context, encryptionUtils!!, message, batch)
                     return
                 }
 
@@ -281,13 +354,16 @@ class FirebaseHandlerService : IntentService("FirebaseHandlerService") {
                     }
 
                     if (conversation != null) {
-                        if (message.mimeType == MimeType.TEXT_PLAIN) {
-                            SendUtils(conversation.simSubscriptionId)
-                                    .send(context, message.data!!, conversation.phoneNumbers!!)
-                        } else {
-                            SendUtils(conversation.simSubscriptionId)
-                                    .send(context, "", conversation.phoneNumbers!!,
-                                            Uri.parse(message.data), message.mimeType)
+                        val sendTo = conversation
+                        batch.afterCommit {
+                            if (message.mimeType == MimeType.TEXT_PLAIN) {
+                                SendUtils(sendTo.simSubscriptionId)
+                                        .send(context, message.data!!, sendTo.phoneNumbers!!)
+                            } else {
+                                SendUtils(sendTo.simSubscriptionId)
+                                        .send(context, "", sendTo.phoneNumbers!!,
+                                                Uri.parse(message.data), message.mimeType)
+                            }
                         }
                     } else {
                         Log.e(TAG, "trying to send message without the conversation, so can't find phone numbers")
@@ -296,24 +372,31 @@ class FirebaseHandlerService : IntentService("FirebaseHandlerService") {
                     Log.v(TAG, "sent message")
                 }
 
-                MessageListUpdatedReceiver.sendBroadcast(context, message)
-                ConversationListUpdatedReceiver.sendBroadcast(context, message.conversationId,
-                        if (message.mimeType == MimeType.TEXT_PLAIN) message.data else MimeType.getTextDescription(context, message.mimeType!!),
-                        message.type != Message.TYPE_RECEIVED)
+                batch.broadcast(MessageListUpdatedReceiver::class to message.conversationId) {
+                    MessageListUpdatedReceiver.sendBroadcast(context, message)
+                }
+                batch.broadcast(ConversationListUpdatedReceiver::class to message.conversationId) {
+                    ConversationListUpdatedReceiver.sendBroadcast(context, message.conversationId,
+                            if (message.mimeType == MimeType.TEXT_PLAIN) message.data else MimeType.getTextDescription(context, message.mimeType!!),
+                            message.type != Message.TYPE_RECEIVED)
+                }
 
                 if (message.type == Message.TYPE_RECEIVED && conversation?.mute != true) {
-                    Notifier(context).notify()
+                    batch.notifyUser()
                 } else if (isSending) {
                     DataSource.readConversation(context, message.conversationId, false)
-                    NotificationManagerCompat.from(context).cancel(message.conversationId.toInt())
-                    NotificationUtils.cancelGroupedNotificationWithNoContent(context)
+                    batch.afterCommit {
+                        NotificationManagerCompat.from(context).cancel(message.conversationId.toInt())
+                        NotificationUtils.cancelGroupedNotificationWithNoContent(context)
+                    }
                 }
             } else {
                 Log.v(TAG, "message already exists, not doing anything with it")
             }
         }
 
-        private fun addMessageAfterFirebaseDownload(context: Context, encryptionUtils: EncryptionUtils, message: Message, to: String? = null) {
+        private fun addMessageAfterFirebaseDownload(context: Context, encryptionUtils: EncryptionUtils, message: Message,
+                                                    batch: FirebaseEventBatch, to: String? = null) {
             val apiUtils = ApiUtils
             apiUtils.saveFirebaseFolderRef(Account.accountId)
             val file = File(context.filesDir, message.id.toString() + MimeType.getExtension(message.mimeType!!))
@@ -383,17 +466,20 @@ class FirebaseHandlerService : IntentService("FirebaseHandlerService") {
                 }
 
                 if (to != null) {
-                    val bytes = BinaryUtils.getMediaBytes(context, message.data, message.mimeType, true)
-                    ApiUtils.uploadBytesToFirebase(Account.accountId, bytes, message.id, encryptionUtils, FirebaseUploadCallback {  }, 0)
+                    ApiUtils.uploadMediaToFirebase(context, Account.accountId, message.data, message.mimeType, message.id, encryptionUtils, FirebaseUploadCallback {  }, 0)
                 }
             }
 
-            apiUtils.downloadFileFromFirebase(Account.accountId, file, message.id, encryptionUtils, callback, 0)
+            // the callback sends the message and updates the database, so it can't start until the
+            // message has been written
+            batch.afterCommit {
+                apiUtils.downloadFileFromFirebase(Account.accountId, file, message.id, encryptionUtils, callback, 0)
+            }
 
         }
 
         @Throws(JSONException::class)
-        private fun updateMessage(json: JSONObject, context: Context) {
+        private fun updateMessage(json: JSONObject, context: Context, batch: FirebaseEventBatch) {
             val id = getLong(json, "id")
             val type = json.getInt("type")
             DataSource.updateMessageType(context, id, type, false)
@@ -405,21 +491,27 @@ class FirebaseHandlerService : IntentService("FirebaseHandlerService") {
 
             val message = DataSource.getMessage(context, id)
             if (message != null) {
-                MessageListUpdatedReceiver.sendBroadcast(context, message)
+                // keyed apart from new messages, so that a status update doesn't replace the
+                // broadcast for a message that was just received
+                batch.broadcast(Triple(MessageListUpdatedReceiver::class, message.conversationId, "updated")) {
+                    MessageListUpdatedReceiver.sendBroadcast(context, message)
+                }
             }
 
             Log.v(TAG, "updated message type")
         }
 
         @Throws(JSONException::class)
-        private fun updateMessageType(json: JSONObject, context: Context) {
+        private fun updateMessageType(json: JSONObject, context: Context, batch: FirebaseEventBatch) {
             val id = getLong(json, "id")
             val type = json.getInt("message_type")
             DataSource.updateMessageType(context, id, type, false)
 
             val message = DataSource.getMessage(context, id)
             if (message != null) {
-                MessageListUpdatedReceiver.sendBroadcast(context, message)
+                batch.broadcast(Triple(MessageListUpdatedReceiver::class, message.conversationId, "updated")) {
+                    MessageListUpdatedReceiver.sendBroadcast(context, message)
+                }
             }
 
             Log.v(TAG, "updated message type")
@@ -623,7 +715,7 @@ class FirebaseHandlerService : IntentService("FirebaseHandlerService") {
         }
 
         @Throws(JSONException::class)
-        private fun readConversation(json: JSONObject, context: Context) {
+        private fun readConversation(json: JSONObject, context: Context, batch: FirebaseEventBatch) {
             val id = getLong(json, "id")
             val deviceId = json.getString("android_device")
 
@@ -632,7 +724,9 @@ class FirebaseHandlerService : IntentService("FirebaseHandlerService") {
                 DataSource.readConversation(context, id, false)
 
                 if (conversation != null && !conversation.read) {
-                    ConversationListUpdatedReceiver.sendBroadcast(context, id, conversation.snippet, true)
+                    batch.broadcast(ConversationListUpdatedReceiver::class to id) {
+                        ConversationListUpdatedReceiver.sendBroadcast(context, id, conversation.snippet, true)
+                    }
                 }
 
                 Log.v(TAG, "read conversation")
@@ -882,7 +976,7 @@ class FirebaseHandlerService : IntentService("FirebaseHandlerService") {
         }
 
         @Throws(JSONException::class)
-        private fun dismissNotification(json: JSONObject, context: Context) {
+        private fun dismissNotification(json: JSONObject, context: Context, batch: FirebaseEventBatch) {
             val conversationId = getLong(json, "id")
             val deviceId = json.getString("device_id")
 
@@ -892,12 +986,16 @@ class FirebaseHandlerService : IntentService("FirebaseHandlerService") {
                 // don't want to mark as read if this device was the one that sent the dismissal fcm message
                 DataSource.readConversation(context, conversationId, false)
                 if (conversation != null && !conversation.read) {
-                    ConversationListUpdatedReceiver.sendBroadcast(context, conversationId, conversation.snippet, true)
-                    MessengerAppWidgetProvider.refreshWidget(context)
+                    batch.broadcast(ConversationListUpdatedReceiver::class to conversationId) {
+                        ConversationListUpdatedReceiver.sendBroadcast(context, conversationId, conversation.snippet, true)
+                    }
+                    batch.broadcast(MessengerAppWidgetProvider::class) { MessengerAppWidgetProvider.refreshWidget(context) }
                 }
 
-                NotificationManagerCompat.from(context).cancel(conversationId.toInt())
-                NotificationUtils.cancelGroupedNotificationWithNoContent(context)
+                batch.afterCommit {
+                    NotificationManagerCompat.from(context).cancel(conversationId.toInt())
+                    NotificationUtils.cancelGroupedNotificationWithNoContent(context)
+                }
                 Log.v(TAG, "dismissed notification for " + conversationId)
             }
         }
@@ -997,7 +1095,7 @@ class FirebaseHandlerService : IntentService("FirebaseHandlerService") {
         }
 
         @Throws(JSONException::class)
-        private fun forwardToPhone(json: JSONObject, context: Context, encryptionUtils: EncryptionUtils?) {
+        private fun forwardToPhone(json: JSONObject, context: Context, encryptionUtils: EncryptionUtils?, batch: FirebaseEventBatch) {
             if (!Account.primary) {
                 return
             }
@@ -1046,13 +1144,15 @@ class FirebaseHandlerService : IntentService("FirebaseHandlerService") {
             if (message.data == "firebase -1" && message.mimeType != MimeType.TEXT_PLAIN) {
                 Log.v(TAG, "downloading binary from firebase")
 
-                addMessageAfterFirebaseDownload(context, encryptionUtils!!, message, to)
+                addMessageAfterFirebaseDownload(context, encryptionUtils!!, message, batch, to)
                 return
             } else {
                 val conversationId = DataSource.insertMessage(message, to, context, true)
                 val conversation = DataSource.getConversation(context, conversationId)
 
-                SendUtils(conversation?.simSubscriptionId).send(context, message.data!!, to)
+                batch.afterCommit {
+                    SendUtils(conversation?.simSubscriptionId).send(context, message.data!!, to)
+                }
             }
         }
 
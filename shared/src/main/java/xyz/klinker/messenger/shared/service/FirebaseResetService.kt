@@ -34,6 +34,7 @@ class FirebaseResetService : IntentService("FirebaseResetService") {
 
         // going to re-download everything I guess..
         DataSource.clearTables(this)
+        ApiDownloadService.clearCheckpoint(this)
         ApiDownloadService.start(this)
 
         if (AndroidVersionUtil.isAndroidO) {
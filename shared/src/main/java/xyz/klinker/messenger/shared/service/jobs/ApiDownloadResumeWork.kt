@@ -0,0 +1,39 @@
+package xyz.klinker.messenger.shared.service.jobs
+
+import android.content.Context
+import androidx.work.*
+import xyz.klinker.messenger.api.implementation.Account
+import xyz.klinker.messenger.shared.service.ApiDownloadService
+import java.util.concurrent.TimeUnit
+
+/**
+ * Restarts a download that stopped on a page that could not be downloaded. The download service
+ * keeps its checkpoint when that happens, so this picks up from the failed pages, instead of
+ * downloading everything again.
+ */
+class ApiDownloadResumeWork(private val context: Context, params: WorkerParameters) : Worker(context, params) {
+
+    override fun doWork(): Result {
+        // without a checkpoint, the download would start over and wipe the database
+        if (Account.exists() && !ApiDownloadService.IS_RUNNING && ApiDownloadService.hasCheckpoint(context)) {
+            ApiDownloadService.start(context)
+        }
+
+        return Result.success()
+    }
+
+    companion object {
+
+        private const val JOB_ID = "api-download-resume"
+        private const val DELAY_MINUTES = 5L
+
+        fun schedule(context: Context) {
+            val work = OneTimeWorkRequest.Builder(ApiDownloadResumeWork::class.java)
+                    .setInitialDelay(DELAY_MINUTES, TimeUnit.MINUTES)
+                    .setConstraints(Constraints.Builder().setRequiredNetworkType(NetworkType.CONNECTED).build())
+                    .build()
+
+            WorkManager.getInstance().enqueueUniqueWork(JOB_ID, ExistingWorkPolicy.REPLACE, work)
+        }
+    }
+}
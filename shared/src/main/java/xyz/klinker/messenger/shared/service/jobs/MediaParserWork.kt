@@ -0,0 +1,43 @@
+package xyz.klinker.messenger.shared.service.jobs
+
+import android.content.Context
+import android.util.Log
+import androidx.work.*
+import xyz.klinker.messenger.shared.util.media.MediaParserQueue
+
+/**
+ * Builds the preview for the links in a single message. WorkManager keeps the pending messages
+ * around if the process is killed, so none of them get lost while they wait for their turn.
+ */
+class MediaParserWork(private val context: Context, params: WorkerParameters) : Worker(context, params) {
+
+    override fun doWork(): Result {
+        val messageId = inputData.getLong(ARG_MESSAGE_ID, -1L)
+        if (messageId == -1L) {
+            return Result.success()
+        }
+
+        try {
+            MediaParserQueue.parse(context, messageId)
+        } catch (e: Exception) {
+            Log.e(TAG, "failed to parse media", e)
+        }
+
+        return Result.success()
+    }
+
+    companion object {
+
+        private const val TAG = "MediaParserWork"
+        private const val ARG_MESSAGE_ID = "message_id"
+
+        fun schedule(messageId: Long) {
+            val work = OneTimeWorkRequest.Builder(MediaParserWork::class.java)
+                    .setInputData(Data.Builder().putLong(ARG_MESSAGE_ID, messageId).build())
+                    .setConstraints(Constraints.Builder().setRequiredNetworkType(NetworkType.CONNECTED).build())
+                    .build()
+
+            WorkManager.getInstance().enqueue(work)
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package xyz.klinker.messenger.shared.service.jobs
+
+import android.content.Context
+import android.util.Log
+import androidx.work.*
+import xyz.klinker.messenger.shared.data.DataSource
+import xyz.klinker.messenger.shared.util.TimeUtils
+
+/**
+ * One time backfill of the message search index, for databases that already had messages in them
+ * when the index was introduced. New messages are indexed by triggers as they are written.
+ */
+class MessageSearchIndexWork(private val context: Context, params: WorkerParameters) : Worker(context, params) {
+
+    override fun doWork(): Result {
+        val startTime = TimeUtils.now
+
+        try {
+            DataSource.rebuildMessageSearchIndex(context)
+            Log.v(TAG, "indexed messages for search: ${TimeUtils.now - startTime} ms")
+        } catch (e: Exception) {
+            // searches will keep falling back to the LIKE query
+            Log.e(TAG, "failed to build the message search index", e)
+        }
+
+        return Result.success()
+    }
+
+    companion object {
+
+        private const val TAG = "MessageSearchIndexWork"
+        private const val JOB_ID = "message-search-index"
+
+        fun scheduleIfNeeded(context: Context) {
+            if (DataSource.isMessageSearchIndexReady(context)) {
+                return
+            }
+
+            val work = OneTimeWorkRequest.Builder(MessageSearchIndexWork::class.java)
+                    .setConstraints(Constraints.Builder().setRequiresBatteryNotLow(true).build())
+                    .build()
+
+            WorkManager.getInstance().enqueueUniqueWork(JOB_ID, ExistingWorkPolicy.KEEP, work)
+        }
+    }
+}
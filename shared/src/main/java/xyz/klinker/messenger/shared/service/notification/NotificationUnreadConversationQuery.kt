@@ -3,7 +3,6 @@ package xyz.klinker.messenger.shared.service.notification
 import android.content.Context
 import android.graphics.Color
 import xyz.klinker.messenger.shared.R
-import xyz.klinker.messenger.shared.data.DataSource
 import xyz.klinker.messenger.shared.data.MimeType
 import xyz.klinker.messenger.shared.data.Settings
 import xyz.klinker.messenger.shared.data.model.Message
@@ -12,76 +11,83 @@ import xyz.klinker.messenger.shared.data.pojo.NotificationMessage
 import xyz.klinker.messenger.shared.util.MockableDataSourceWrapper
 import xyz.klinker.messenger.shared.util.closeSilent
 import java.lang.Exception
-import java.util.*
 
 class NotificationUnreadConversationQuery(private val context: Context) {
 
     fun getUnseenConversations(source: MockableDataSourceWrapper): List<NotificationConversation> {
         // timestamps are ASC, so it will start with the oldest message, and move to the newest.
+        // the conversations are kept in the order of their first unseen message.
         val unseenMessages = source.getUnseenMessages(context)
-        val conversations = mutableListOf<NotificationConversation>()
-        val keys = mutableListOf<Long>()
+        val messagesByConversation = LinkedHashMap<Long, MutableList<NotificationMessage>>()
 
         if (unseenMessages.moveToFirst()) {
-            do {
-                val conversationId = unseenMessages.getLong(unseenMessages.getColumnIndex(Message.COLUMN_CONVERSATION_ID))
-                val id = unseenMessages.getLong(unseenMessages.getColumnIndex(Message.COLUMN_ID))
-                val data = unseenMessages.getString(unseenMessages.getColumnIndex(Message.COLUMN_DATA))
-                val mimeType = unseenMessages.getString(unseenMessages.getColumnIndex(Message.COLUMN_MIME_TYPE))
-                val timestamp = unseenMessages.getLong(unseenMessages.getColumnIndex(Message.COLUMN_TIMESTAMP))
-                val from = unseenMessages.getString(unseenMessages.getColumnIndex(Message.COLUMN_FROM))
+            val conversationIdIndex = unseenMessages.getColumnIndex(Message.COLUMN_CONVERSATION_ID)
+            val idIndex = unseenMessages.getColumnIndex(Message.COLUMN_ID)
+            val dataIndex = unseenMessages.getColumnIndex(Message.COLUMN_DATA)
+            val mimeTypeIndex = unseenMessages.getColumnIndex(Message.COLUMN_MIME_TYPE)
+            val timestampIndex = unseenMessages.getColumnIndex(Message.COLUMN_TIMESTAMP)
+            val fromIndex = unseenMessages.getColumnIndex(Message.COLUMN_FROM)
 
+            do {
+                val mimeType = unseenMessages.getString(mimeTypeIndex)
                 if (!MimeType.isExpandedMedia(mimeType)) {
-                    val conversationIndex = keys.indexOf(conversationId)
-                    var conversation: NotificationConversation? = null
+                    val conversationId = unseenMessages.getLong(conversationIdIndex)
+                    messagesByConversation.getOrPut(conversationId) { mutableListOf() }.add(NotificationMessage(
+                            unseenMessages.getLong(idIndex), unseenMessages.getString(dataIndex), mimeType,
+                            unseenMessages.getLong(timestampIndex), unseenMessages.getString(fromIndex)))
+                }
+            } while (unseenMessages.moveToNext())
+        }
+
+        unseenMessages.closeSilent()
 
-                    if (conversationIndex == -1) {
-                        val c = source.getConversation(context, conversationId)
-                        if (c != null) {
-                            conversation = NotificationConversation()
-                            conversation.id = c.id
-                            conversation.unseenMessageId = id
-                            conversation.title = c.title
-                            conversation.snippet = c.snippet
-                            conversation.imageUri = c.imageUri
-                            conversation.color = c.colors.color
-                            conversation.ringtoneUri = c.ringtoneUri
-                            conversation.ledColor = c.ledColor
-                            conversation.timestamp = c.timestamp
-                            conversation.mute = c.mute
-                            conversation.phoneNumbers = c.phoneNumbers
-                            conversation.groupConversation = c.phoneNumbers!!.contains(",")
-                            try {
-                                conversation.realMessages = DataSource.getMessages(context, conversation.id, 4)
-                            } catch (e: Exception) {
-                                e.printStackTrace()
-                            }
+        if (messagesByConversation.isEmpty()) {
+            return emptyList()
+        }
 
-                            if (c.private) {
-                                conversation.title = context.getString(R.string.new_message)
-                                conversation.imageUri = null
-                                conversation.ringtoneUri = null
-                                conversation.color = Settings.mainColorSet.color
-                                conversation.privateNotification = true
-                                conversation.ledColor = Color.WHITE
-                            } else {
-                                conversation.privateNotification = false
-                            }
+        val found = source.getConversations(context, messagesByConversation.keys)
+        val latestMessages = try {
+            source.getLatestMessages(context, found.keys, 4)
+        } catch (e: Exception) {
+            e.printStackTrace()
+            emptyMap<Long, List<Message>>()
+        }
 
-                            conversations.add(conversation)
-                            keys.add(conversationId)
-                        }
-                    } else {
-                        conversation = conversations[conversationIndex]
-                    }
+        val conversations = ArrayList<NotificationConversation>(found.size)
+        for ((conversationId, messages) in messagesByConversation) {
+            val c = found[conversationId] ?: continue
 
-                    conversation?.messages?.add(NotificationMessage(id, data, mimeType, timestamp, from))
-                }
-            } while (unseenMessages.moveToNext())
+            val conversation = NotificationConversation()
+            conversation.id = c.id
+            conversation.unseenMessageId = messages[0].id
+            conversation.title = c.title
+            conversation.snippet = c.snippet
+            conversation.imageUri = c.imageUri
+            conversation.color = c.colors.color
+            conversation.ringtoneUri = c.ringtoneUri
+            conversation.ledColor = c.ledColor
+            conversation.timestamp = c.timestamp
+            conversation.mute = c.mute
+            conversation.phoneNumbers = c.phoneNumbers
+            conversation.groupConversation = c.phoneNumbers!!.contains(",")
+            conversation.realMessages = latestMessages[conversationId] ?: emptyList()
+
+            if (c.private) {
+                conversation.title = context.getString(R.string.new_message)
+                conversation.imageUri = null
+                conversation.ringtoneUri = null
+                conversation.color = Settings.mainColorSet.color
+                conversation.privateNotification = true
+                conversation.ledColor = Color.WHITE
+            } else {
+                conversation.privateNotification = false
+            }
+
+            conversation.messages.addAll(messages)
+            conversations.add(conversation)
         }
 
-        unseenMessages.closeSilent()
-        conversations.sortWith(Comparator { result1, result2 -> Date(result2.timestamp).compareTo(Date(result1.timestamp)) })
+        conversations.sortByDescending { it.timestamp }
         return conversations
     }
-}
\ No newline at end of file
+}
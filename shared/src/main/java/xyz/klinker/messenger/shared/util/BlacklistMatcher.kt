@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.util
+
+/**
+ * All of the blacklist rules, compiled so that checking a message doesn't depend on how many
+ * rules there are.
+ *
+ * Numbers are matched the same way as BlacklistUtils.numbersMatch: on the last 10, 8, 7 or 5
+ * digits, depending on how long the shorter of the two numbers is. Each blacklisted number's
+ * suffixes go in to hash sets, split up by which lengths of incoming number they can match.
+ * Phrases are all searched for at once, with a KeywordMatcher over the lowercased text.
+ */
+class BlacklistMatcher(numbers: List<String>, phrases: List<String>) {
+
+    private val exactNumbers = HashSet<String>()
+    private val tenLetter = HashSet<String>()
+    private val eightLetterShort = HashSet<String>()
+    private val eightLetterLong = HashSet<String>()
+    private val sevenLetterShort = HashSet<String>()
+    private val sevenLetterLong = HashSet<String>()
+    private val fiveLetterByLength = HashMap<Int, HashSet<String>>()
+
+    private val phraseMatcher = KeywordMatcher(phrases.filter { it.isNotBlank() }.map { it.toLowerCase() })
+
+    init {
+        for (number in numbers) {
+            if (number.isBlank()) {
+                continue
+            }
+
+            exactNumbers.add(number)
+
+            val normalized = PhoneNumberUtils.clearFormattingAndStripStandardReplacements(number)
+            val matchers = SmsMmsUtils.createIdMatcher(normalized)
+
+            when (normalized.length) {
+                in 10..Int.MAX_VALUE -> {
+                    tenLetter.add(matchers.tenLetter)
+                    eightLetterLong.add(matchers.eightLetter)
+                    sevenLetterLong.add(matchers.sevenLetter)
+                }
+                8, 9 -> {
+                    eightLetterShort.add(matchers.eightLetter)
+                    sevenLetterLong.add(matchers.sevenLetter)
+                }
+                7 -> sevenLetterShort.add(matchers.sevenLetter)
+                else -> fiveLetterByLength.getOrPut(normalized.length) { HashSet() }.add(matchers.fiveLetter)
+            }
+        }
+    }
+
+    fun matchesNumber(incomingNumber: String): Boolean {
+        if (exactNumbers.contains(incomingNumber)) {
+            // some countries get spam from lettered number (HP-BHKPOS)
+            // those would not get matched when it goes into the id matchers,
+            // since the letters all get stripped out.
+            return true
+        }
+
+        val normalized = PhoneNumberUtils.clearFormattingAndStripStandardReplacements(incomingNumber)
+        val matchers = SmsMmsUtils.createIdMatcher(normalized)
+
+        return when (normalized.length) {
+            in 10..Int.MAX_VALUE -> tenLetter.contains(matchers.tenLetter) ||
+                    eightLetterShort.contains(matchers.eightLetter) ||
+                    sevenLetterShort.contains(matchers.sevenLetter)
+            8, 9 -> eightLetterShort.contains(matchers.eightLetter) ||
+                    eightLetterLong.contains(matchers.eightLetter) ||
+                    sevenLetterShort.contains(matchers.sevenLetter)
+            7 -> sevenLetterShort.contains(matchers.sevenLetter) || sevenLetterLong.contains(matchers.sevenLetter)
+            else -> fiveLetterByLength[normalized.length]?.contains(matchers.fiveLetter) == true
+        }
+    }
+
+    fun matchesPhrase(incomingText: String?): Boolean {
+        return incomingText != null && phraseMatcher.containsAny(incomingText.toLowerCase())
+    }
+}
@@ -27,35 +27,69 @@ import xyz.klinker.messenger.shared.data.model.Blacklist
  */
 object BlacklistUtils {
 
+    @Volatile
+    private var matcher: BlacklistMatcher? = null
+    private var generation = 0
+
     fun isBlacklisted(context: Context, incomingNumber: String, incomingText: String?): Boolean {
-        val source = DataSource
-        val cursor = source.getBlacklists(context)
-
-        val numberIndex = cursor.getColumnIndex(Blacklist.COLUMN_PHONE_NUMBER)
-        val phraseIndex = cursor.getColumnIndex(Blacklist.COLUMN_PHRASE)
-
-        if (cursor.moveToFirst()) {
-            do {
-                val blacklistedNumber = cursor.getString(numberIndex)
-                if (!blacklistedNumber.isNullOrBlank() && numbersMatch(incomingNumber, blacklistedNumber)) {
-                    Log.v("Blacklist", "$incomingNumber matched phone number blacklist: $blacklistedNumber")
-                    CursorUtil.closeSilent(cursor)
-                    return true
-                }
+        val matcher = getMatcher(context)
 
-                val blacklistedPhrase = cursor.getString(phraseIndex)
-                if (!blacklistedPhrase.isNullOrBlank() && incomingText?.toLowerCase()?.contains(blacklistedPhrase.toLowerCase()) == true) {
-                    Log.v("Blacklist", "$incomingText matched phrase blacklist: $incomingText")
-                    CursorUtil.closeSilent(cursor)
-                    return true
-                }
-            } while (cursor.moveToNext())
+        if (matcher.matchesNumber(incomingNumber)) {
+            Log.v("Blacklist", "$incomingNumber matched phone number blacklist")
+            return true
+        }
+
+        if (matcher.matchesPhrase(incomingText)) {
+            Log.v("Blacklist", "$incomingText matched phrase blacklist")
+            return true
         }
 
-        cursor.closeSilent()
         return false
     }
 
+    /**
+     * Drops the compiled blacklist, so that it is built again from the database the next time that
+     * a message is checked. This should be called whenever a blacklist is added or removed.
+     */
+    @Synchronized
+    fun invalidate() {
+        matcher = null
+        generation++
+    }
+
+    private fun getMatcher(context: Context): BlacklistMatcher {
+        var matcher = this.matcher
+        if (matcher == null) {
+            val loadedGeneration = synchronized(this) { generation }
+            val numbers = mutableListOf<String>()
+            val phrases = mutableListOf<String>()
+
+            val cursor = DataSource.getBlacklists(context)
+            val numberIndex = cursor.getColumnIndex(Blacklist.COLUMN_PHONE_NUMBER)
+            val phraseIndex = cursor.getColumnIndex(Blacklist.COLUMN_PHRASE)
+
+            if (cursor.moveToFirst()) {
+                do {
+                    cursor.getString(numberIndex)?.let { numbers.add(it) }
+                    cursor.getString(phraseIndex)?.let { phrases.add(it) }
+                } while (cursor.moveToNext())
+            }
+
+            cursor.closeSilent()
+
+            matcher = BlacklistMatcher(numbers, phrases)
+
+            synchronized(this) {
+                // if the blacklist changed while we were reading it, this one is already stale
+                if (loadedGeneration == generation) {
+                    this.matcher = matcher
+                }
+            }
+        }
+
+        return matcher
+    }
+
     fun numbersMatch(number: String, blacklisted: String): Boolean {
         if (number == blacklisted) {
             // some countries get spam from lettered number (HP-BHKPOS)
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.util
+
+import android.content.Context
+import android.database.ContentObserver
+import android.provider.ContactsContract
+import android.util.Log
+import androidx.annotation.VisibleForTesting
+import java.util.EnumMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Remembers what the contacts provider returned when looking up a phone number, so that the same
+ * number isn't looked up over and over while importing, processing MMS, or building
+ * notifications. Numbers without a contact are remembered too.
+ *
+ * The least recently used numbers are dropped once there are more than MAX_NUMBERS of them, and
+ * everything is dropped whenever the contacts change.
+ */
+object ContactLookupCache {
+
+    private const val TAG = "ContactLookupCache"
+    private const val MAX_NUMBERS = 500
+
+    enum class Lookup { NAME, IMAGE, IMAGE_WITH_FILTER, ID }
+
+    private val numbers = object : LinkedHashMap<String, EnumMap<Lookup, Any?>>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, EnumMap<Lookup, Any?>>?) = size > MAX_NUMBERS
+    }
+
+    @VisibleForTesting
+    val observer = object : ContentObserver(null) {
+        override fun onChange(selfChange: Boolean) {
+            invalidate()
+        }
+    }
+
+    private var observing = false
+    private var generation = 0
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+
+    /**
+     * The number of lookups that were answered from the cache, each of which saved at least one
+     * contacts provider query.
+     */
+    val hitCount: Long
+        get() = hits.get()
+
+    val missCount: Long
+        get() = misses.get()
+
+    val hitRate: Double
+        get() {
+            val total = hits.get() + misses.get()
+            return if (total == 0L) 0.0 else hits.get().toDouble() / total
+        }
+
+    /**
+     * Gets the cached result for the number, or runs the lookup and caches what it returns. If the
+     * lookup throws, nothing is cached.
+     *
+     * @param lookup queries the contacts provider. It should return null if there is no contact.
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun <T> get(context: Context, number: String, type: Lookup, lookup: () -> T?): T? {
+        if (!observe(context)) {
+            // without the observer, we wouldn't know when the cached contacts are stale
+            return lookup()
+        }
+
+        val key = PhoneNumberUtils.clearFormatting(number)
+        val loadedGeneration = synchronized(this) {
+            val cached = numbers[key]
+            if (cached != null && cached.containsKey(type)) {
+                hits.incrementAndGet()
+                return cached[type] as T?
+            }
+
+            generation
+        }
+
+        misses.incrementAndGet()
+        val value = lookup()
+
+        synchronized(this) {
+            // if the contacts changed while we were looking it up, the value might be stale
+            if (loadedGeneration == generation) {
+                numbers.getOrPut(key) { EnumMap(Lookup::class.java) }[type] = value
+            }
+        }
+
+        return value
+    }
+
+    @Synchronized
+    fun invalidate() {
+        numbers.clear()
+        generation++
+    }
+
+    fun resetStats() {
+        hits.set(0)
+        misses.set(0)
+    }
+
+    fun logStats(tag: String) {
+        Log.v(tag, "contact lookups: $hitCount from cache, $missCount from the provider, " +
+                "hit rate ${Math.round(hitRate * 100)}%")
+    }
+
+    @Synchronized
+    private fun observe(context: Context): Boolean {
+        if (!observing) {
+            try {
+                val appContext = context.applicationContext ?: context
+                appContext.contentResolver.registerContentObserver(ContactsContract.AUTHORITY_URI, true, observer)
+                observing = true
+            } catch (e: Exception) {
+                Log.e(TAG, "failed to observe contacts", e)
+            }
+        }
+
+        return observing
+    }
+}
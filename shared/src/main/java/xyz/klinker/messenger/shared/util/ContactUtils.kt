@@ -28,6 +28,7 @@ import java.util.regex.Pattern
 
 import xyz.klinker.messenger.shared.data.ColorSet
 import xyz.klinker.messenger.shared.data.DataSource
+import xyz.klinker.messenger.shared.data.IdMatcher
 import xyz.klinker.messenger.shared.data.model.Contact
 import xyz.klinker.messenger.shared.data.model.Conversation
 import xyz.klinker.messenger.shared.data.model.ImageContact
@@ -206,40 +207,19 @@ object ContactUtils {
             val origin = number[i]
 
             try {
-                var phoneUri = Uri.withAppendedPath(ContactsContract.PhoneLookup.CONTENT_FILTER_URI,
-                        Uri.encode(origin))
-
-                var phonesCursor = context.contentResolver
-                        .query(phoneUri, arrayOf(ContactsContract.PhoneLookup.DISPLAY_NAME), null, null, null)
-
-                if (phonesCursor != null && phonesCursor.moveToFirst()) {
-                    names += ", " + phonesCursor.getString(0).replace(",".toRegex(), "")
-                } else if (useContentFilterQuery(origin)) {
-                    phoneUri = Uri.withAppendedPath(ContactsContract.CommonDataKinds.Phone.CONTENT_FILTER_URI,
-                            Uri.encode(origin))
-
-                    phonesCursor = context.contentResolver
-                            .query(phoneUri, arrayOf(ContactsContract.PhoneLookup.DISPLAY_NAME), null, null, null)
+                val name = ContactLookupCache.get(context, origin, ContactLookupCache.Lookup.NAME) {
+                    queryContactName(origin, context)
+                }
 
-                    names += if (phonesCursor != null && phonesCursor.moveToFirst()) {
-                        ", " + phonesCursor.getString(0).replace(",".toRegex(), "")
-                    } else {
-                        try {
-                            ", " + PhoneNumberUtils.format(number[i])!!
-                        } catch (e: Exception) {
-                            ", " + number
-                        }
-                    }
+                names += if (name != null) {
+                    ", " + name.replace(",".toRegex(), "")
                 } else {
-                    names += try {
+                    try {
                         ", " + PhoneNumberUtils.format(number[i])!!
                     } catch (e: Exception) {
                         ", " + number
                     }
-
                 }
-
-                phonesCursor?.closeSilent()
             } catch (e: Exception) {
                 e.printStackTrace()
             }
@@ -254,38 +234,47 @@ object ContactUtils {
 
     }
 
-    /**
-     * Gets an id for the contact so that you can view that contact directly in the contacts app.
-     */
-    @Throws(NoSuchElementException::class)
-    fun findContactId(number: String, context: Context): Int {
-        try {
-            var phoneUri = Uri.withAppendedPath(ContactsContract.PhoneLookup.CONTENT_FILTER_URI,
-                    Uri.encode(number))
+    private fun queryContactName(number: String, context: Context): String? {
+        var phoneUri = Uri.withAppendedPath(ContactsContract.PhoneLookup.CONTENT_FILTER_URI,
+                Uri.encode(number))
 
-            var phonesCursor = context.contentResolver
-                    .query(phoneUri, arrayOf(ContactsContract.PhoneLookup._ID), null, null, null)
+        var phonesCursor = context.contentResolver
+                .query(phoneUri, arrayOf(ContactsContract.PhoneLookup.DISPLAY_NAME), null, null, null)
 
+        try {
             if (phonesCursor != null && phonesCursor.moveToFirst()) {
-                val id = phonesCursor.getInt(0)
-                phonesCursor.close()
-                return id
+                return phonesCursor.getString(0)
             } else if (useContentFilterQuery(number)) {
                 phoneUri = Uri.withAppendedPath(ContactsContract.CommonDataKinds.Phone.CONTENT_FILTER_URI,
                         Uri.encode(number))
 
+                phonesCursor?.closeSilent()
                 phonesCursor = context.contentResolver
-                        .query(phoneUri, arrayOf(ContactsContract.CommonDataKinds.Phone.CONTACT_ID), null, null, null)
+                        .query(phoneUri, arrayOf(ContactsContract.PhoneLookup.DISPLAY_NAME), null, null, null)
 
                 if (phonesCursor != null && phonesCursor.moveToFirst()) {
-                    val id = phonesCursor.getInt(0)
-                    phonesCursor.close()
-                    return id
-                } else if (phonesCursor != null) {
-                    phonesCursor.close()
+                    return phonesCursor.getString(0)
                 }
-            } else if (phonesCursor != null) {
-                phonesCursor.close()
+            }
+
+            return null
+        } finally {
+            phonesCursor?.closeSilent()
+        }
+    }
+
+    /**
+     * Gets an id for the contact so that you can view that contact directly in the contacts app.
+     */
+    @Throws(NoSuchElementException::class)
+    fun findContactId(number: String, context: Context): Int {
+        try {
+            val id = ContactLookupCache.get(context, number, ContactLookupCache.Lookup.ID) {
+                queryContactId(number, context)
+            }
+
+            if (id != null) {
+                return id
             }
         } catch (e: IllegalArgumentException) {
             e.printStackTrace()
@@ -296,6 +285,39 @@ object ContactUtils {
         throw NoSuchElementException("Contact not found")
     }
 
+    private fun queryContactId(number: String, context: Context): Int? {
+        var phoneUri = Uri.withAppendedPath(ContactsContract.PhoneLookup.CONTENT_FILTER_URI,
+                Uri.encode(number))
+
+        var phonesCursor = context.contentResolver
+                .query(phoneUri, arrayOf(ContactsContract.PhoneLookup._ID), null, null, null)
+
+        if (phonesCursor != null && phonesCursor.moveToFirst()) {
+            val id = phonesCursor.getInt(0)
+            phonesCursor.close()
+            return id
+        } else if (useContentFilterQuery(number)) {
+            phoneUri = Uri.withAppendedPath(ContactsContract.CommonDataKinds.Phone.CONTENT_FILTER_URI,
+                    Uri.encode(number))
+
+            phonesCursor?.close()
+            phonesCursor = context.contentResolver
+                    .query(phoneUri, arrayOf(ContactsContract.CommonDataKinds.Phone.CONTACT_ID), null, null, null)
+
+            if (phonesCursor != null && phonesCursor.moveToFirst()) {
+                val id = phonesCursor.getInt(0)
+                phonesCursor.close()
+                return id
+            } else if (phonesCursor != null) {
+                phonesCursor.close()
+            }
+        } else if (phonesCursor != null) {
+            phonesCursor.close()
+        }
+
+        return null
+    }
+
     /**
      * Gets a contact image for a given phone number.
      *
@@ -308,48 +330,55 @@ object ContactUtils {
             return null
         }
 
-        var uri: String? = null
-
         if (number == null || number.split(", ".toRegex()).dropLastWhile { it.isEmpty() }.toTypedArray().size > 1) {
             return null
-        } else {
-            var phonesCursor: Cursor? = null
+        }
 
-            try {
-                var phoneUri = Uri.withAppendedPath(ContactsContract.PhoneLookup.CONTENT_FILTER_URI,
+        val type = if (forceTryFilterQuery) ContactLookupCache.Lookup.IMAGE_WITH_FILTER else ContactLookupCache.Lookup.IMAGE
+        return try {
+            ContactLookupCache.get(context, number, type) { queryImageUri(number, context, forceTryFilterQuery) }
+        } catch (e: Exception) {
+            e.printStackTrace()
+            null
+        }
+    }
+
+    private fun queryImageUri(number: String, context: Context, forceTryFilterQuery: Boolean): String? {
+        var uri: String? = null
+        var phonesCursor: Cursor? = null
+
+        try {
+            var phoneUri = Uri.withAppendedPath(ContactsContract.PhoneLookup.CONTENT_FILTER_URI,
+                    Uri.encode(number))
+
+            phonesCursor = context.contentResolver
+                    .query(phoneUri, arrayOf(ContactsContract.Contacts.PHOTO_THUMBNAIL_URI), null, null, null)
+
+            if (phonesCursor?.moveToFirst() == true) {
+                uri = phonesCursor.getString(0)
+                if (uri != null) {
+                    uri = uri.replace("/photo", "")
+                }
+            } else if (forceTryFilterQuery || useContentFilterQuery(number)) {
+                phoneUri = Uri.withAppendedPath(ContactsContract.CommonDataKinds.Phone.CONTENT_FILTER_URI,
                         Uri.encode(number))
 
+                phonesCursor?.closeSilent()
                 phonesCursor = context.contentResolver
                         .query(phoneUri, arrayOf(ContactsContract.Contacts.PHOTO_THUMBNAIL_URI), null, null, null)
 
                 if (phonesCursor?.moveToFirst() == true) {
                     uri = phonesCursor.getString(0)
-                    if (uri != null) {
-                        uri = uri.replace("/photo", "")
-                    }
-                } else if (forceTryFilterQuery || useContentFilterQuery(number)) {
-                    phoneUri = Uri.withAppendedPath(ContactsContract.CommonDataKinds.Phone.CONTENT_FILTER_URI,
-                            Uri.encode(number))
-
-                    phonesCursor?.closeSilent()
-                    phonesCursor = context.contentResolver
-                            .query(phoneUri, arrayOf(ContactsContract.Contacts.PHOTO_THUMBNAIL_URI), null, null, null)
-
-                    if (phonesCursor?.moveToFirst() == true) {
-                        uri = phonesCursor.getString(0)
-//                        if (uri != null) {
-//                            uri = uri.replace("/photo", "")
-//                        }
-                    }
+//                    if (uri != null) {
+//                        uri = uri.replace("/photo", "")
+//                    }
                 }
-
-            } catch (e: Exception) {
-                e.printStackTrace()
             }
-
+        } finally {
             phonesCursor?.closeSilent()
-            return uri
         }
+
+        return uri
     }
 
     fun shouldDisplayContactLetter(conversation: Conversation?) = try {
@@ -368,10 +397,23 @@ object ContactUtils {
      * Get a list of contact objects from Android's database.
      */
     fun queryContacts(context: Context, dataSource: DataSource): List<Contact> {
-        try {
-            val contacts = ArrayList<ImageContact>()
-            val conversations = dataSource.getAllConversationsAsList(context)
+        val contacts = ArrayList<Contact>()
+        queryContacts(context, dataSource) { contacts.add(it) }
+        return contacts
+    }
+
+    /**
+     * Reads the contacts from Android's database one at a time, so that they can be written to
+     * our database as they are read, instead of holding the whole address book in memory.
+     *
+     * @param action called with each contact, as it is read.
+     * @return the number of contacts that were read.
+     */
+    fun queryContacts(context: Context, dataSource: DataSource, action: (Contact) -> Unit): Int {
+        val colors = ConversationColors(dataSource.getAllConversationsAsList(context))
+        var count = 0
 
+        try {
             val uri = ContactsContract.CommonDataKinds.Phone.CONTENT_URI
             val projection = arrayOf(ContactsContract.Contacts.DISPLAY_NAME, ContactsContract.CommonDataKinds.Phone.NUMBER, ContactsContract.Contacts.PHOTO_THUMBNAIL_URI, ContactsContract.CommonDataKinds.Phone.TYPE)
 
@@ -381,50 +423,31 @@ object ContactUtils {
                 null
             }
 
-            if (cursor != null && cursor.moveToFirst()) {
-                do {
-                    val contact = ImageContact()
-
-                    contact.id = DataSource.generateId()
-                    contact.name = cursor.getString(0)
-                    contact.phoneNumber = cursor.getString(1)
-                    contact.image = cursor.getString(2)
-                    contact.type = cursor.getInt(3)
-                    contact.idMatcher = SmsMmsUtils.createIdMatcher(contact.phoneNumber!!).default
-
-                    if (contact.image != null) {
-                        contact.image = contact.image!!.replace("/photo", "") + "/photo"
-                    }
-
-                    val colorSet = getColorsFromConversation(conversations, contact.phoneNumber!!)
-                    if (colorSet != null) {
-                        contact.colors = colorSet
-                    } else {
-                        ImageUtils.fillContactColors(contact, /* findImageUri(contact.phoneNumber, context) */ null, context)
-                    }
-
-                    contacts.add(contact)
-                } while (cursor.moveToNext())
-            }
-
-            cursor.closeSilent()
-
-            return if (contacts.size == 0) {
-                queryContactsLegacy(context, dataSource)
-            } else {
-                contacts
+            try {
+                while (cursor != null && cursor.moveToNext()) {
+                    val contact = createContact(context, cursor, cursor.getInt(3), colors) ?: continue
+                    action(contact)
+                    count++
+                }
+            } finally {
+                cursor?.closeSilent()
             }
         } catch (e: Exception) {
-            return queryContactsLegacy(context, dataSource)
         }
 
+        // the contacts that were already handed off can't be taken back, so only fall back to the
+        // legacy query if none were read.
+        return if (count == 0) {
+            queryContactsLegacy(context, colors, action)
+        } else {
+            count
+        }
     }
 
-    private fun queryContactsLegacy(context: Context, dataSource: DataSource): List<Contact> {
-        try {
-            val contacts = ArrayList<ImageContact>()
-            val conversations = dataSource.getAllConversationsAsList(context)
+    private fun queryContactsLegacy(context: Context, colors: ConversationColors, action: (Contact) -> Unit): Int {
+        var count = 0
 
+        try {
             val uri = ContactsContract.CommonDataKinds.Phone.CONTENT_URI
             val projection = arrayOf(ContactsContract.CommonDataKinds.Phone.DISPLAY_NAME, ContactsContract.CommonDataKinds.Phone.NUMBER, ContactsContract.Contacts.PHOTO_THUMBNAIL_URI)
 
@@ -437,37 +460,53 @@ object ContactUtils {
                 null
             }
 
-            if (cursor != null && cursor.moveToFirst()) {
-                do {
-                    val contact = ImageContact()
+            try {
+                while (cursor != null && cursor.moveToNext()) {
+                    val contact = createContact(context, cursor, -1, colors) ?: continue
+                    action(contact)
+                    count++
+                }
+            } finally {
+                cursor?.closeSilent()
+            }
+        } catch (e: Exception) {
+        }
 
-                    contact.id = DataSource.generateId()
-                    contact.type = -1
-                    contact.name = cursor.getString(0)
-                    contact.phoneNumber = cursor.getString(1)
-                    contact.image = cursor.getString(2)
-                    if (contact.image != null) {
-                        contact.image = contact.image!!.replace("/photo", "") + "/photo"
-                    }
+        return count
+    }
 
-                    contact.idMatcher = SmsMmsUtils.createIdMatcher(contact.phoneNumber!!).default
+    /**
+     * Builds a contact from a row with the name, number, and photo, in that order.
+     *
+     * @return the contact, or null if the row doesn't have a number.
+     */
+    private fun createContact(context: Context, cursor: Cursor, type: Int, colors: ConversationColors): Contact? {
+        if (cursor.getString(1) == null) {
+            return null
+        }
 
-                    val colorSet = getColorsFromConversation(conversations, contact.phoneNumber!!)
-                    if (colorSet != null) {
-                        contact.colors = colorSet
-                    } else {
-                        ImageUtils.fillContactColors(contact,  /* findImageUri(contact.phoneNumber, context) */ null, context)
-                    }
+        val contact = ImageContact()
 
-                    contacts.add(contact)
-                } while (cursor.moveToNext())
-            }
+        contact.id = DataSource.generateId()
+        contact.type = type
+        contact.name = cursor.getString(0)
+        contact.phoneNumber = cursor.getString(1)
+        contact.image = cursor.getString(2)
+        if (contact.image != null) {
+            contact.image = contact.image!!.replace("/photo", "") + "/photo"
+        }
 
-            cursor.closeSilent()
-            return contacts
-        } catch (e: Exception) {
-            return emptyList()
+        val idMatcher = SmsMmsUtils.createIdMatcher(contact.phoneNumber!!)
+        contact.idMatcher = idMatcher.default
+
+        val colorSet = colors.find(idMatcher)
+        if (colorSet != null) {
+            contact.colors = colorSet
+        } else {
+            ImageUtils.fillContactColors(contact, /* findImageUri(contact.phoneNumber, context) */ null, context)
         }
+
+        return contact
     }
 
     /**
@@ -487,6 +526,7 @@ object ContactUtils {
         }
 
         convoCursor.closeSilent()
+        val colors = ConversationColors(conversations)
 
         try {
             val uri = ContactsContract.CommonDataKinds.Phone.CONTENT_URI
@@ -507,9 +547,10 @@ object ContactUtils {
                     contact.name = cursor.getString(0)
                     contact.phoneNumber = PhoneNumberUtils.clearFormatting(PhoneNumberUtils.format(cursor.getString(1)))
                     contact.type = cursor.getInt(3)
-                    contact.idMatcher = SmsMmsUtils.createIdMatcher(contact.phoneNumber!!).default
+                    val idMatcher = SmsMmsUtils.createIdMatcher(contact.phoneNumber!!)
+                    contact.idMatcher = idMatcher.default
 
-                    val colorSet = getColorsFromConversation(conversations, contact.phoneNumber!!)
+                    val colorSet = colors.find(idMatcher)
                     if (colorSet != null) {
                         contact.colors = colorSet
                     } else {
@@ -530,16 +571,30 @@ object ContactUtils {
     }
 
     /**
-     * Get a list of colors for a contact, if an individual conversation exists for them.
-     *
-     * @param conversations all the conversations in the database
-     * @return color set from the conversation if one exists, or null if one does not exist.
+     * Looks up the colors for a contact, if an individual conversation exists for them. The
+     * conversations are indexed by their id matcher once, rather than scanning all of them for
+     * each contact.
      */
-    private fun getColorsFromConversation(conversations: List<Conversation>, phoneNumber: String): ColorSet? {
-        val idMatcher = SmsMmsUtils.createIdMatcher(phoneNumber)
-        return conversations
-                .firstOrNull { idMatcher.allMatchers.contains(it.idMatcher) }
-                ?.colors
+    private class ConversationColors(private val conversations: List<Conversation>) {
+
+        private val positions = HashMap<String, Int>()
+
+        init {
+            for (i in conversations.indices) {
+                val idMatcher = conversations[i].idMatcher ?: continue
+                if (!positions.containsKey(idMatcher)) {
+                    positions[idMatcher] = i
+                }
+            }
+        }
+
+        /**
+         * @return the colors of the first conversation that matches, or null if none do.
+         */
+        fun find(idMatcher: IdMatcher): ColorSet? {
+            val position = idMatcher.allMatchers.mapNotNull { positions[it] }.min() ?: return null
+            return conversations[position].colors
+        }
     }
 
     /**
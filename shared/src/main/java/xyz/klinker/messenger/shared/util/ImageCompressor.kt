@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.util
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.Matrix
+import android.media.ExifInterface
+import android.net.Uri
+import android.util.Log
+import androidx.annotation.VisibleForTesting
+import xyz.klinker.messenger.shared.data.MimeType
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.roundToInt
+import kotlin.math.sqrt
+
+/**
+ * Shrinks images so that they fit under the carrier's MMS size limit.
+ *
+ * The resolution is estimated from the size limit before anything is decoded, so the image only
+ * needs to be read once, at close to the size that will be sent. The JPEG quality is then
+ * searched for in memory, and only the result is written to the file.
+ */
+object ImageCompressor {
+
+    private const val TAG = "ImageCompressor"
+
+    // phone photos come out to about 2 bits per pixel as JPEG, at the qualities that we search
+    // through. PNG is lossless, and comes out closer to 2 bytes per pixel.
+    private const val ESTIMATED_JPEG_BYTES_PER_PIXEL = 0.25
+    private const val ESTIMATED_PNG_BYTES_PER_PIXEL = 2.0
+
+    private const val MIN_QUALITY = 40
+    private const val MAX_QUALITY = 90
+    private const val QUALITY_STEP = 5
+
+    // if the image doesn't fit at the lowest quality, the scale is estimated again from the size
+    // that it came out to, with this much room to spare, and we try again. This is only needed
+    // when the first estimate was off.
+    private const val SHRINK_MARGIN = 0.9
+    private const val MAX_ATTEMPTS = 4
+    private const val MAX_SAMPLE_SIZE = 16
+
+    /**
+     * Writes a copy of the image to the file, scaled, rotated based on its exif data and
+     * compressed so that it is under the max size, where possible.
+     *
+     * @return false if the image could not be opened.
+     */
+    @Throws(IOException::class)
+    fun compress(context: Context, uri: Uri, mimeType: String, maxBytes: Long, file: File): Boolean {
+        val bounds = BitmapFactory.Options()
+        bounds.inJustDecodeBounds = true
+        context.contentResolver.openInputStream(uri)?.use { BitmapFactory.decodeStream(it, null, bounds) } ?: return false
+
+        val width = bounds.outWidth
+        val height = bounds.outHeight
+        if (width <= 0 || height <= 0) {
+            throw IOException("could not decode $uri")
+        }
+
+        val options = BitmapFactory.Options()
+        val jpeg = mimeType != MimeType.IMAGE_PNG
+        options.inSampleSize = sampleSize(targetScale(width, height, maxBytes, jpeg))
+        options.inPreferredConfig = Bitmap.Config.RGB_565
+        options.inDither = true
+
+        val decoded = context.contentResolver.openInputStream(uri)?.use { BitmapFactory.decodeStream(it, null, options) }
+                ?: throw IOException("could not decode $uri")
+
+        val orientation = readOrientation(context, uri)
+        val format = if (jpeg) Bitmap.CompressFormat.JPEG else Bitmap.CompressFormat.PNG
+        val out = ByteArrayOutputStream(maxBytes.coerceIn(32L, 1024L * 1024).toInt())
+
+        var scaled: Bitmap? = null
+        var scaledTo = 0.0
+
+        try {
+            fit(width, height, maxBytes, jpeg) { scale, quality ->
+                if (scaled == null || scale != scaledTo) {
+                    if (scaled !== decoded) {
+                        scaled?.recycle()
+                    }
+
+                    scaled = transform(decoded, max(1, (width * scale).roundToInt()).toFloat() / decoded.width, orientation)
+                    scaledTo = scale
+                }
+
+                out.reset()
+                scaled!!.compress(format, quality, out)
+                out.size().toLong()
+            }
+        } finally {
+            if (scaled !== decoded) {
+                scaled?.recycle()
+            }
+
+            decoded.recycle()
+        }
+
+        FileOutputStream(file).use { out.writeTo(it) }
+        Log.v(TAG, "${width}x$height image compressed to ${out.size()} bytes, mms size limit: $maxBytes")
+
+        return true
+    }
+
+    /**
+     * Finds the largest scale and quality that fit under the max size. When this returns, the
+     * last call to encode was for the chosen scale and quality, so its output can be used directly.
+     *
+     * @param encode compresses the image, scaled by the given amount, and returns the size.
+     */
+    @VisibleForTesting
+    fun fit(width: Int, height: Int, maxBytes: Long, jpeg: Boolean, encode: (scale: Double, quality: Int) -> Long) {
+        var scale = targetScale(width, height, maxBytes, jpeg)
+
+        for (attempt in 1..MAX_ATTEMPTS) {
+            var size = 0L
+            val fits = if (jpeg) {
+                searchQuality(maxBytes) { quality -> encode(scale, quality).also { size = it } } != null
+            } else {
+                // png ignores the quality, so there is nothing to search for
+                size = encode(scale, 100)
+                size <= maxBytes
+            }
+
+            if (fits || attempt == MAX_ATTEMPTS) {
+                return
+            }
+
+            // the size grows with the number of pixels, so each side shrinks by the square root
+            scale *= sqrt(maxBytes.toDouble() / size) * SHRINK_MARGIN
+        }
+    }
+
+    /**
+     * Binary searches for the highest quality that fits under the max size. The last call to
+     * encode is always for the quality that is returned, or for the lowest quality if nothing fits.
+     */
+    @VisibleForTesting
+    fun searchQuality(maxBytes: Long, encode: (quality: Int) -> Long): Int? {
+        if (encode(MAX_QUALITY) <= maxBytes) {
+            return MAX_QUALITY
+        }
+
+        var low = 0
+        var high = (MAX_QUALITY - MIN_QUALITY) / QUALITY_STEP - 1
+        var best: Int? = null
+        var lastEncoded = MAX_QUALITY
+
+        while (low <= high) {
+            val step = (low + high) / 2
+            val quality = MIN_QUALITY + step * QUALITY_STEP
+
+            lastEncoded = quality
+            if (encode(quality) <= maxBytes) {
+                best = quality
+                low = step + 1
+            } else {
+                high = step - 1
+            }
+        }
+
+        if (best == null && lastEncoded != MIN_QUALITY) {
+            encode(MIN_QUALITY)
+        } else if (best != null && lastEncoded != best) {
+            encode(best)
+        }
+
+        return best
+    }
+
+    /**
+     * How much each side of the image should be scaled by, so that it will come in close to
+     * the max size.
+     */
+    @VisibleForTesting
+    fun targetScale(width: Int, height: Int, maxBytes: Long, jpeg: Boolean): Double {
+        val maxPixels = maxBytes / if (jpeg) ESTIMATED_JPEG_BYTES_PER_PIXEL else ESTIMATED_PNG_BYTES_PER_PIXEL
+        return min(1.0, sqrt(maxPixels / (width.toDouble() * height)))
+    }
+
+    /**
+     * The largest power of two that we can sample by while decoding, without going below the
+     * target scale.
+     */
+    @VisibleForTesting
+    fun sampleSize(scale: Double): Int {
+        var sampleSize = 1
+        while (sampleSize < MAX_SAMPLE_SIZE && sampleSize * 2 * scale <= 1.0) {
+            sampleSize *= 2
+        }
+
+        return sampleSize
+    }
+
+    private fun readOrientation(context: Context, uri: Uri) = try {
+        context.contentResolver.openInputStream(uri)?.use {
+            ExifInterface(it).getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL)
+        } ?: ExifInterface.ORIENTATION_NORMAL
+    } catch (e: Exception) {
+        ExifInterface.ORIENTATION_NORMAL
+    } catch (e: Error) {
+        e.printStackTrace()
+        ExifInterface.ORIENTATION_NORMAL
+    }
+
+    private fun transform(bitmap: Bitmap, scale: Float, orientation: Int): Bitmap {
+        val matrix = Matrix()
+        matrix.setScale(scale, scale)
+
+        when (orientation) {
+            ExifInterface.ORIENTATION_FLIP_HORIZONTAL -> matrix.postScale(-1f, 1f)
+            ExifInterface.ORIENTATION_ROTATE_180 -> matrix.postRotate(180f)
+            ExifInterface.ORIENTATION_FLIP_VERTICAL -> {
+                matrix.postRotate(180f)
+                matrix.postScale(-1f, 1f)
+            }
+            ExifInterface.ORIENTATION_TRANSPOSE -> {
+                matrix.postRotate(90f)
+                matrix.postScale(-1f, 1f)
+            }
+            ExifInterface.ORIENTATION_ROTATE_90 -> matrix.postRotate(90f)
+            ExifInterface.ORIENTATION_TRANSVERSE -> {
+                matrix.postRotate(270f)
+                matrix.postScale(-1f, 1f)
+            }
+            ExifInterface.ORIENTATION_ROTATE_270 -> matrix.postRotate(270f)
+            else -> if (scale == 1f) return bitmap
+        }
+
+        return Bitmap.createBitmap(bitmap, 0, 0, bitmap.width, bitmap.height, matrix, true)
+    }
+}
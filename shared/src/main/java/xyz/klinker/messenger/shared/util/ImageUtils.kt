@@ -19,7 +19,6 @@ package xyz.klinker.messenger.shared.util
 import android.annotation.SuppressLint
 import android.content.Context
 import android.graphics.*
-import android.media.ExifInterface
 import android.net.Uri
 import android.provider.ContactsContract
 import android.provider.MediaStore
@@ -34,7 +33,6 @@ import xyz.klinker.messenger.shared.data.MmsSettings
 import xyz.klinker.messenger.shared.data.model.Contact
 import xyz.klinker.messenger.shared.data.model.Conversation
 import java.io.File
-import java.io.FileOutputStream
 import java.io.IOException
 import java.util.*
 import kotlin.math.min
@@ -205,60 +203,11 @@ object ImageUtils {
     @Throws(IOException::class)
     fun scaleToSend(context: Context, uri: Uri, mimeType: String): Uri? {
         try {
-            val input = context.contentResolver.openInputStream(uri) ?: return uri
-
-            var byteArr = ByteArray(0)
-            val buffer = ByteArray(1024)
-            var arraySize = 0
-            var len = input.read(buffer)
-
-            // convert the Uri to a byte array that we can manipulate
-            while (len > -1) {
-                if (len != 0) {
-                    if (arraySize + len > byteArr.size) {
-                        val newbuf = ByteArray((arraySize + len) * 2)
-                        System.arraycopy(byteArr, 0, newbuf, 0, arraySize)
-                        byteArr = newbuf
-                    }
-
-                    System.arraycopy(buffer, 0, byteArr, arraySize, len)
-                    arraySize += len
-                }
-
-                len = input.read(buffer)
-            }
-
-            input.closeSilent()
-
-            // with inJustDecodeBounds, we are telling the system just to get the resolution
-            // of the image and not to decode anything else. This resolution
-            // is used to calculate the in sample size
-            val options = BitmapFactory.Options()
-            options.inJustDecodeBounds = true
-            BitmapFactory.decodeByteArray(byteArr, 0, arraySize, options)
-            val srcWidth = options.outWidth
-            val srcHeight = options.outHeight
-
             val fileName = "image-" + Date().time + if (mimeType == MimeType.IMAGE_PNG) ".png" else ".jpg"
+            val file = File(context.filesDir, fileName)
 
-            val largerSide = if (srcHeight > srcWidth) srcHeight else srcWidth
-            var scaleAmount = 1
-
-            var scaled = generateBitmap(byteArr, arraySize, largerSide, scaleAmount)
-            scaled = rotateBasedOnExifData(context, uri, scaled)
-            var file = createFileFromBitmap(context, fileName, scaled, mimeType)
-            val maxImageSize = MmsSettings.maxImageSize
-            Log.v("ImageUtils", "file size: " + file.length() + ", mms size limit: " + maxImageSize)
-
-            while (scaleAmount < 16 && file.length() > maxImageSize) {
-                scaled.recycle()
-
-                scaleAmount *= 2
-                scaled = generateBitmap(byteArr, arraySize, largerSide, scaleAmount)
-                scaled = rotateBasedOnExifData(context, uri, scaled)
-                file = createFileFromBitmap(context, fileName, scaled, mimeType)
-
-                Log.v("ImageUtils", "downsampling again. file size: " + file.length() + ", mms size limit: " + maxImageSize)
+            if (!ImageCompressor.compress(context, uri, mimeType, MmsSettings.maxImageSize, file)) {
+                return uri
             }
 
             return ImageUtils.createContentUri(context, file)
@@ -271,24 +220,6 @@ object ImageUtils {
 
     }
 
-    private fun generateBitmap(byteArr: ByteArray, arraySize: Int, largerSide: Int, scaleAmount: Int): Bitmap {
-        val options = BitmapFactory.Options()
-
-        // in sample size reduces the size of the image by this factor of 2
-        options.inSampleSize = scaleAmount
-
-        // these options set up the image coloring
-        options.inPreferredConfig = Bitmap.Config.RGB_565 // could be Bitmap.Config.ARGB_8888 for higher quality
-        options.inDither = true
-
-        // these options set it up with the actual dimensions that you are looking for
-        options.inDensity = largerSide
-        options.inTargetDensity = largerSide * (1 / options.inSampleSize)
-
-        // now we actually decode the image to these dimensions
-        return BitmapFactory.decodeByteArray(byteArr, 0, arraySize, options)
-    }
-
     private fun calculateInSampleSize(currentHeight: Int, currentWidth: Int, maxSize: Int): Int {
         var inSampleSize = 1
         val largerSide = if (currentHeight > currentWidth) currentHeight else currentWidth
@@ -308,70 +239,6 @@ object ImageUtils {
         return inSampleSize
     }
 
-    private fun createFileFromBitmap(context: Context, name: String, bitmap: Bitmap, mimeType: String): File {
-        var out: FileOutputStream? = null
-        val file = File(context.filesDir, name)
-
-        try {
-            if (!file.exists()) {
-                file.createNewFile()
-            }
-
-            out = FileOutputStream(file)
-            bitmap.compress(if (mimeType == MimeType.IMAGE_PNG) Bitmap.CompressFormat.PNG else Bitmap.CompressFormat.JPEG,
-                    75, out)
-        } catch (e: IOException) {
-            Log.e("Scale to Send", "failed to write output stream", e)
-        } finally {
-            try {
-                out?.closeSilent()
-            } catch (e: IOException) {
-                Log.e("Scale to Send", "failed to close output stream", e)
-            }
-        }
-
-        return file
-    }
-
-    private fun rotateBasedOnExifData(context: Context, uri: Uri, bitmap: Bitmap): Bitmap {
-        try {
-            val `in` = context.contentResolver.openInputStream(uri)
-            val exif = ExifInterface(`in`!!)
-
-            val rotation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL)
-
-            val matrix = Matrix()
-            when (rotation) {
-                ExifInterface.ORIENTATION_UNDEFINED, ExifInterface.ORIENTATION_NORMAL -> return bitmap
-                ExifInterface.ORIENTATION_FLIP_HORIZONTAL -> matrix.setScale(-1f, 1f)
-                ExifInterface.ORIENTATION_ROTATE_180 -> matrix.setRotate(180f)
-                ExifInterface.ORIENTATION_FLIP_VERTICAL -> {
-                    matrix.setRotate(180f)
-                    matrix.postScale(-1f, 1f)
-                }
-                ExifInterface.ORIENTATION_TRANSPOSE -> {
-                    matrix.setRotate(90f)
-                    matrix.postScale(-1f, 1f)
-                }
-                ExifInterface.ORIENTATION_ROTATE_90 -> matrix.setRotate(90f)
-                ExifInterface.ORIENTATION_TRANSVERSE -> {
-                    matrix.setRotate(270f)
-                    matrix.postScale(-1f, 1f)
-                }
-                ExifInterface.ORIENTATION_ROTATE_270 -> matrix.setRotate(270f)
-                else -> return bitmap
-            }
-
-            val bmRotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.width, bitmap.height, matrix, true)
-            bitmap.recycle()
-            return bmRotated
-        } catch (e: Error) {
-            e.printStackTrace()
-        }
-
-        return bitmap
-    }
-
     /**
      * Creates a bitmap that is simply a single color.
      */
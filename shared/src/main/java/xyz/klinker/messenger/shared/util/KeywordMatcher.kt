@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.util
+
+import java.util.*
+
+/**
+ * Aho-Corasick automaton over a list of keywords, so finding which of them appear in some text
+ * takes a single pass over the text, no matter how many keywords there are.
+ *
+ * Keywords are matched exactly. To ignore case, lowercase both the keywords and the text.
+ */
+class KeywordMatcher(keywords: List<String>) {
+
+    private val children = mutableListOf(HashMap<Char, Int>())
+    private val fail = mutableListOf(0)
+
+    // the indices of the keywords that end at each node, including the ones found by following
+    // its failure links. Empty keywords are on the root, and match any text.
+    private val matches = mutableListOf(IntArray(0))
+
+    init {
+        keywords.forEachIndexed { index, keyword ->
+            var node = 0
+            for (c in keyword) {
+                node = children[node].getOrPut(c) {
+                    children.add(HashMap())
+                    fail.add(0)
+                    matches.add(IntArray(0))
+                    children.size - 1
+                }
+            }
+
+            matches[node] = matches[node] + index
+        }
+
+        // breadth first, so each node's failure link is set before its children need it
+        val queue = ArrayDeque<Int>(children[0].values)
+        while (queue.isNotEmpty()) {
+            val node = queue.poll()
+            for ((c, child) in children[node]) {
+                var state = fail[node]
+                while (state != 0 && !children[state].containsKey(c)) {
+                    state = fail[state]
+                }
+
+                val next = children[state][c]
+                fail[child] = if (next != null && next != child) next else 0
+                if (fail[child] != 0) {
+                    matches[child] = matches[child] + matches[fail[child]]
+                }
+
+                queue.add(child)
+            }
+        }
+    }
+
+    fun containsAny(text: String): Boolean {
+        if (matches[0].isNotEmpty()) {
+            return true
+        }
+
+        if (children[0].isEmpty()) {
+            return false
+        }
+
+        var state = 0
+        for (c in text) {
+            state = next(state, c)
+            if (matches[state].isNotEmpty()) {
+                return true
+            }
+        }
+
+        return false
+    }
+
+    /**
+     * @return the indices of all of the keywords that appear in the text.
+     */
+    fun findAll(text: String): BitSet {
+        val found = BitSet()
+        matches[0].forEach { found.set(it) }
+
+        if (children[0].isEmpty()) {
+            return found
+        }
+
+        var state = 0
+        for (c in text) {
+            state = next(state, c)
+            matches[state].forEach { found.set(it) }
+        }
+
+        return found
+    }
+
+    private fun next(from: Int, c: Char): Int {
+        var state = from
+        while (state != 0 && !children[state].containsKey(c)) {
+            state = fail[state]
+        }
+
+        return children[state][c] ?: 0
+    }
+}
@@ -10,8 +10,8 @@ import xyz.klinker.messenger.shared.data.Settings
 import xyz.klinker.messenger.shared.data.model.Conversation
 import xyz.klinker.messenger.shared.data.model.Message
 import xyz.klinker.messenger.shared.service.message_parser.AutoReplyParserService
-import xyz.klinker.messenger.shared.service.message_parser.MediaParserService
 import xyz.klinker.messenger.shared.service.message_parser.VcardParserService
+import xyz.klinker.messenger.shared.util.media.MediaParserQueue
 import xyz.klinker.messenger.shared.util.media.parsers.ArticleParser
 import xyz.klinker.messenger.shared.util.vcard.VcardReader
 
@@ -40,7 +40,7 @@ class MessageInsertionMetadataHelper(private val context: Context) {
 
     private fun process(message: Message, conversation: Conversation) {
         if (message.mimeType == MimeType.TEXT_PLAIN && canProcessMedia(message)) {
-            MediaParserService.start(context, message)
+            MediaParserQueue.enqueue(context, message)
         }
 
         if (message.type == Message.TYPE_RECEIVED && canProcessAutoReply(message, conversation)) {
@@ -53,7 +53,7 @@ class MessageInsertionMetadataHelper(private val context: Context) {
     }
 
     private fun canProcessMedia(message: Message): Boolean {
-        val parser = MediaParserService.createParser(context, message)
+        val parser = MediaParserQueue.createParser(context, message)
         return if (parser == null || (!Settings.internalBrowser && parser is ArticleParser)) {
             false
         } else true
@@ -1,7 +1,6 @@
 package xyz.klinker.messenger.shared.util
 
 import android.content.Context
-import android.database.Cursor
 import android.view.View
 import android.widget.TextView
 import androidx.annotation.DrawableRes
@@ -13,69 +12,25 @@ import xyz.klinker.messenger.shared.data.Settings
 import xyz.klinker.messenger.shared.data.model.Message
 import xyz.klinker.messenger.shared.data.pojo.BubbleTheme
 
+/**
+ * Applies the margins, bubble shapes, and timestamps that join up a run of messages from the same
+ * sender.
+ *
+ * Those depend on the messages on either side of each one, so they are worked out ahead of time
+ * with calculateStyle, when the list is loaded, and binding just applies the result.
+ */
 class MessageListStylingHelper(context: Context?) {
 
     private val eightDp: Int = DensityUtil.toDp(context, 8)
 
-    private var columnType = -1
-    private var columnTimestamp = -1
-    private var columnContact = -1
-
+    private var currentStyle: Int = 0
     private var currentType: Int = 0
-    private var currentTimestamp: Long = 0
-    private var currentFrom: String? = null
-
-    private var lastType: Int = 0
-    private var lastTimestamp: Long = 0
-    private var lastFrom: String? = null
-
-    private var nextType: Int = 0
-    private var nextTimestamp: Long = 0
-    private var nextFrom: String? = null
 
     var hideContact = false
 
-
-    fun calculateAdjacentItems(cursor: Cursor, currentPosition: Int): MessageListStylingHelper {
-        if (columnTimestamp == -1) {
-            columnTimestamp = cursor.getColumnIndex(Message.COLUMN_TIMESTAMP)
-        }
-
-        if (columnType == -1) {
-            columnType = cursor.getColumnIndex(Message.COLUMN_TYPE)
-        }
-
-        if (columnContact == -1) {
-            columnContact = cursor.getColumnIndex(Message.COLUMN_FROM)
-        }
-
-        cursor.moveToPosition(currentPosition)
-        currentType = cursor.getInt(columnType)
-        currentTimestamp = cursor.getLong(columnTimestamp)
-        currentFrom = cursor.getString(columnContact)
-
-        if (currentPosition > 0) {
-            cursor.moveToPosition(currentPosition - 1)
-            lastType = cursor.getInt(columnType)
-            lastTimestamp = cursor.getLong(columnTimestamp)
-            lastFrom = cursor.getString(columnContact)
-        } else {
-            lastType = -1
-            lastTimestamp = -1
-            lastFrom = null
-        }
-
-        if (currentPosition != cursor.count - 1) {
-            cursor.moveToPosition(currentPosition + 1)
-            nextType = cursor.getInt(columnType)
-            nextTimestamp = cursor.getLong(columnTimestamp)
-            nextFrom = cursor.getString(columnContact)
-        } else {
-            nextType = -1
-            nextTimestamp = TimeUtils.now
-            nextFrom = null
-        }
-
+    fun applyStyle(style: Int, type: Int): MessageListStylingHelper {
+        currentStyle = style
+        currentType = type
         return this
     }
 
@@ -84,17 +39,10 @@ class MessageListStylingHelper(context: Context?) {
             return this
         }
 
-        if (!sameType(currentType, lastType) || !sameContact(currentFrom, lastFrom)) {
-            (itemView.layoutParams as RecyclerView.LayoutParams).topMargin = eightDp
-        } else {
-            (itemView.layoutParams as RecyclerView.LayoutParams).topMargin = 0
-        }
-
-        if (!sameType(currentType, nextType) || !sameContact(currentFrom, nextFrom) || TimeUtils.shouldDisplayTimestamp(currentTimestamp, nextTimestamp)) {
-            (itemView.layoutParams as RecyclerView.LayoutParams).bottomMargin = eightDp
-        } else {
-            (itemView.layoutParams as RecyclerView.LayoutParams).bottomMargin = 0
-        }
+        (itemView.layoutParams as RecyclerView.LayoutParams).topMargin =
+                if (currentStyle and STYLE_TOP_MARGIN != 0) eightDp else 0
+        (itemView.layoutParams as RecyclerView.LayoutParams).bottomMargin =
+                if (currentStyle and STYLE_BOTTOM_MARGIN != 0) eightDp else 0
 
         return this
     }
@@ -118,7 +66,7 @@ class MessageListStylingHelper(context: Context?) {
     }
 
     fun applyTimestampHeight(timestamp: TextView, timestampHeight: Int): MessageListStylingHelper {
-        if (Settings.timestampEveryMessage || TimeUtils.shouldDisplayTimestamp(currentTimestamp, nextTimestamp)) {
+        if (Settings.timestampEveryMessage || currentStyle and STYLE_SHOW_TIMESTAMP != 0) {
             timestamp.layoutParams.height = timestampHeight
         } else {
             timestamp.layoutParams.height = 0
@@ -129,45 +77,103 @@ class MessageListStylingHelper(context: Context?) {
 
     @DrawableRes
     private fun fourTypeBackground(set: DrawableHolder): Int {
-        val displayNextTimestamp = TimeUtils.shouldDisplayTimestamp(currentTimestamp, nextTimestamp)
-        val displayLastTimestamp = TimeUtils.shouldDisplayTimestamp(lastTimestamp, currentTimestamp)
-
-        return if (same(currentFrom, lastFrom, currentType, lastType) && same(currentFrom, nextFrom, currentType, nextType) && !displayLastTimestamp && !displayNextTimestamp) {
-            // both corners
-            hideContact = true
-            set.groupBoth
-        } else if ((same(currentFrom, lastFrom, currentType, lastType) && !same(currentFrom, nextFrom, currentType, nextType) && !displayLastTimestamp) ||
-                (same(currentFrom, nextFrom, currentType, nextType) && same(currentFrom, lastFrom, currentType, lastType) && displayNextTimestamp && !displayLastTimestamp)) {
-            // top corner bubble
-            hideContact = false
-            set.groupTop
-        } else if ((same(currentFrom, nextFrom, currentType, nextType) && !same(currentFrom, lastFrom, currentType, lastType) && !displayNextTimestamp) ||
-                (same(currentFrom, nextFrom, currentType, nextType) && same(currentFrom, lastFrom, currentType, lastType) && displayLastTimestamp && !displayNextTimestamp)) {
-            // bottom corner bubble
-            hideContact = true
-            set.groupBottom
-        } else {
-            // normal bubble
-            hideContact = false
-            set.noGrouped
-        }
-    }
-
-    private fun same(contactOne: String?, contactTwo: String?, typeOne: Int, typeTwo: Int) = sameContact(contactOne, contactTwo) && sameType(typeOne, typeTwo)
-    private fun sameContact(one: String?, two: String?) = one == two
-    private fun sameType(one: Int, two: Int): Boolean {
         return when {
-            one == two -> true
-            one == Message.TYPE_SENDING && (two == Message.TYPE_SENT || two == Message.TYPE_DELIVERED || two == Message.TYPE_ERROR) -> true
-            two == Message.TYPE_SENDING && (one == Message.TYPE_SENT || one == Message.TYPE_DELIVERED || one == Message.TYPE_ERROR) -> true
-            else -> false
+            currentStyle and STYLE_GROUP_BOTH != 0 -> {
+                // both corners
+                hideContact = true
+                set.groupBoth
+            }
+            currentStyle and STYLE_GROUP_TOP != 0 -> {
+                // top corner bubble
+                hideContact = false
+                set.groupTop
+            }
+            currentStyle and STYLE_GROUP_BOTTOM != 0 -> {
+                // bottom corner bubble
+                hideContact = true
+                set.groupBottom
+            }
+            else -> {
+                // normal bubble
+                hideContact = false
+                set.noGrouped
+            }
         }
     }
 
-
     private class DrawableHolder(val groupBoth: Int, val groupTop: Int, val groupBottom: Int, val noGrouped: Int)
 
     companion object {
+        const val STYLE_TOP_MARGIN = 1
+        const val STYLE_BOTTOM_MARGIN = 1 shl 1
+        const val STYLE_SHOW_TIMESTAMP = 1 shl 2
+        const val STYLE_GROUP_BOTH = 1 shl 3
+        const val STYLE_GROUP_TOP = 1 shl 4
+        const val STYLE_GROUP_BOTTOM = 1 shl 5
+
+        /**
+         * Works out how the message at the given position joins up with the ones on either side
+         * of it.
+         *
+         * @param types the type of each message in the list.
+         * @param timestamps the timestamp of each message in the list.
+         * @param senders an id for who each message is from, where equal ids are the same sender
+         *                and -1 is no sender.
+         * @return the STYLE_ flags for the message.
+         */
+        fun calculateStyle(types: IntArray, timestamps: LongArray, senders: IntArray, count: Int,
+                           position: Int, now: Long = TimeUtils.now): Int {
+            val currentType = types[position]
+            val currentTimestamp = timestamps[position]
+            val currentFrom = senders[position]
+
+            val lastType = if (position > 0) types[position - 1] else -1
+            val lastTimestamp = if (position > 0) timestamps[position - 1] else -1
+            val lastFrom = if (position > 0) senders[position - 1] else -1
+
+            val nextType = if (position != count - 1) types[position + 1] else -1
+            val nextTimestamp = if (position != count - 1) timestamps[position + 1] else now
+            val nextFrom = if (position != count - 1) senders[position + 1] else -1
+
+            val displayNextTimestamp = TimeUtils.shouldDisplayTimestamp(currentTimestamp, nextTimestamp)
+            val displayLastTimestamp = TimeUtils.shouldDisplayTimestamp(lastTimestamp, currentTimestamp)
+            val sameAsLast = currentFrom == lastFrom && sameType(currentType, lastType)
+            val sameAsNext = currentFrom == nextFrom && sameType(currentType, nextType)
+
+            var style = 0
+            if (!sameAsLast) {
+                style = style or STYLE_TOP_MARGIN
+            }
+
+            if (!sameAsNext || displayNextTimestamp) {
+                style = style or STYLE_BOTTOM_MARGIN
+            }
+
+            if (displayNextTimestamp) {
+                style = style or STYLE_SHOW_TIMESTAMP
+            }
+
+            style = style or when {
+                sameAsLast && sameAsNext && !displayLastTimestamp && !displayNextTimestamp -> STYLE_GROUP_BOTH
+                (sameAsLast && !sameAsNext && !displayLastTimestamp) ||
+                        (sameAsNext && sameAsLast && displayNextTimestamp && !displayLastTimestamp) -> STYLE_GROUP_TOP
+                (sameAsNext && !sameAsLast && !displayNextTimestamp) ||
+                        (sameAsNext && sameAsLast && displayLastTimestamp && !displayNextTimestamp) -> STYLE_GROUP_BOTTOM
+                else -> 0
+            }
+
+            return style
+        }
+
+        private fun sameType(one: Int, two: Int): Boolean {
+            return when {
+                one == two -> true
+                one == Message.TYPE_SENDING && (two == Message.TYPE_SENT || two == Message.TYPE_DELIVERED || two == Message.TYPE_ERROR) -> true
+                two == Message.TYPE_SENDING && (one == Message.TYPE_SENT || one == Message.TYPE_DELIVERED || one == Message.TYPE_ERROR) -> true
+                else -> false
+            }
+        }
+
         private val roundReceived = DrawableHolder(
                 R.drawable.message_round_received_group_both_background,
                 R.drawable.message_round_received_group_top_background,
@@ -20,4 +20,12 @@ class MockableDataSourceWrapper(private val source: DataSource) {
     fun getConversation(context: Context, conversationId: Long): Conversation? {
         return source.getConversation(context, conversationId)
     }
+
+    fun getConversations(context: Context, conversationIds: Collection<Long>): Map<Long, Conversation> {
+        return source.getConversations(context, conversationIds)
+    }
+
+    fun getLatestMessages(context: Context, conversationIds: Collection<Long>, count: Int): Map<Long, List<Message>> {
+        return source.getLatestMessages(context, conversationIds, count)
+    }
 }
@@ -1,65 +1,101 @@
 package xyz.klinker.messenger.shared.util
 
-private class OtpMatcher(val regex: String, val captureGroup: Int, val validationRegex: String? = null)
+/**
+ * One way that a one time password can show up in a message.
+ *
+ * The patterns are compiled once, when the rule is created. A rule is only tried against a
+ * message that contains at least one of its keywords, which every match of the pattern has to
+ * include, so most messages never get to the regex at all.
+ *
+ * @param regex the pattern to search the message for.
+ * @param captureGroup the group in the pattern that holds the code.
+ * @param validationRegex a pattern that the whole code has to match, if the group can't be strict enough.
+ * @param keywords literals (ignoring case) that any message the pattern matches contains.
+ */
+class OtpRule(regex: String, private val captureGroup: Int, validationRegex: String? = null,
+              private val keywords: List<String> = listOf("code")) {
+
+    private val regex = regex.toRegex()
+    private val validationRegex = validationRegex?.toRegex()
+
+    fun find(text: String): String? {
+        if (keywords.none { text.contains(it, ignoreCase = true) }) {
+            return null
+        }
+
+        val matchResult = regex.find(text) ?: return null
+        val groups = matchResult.groupValues
+        if (groups.size >= captureGroup) {
+            val code = groups[captureGroup]
+            if (validationRegex == null || validationRegex.matches(code)) {
+                return code
+            }
+        }
+
+        return null
+    }
+}
 
 object OneTimePasswordParser {
 
-    private val matchers = listOf(
-            OtpMatcher(
+    private const val ALPHANUMERIC_WITH_DIGIT = "[0-9A-Z]*[0-9][0-9A-Z]*"
+
+    val DEFAULT_RULES = listOf(
+            OtpRule(
                     "(?-i)([a-z]-|[\"\'\\(])?([A-Z0-9]{4,8})[\"\'\\)]?(?i)(\\s+is(\\s+your)?)?(\\s+facebook|\\s+messenger){0,2}(\\s+[^\\s]+){0,2}(\\s+(otp|sms|secret|safepass|unique\\s+id|secure|security|authorization|authentication|access|login|verification|confirmation|check|password\\s+reset|one-time|identification|activation|registration|validation)){1,3}\\s+code",
-                    2, "[0-9A-Z]*[0-9][0-9A-Z]*"
-            ), OtpMatcher(
+                    2, ALPHANUMERIC_WITH_DIGIT
+            ), OtpRule(
                     "(?i)((otp|sms|secret|safepass|unique\\s+id|secure|security|authorization|authentication|access|login|verification|confirmation|check|password\\s+reset|one-time|identification|activation|registration|validation)\\s+){1,3}(pass)?code(\\s+(for(\\s+[^\\s]+){1,3}|you\\s+requested))?(\\s+is:?|:)?\\s+(?-i)([a-z]-|[\"\'\\(])?([A-Z0-9]{4,8})[\"\'\\)]?(\\s|\\.|,|$)",
-                    9, "[0-9A-Z]*[0-9][0-9A-Z]*"
-            ), OtpMatcher(
+                    9, ALPHANUMERIC_WITH_DIGIT
+            ), OtpRule(
                     "^(?-i)([a-z]-|[\"\'\\(])?([A-Z0-9]{4,8})[\"\'\\)]?(?i)\\s+is\\s+your\\s+([^\\s]+\\s+)?(code|account\\s+key|otp)(\\.|\\s+for|\\s+to|$)",
-                    2, "[0-9A-Z]*[0-9][0-9A-Z]*"
-            ), OtpMatcher(
+                    2, ALPHANUMERIC_WITH_DIGIT, listOf("code", "account", "otp")
+            ), OtpRule(
                     "^(?i)([^\\s]+\\s+)?your\\s+([^\\s]+\\s+){0,2}code(\\s+is:?|:)\\s+(?-i)([a-z]-|[\"\'\\(])?([A-Z0-9]{4,8})[\"\'\\)]?(\\s|\\.|$)",
-                    5, "[0-9A-Z]*[0-9][0-9A-Z]*"
-            ), OtpMatcher(
+                    5, ALPHANUMERIC_WITH_DIGIT
+            ), OtpRule(
                     "(?i)(enter|use)\\s+(the\\s+|this\\s+)?([^\\s]+\\s+)?code:?\\s+(?-i)([a-z]-|[\"\'\\(])?([A-Z0-9]{4,8})[\"\'\\)]?(?i)\\s+to\\s+(confirm|verify)",
-                    5, "[0-9A-Z]*[0-9][0-9A-Z]*"
-            ), OtpMatcher(
+                    5, ALPHANUMERIC_WITH_DIGIT
+            ), OtpRule(
                     "^(?i)([^\\s]+\\s+)?code(\\s+is:?|:)?\\s+(?-i)([a-z]-|[\"\'\\(])?([A-Z0-9]{4,8})[\"\'\\)]?(\\.|\\s|$)",
-                    4, "[0-9A-Z]*[0-9][0-9A-Z]*"
-            ), OtpMatcher(
+                    4, ALPHANUMERIC_WITH_DIGIT
+            ), OtpRule(
                     "^(?i)use\\s+(?-i)([A-Z0-9]{4,8})(?i)\\s+as(\\s+your)?(\\s+microsoft\\s+account|\\s+instagram)(\\s+[^\\s]+){0,2}\\s+code",
-                    1, "[0-9A-Z]*[0-9][0-9A-Z]*"
-            ), OtpMatcher(
+                    1, ALPHANUMERIC_WITH_DIGIT
+            ), OtpRule(
                     "^(?i)snapchat\\s+code:\\s+(?-i)([A-Z0-9]{4,8})\\.",
-                    1, "[0-9A-Z]*[0-9][0-9A-Z]*"
-            ), OtpMatcher(
+                    1, ALPHANUMERIC_WITH_DIGIT
+            ), OtpRule(
                     "^(?i)enter\\s+this\\s+code\\s+to\\s+reset\\s+your\\s+twitter\\s+password:\\s+(?-i)([A-Z0-9]{4,8})\\.?",
-                    1, "[0-9A-Z]*[0-9][0-9A-Z]*"
-            ), OtpMatcher(
+                    1, ALPHANUMERIC_WITH_DIGIT
+            ), OtpRule(
                     "^(?i)use\\s+(?-i)([0-9]{4,8})(?i)\\s+as\\s+your\\s+password\\s+for",
-                    1
-            ), OtpMatcher(
+                    1, keywords = listOf("password")
+            ), OtpRule(
                     "^(?i)your\\s+whatsapp\\s+code\\s+is\\s+([0-9]{3}-[0-9]{3})",
                     1
-            ), OtpMatcher(
+            ), OtpRule(
                     "(?i)([0-9]{4,8})\\s+is\\s+your\\s+uber\\s+code",
                     1
             )
     )
 
-    fun getOtp(text: String): String? {
-        matchers.forEach {
-            val regex = it.regex.toRegex()
-            val matchResult = regex.find(text)
+    /**
+     * Finds the code in a message, using the first of the rules that matches it.
+     */
+    fun getOtp(text: String, rules: List<OtpRule> = DEFAULT_RULES): String? {
+        // every code that the default rules accept has a digit in it
+        if (rules === DEFAULT_RULES && text.none { it in '0'..'9' }) {
+            return null
+        }
 
-            if (matchResult != null) {
-                val groups = matchResult.groupValues
-                if (groups.size >= it.captureGroup) {
-                    val code = groups[it.captureGroup]
-                    if (it.validationRegex == null || it.validationRegex.toRegex().matches(code)) {
-                        return code
-                    }
-                }
+        rules.forEach {
+            val code = it.find(text)
+            if (code != null) {
+                return code
             }
         }
 
         return null
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.util
+
+import java.util.ArrayDeque
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
+/**
+ * Downloads a paginated list endpoint with a few pages in flight at once.
+ *
+ * The pages are fetched (and decrypted) on a small pool of worker threads, while the calling
+ * thread inserts them, strictly in order. After each page has been inserted, the new offset is
+ * handed to the checkpoint callback, so that an interrupted download can pick back up from there.
+ *
+ * @param pageSize       the number of items requested per page.
+ * @param pagesInFlight  the max number of pages that are fetched ahead of the insert.
+ * @param retryDelay     how long to wait before retrying a page that failed to download.
+ * @param fetchPage      downloads and decrypts the page at the given offset. Runs on a worker thread.
+ *                       Returns null, or throws, if the request failed, so that it can be retried.
+ *                       A short or empty page marks the end of the data.
+ * @param insertPage     writes a page to the database. Runs on the calling thread.
+ * @param onCheckpoint   called with the new offset after every page is inserted.
+ */
+class PagedDownloader<T>(private val pageSize: Int, private val pagesInFlight: Int,
+                         private val retryDelay: Long,
+                         private val fetchPage: (offset: Int) -> List<T>?,
+                         private val insertPage: (page: List<T>) -> Unit,
+                         private val onCheckpoint: (offset: Int) -> Unit) {
+
+    /**
+     * @param offset   the total number of items that have been downloaded, including the start offset.
+     * @param complete true if the download reached the end of the data. False if a page still could
+     *                 not be downloaded after retrying it, so the download should be resumed from the
+     *                 offset later.
+     */
+    class Result(val offset: Int, val complete: Boolean)
+
+    /**
+     * Downloads every page, starting at the given offset. Each page gets retried up to
+     * MAX_FAILED_ATTEMPTS times before the download gives up.
+     */
+    fun download(startOffset: Int): Result {
+        val executor = Executors.newFixedThreadPool(pagesInFlight)
+        val inFlight = ArrayDeque<Future<List<T>?>>()
+
+        var offset = startOffset
+        var nextRequest = startOffset
+        var complete = false
+
+        fun request(requestOffset: Int) = inFlight.add(executor.submit(Callable { fetch(requestOffset) }))
+
+        try {
+            while (inFlight.size < pagesInFlight) {
+                request(nextRequest)
+                nextRequest += pageSize
+            }
+
+            while (true) {
+                var page = await(inFlight.removeFirst())
+
+                var failedAttempts = 0
+                while (page == null && failedAttempts < MAX_FAILED_ATTEMPTS) {
+                    failedAttempts++
+                    sleep()
+                    page = fetch(offset)
+                }
+
+                if (page == null) {
+                    break
+                }
+
+                if (page.isNotEmpty()) {
+                    insertPage(page)
+                    offset += page.size
+                    onCheckpoint(offset)
+                }
+
+                if (page.size < pageSize) {
+                    complete = true
+                    break
+                }
+
+                request(nextRequest)
+                nextRequest += pageSize
+            }
+        } finally {
+            executor.shutdownNow()
+        }
+
+        return Result(offset, complete)
+    }
+
+    private fun fetch(offset: Int) = try {
+        fetchPage(offset)
+    } catch (e: Exception) {
+        null
+    }
+
+    private fun await(future: Future<List<T>?>) = try {
+        future.get()
+    } catch (e: ExecutionException) {
+        null
+    }
+
+    private fun sleep() {
+        try {
+            Thread.sleep(retryDelay)
+        } catch (e: InterruptedException) {
+        }
+    }
+
+    companion object {
+        const val MAX_FAILED_ATTEMPTS = 5
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.util
+
+import java.util.TreeMap
+import java.util.concurrent.Executors
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+
+/**
+ * Uploads a stream of items in pages, without ever holding more than a few pages in memory.
+ *
+ * The calling thread builds each page from the iterator (which is where the items should be read
+ * and encrypted), then hands it off to a small pool that posts it. Once pagesInFlight pages are
+ * waiting on the network, building the next page blocks until one of them finishes.
+ *
+ * Pages that fail are retried on their own, after a delay that doubles with each attempt. The
+ * checkpoint callback receives the last item of the pages, from the start of the stream, that
+ * have all been uploaded. A later upload can resume by reading the items that come after it.
+ *
+ * @param pageSize       the number of items in each page.
+ * @param pagesInFlight  the max number of pages that can be uploading at once.
+ * @param maxAttempts    the number of times to try each page before giving up on it.
+ * @param retryDelay     how long to wait, in ms, before the first retry of a page.
+ * @param uploadPage     posts a page. Runs on a worker thread. Returns true if the call succeeded.
+ * @param onCheckpoint   called with the last item that every earlier item has been uploaded with.
+ */
+class PagedUploader<T>(private val pageSize: Int, private val pagesInFlight: Int,
+                       private val maxAttempts: Int, private val retryDelay: Long,
+                       private val uploadPage: (page: List<T>) -> Boolean,
+                       private val onCheckpoint: (lastUploaded: T) -> Unit) {
+
+    /**
+     * Uploads every remaining item in the iterator.
+     *
+     * @return true if every page was uploaded successfully.
+     */
+    fun upload(items: Iterator<T>): Boolean {
+        val executor = Executors.newFixedThreadPool(pagesInFlight)
+        val permits = Semaphore(pagesInFlight)
+        val completed = TreeMap<Int, T>()
+        var nextCheckpoint = 0
+        var failed = false
+
+        var pageIndex = 0
+        try {
+            while (items.hasNext()) {
+                val page = ArrayList<T>(pageSize)
+                while (page.size < pageSize && items.hasNext()) {
+                    page.add(items.next())
+                }
+
+                permits.acquire()
+
+                val index = pageIndex++
+                executor.execute {
+                    try {
+                        if (tryUpload(page)) {
+                            synchronized(completed) {
+                                completed[index] = page.last()
+
+                                var lastUploaded: T? = null
+                                while (completed.containsKey(nextCheckpoint)) {
+                                    lastUploaded = completed.remove(nextCheckpoint)
+                                    nextCheckpoint++
+                                }
+
+                                if (lastUploaded != null) {
+                                    onCheckpoint(lastUploaded)
+                                }
+                            }
+                        } else {
+                            synchronized(completed) { failed = true }
+                        }
+                    } finally {
+                        permits.release()
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown()
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS)
+        }
+
+        return synchronized(completed) { !failed }
+    }
+
+    private fun tryUpload(page: List<T>): Boolean {
+        var delay = retryDelay
+        for (attempt in 1..maxAttempts) {
+            if (attempt > 1) {
+                try {
+                    Thread.sleep(delay)
+                } catch (e: InterruptedException) {
+                    return false
+                }
+
+                delay *= 2
+            }
+
+            val successful = try {
+                uploadPage(page)
+            } catch (e: Exception) {
+                e.printStackTrace()
+                false
+            }
+
+            if (successful) {
+                return true
+            }
+        }
+
+        return false
+    }
+}
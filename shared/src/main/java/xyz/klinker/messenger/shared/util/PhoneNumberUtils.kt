@@ -48,6 +48,8 @@ object PhoneNumberUtils {
                     ")+"
     )
 
+    private val CONTAINS_LETTERS = ".*[a-zA-Z].*".toRegex()
+
     private val NAME_ADDR_EMAIL_PATTERN = Pattern.compile("\\s*(\"[^\"]*\"|[^<>\"]+)\\s*<([^<>]+)>\\s*")
 
     /**
@@ -62,7 +64,7 @@ object PhoneNumberUtils {
             return ""
         }
 
-        return if (number.matches(".*[a-zA-Z].*".toRegex())) {
+        return if (number.matches(CONTAINS_LETTERS)) {
             number
         } else if (!isEmailAddress(number)) {
             android.telephony.PhoneNumberUtils.stripSeparators(number)
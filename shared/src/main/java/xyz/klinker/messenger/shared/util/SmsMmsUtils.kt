@@ -145,108 +145,26 @@ object SmsMmsUtils {
      * @return the combined string.
      */
     fun createIdMatcher(phoneNumbers: String): IdMatcher {
-        val numbers = phoneNumbers.split(", ".toRegex())
+        // this runs for every message that is sent or received, so it sticks to plain string
+        // replacements rather than compiling new regexes each time.
+        val numbers = phoneNumbers.split(", ")
                 .dropLastWhile { it.isEmpty() }
-                .map { it.replace("-".toRegex(), "").replace(" ".toRegex(), "").replace("/+".toRegex(), "") }
-
-        val fiveMatchers = ArrayList<String>()
-        val sevenMatchers = ArrayList<String>()
-        val sevenMatchersNoFormatting = ArrayList<String>()
-        val eightMatchers = ArrayList<String>()
-        val eightMatchersNoFormatting = ArrayList<String>()
-        val tenMatchers = ArrayList<String>()
-
-        numbers.forEach {
-            when {
-                it.contains("@") -> fiveMatchers.add(it)
-                it.length >= 5 -> fiveMatchers.add(it.substring(it.length - 5))
-                else -> fiveMatchers.add(it)
-            }
-        }
-
-        numbers.forEach {
-            when {
-                it.contains("@") -> sevenMatchers.add(it)
-                it.length >= 7 -> sevenMatchers.add(it.substring(it.length - 7))
-                else -> sevenMatchers.add(it)
-            }
-        }
-
-        numbers.map { PhoneNumberUtils.clearFormatting(it) }
-                .forEach {
-                    when {
-                        it.contains("@") -> sevenMatchersNoFormatting.add(it)
-                        it.length >= 7 -> sevenMatchersNoFormatting.add(it.substring(it.length - 7))
-                        else -> sevenMatchersNoFormatting.add(it)
-                    }
-                }
-
-        numbers.forEach {
-            when {
-                it.contains("@") -> eightMatchers.add(it)
-                it.length >= 8 -> eightMatchers.add(it.substring(it.length - 8))
-                else -> eightMatchers.add(it)
-            }
-        }
-
-        numbers.map { PhoneNumberUtils.clearFormatting(it) }
-                .forEach {
-                    when {
-                        it.contains("@") -> eightMatchersNoFormatting.add(it)
-                        it.length >= 8 -> eightMatchersNoFormatting.add(it.substring(it.length - 8))
-                        else -> eightMatchersNoFormatting.add(it)
-                    }
-                }
-
-        numbers.forEach {
-            when {
-                it.contains("@") -> tenMatchers.add(it)
-                it.length >= 10 -> tenMatchers.add(it.substring(it.length - 10))
-                else -> tenMatchers.add(it)
-            }
-        }
+                .map { it.replace("-", "").replace(" ", "").replace("/", "") }
+        val numbersNoFormatting = numbers.map { PhoneNumberUtils.clearFormatting(it) }
 
-        Collections.sort(fiveMatchers)
-        Collections.sort(sevenMatchers)
-        Collections.sort(sevenMatchersNoFormatting)
-        Collections.sort(eightMatchers)
-        Collections.sort(eightMatchersNoFormatting)
-        Collections.sort(tenMatchers)
-
-        val sevenBuilder = StringBuilder()
-        for (m in sevenMatchers) {
-            sevenBuilder.append(m)
-        }
-
-        val sevenNoFormattingBuilder = StringBuilder()
-        for (m in sevenMatchersNoFormatting) {
-            sevenNoFormattingBuilder.append(m)
-        }
-
-        val eightBuilder = StringBuilder()
-        for (m in eightMatchers) {
-            eightBuilder.append(m)
-        }
-
-        val eightNoFormattingBuilder = StringBuilder()
-        for (m in eightMatchersNoFormatting) {
-            eightNoFormattingBuilder.append(m)
-        }
-
-        val fiveBuilder = StringBuilder()
-        for (m in fiveMatchers) {
-            fiveBuilder.append(m)
-        }
-
-        val tenBuilder = StringBuilder()
-        for (m in tenMatchers) {
-            tenBuilder.append(m)
-        }
-
-        return IdMatcher(fiveBuilder.toString(), sevenBuilder.toString(), sevenNoFormattingBuilder.toString(),
-                eightBuilder.toString(), eightNoFormattingBuilder.toString(), tenBuilder.toString())
+        return IdMatcher(buildMatcher(numbers, 5), buildMatcher(numbers, 7), buildMatcher(numbersNoFormatting, 7),
+                buildMatcher(numbers, 8), buildMatcher(numbersNoFormatting, 8), buildMatcher(numbers, 10))
     }
 
+    /**
+     * Takes the last [length] characters of each number (email addresses and shorter numbers are
+     * used in full) and combines them in sorted order.
+     */
+    private fun buildMatcher(numbers: List<String>, length: Int) = numbers
+            .map { if (!it.contains("@") && it.length >= length) it.substring(it.length - length) else it }
+            .sorted()
+            .joinToString("")
+
     /**
      * Queries a conversation that is currently in the database and returns a cursor with all of the
      * data.
@@ -274,9 +192,13 @@ object SmsMmsUtils {
      *
      * @param messages       the cursor holding the message.
      * @param conversationId the conversation id from our own internal database.
+     * @param contactNames   optional cache of MMS sender numbers to contact names, shared between
+     *                       calls so that the contact lookup only runs once per sender.
      * @return the content values to insert into our database.
      */
-    fun processMessage(messages: Cursor, conversationId: Long, context: Context?): List<ContentValues> {
+    @JvmOverloads
+    fun processMessage(messages: Cursor, conversationId: Long, context: Context?,
+                       contactNames: MutableMap<String, String>? = null): List<ContentValues> {
         if (context == null) {
             return emptyList()
         }
@@ -302,7 +224,8 @@ object SmsMmsUtils {
         } else {
             val uri = Uri.parse("content://mms/" + messages.getLong(0))
             val number = getMmsFrom(uri, context)
-            val from = ContactUtils.findContactNames(number, context)
+            val from = contactNames?.getOrPut(number) { ContactUtils.findContactNames(number, context) }
+                    ?: ContactUtils.findContactNames(number, context)
             val mId = "mid=" + messages.getString(0)
             val type = getMmsMessageType(messages)
 
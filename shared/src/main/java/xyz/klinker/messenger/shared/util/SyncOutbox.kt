@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2020 Luke Klinker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.klinker.messenger.shared.util
+
+import android.content.Context
+import android.util.Log
+import retrofit2.Call
+import xyz.klinker.messenger.api.entity.AddConversationRequest
+import xyz.klinker.messenger.api.entity.AddMessagesRequest
+import xyz.klinker.messenger.api.entity.ConversationBody
+import xyz.klinker.messenger.api.entity.MessageBody
+import xyz.klinker.messenger.api.entity.UpdateConversationRequest
+import xyz.klinker.messenger.api.implementation.Account
+import xyz.klinker.messenger.api.implementation.ApiUtils
+import xyz.klinker.messenger.encryption.EncryptionUtils
+import xyz.klinker.messenger.shared.data.DataSource
+import xyz.klinker.messenger.shared.data.MimeType
+import xyz.klinker.messenger.shared.data.model.Conversation
+import xyz.klinker.messenger.shared.data.model.Message
+import xyz.klinker.messenger.shared.data.model.RetryableRequest
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Changes that need to be pushed to the server are written to the retryable_request table, then
+ * sent together a moment later, rather than each firing off its own request as it happens.
+ *
+ * Only the type of change and the id of the item are stored. When the outbox is flushed, the
+ * request is built from the current state of that item, so a burst of changes to one conversation
+ * (a new message updating the snippet a few times, for example) turns into a single request. Text
+ * messages are sent together in one add messages request.
+ *
+ * A row is only deleted once the server has accepted its request. Anything that is still in the
+ * table when the app is killed, or that could not be sent, gets picked up by the next flush or the
+ * SyncRetryableRequestsWork.
+ */
+object SyncOutbox {
+
+    private const val TAG = "SyncOutbox"
+    private const val FLUSH_DELAY = 1000L
+    private const val MESSAGE_BATCH_SIZE = 100
+
+    private val executor = Executors.newSingleThreadScheduledExecutor()
+    private var pendingFlush: ScheduledFuture<*>? = null
+
+    // separate from the lock for scheduling, which shouldn't have to wait on the network
+    private val flushLock = Any()
+
+    /**
+     * Queues a change to be sent with the next flush.
+     *
+     * @param type   one of the RetryableRequest types.
+     * @param dataId the id of the message or conversation that changed.
+     */
+    fun enqueue(context: Context, type: Int, dataId: Long) {
+        DataSource.replaceRetryableRequest(context, RetryableRequest(type, dataId, TimeUtils.now))
+        scheduleFlush(context)
+    }
+
+    /**
+     * Flushes the outbox after a short delay, unless a flush is already waiting to run.
+     */
+    @Synchronized
+    fun scheduleFlush(context: Context) {
+        if (pendingFlush != null) {
+            return
+        }
+
+        val appContext = context.applicationContext ?: context
+        pendingFlush = executor.schedule({
+            synchronized(this) { pendingFlush = null }
+
+            try {
+                flush(appContext)
+            } catch (e: Exception) {
+                Log.e(TAG, "failed to flush the outbox", e)
+            }
+        }, FLUSH_DELAY, TimeUnit.MILLISECONDS)
+    }
+
+    /**
+     * Sends every request that is currently waiting in the outbox. This blocks while the requests
+     * are sent, and a request is only removed from the outbox once the server has accepted it. Any
+     * that fail are left for the next flush.
+     *
+     * Flushes run one at a time, so that the same request doesn't get sent twice.
+     */
+    fun flush(context: Context) = synchronized(flushLock) {
+        sendPending(context)
+    }
+
+    private fun sendPending(context: Context) {
+        val requests = DataSource.getRetryableRequestsAsList(context)
+        if (requests.isEmpty()) {
+            return
+        }
+
+        val accountId = Account.accountId
+        val encryptor = Account.encryptor
+        if (accountId == null || encryptor == null) {
+            // nothing can be sent without an account
+            DataSource.deleteRetryableRequests(context, requests.map { it.id })
+            return
+        }
+
+        // a change that failed before it was queued in the outbox could have more than one row
+        val rows = LinkedHashMap<Pair<Int, Long>, MutableList<Long>>()
+        for (request in requests) {
+            rows.getOrPut(request.type to request.dataId) { ArrayList() }.add(request.id)
+        }
+
+        // only these rows get deleted. Anything queued from here on out has a new id, so it will
+        // go with the next flush.
+        val sent = ArrayList<Long>()
+        val textMessages = ArrayList<Pair<MessageBody, List<Long>>>()
+
+        for ((key, ids) in rows) {
+            val type = key.first
+            val dataId = key.second
+
+            if (type == RetryableRequest.TYPE_ADD_MESSAGE) {
+                val message = pushMessage(context, DataSource.getMessage(context, dataId), encryptor)
+                if (message != null) {
+                    textMessages.add(message to ids)
+                } else {
+                    sent.addAll(ids)
+                }
+
+                continue
+            }
+
+            val success = when (type) {
+                RetryableRequest.TYPE_ADD_CONVERSATION -> pushConversation(accountId, DataSource.getConversation(context, dataId), encryptor)
+                RetryableRequest.TYPE_UPDATE_CONVERSATION_SNIPPET -> pushSnippet(accountId, DataSource.getConversation(context, dataId), encryptor)
+                RetryableRequest.TYPE_UPDATE_CONVERSATION_TITLE -> pushTitle(accountId, DataSource.getConversation(context, dataId), encryptor)
+                RetryableRequest.TYPE_READ_CONVERSATION -> send(ApiUtils.api.conversation().read(dataId, Account.deviceId, accountId))
+                RetryableRequest.TYPE_ARCHIVE_CONVERSATION -> pushArchive(accountId, DataSource.getConversation(context, dataId))
+                else -> true
+            }
+
+            if (success) {
+                sent.addAll(ids)
+            }
+        }
+
+        for (batch in textMessages.chunked(MESSAGE_BATCH_SIZE)) {
+            val request = AddMessagesRequest(accountId, batch.map { it.first }.toTypedArray())
+            if (send(ApiUtils.api.message().add(request))) {
+                sent.addAll(batch.flatMap { it.second })
+            }
+        }
+
+        DataSource.deleteRetryableRequests(context, sent)
+        Log.v(TAG, "flushed " + rows.size + " requests, " + textMessages.size + " text messages, " +
+                (requests.size - sent.size) + " left to retry")
+    }
+
+    /**
+     * @return the body to send for a text message. Media gets uploaded to firebase first, so it
+     * is handed off to the ApiUtils instead, and this returns null.
+     */
+    private fun pushMessage(context: Context, message: Message?, encryptor: EncryptionUtils): MessageBody? {
+        if (message == null) {
+            return null
+        }
+
+        return if (message.mimeType == MimeType.TEXT_PLAIN || message.type == Message.TYPE_MEDIA || message.mimeType == MimeType.MEDIA_MAP) {
+            val sentDevice = message.sentDeviceId.toString()
+            message.encrypt(encryptor)
+            MessageBody(message.id, message.conversationId, message.type, message.data,
+                    message.timestamp, message.mimeType, message.read, message.seen, message.from,
+                    message.color, sentDevice, message.simPhoneNumber)
+        } else {
+            ApiUtils.addMessage(context, Account.accountId, message.id, message.conversationId, message.type, message.data,
+                    message.timestamp, message.mimeType, message.read, message.seen, message.from,
+                    message.color, message.sentDeviceId.toString(), message.simPhoneNumber, encryptor)
+            null
+        }
+    }
+
+    private fun pushConversation(accountId: String, conversation: Conversation?, encryptor: EncryptionUtils): Boolean {
+        if (conversation == null) {
+            return true
+        }
+
+        val body = ConversationBody(conversation.id, conversation.colors.color, conversation.colors.colorDark,
+                conversation.colors.colorLight, conversation.colors.colorAccent, conversation.ledColor,
+                conversation.pinned, conversation.read, conversation.timestamp, encryptor.encrypt(conversation.title),
+                encryptor.encrypt(conversation.phoneNumbers), encryptor.encrypt(conversation.snippet),
+                encryptor.encrypt(conversation.ringtoneUri), null, encryptor.encrypt(conversation.idMatcher),
+                conversation.mute, conversation.archive, conversation.private, conversation.folderId)
+
+        return send(ApiUtils.api.conversation().add(AddConversationRequest(accountId, body)))
+    }
+
+    private fun pushSnippet(accountId: String, conversation: Conversation?, encryptor: EncryptionUtils): Boolean {
+        if (conversation == null) {
+            return true
+        }
+
+        val request = UpdateConversationRequest(null, null, null, null, null, null, conversation.read,
+                conversation.timestamp, null, encryptor.encrypt(conversation.snippet), null, null, conversation.archive, null)
+        return send(ApiUtils.api.conversation().updateSnippet(conversation.id, accountId, request))
+    }
+
+    private fun pushTitle(accountId: String, conversation: Conversation?, encryptor: EncryptionUtils): Boolean {
+        if (conversation == null) {
+            return true
+        }
+
+        return send(ApiUtils.api.conversation().updateTitle(conversation.id, accountId, encryptor.encrypt(conversation.title)))
+    }
+
+    private fun pushArchive(accountId: String, conversation: Conversation?): Boolean {
+        if (conversation == null) {
+            return true
+        }
+
+        return if (conversation.archive) {
+            send(ApiUtils.api.conversation().archive(conversation.id, accountId))
+        } else {
+            send(ApiUtils.api.conversation().unarchive(conversation.id, accountId))
+        }
+    }
+
+    private fun send(call: Call<*>) = try {
+        ApiUtils.isCallSuccessful(call.execute())
+    } catch (e: Exception) {
+        Log.e(TAG, "failed to send request", e)
+        false
+    }
+}
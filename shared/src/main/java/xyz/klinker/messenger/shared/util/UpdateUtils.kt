@@ -68,6 +68,7 @@ class UpdateUtils(private val context: Activity) {
             ScheduledTokenRefreshService.scheduleNextRun(context)
             SyncRetryableRequestsWork.scheduleNextRun(context)
             RepostQuickComposeNotificationWork.scheduleNextRun(context)
+            MessageSearchIndexWork.scheduleIfNeeded(context)
         }
 
     }
@@ -1,8 +1,10 @@
 package xyz.klinker.messenger.shared.util
 
+import org.json.JSONException
 import org.json.JSONObject
 
 import java.io.BufferedReader
+import java.io.IOException
 import java.io.InputStream
 import java.io.InputStreamReader
 import java.net.HttpURLConnection
@@ -10,26 +12,42 @@ import java.net.URL
 
 class UrlConnectionReader(private val url: String) {
 
-    fun read(): JSONObject? {
-        var `object`: JSONObject? = null
-        var urlConnection: HttpURLConnection? = null
-        try {
-            urlConnection = URL(url).openConnection() as HttpURLConnection
+    fun read(): JSONObject? = try {
+        fetch()
+    } catch (e: Exception) {
+        e.printStackTrace()
+        null
+    }
 
+    /**
+     * Like read, but lets the caller tell a request that failed apart from one that didn't have
+     * anything to return.
+     *
+     * @return the response, or null if the server answered without one.
+     * @throws IOException if the server couldn't be reached, or had an error of its own.
+     */
+    @Throws(IOException::class)
+    fun fetch(): JSONObject? {
+        val urlConnection = URL(url).openConnection() as HttpURLConnection
+        try {
             val responseCode = urlConnection.responseCode
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                val response = readStream(urlConnection.inputStream)
-                `object` = JSONObject(response)
+            // 429 is a rate limit, so it is worth trying again later too
+            if (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR || responseCode == 429) {
+                throw IOException("server error $responseCode for $url")
             }
-        } catch (e: Exception) {
-            e.printStackTrace()
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect()
+
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                return null
             }
-        }
 
-        return `object`
+            return try {
+                JSONObject(readStream(urlConnection.inputStream))
+            } catch (e: JSONException) {
+                null
+            }
+        } finally {
+            urlConnection.disconnect()
+        }
     }
 
     @Throws(Exception::class)
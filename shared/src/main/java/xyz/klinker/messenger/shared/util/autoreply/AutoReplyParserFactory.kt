@@ -2,7 +2,6 @@ package xyz.klinker.messenger.shared.util.autoreply
 
 import android.content.Context
 import xyz.klinker.messenger.shared.data.DataSource
-import xyz.klinker.messenger.shared.data.Settings
 import xyz.klinker.messenger.shared.data.model.AutoReply
 import xyz.klinker.messenger.shared.data.model.Conversation
 import xyz.klinker.messenger.shared.data.model.Message
@@ -14,25 +13,7 @@ import xyz.klinker.messenger.shared.util.autoreply.parsers.VacationReplyParser
 class AutoReplyParserFactory {
 
     fun getInstances(context: Context, conversation: Conversation, message: Message): List<AutoReplyParser> {
-        return buildParsers(context).filter { it.canParse(conversation, message) }
-    }
-
-    private fun buildParsers(context: Context): List<AutoReplyParser> {
-        val parsers = DataSource.getAutoRepliesAsList(context)
-                .filter { it.response!!.isNotBlank() }
-                .mapNotNull { mapToParser(context, it) }
-
-        val driving = parsers.firstOrNull { it is DrivingReplyParser }
-        if (driving != null && Settings.drivingMode) {
-            return listOf(driving)
-        }
-
-        val vacation = parsers.firstOrNull { it is VacationReplyParser }
-        if (vacation != null && Settings.vacationMode) {
-            return listOf(vacation)
-        }
-
-        return parsers
+        return getRules(context).find(conversation, message).mapNotNull { mapToParser(context, it) }
     }
 
     private fun mapToParser(context: Context, reply: AutoReply): AutoReplyParser? {
@@ -44,4 +25,38 @@ class AutoReplyParserFactory {
             else -> null
         }
     }
-}
\ No newline at end of file
+
+    companion object {
+
+        @Volatile
+        private var rules: AutoReplyRules? = null
+        private var generation = 0
+
+        /**
+         * Drops the compiled auto replies, so that they are read from the database again the next
+         * time that a message is checked. This should be called whenever an auto reply changes.
+         */
+        @Synchronized
+        fun invalidate() {
+            rules = null
+            generation++
+        }
+
+        private fun getRules(context: Context): AutoReplyRules {
+            var rules = this.rules
+            if (rules == null) {
+                val loadedGeneration = synchronized(this) { generation }
+                rules = AutoReplyRules(DataSource.getAutoRepliesAsList(context))
+
+                synchronized(this) {
+                    // if an auto reply changed while we were reading them, these are already stale
+                    if (loadedGeneration == generation) {
+                        this.rules = rules
+                    }
+                }
+            }
+
+            return rules
+        }
+    }
+}
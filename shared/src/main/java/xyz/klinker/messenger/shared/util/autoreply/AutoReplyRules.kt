@@ -0,0 +1,83 @@
+package xyz.klinker.messenger.shared.util.autoreply
+
+import xyz.klinker.messenger.shared.data.MimeType
+import xyz.klinker.messenger.shared.data.Settings
+import xyz.klinker.messenger.shared.data.model.AutoReply
+import xyz.klinker.messenger.shared.data.model.Conversation
+import xyz.klinker.messenger.shared.data.model.Message
+import xyz.klinker.messenger.shared.util.KeywordMatcher
+import xyz.klinker.messenger.shared.util.SmsMmsUtils
+import java.util.*
+
+/**
+ * All of the auto replies, set up so that finding the ones for a message doesn't depend on how
+ * many there are. Contact replies are looked up by the id matcher for their number, and keyword
+ * replies are all searched for at once, instead of checking each reply in turn.
+ */
+class AutoReplyRules(replies: List<AutoReply>) {
+
+    private val replies = replies.filter { it.response?.isNotBlank() == true }
+
+    private val driving = this.replies.firstOrNull { it.type == AutoReply.TYPE_DRIVING }
+    private val vacation = this.replies.firstOrNull { it.type == AutoReply.TYPE_VACATION }
+
+    private val contacts = HashMap<String, MutableList<Int>>()
+    private val keywordReplies = mutableListOf<Int>()
+    private val keywords: KeywordMatcher
+
+    init {
+        val keywordPatterns = mutableListOf<String>()
+
+        this.replies.forEachIndexed { index, reply ->
+            val pattern = reply.pattern ?: return@forEachIndexed
+            when (reply.type) {
+                AutoReply.TYPE_CONTACT -> contacts.getOrPut(SmsMmsUtils.createIdMatcher(pattern).default) { mutableListOf() }.add(index)
+                AutoReply.TYPE_KEYWORD -> {
+                    keywordReplies.add(index)
+                    keywordPatterns.add(pattern.toLowerCase())
+                }
+            }
+        }
+
+        keywords = KeywordMatcher(keywordPatterns)
+    }
+
+    /**
+     * @return the replies that should be sent for the message, in the order they are in the database.
+     */
+    fun find(conversation: Conversation, message: Message): List<AutoReply> {
+        if (driving != null && Settings.drivingMode) {
+            return listOf(driving)
+        }
+
+        if (vacation != null && Settings.vacationMode) {
+            return listOf(vacation)
+        }
+
+        val matched = BitSet()
+
+        val phoneNumbers = conversation.phoneNumbers
+        if (contacts.isNotEmpty() && phoneNumbers != null) {
+            contacts[SmsMmsUtils.createIdMatcher(phoneNumbers).default]?.forEach { matched.set(it) }
+        }
+
+        val text = message.data
+        if (keywordReplies.isNotEmpty() && text != null && message.mimeType == MimeType.TEXT_PLAIN) {
+            val found = keywords.findAll(text.toLowerCase())
+            var keyword = found.nextSetBit(0)
+            while (keyword >= 0) {
+                matched.set(keywordReplies[keyword])
+                keyword = found.nextSetBit(keyword + 1)
+            }
+        }
+
+        val result = mutableListOf<AutoReply>()
+        var index = matched.nextSetBit(0)
+        while (index >= 0) {
+            result.add(replies[index])
+            index = matched.nextSetBit(index + 1)
+        }
+
+        return result
+    }
+}
@@ -0,0 +1,159 @@
+package xyz.klinker.messenger.shared.util.media
+
+import xyz.klinker.messenger.shared.util.TimeUtils
+import java.io.File
+import java.net.URI
+import java.net.URISyntaxException
+import java.security.MessageDigest
+
+/**
+ * Keeps the previews that have been built for links on disk, so that a link that is shared in
+ * a few different conversations only has to be fetched once.
+ *
+ * Each preview is a file in the directory, named with a hash of its key. A link that didn't have a
+ * preview is remembered too, for a shorter amount of time. Once there are more than maxEntries
+ * previews, or they take up more than maxBytes, the least recently used ones are deleted.
+ */
+class LinkPreviewCache(private val directory: File, private val maxEntries: Int = MAX_ENTRIES,
+                       private val maxBytes: Long = MAX_BYTES) {
+
+    // the size of each file, by name. Access ordered, so the first entry is always the least
+    // recently used
+    private val entries = LinkedHashMap<String, Long>(16, 0.75f, true)
+    private var totalBytes = 0L
+    private var loaded = false
+
+    /**
+     * @return the cached preview for the key, or null if there isn't one or it has expired.
+     */
+    @Synchronized
+    fun get(key: String, now: Long = TimeUtils.now): Preview? {
+        load()
+
+        // reading the entry, instead of checking for the key, is what moves it to the end of the
+        // access order
+        val name = fileName(key)
+        if (entries[name] == null) {
+            return null
+        }
+
+        val file = File(directory, name)
+        val preview = try {
+            read(file, key)
+        } catch (e: Exception) {
+            null
+        }
+
+        if (preview == null || preview.fetched + (if (preview.body == null) EMPTY_TTL else PREVIEW_TTL) < now) {
+            remove(name)
+            return null
+        }
+
+        file.setLastModified(now)
+        return preview
+    }
+
+    /**
+     * Stores the preview for the key.
+     *
+     * @param body the preview, or null if the link doesn't have one.
+     */
+    @Synchronized
+    fun put(key: String, body: String?, now: Long = TimeUtils.now) {
+        load()
+
+        val file = File(directory, fileName(key))
+        remove(file.name)
+
+        try {
+            file.writeText(key + "\n" + now + "\n" + (body ?: ""))
+        } catch (e: Exception) {
+            e.printStackTrace()
+            return
+        }
+
+        file.setLastModified(now)
+        val size = file.length()
+        entries[file.name] = size
+        totalBytes += size
+
+        val iterator = entries.entries.iterator()
+        while ((entries.size > maxEntries || totalBytes > maxBytes) && iterator.hasNext()) {
+            val eldest = iterator.next()
+            iterator.remove()
+            totalBytes -= eldest.value
+            File(directory, eldest.key).delete()
+        }
+    }
+
+    private fun load() {
+        if (loaded) {
+            return
+        }
+
+        loaded = true
+        directory.mkdirs()
+        directory.listFiles()?.sortedBy { it.lastModified() }?.forEach {
+            val size = it.length()
+            entries[it.name] = size
+            totalBytes += size
+        }
+    }
+
+    private fun read(file: File, key: String): Preview? {
+        val text = file.readText()
+        val keyEnd = text.indexOf('\n')
+        val fetchedEnd = text.indexOf('\n', keyEnd + 1)
+        if (keyEnd == -1 || fetchedEnd == -1 || text.substring(0, keyEnd) != key) {
+            return null
+        }
+
+        val body = text.substring(fetchedEnd + 1)
+        return Preview(text.substring(keyEnd + 1, fetchedEnd).toLong(), if (body.isEmpty()) null else body)
+    }
+
+    private fun remove(name: String) {
+        entries.remove(name)?.let { totalBytes -= it }
+        File(directory, name).delete()
+    }
+
+    private fun fileName(key: String): String {
+        val digest = MessageDigest.getInstance("SHA-1").digest(key.toByteArray())
+        return digest.joinToString("") { String.format("%02x", it) }
+    }
+
+    /**
+     * @param body the preview, or null if the link doesn't have one.
+     */
+    class Preview(val fetched: Long, val body: String?)
+
+    companion object {
+        private const val MAX_ENTRIES = 500
+        private const val MAX_BYTES = 1024L * 1024L
+
+        private const val PREVIEW_TTL = 7 * 24 * 60 * 60 * 1000L
+        private const val EMPTY_TTL = 60 * 60 * 1000L
+
+        /**
+         * Gets the same key for the different ways that a link can be written: with or without the
+         * scheme, www, a trailing slash, a fragment, or utm_ tracking parameters.
+         */
+        fun normalizeUrl(url: String): String {
+            val trimmed = url.trim()
+
+            return try {
+                val uri = URI(if (trimmed.contains("://")) trimmed else "http://$trimmed")
+                val host = uri.host?.toLowerCase()?.removePrefix("www.") ?: return trimmed
+                val port = if (uri.port == -1) "" else ":" + uri.port
+                val path = uri.rawPath?.trimEnd('/') ?: ""
+                val query = uri.rawQuery?.split("&")
+                        ?.filter { it.isNotEmpty() && !it.startsWith("utm_") }
+                        ?.joinToString("&")
+
+                host + port + path + if (query.isNullOrEmpty()) "" else "?$query"
+            } catch (e: URISyntaxException) {
+                trimmed
+            }
+        }
+    }
+}
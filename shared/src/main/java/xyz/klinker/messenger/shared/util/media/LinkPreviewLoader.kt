@@ -0,0 +1,58 @@
+package xyz.klinker.messenger.shared.util.media
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.FutureTask
+
+/**
+ * Gets link previews from the cache, or fetches them. If a link is already being fetched for
+ * another message, this waits for that fetch to finish instead of starting a second one.
+ */
+class LinkPreviewLoader(private val cache: LinkPreviewCache) {
+
+    private val inFlight = ConcurrentHashMap<String, FutureTask<String?>>()
+
+    /**
+     * @param url the link to get the preview for.
+     * @param type the kind of preview, since one link can be parsed in to different ones.
+     * @param fetch builds the preview when it isn't cached. It returns null if there isn't one,
+     *              and throws if it couldn't find out, so that the failure isn't cached.
+     * @return the preview, or null if there isn't one or the fetch failed.
+     */
+    fun load(url: String, type: String, fetch: () -> String?): String? {
+        val key = type + " " + LinkPreviewCache.normalizeUrl(url)
+
+        val cached = cache.get(key)
+        if (cached != null) {
+            return cached.body
+        }
+
+        val task = FutureTask<String?> {
+            // it could have been cached after we checked, but before this fetch was started
+            val preview = cache.get(key)
+            if (preview != null) {
+                preview.body
+            } else {
+                val body = fetch()
+                cache.put(key, body)
+                body
+            }
+        }
+
+        val running = inFlight.putIfAbsent(key, task)
+        if (running == null) {
+            try {
+                task.run()
+            } finally {
+                inFlight.remove(key, task)
+            }
+        }
+
+        return try {
+            (running ?: task).get()
+        } catch (e: ExecutionException) {
+            e.printStackTrace()
+            null
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package xyz.klinker.messenger.shared.util.media
 
 import android.content.Context
+import java.io.IOException
 import java.util.regex.Pattern
 
 import xyz.klinker.messenger.api.implementation.Account
@@ -12,6 +13,12 @@ abstract class MediaParser(protected var context: Context?) {
     protected abstract val patternMatcher: Pattern
     protected abstract val ignoreMatcher: String?
     protected abstract val mimeType: String
+
+    /**
+     * @return the body for the media message, or null if the text doesn't have a preview.
+     * @throws IOException if the preview couldn't be fetched right now.
+     */
+    @Throws(IOException::class)
     protected abstract fun buildBody(matchedText: String?): String?
 
     open fun canParse(message: Message): Boolean {
@@ -24,7 +31,12 @@ abstract class MediaParser(protected var context: Context?) {
         return matchedText != null && (ignoreMatcher == null || ignoreMatcher != null && !Pattern.compile(ignoreMatcher).matcher(text).find())
     }
 
-    fun parse(forMessage: Message): Message? {
+    /**
+     * @param previews if given, the preview is taken from there, or fetched through it, rather
+     *                 than always being built from the network.
+     */
+    @JvmOverloads
+    fun parse(forMessage: Message, previews: LinkPreviewLoader? = null): Message? {
         val message = Message()
         message.conversationId = forMessage.conversationId
         message.timestamp = forMessage.timestamp + 1L
@@ -32,7 +44,15 @@ abstract class MediaParser(protected var context: Context?) {
         message.read = false
         message.seen = false
         message.mimeType = mimeType
-        message.data = buildBody(matchedText)
+        val url = matchedText
+        message.data = if (previews != null && url != null) {
+            previews.load(url, mimeType) { buildBody(url) }
+        } else try {
+            buildBody(url)
+        } catch (e: IOException) {
+            e.printStackTrace()
+            null
+        }
         message.sentDeviceId = if (Account.exists()) Account.deviceId!!.toLong() else -1L
 
         matchedText = null
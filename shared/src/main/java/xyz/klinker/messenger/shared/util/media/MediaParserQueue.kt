@@ -0,0 +1,54 @@
+package xyz.klinker.messenger.shared.util.media
+
+import android.content.Context
+import xyz.klinker.messenger.shared.data.DataSource
+import xyz.klinker.messenger.shared.data.Settings
+import xyz.klinker.messenger.shared.data.model.Message
+import xyz.klinker.messenger.shared.receiver.MessageListUpdatedReceiver
+import xyz.klinker.messenger.shared.service.jobs.MediaParserWork
+import xyz.klinker.messenger.shared.util.media.parsers.ArticleParser
+import java.io.File
+
+/**
+ * Builds the previews for links in new messages. Each message is handed to a MediaParserWork, so
+ * the parsing happens in a WorkManager context, which keeps it going once the app is in the
+ * background and holds on to the messages that are still waiting, instead of starting a
+ * foreground service for each one.
+ *
+ * Previews go through a LinkPreviewCache, so a link that has already been previewed, or that is
+ * being fetched for another message right now, isn't fetched again.
+ */
+object MediaParserQueue {
+
+    @Volatile
+    private var previews: LinkPreviewLoader? = null
+
+    fun enqueue(context: Context, message: Message) {
+        MediaParserWork.schedule(message.id)
+    }
+
+    fun createParser(context: Context, message: Message): MediaParser? {
+        return MediaMessageParserFactory().getInstance(context, message)
+    }
+
+    fun parse(context: Context, messageId: Long) {
+        val message = DataSource.getMessage(context, messageId) ?: return
+
+        val parser = createParser(context, message)
+        if (parser == null || (!Settings.internalBrowser && parser is ArticleParser)) {
+            return
+        }
+
+        val parsedMessage = parser.parse(message, getPreviews(context))
+        if (parsedMessage != null) {
+            DataSource.insertMessage(context, parsedMessage, message.conversationId, true)
+            MessageListUpdatedReceiver.sendBroadcast(context, message.conversationId, parsedMessage.data, parsedMessage.type)
+        }
+    }
+
+    private fun getPreviews(context: Context): LinkPreviewLoader {
+        return previews ?: synchronized(this) {
+            previews ?: LinkPreviewLoader(LinkPreviewCache(File(context.cacheDir, "link_previews"))).also { previews = it }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package xyz.klinker.messenger.shared.util.media.parsers
 
 import android.content.Context
 
+import java.io.IOException
 import java.util.regex.Pattern
 
 import xyz.klinker.android.article.ArticleUtils
@@ -23,12 +24,17 @@ class ArticleParser(context: Context?) : MediaParser(context) {
     public override val mimeType: String
         get() = MimeType.MEDIA_ARTICLE
 
+    @Throws(IOException::class)
     override fun buildBody(matchedText: String?): String? {
         val utils = ArticleUtils(ARTICLE_API_KEY)
+
+        // the article library gives back an article for every page that it could load, even if
+        // the page isn't one, so a missing article means that the request failed
         val article = utils.fetchArticle(context, matchedText)
+                ?: throw IOException("could not fetch $matchedText")
 
         val preview = ArticlePreview.build(article)
-        return if (preview != null && article != null && article.isArticle && article.image != null &&
+        return if (preview != null && article.isArticle && article.image != null &&
                 article.title != null && !article.title.isEmpty() &&
                 article.description != null && !article.description.isEmpty() &&
                 preview.title != null && !preview.title!!.isEmpty() &&
@@ -5,6 +5,7 @@ import android.net.Uri
 
 import org.json.JSONObject
 
+import java.io.IOException
 import java.util.regex.Pattern
 
 import xyz.klinker.messenger.shared.BuildConfig
@@ -24,6 +25,7 @@ class YoutubeParser(context: Context?) : MediaParser(context) {
     public override val mimeType: String
         get() = MimeType.MEDIA_YOUTUBE_V2
 
+    @Throws(IOException::class)
     override fun buildBody(matchedText: String?): String? {
         val uri = Uri.parse(matchedText)
 
@@ -44,8 +46,9 @@ class YoutubeParser(context: Context?) : MediaParser(context) {
         return preview?.toString()
     }
 
+    @Throws(IOException::class)
     private fun queryApi(videoId: String): JSONObject? {
-        return UrlConnectionReader(buildUrlForVideo(videoId)).read()
+        return UrlConnectionReader(buildUrlForVideo(videoId)).fetch()
     }
 
     private fun buildUrlForVideo(videoId: String): String {
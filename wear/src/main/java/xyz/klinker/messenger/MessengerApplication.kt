@@ -24,7 +24,7 @@ import xyz.klinker.messenger.api.implementation.AccountInvalidator
 import xyz.klinker.messenger.api.implementation.firebase.FirebaseApplication
 import xyz.klinker.messenger.api.implementation.firebase.FirebaseMessageHandler
 import xyz.klinker.messenger.shared.data.DataSource
-import xyz.klinker.messenger.shared.service.FirebaseHandlerService
+import xyz.klinker.messenger.shared.service.FirebaseEventQueue
 import xyz.klinker.messenger.shared.service.FirebaseResetService
 import xyz.klinker.messenger.shared.util.*
 
@@ -49,7 +49,7 @@ class MessengerApplication : FirebaseApplication(), AccountInvalidator {
     override fun getFirebaseMessageHandler(): FirebaseMessageHandler {
         return object : FirebaseMessageHandler {
             override fun handleMessage(application: Application, operation: String, data: String) {
-                Thread { FirebaseHandlerService.process(application, operation, data) }.start()
+                FirebaseEventQueue.enqueue(application, operation, data)
             }
 
             override fun handleDelete(application: Application) {
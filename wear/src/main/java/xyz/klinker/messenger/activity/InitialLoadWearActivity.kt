@@ -116,8 +116,10 @@ class InitialLoadWearActivity : Activity(), ProgressUpdateListener {
                         }
                     }
 
-                    registerReceiver(downloadReceiver,
-                            IntentFilter(ApiDownloadService.ACTION_DOWNLOAD_FINISHED))
+                    // if the download didn't finish, it will resume in the background
+                    val filter = IntentFilter(ApiDownloadService.ACTION_DOWNLOAD_FINISHED)
+                    filter.addAction(ApiDownloadService.ACTION_DOWNLOAD_INCOMPLETE)
+                    registerReceiver(downloadReceiver, filter)
                 }
                 xyz.klinker.messenger.api.implementation.ActivateActivity.RESULT_FAILED -> finish()
             }
@@ -160,8 +162,7 @@ class InitialLoadWearActivity : Activity(), ProgressUpdateListener {
 
             handler!!.post { progress.isIndeterminate = true }
 
-            val contacts = ContactUtils.queryContacts(context, source)
-            source.insertContacts(context, contacts, null)
+            source.insertContacts(context) { insert -> ContactUtils.queryContacts(context, source, insert) }
 
             handler!!.postDelayed({ close() }, 5000)
 
@@ -19,6 +19,7 @@ import xyz.klinker.messenger.shared.data.MimeType
 import xyz.klinker.messenger.shared.data.Settings
 import xyz.klinker.messenger.shared.data.model.Conversation
 import xyz.klinker.messenger.shared.data.model.Message
+import xyz.klinker.messenger.shared.receiver.ChangeFeed
 import xyz.klinker.messenger.shared.receiver.MessageListUpdatedReceiver
 import xyz.klinker.messenger.shared.shared_interfaces.IMessageListFragment
 import xyz.klinker.messenger.shared.util.*
@@ -53,8 +54,7 @@ class MessageListActivity : AppCompatActivity(), IMessageListFragment {
         dismissNotification()
 
         updatedReceiver = MessageListUpdatedReceiver(this)
-        registerReceiver(updatedReceiver,
-                MessageListUpdatedReceiver.intentFilter)
+        ChangeFeed.register(updatedReceiver!!)
 
         if (conversation == null) {
             finish()
@@ -80,9 +80,8 @@ class MessageListActivity : AppCompatActivity(), IMessageListFragment {
     public override fun onDestroy() {
         super.onDestroy()
 
-        try {
-            unregisterReceiver(updatedReceiver)
-        } catch (e: Exception) {
+        if (updatedReceiver != null) {
+            ChangeFeed.unregister(updatedReceiver!!)
         }
 
         CursorUtil.closeSilent(adapter.messages)
@@ -11,6 +11,7 @@ import xyz.klinker.messenger.adapter.WearableConversationListAdapter
 import xyz.klinker.messenger.api.implementation.Account
 import xyz.klinker.messenger.shared.MessengerActivityExtras
 import xyz.klinker.messenger.shared.data.DataSource
+import xyz.klinker.messenger.shared.receiver.ChangeFeed
 import xyz.klinker.messenger.shared.receiver.ConversationListUpdatedReceiver
 import xyz.klinker.messenger.shared.shared_interfaces.IConversationListFragment
 import xyz.klinker.messenger.shared.util.ColorUtils
@@ -52,14 +53,14 @@ class MessengerActivity : AppCompatActivity(), IConversationListFragment {
         displayConversation()
 
         updatedReceiver = ConversationListUpdatedReceiver(this)
-        registerReceiver(updatedReceiver, ConversationListUpdatedReceiver.intentFilter)
+        ChangeFeed.register(updatedReceiver!!)
     }
 
     override fun onDestroy() {
         super.onDestroy()
 
         if (updatedReceiver != null) {
-            unregisterReceiver(updatedReceiver)
+            ChangeFeed.unregister(updatedReceiver!!)
         }
     }
 